@@ -0,0 +1,127 @@
+/*
+ *  The MIT License
+ *
+ *  Copyright 2010 Prasanna Velagapudi <psigen@gmail.com>.
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+
+package robotutils.data;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * A table-driven implementation of the CRC-32C (Castagnoli) checksum, which
+ * is used to detect corrupted or partially written records.  The checksum is
+ * computed eight bytes at a time using the "slicing-by-8" algorithm, and
+ * reads directly from a buffer without changing its position.
+ *
+ * @see FileBuffer
+ * @author Prasanna Velagapudi <psigen@gmail.com>
+ */
+final class CRC32C {
+
+    /**
+     * The reversed Castagnoli polynomial.
+     */
+    static final int POLYNOMIAL = 0x82F63B78;
+
+    /**
+     * Eight consecutive lookup tables of 256 entries each.
+     */
+    private static final int[] TABLE = new int[8 * 256];
+
+    static {
+        for (int n = 0; n < 256; n++) {
+            int c = n;
+            for (int k = 0; k < 8; k++) {
+                c = ((c & 1) != 0) ? (c >>> 1) ^ POLYNOMIAL : (c >>> 1);
+            }
+            TABLE[n] = c;
+        }
+
+        for (int k = 1; k < 8; k++) {
+            for (int n = 0; n < 256; n++) {
+                int c = TABLE[(k - 1) * 256 + n];
+                TABLE[k * 256 + n] = (c >>> 8) ^ TABLE[c & 0xff];
+            }
+        }
+    }
+
+    private CRC32C() {
+    }
+
+    /**
+     * Computes the checksum of a region of a buffer.
+     *
+     * @param buf the buffer containing the data.
+     * @param offset the absolute position of the start of the region.
+     * @param length the length of the region (in bytes).
+     * @return the CRC-32C of the region.
+     */
+    static int compute(ByteBuffer buf, int offset, int length) {
+        return update(0, buf, offset, length);
+    }
+
+    /**
+     * Continues a checksum over a region of a buffer.
+     *
+     * @param crc the checksum of the preceding data.
+     * @param buf the buffer containing the data.
+     * @param offset the absolute position of the start of the region.
+     * @param length the length of the region (in bytes).
+     * @return the CRC-32C of the preceding data followed by the region.
+     */
+    static int update(int crc, ByteBuffer buf, int offset, int length) {
+        int c = ~crc;
+        int i = offset;
+        int end = offset + length;
+
+        // Process eight bytes at a time, reading them in little-endian order
+        boolean isBigEndian = (buf.order() == ByteOrder.BIG_ENDIAN);
+        while (end - i >= 8) {
+            int lo = buf.getInt(i);
+            int hi = buf.getInt(i + 4);
+            if (isBigEndian) {
+                lo = Integer.reverseBytes(lo);
+                hi = Integer.reverseBytes(hi);
+            }
+
+            c ^= lo;
+            c = TABLE[7 * 256 + (c & 0xff)]
+                    ^ TABLE[6 * 256 + ((c >>> 8) & 0xff)]
+                    ^ TABLE[5 * 256 + ((c >>> 16) & 0xff)]
+                    ^ TABLE[4 * 256 + (c >>> 24)]
+                    ^ TABLE[3 * 256 + (hi & 0xff)]
+                    ^ TABLE[2 * 256 + ((hi >>> 8) & 0xff)]
+                    ^ TABLE[256 + ((hi >>> 16) & 0xff)]
+                    ^ TABLE[hi >>> 24];
+            i += 8;
+        }
+
+        // Process any remaining bytes individually
+        while (i < end) {
+            c = (c >>> 8) ^ TABLE[(c ^ buf.get(i)) & 0xff];
+            i++;
+        }
+
+        return ~c;
+    }
+}
@@ -0,0 +1,72 @@
+/*
+ *  The MIT License
+ *
+ *  Copyright 2010 Prasanna Velagapudi <psigen@gmail.com>.
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+
+package robotutils.data;
+
+/**
+ * A bounded, thread-safe mapping from keys to values that may discard values
+ * at any time.  Caches are used by FileBuffer and similar classes to avoid
+ * reloading recently used objects from slower storage.
+ *
+ * @see ClockCache
+ * @see WeightedCache
+ * @author Prasanna Velagapudi <psigen@gmail.com>
+ */
+public interface Cache<K, V> {
+
+    /**
+     * Returns the value cached for the specified key.
+     *
+     * @param key the key that is being looked up.
+     * @return the cached value, or null if the key is not in the cache.
+     */
+    public V get(Object key);
+
+    /**
+     * Inserts a value into the cache, possibly evicting other entries.
+     *
+     * @param key the key used to look up the value.
+     * @param value the value that is cached.
+     */
+    public void put(K key, V value);
+
+    /**
+     * Removes the value cached for the specified key.
+     *
+     * @param key the key that is being removed.
+     */
+    public void remove(Object key);
+
+    /**
+     * Removes all values from the cache.
+     */
+    public void clear();
+
+    /**
+     * Returns the number of values in the cache.
+     *
+     * @return the number of values in the cache.
+     */
+    public int size();
+}
@@ -0,0 +1,156 @@
+/*
+ *  The MIT License
+ *
+ *  Copyright 2010 Prasanna Velagapudi <psigen@gmail.com>.
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+
+package robotutils.data;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Simple implementation of a thread-safe cache that approximates a Least
+ * Recently Used (LRU) policy using the CLOCK (second chance) algorithm.
+ * Unlike LRUCache, lookups never modify the structure of the cache, so they
+ * can proceed concurrently without locking.
+ *
+ * Each entry carries a reference bit that is set when it is accessed.  When
+ * the cache is over capacity, entries are examined in insertion order, and
+ * the first entry whose reference bit is clear is evicted, while entries
+ * with the reference bit set are cleared and given a second chance.
+ *
+ * @see LRUCache
+ * @see WeightedCache
+ * @author Prasanna Velagapudi <psigen@gmail.com>
+ */
+public class ClockCache<K, V> implements Cache<K, V> {
+
+    /**
+     * A cached value along with its reference bit.
+     */
+    static final class Node<K, V> {
+        final K key;
+        final V value;
+        volatile boolean referenced = false;
+
+        Node(K key, V value) {
+            this.key = key;
+            this.value = value;
+        }
+    }
+
+    private final ConcurrentHashMap<K, Node<K, V>> _map;
+    private final Queue<Node<K, V>> _clock = new ConcurrentLinkedQueue<Node<K, V>>();
+    private final AtomicInteger _clockSize = new AtomicInteger();
+    private final int _cacheSize;
+
+    public ClockCache(int cacheSize) {
+        _map = new ConcurrentHashMap<K, Node<K, V>>(cacheSize + 1);
+        _cacheSize = cacheSize;
+    }
+
+    /**
+     * Returns the value cached for the specified key.
+     *
+     * @param key the key that is being looked up.
+     * @return the cached value, or null if the key is not in the cache.
+     */
+    public V get(Object key) {
+        Node<K, V> node = _map.get(key);
+        if (node == null) return null;
+
+        node.referenced = true;
+        return node.value;
+    }
+
+    /**
+     * Inserts a value into the cache, evicting other entries if the cache
+     * is over capacity.
+     *
+     * @param key the key used to look up the value.
+     * @param value the value that is cached.
+     */
+    public void put(K key, V value) {
+        Node<K, V> node = new Node<K, V>(key, value);
+        _map.put(key, node);
+        _clock.add(node);
+        _clockSize.incrementAndGet();
+
+        if (_map.size() > _cacheSize || _clockSize.get() > 2 * _cacheSize)
+            evict();
+    }
+
+    /**
+     * Removes the value cached for the specified key.
+     *
+     * @param key the key that is being removed.
+     */
+    public void remove(Object key) {
+        _map.remove(key);
+    }
+
+    /**
+     * Removes all values from the cache.
+     */
+    public void clear() {
+        _map.clear();
+    }
+
+    /**
+     * Returns the number of values in the cache.
+     *
+     * @return the number of values in the cache.
+     */
+    public int size() {
+        return _map.size();
+    }
+
+    /**
+     * Sweeps the clock until the cache is within its capacity.  Nodes that
+     * were replaced or removed from the map are simply discarded, which also
+     * keeps the clock from growing without bound.
+     */
+    private void evict() {
+        while (_map.size() > _cacheSize || _clockSize.get() > 2 * _cacheSize) {
+            Node<K, V> node = _clock.poll();
+            if (node == null) return;
+            _clockSize.decrementAndGet();
+
+            // Discard nodes that are no longer in the cache
+            if (_map.get(node.key) != node) continue;
+
+            // Give referenced nodes a second chance, and evict the rest
+            if (_map.size() <= _cacheSize) {
+                _clock.add(node);
+                _clockSize.incrementAndGet();
+            } else if (node.referenced) {
+                node.referenced = false;
+                _clock.add(node);
+                _clockSize.incrementAndGet();
+            } else {
+                _map.remove(node.key, node);
+            }
+        }
+    }
+}
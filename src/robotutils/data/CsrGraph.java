@@ -0,0 +1,381 @@
+/*
+ *  The MIT License
+ * 
+ *  Copyright 2011 Prasanna Velagapudi <psigen@gmail.com>.
+ * 
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ * 
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ * 
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+
+package robotutils.data;
+
+import java.util.AbstractSet;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import org.jgrapht.EdgeFactory;
+import org.jgrapht.UndirectedGraph;
+import org.jgrapht.graph.AbstractGraph;
+
+/**
+ * An immutable, undirected weighted graph stored in compressed sparse row
+ * (CSR) form.  Vertices are integer IDs in the range [0, idCount()), and the
+ * neighbors of vertex <i>v</i> are stored in ascending order at positions
+ * [offsets[v], offsets[v+1]) of the target and weight arrays.  Each edge is
+ * stored once in the row of each of its endpoints.
+ *
+ * Edges are identified by the position of the arc stored in the row of their
+ * lower-numbered endpoint, so no edge objects are ever allocated.  The raw
+ * arrays can be accessed directly by planners that do not need the jgrapht
+ * Graph interface.
+ *
+ * @see GridMapUtils#toCsrGraph(robotutils.data.GridMap)
+ */
+public class CsrGraph extends AbstractGraph<Integer, Integer>
+        implements UndirectedGraph<Integer, Integer> {
+
+    final int[] _offsets;
+    final int[] _targets;
+    final double[] _weights;
+    final boolean[] _present;
+    final int _vertexCount;
+
+    /**
+     * Constructs a graph from existing CSR arrays, which are used directly
+     * without copying.  Each row must be sorted in ascending order, and every
+     * arc (u, v) must be matched by an arc (v, u) with the same weight.
+     *
+     * @param offsets the start of each row in the target array, with one extra trailing entry.
+     * @param targets the neighbor IDs of each vertex.
+     * @param weights the weight of each arc.
+     * @param present flags indicating which IDs are vertices of the graph.
+     */
+    public CsrGraph(int[] offsets, int[] targets, double[] weights, boolean[] present) {
+        if (offsets.length != present.length + 1)
+            throw new IllegalArgumentException("Offsets must have one entry per ID plus one.");
+        if (targets.length != weights.length || targets.length != offsets[present.length])
+            throw new IllegalArgumentException("Arc arrays do not match offsets.");
+
+        _offsets = offsets;
+        _targets = targets;
+        _weights = weights;
+        _present = present;
+
+        int count = 0;
+        for (boolean p : present) {
+            if (p) count++;
+        }
+        _vertexCount = count;
+    }
+
+    /**
+     * Returns the number of possible vertex IDs, including those that are
+     * not present in the graph.
+     * @return the size of the vertex ID space.
+     */
+    public int idCount() {
+        return _present.length;
+    }
+
+    /**
+     * Returns the row offsets of the CSR representation.  This is the
+     * internal array, and must not be modified.
+     * @return an array of length idCount() + 1 of offsets into the arc arrays.
+     */
+    public int[] offsets() {
+        return _offsets;
+    }
+
+    /**
+     * Returns the arc targets of the CSR representation.  This is the
+     * internal array, and must not be modified.
+     * @return an array of the neighbor IDs of every vertex.
+     */
+    public int[] targets() {
+        return _targets;
+    }
+
+    /**
+     * Returns the arc weights of the CSR representation.  This is the
+     * internal array, and must not be modified.
+     * @return an array of the weights of every arc.
+     */
+    public double[] weights() {
+        return _weights;
+    }
+
+    /**
+     * Finds the arc from one vertex to another by binary search over the row
+     * of the source vertex.
+     * @return the position of the arc, or -1 if there is no such arc.
+     */
+    int arc(int u, int v) {
+        int lo = _offsets[u];
+        int hi = _offsets[u + 1] - 1;
+
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            if (_targets[mid] < v) {
+                lo = mid + 1;
+            } else if (_targets[mid] > v) {
+                hi = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Finds the vertex whose row contains the given arc.
+     */
+    int source(int arc) {
+        int lo = 0;
+        int hi = _present.length - 1;
+
+        // Find the last row that starts at or before the arc
+        while (lo < hi) {
+            int mid = (lo + hi + 1) >>> 1;
+            if (_offsets[mid] <= arc) {
+                lo = mid;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        return lo;
+    }
+
+    /**
+     * Returns the edge ID of the arc at the given position in the row of u.
+     */
+    int edge(int u, int arc) {
+        int v = _targets[arc];
+        return (u < v) ? arc : arc(v, u);
+    }
+
+    private boolean isVertex(Object v) {
+        if (!(v instanceof Integer)) return false;
+        int id = (Integer)v;
+        return id >= 0 && id < _present.length && _present[id];
+    }
+
+    public Set<Integer> getAllEdges(Integer u, Integer v) {
+        Integer e = getEdge(u, v);
+        if (e != null) {
+            return Collections.singleton(e);
+        } else {
+            return Collections.emptySet();
+        }
+    }
+
+    public Integer getEdge(Integer u, Integer v) {
+        if (!isVertex(u) || !isVertex(v)) return null;
+
+        int arc = arc(Math.min(u, v), Math.max(u, v));
+        return (arc >= 0) ? arc : null;
+    }
+
+    public boolean containsEdge(Integer e) {
+        if (e == null || e < 0 || e >= _targets.length) return false;
+        return source(e) < _targets[e];
+    }
+
+    public boolean containsVertex(Integer v) {
+        return isVertex(v);
+    }
+
+    public int degreeOf(Integer v) {
+        assertVertexExist(v);
+        return _offsets[v + 1] - _offsets[v];
+    }
+
+    public Set<Integer> edgesOf(final Integer v) {
+        assertVertexExist(v);
+        final int u = v;
+
+        return new AbstractSet<Integer>() {
+
+            @Override
+            public Iterator<Integer> iterator() {
+                return new Iterator<Integer>() {
+                    int arc = _offsets[u];
+
+                    public boolean hasNext() {
+                        return arc < _offsets[u + 1];
+                    }
+
+                    public Integer next() {
+                        if (!hasNext()) throw new NoSuchElementException();
+                        return edge(u, arc++);
+                    }
+
+                    public void remove() {
+                        throw new UnsupportedOperationException("Not supported.");
+                    }
+                };
+            }
+
+            @Override
+            public boolean contains(Object o) {
+                if (!(o instanceof Integer) || !containsEdge((Integer)o)) return false;
+                int e = (Integer)o;
+                return source(e) == u || _targets[e] == u;
+            }
+
+            @Override
+            public int size() {
+                return _offsets[u + 1] - _offsets[u];
+            }
+        };
+    }
+
+    public Set<Integer> edgeSet() {
+        return new AbstractSet<Integer>() {
+
+            @Override
+            public Iterator<Integer> iterator() {
+                return new Iterator<Integer>() {
+                    int u = 0;
+                    int arc = -1;
+                    int next = advance();
+
+                    // Finds the next arc that goes from a lower to a higher ID
+                    int advance() {
+                        for (arc++; arc < _targets.length; arc++) {
+                            while (arc >= _offsets[u + 1]) u++;
+                            if (u < _targets[arc]) return arc;
+                        }
+                        return -1;
+                    }
+
+                    public boolean hasNext() {
+                        return next >= 0;
+                    }
+
+                    public Integer next() {
+                        if (!hasNext()) throw new NoSuchElementException();
+                        int e = next;
+                        next = advance();
+                        return e;
+                    }
+
+                    public void remove() {
+                        throw new UnsupportedOperationException("Not supported.");
+                    }
+                };
+            }
+
+            @Override
+            public boolean contains(Object o) {
+                return (o instanceof Integer) && containsEdge((Integer)o);
+            }
+
+            @Override
+            public int size() {
+                return _targets.length / 2;
+            }
+        };
+    }
+
+    public Set<Integer> vertexSet() {
+        return new AbstractSet<Integer>() {
+
+            @Override
+            public Iterator<Integer> iterator() {
+                return new Iterator<Integer>() {
+                    int next = advance(-1);
+
+                    int advance(int v) {
+                        for (v++; v < _present.length; v++) {
+                            if (_present[v]) return v;
+                        }
+                        return -1;
+                    }
+
+                    public boolean hasNext() {
+                        return next >= 0;
+                    }
+
+                    public Integer next() {
+                        if (!hasNext()) throw new NoSuchElementException();
+                        int v = next;
+                        next = advance(next);
+                        return v;
+                    }
+
+                    public void remove() {
+                        throw new UnsupportedOperationException("Not supported.");
+                    }
+                };
+            }
+
+            @Override
+            public boolean contains(Object o) {
+                return isVertex(o);
+            }
+
+            @Override
+            public int size() {
+                return _vertexCount;
+            }
+        };
+    }
+
+    public Integer getEdgeSource(Integer e) {
+        return source(e);
+    }
+
+    public Integer getEdgeTarget(Integer e) {
+        return _targets[e];
+    }
+
+    public double getEdgeWeight(Integer e) {
+        return _weights[e];
+    }
+
+    /* The following functions are unsupported because this graph is immutable. */
+
+    public EdgeFactory<Integer, Integer> getEdgeFactory() {
+        throw new UnsupportedOperationException("Not supported.");
+    }
+
+    public Integer addEdge(Integer v, Integer v1) {
+        throw new UnsupportedOperationException("Not supported.");
+    }
+
+    public boolean addEdge(Integer v, Integer v1, Integer e) {
+        throw new UnsupportedOperationException("Not supported.");
+    }
+
+    public boolean addVertex(Integer v) {
+        throw new UnsupportedOperationException("Not supported.");
+    }
+
+    public Integer removeEdge(Integer v, Integer v1) {
+        throw new UnsupportedOperationException("Not supported.");
+    }
+
+    public boolean removeEdge(Integer e) {
+        throw new UnsupportedOperationException("Not supported.");
+    }
+
+    public boolean removeVertex(Integer v) {
+        throw new UnsupportedOperationException("Not supported.");
+    }
+}
@@ -0,0 +1,279 @@
+/*
+ *  The MIT License
+ * 
+ *  Copyright 2011 Prasanna Velagapudi <psigen@gmail.com>.
+ * 
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ * 
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ * 
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+
+package robotutils.data;
+
+import robotutils.util.ParallelUtils;
+import robotutils.util.ParallelUtils.RangeTask;
+
+/**
+ * Computes exact Euclidean distance transforms over N-D grid maps, and uses
+ * them to build clearance-based cost maps for the grid planners.
+ *
+ * The transform is the separable lower-envelope-of-parabolas algorithm of
+ * Felzenszwalb and Huttenlocher, which runs in time linear in the number of
+ * cells.  Each dimension is processed in turn, with the independent lines
+ * along that dimension split across the shared fork/join pool.
+ *
+ * Source: Felzenszwalb, P. and Huttenlocher, D. 2004. Distance Transforms of
+ * Sampled Functions. Cornell Computing and Information Science TR2004-1963.
+ *
+ * @see DynamicDistanceMap
+ */
+public class DistanceTransform {
+
+    /**
+     * The squared distance assigned to cells when the map has no obstacles.
+     */
+    public static final int INFINITY = Integer.MAX_VALUE;
+
+    /**
+     * The default test for obstacles, which matches the grid planners in
+     * treating every negative cell as untraversable.
+     */
+    public static final GridMapOps.BytePredicate IS_OBSTACLE = new GridMapOps.BytePredicate() {
+        public boolean test(byte val) {
+            return val < 0;
+        }
+    };
+
+    /**
+     * Computes the squared Euclidean distance (in cells) from each cell of the
+     * map to the nearest cell with a negative value.
+     * 
+     * @param map the map containing obstacles.
+     * @return an array, in the same linear order as a StaticMap, of squared distances.
+     */
+    public static int[] squaredDistances(GridMap map) {
+        return squaredDistances(map, IS_OBSTACLE);
+    }
+
+    /**
+     * Computes the squared Euclidean distance (in cells) from each cell of the
+     * map to the nearest cell that satisfies the given obstacle predicate.
+     * Cells are returned in the same linear order as a StaticMap, where the
+     * first dimension varies fastest.  If there are no obstacles in the map,
+     * every cell has the value INFINITY.
+     * 
+     * @param map the map containing obstacles.
+     * @param isObstacle the test used to determine which cells are obstacles.
+     * @return an array of squared distances.
+     */
+    public static int[] squaredDistances(GridMap map, GridMapOps.BytePredicate isObstacle) {
+        final StaticMap src = (map instanceof StaticMap) ? (StaticMap)map : GridMapOps.copy(map);
+        final int[] dist = new int[src.length()];
+        final byte[] data = src._map;
+        final GridMapOps.BytePredicate pred = isObstacle;
+
+        // Start with zero distance at obstacles and infinity elsewhere
+        ParallelUtils.forRange(dist.length, new RangeTask() {
+            public void run(int chunk, int start, int end) {
+                for (int i = start; i < end; i++) {
+                    dist[i] = pred.test(data[i]) ? 0 : INFINITY;
+                }
+            }
+        });
+
+        // Apply the 1-D transform along each dimension in turn
+        for (int d = 0; d < src.dims(); d++) {
+            transformLines(dist, src._sizes[d], src._cumSizes[d]);
+        }
+
+        return dist;
+    }
+
+    /**
+     * Applies the 1-D squared distance transform in place along every line
+     * in the array that is parallel to a dimension of the given size and
+     * stride.
+     */
+    private static void transformLines(final int[] dist, final int n, final int stride) {
+        final int lines = dist.length / n;
+
+        ParallelUtils.forRange(lines, Math.max(1, ParallelUtils.DEFAULT_GRAIN / n), new RangeTask() {
+            public void run(int chunk, int start, int end) {
+                int[] f = new int[n];
+                int[] d = new int[n];
+                int[] v = new int[n];
+                double[] z = new double[n + 1];
+
+                for (int l = start; l < end; l++) {
+                    int base = (l % stride) + (l / stride) * stride * n;
+
+                    for (int j = 0, k = base; j < n; j++, k += stride) {
+                        f[j] = dist[k];
+                    }
+
+                    transform(f, d, v, z, n);
+
+                    for (int j = 0, k = base; j < n; j++, k += stride) {
+                        dist[k] = d[j];
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Computes the 1-D squared distance transform of a sampled function,
+     * i.e. d(q) = min_p (q - p)^2 + f(p).  Samples with the value INFINITY are
+     * excluded from the lower envelope entirely.
+     *
+     * @param f the sampled function.
+     * @param d the array in which the transformed function is stored.
+     * @param v scratch space for the locations of the envelope parabolas.
+     * @param z scratch space for the boundaries between envelope parabolas.
+     * @param n the number of samples.
+     */
+    static void transform(int[] f, int[] d, int[] v, double[] z, int n) {
+        int k = -1;
+
+        // Compute the lower envelope of the parabolas rooted at each sample
+        for (int q = 0; q < n; q++) {
+            if (f[q] == INFINITY) continue;
+
+            if (k < 0) {
+                k = 0;
+                v[0] = q;
+                z[0] = Double.NEGATIVE_INFINITY;
+                z[1] = Double.POSITIVE_INFINITY;
+                continue;
+            }
+
+            double s;
+            while (true) {
+                int p = v[k];
+                s = (((double)f[q] + (double)q*q) - ((double)f[p] + (double)p*p)) / (2.0 * (q - p));
+                if (s <= z[k]) {
+                    k--;
+                } else {
+                    break;
+                }
+            }
+
+            k++;
+            v[k] = q;
+            z[k] = s;
+            z[k + 1] = Double.POSITIVE_INFINITY;
+        }
+
+        // If there were no finite samples, every distance is infinite
+        if (k < 0) {
+            for (int q = 0; q < n; q++) {
+                d[q] = INFINITY;
+            }
+            return;
+        }
+
+        // Fill in the distance to the parabola that is lowest at each sample
+        k = 0;
+        for (int q = 0; q < n; q++) {
+            while (z[k + 1] < q) k++;
+            
+            long dq = (long)(q - v[k]) * (q - v[k]) + f[v[k]];
+            d[q] = (int)Math.min(dq, (long)INFINITY - 1);
+        }
+    }
+
+    /**
+     * Computes a map of the Euclidean distance (in cells) from each cell to
+     * the nearest obstacle, rounded and saturated at Byte.MAX_VALUE.
+     *
+     * @param map the map containing obstacles.
+     * @return a map of distances to the nearest obstacle.
+     */
+    public static StaticMap distanceMap(GridMap map) {
+        final int[] dist = squaredDistances(map);
+        final StaticMap result = new StaticMap(map.sizes());
+
+        ParallelUtils.forRange(dist.length, new RangeTask() {
+            public void run(int chunk, int start, int end) {
+                for (int i = start; i < end; i++) {
+                    long d = Math.round(Math.sqrt(dist[i]));
+                    result._map[i] = (byte)Math.min(d, Byte.MAX_VALUE);
+                }
+            }
+        });
+
+        return result;
+    }
+
+    /**
+     * Creates a cost map in which obstacles are inflated by the given
+     * radius, and the cost of the remaining cells decays exponentially with
+     * their distance beyond that radius.
+     *
+     * @see DistanceTransform#inflate(robotutils.data.GridMap, int[], double, double, byte)
+     * @param map the original cost map, with obstacles as negative values.
+     * @param radius the distance (in cells) within which cells become obstacles.
+     * @param decay the rate at which the inflation cost decays with distance.
+     * @param maxCost the inflation cost of a cell just outside the radius.
+     * @return a new cost map that can be used directly by the grid planners.
+     */
+    public static StaticMap inflate(GridMap map, double radius, double decay, byte maxCost) {
+        return inflate(map, squaredDistances(map), radius, decay, maxCost);
+    }
+
+    /**
+     * Creates a cost map in which obstacles are inflated by the given
+     * radius, using a precomputed array of squared distances.  Cells within
+     * the radius of an obstacle are assigned a value of -1, and all other
+     * cells are assigned the larger of their original cost and an inflation
+     * cost of <code>maxCost * exp(-decay * (d - radius))</code>.
+     *
+     * @param map the original cost map, with obstacles as negative values.
+     * @param sqDist the squared distance from each cell to the nearest obstacle.
+     * @param radius the distance (in cells) within which cells become obstacles.
+     * @param decay the rate at which the inflation cost decays with distance.
+     * @param maxCost the inflation cost of a cell just outside the radius.
+     * @return a new cost map that can be used directly by the grid planners.
+     */
+    public static StaticMap inflate(GridMap map, final int[] sqDist,
+            final double radius, final double decay, final byte maxCost) {
+        if (sqDist.length != map.length())
+            throw new IllegalArgumentException("Distance array does not match map.");
+        
+        final StaticMap result = GridMapOps.copy(map);
+        final byte[] data = result._map;
+        final double radiusSq = radius * radius;
+
+        ParallelUtils.forRange(data.length, new RangeTask() {
+            public void run(int chunk, int start, int end) {
+                for (int i = start; i < end; i++) {
+                    if (data[i] < 0) continue;
+
+                    if (sqDist[i] <= radiusSq) {
+                        data[i] = -1;
+                    } else if (sqDist[i] != INFINITY) {
+                        double d = Math.sqrt(sqDist[i]) - radius;
+                        int cost = (int)(maxCost * Math.exp(-decay * d));
+                        if (cost > data[i]) data[i] = (byte)cost;
+                    }
+                }
+            }
+        });
+
+        return result;
+    }
+}
@@ -0,0 +1,356 @@
+/*
+ *  The MIT License
+ * 
+ *  Copyright 2011 Prasanna Velagapudi <psigen@gmail.com>.
+ * 
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ * 
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ * 
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+
+package robotutils.data;
+
+import java.util.Arrays;
+
+/**
+ * Maintains a Euclidean distance map that can be cheaply updated as
+ * obstacles are added to or removed from an N-D grid.  Each cell stores the
+ * location of its closest obstacle, and changes are propagated outwards from
+ * the modified cells as a brushfire (wavefront) over a priority queue, so
+ * that only cells whose nearest obstacle actually changed are visited.
+ *
+ * Distances are propagated over the full 3^N-1 neighborhood of each cell.
+ * The result is not guaranteed to be exact in every case (unlike the full
+ * transform), but the errors are rare and small in practice.
+ *
+ * Source: Lau, B., Sprunk, C. and Burgard, W. 2010. Improved Updating of
+ * Euclidean Distance Maps and Voronoi Diagrams. In IEEE/RSJ International
+ * Conference on Intelligent Robots and Systems (IROS), 281-286.
+ *
+ * @see DistanceTransform
+ */
+public class DynamicDistanceMap {
+
+    /**
+     * Marks a cell that currently has no known nearest obstacle.
+     */
+    static final int CLEARED = -1;
+
+    /**
+     * A binary min-heap of cells, each stored as a packed long with the
+     * squared distance in the high word and the linear index in the low word.
+     */
+    private static final class CellQueue {
+        long[] _heap = new long[1024];
+        int _size = 0;
+
+        void push(int dist, int cell) {
+            if (_size == _heap.length)
+                _heap = Arrays.copyOf(_heap, 2 * _heap.length);
+            
+            long val = ((long)dist << 32) | (cell & 0xFFFFFFFFL);
+            int i = _size++;
+            while (i > 0) {
+                int parent = (i - 1) >>> 1;
+                if (_heap[parent] <= val) break;
+                _heap[i] = _heap[parent];
+                i = parent;
+            }
+            _heap[i] = val;
+        }
+
+        int pop() {
+            long top = _heap[0];
+            long val = _heap[--_size];
+            
+            int i = 0;
+            while (true) {
+                int child = 2 * i + 1;
+                if (child >= _size) break;
+                if (child + 1 < _size && _heap[child + 1] < _heap[child]) child++;
+                if (_heap[child] >= val) break;
+                _heap[i] = _heap[child];
+                i = child;
+            }
+            _heap[i] = val;
+
+            return (int)top;
+        }
+
+        boolean isEmpty() {
+            return _size == 0;
+        }
+    }
+
+    final int[] _sizes;
+    final int[] _strides;
+    final int[][] _offsets;
+
+    final boolean[] _occupied;
+    final boolean[] _toRaise;
+    final int[] _obst;
+    final int[] _dist;
+
+    final CellQueue _open = new CellQueue();
+
+    /**
+     * Constructs a distance map for a grid of the same size as the given map,
+     * treating every negative cell of that map as an initial obstacle.  The
+     * map itself is not referenced after construction.
+     * 
+     * @param map the map containing the initial obstacles.
+     */
+    public DynamicDistanceMap(GridMap map) {
+        _sizes = map.sizes();
+        _strides = GridMapOps.strides(_sizes);
+        _offsets = neighborOffsets(_sizes.length);
+
+        int length = map.length();
+        _occupied = new boolean[length];
+        _toRaise = new boolean[length];
+        _obst = new int[length];
+        _dist = new int[length];
+
+        Arrays.fill(_obst, CLEARED);
+        Arrays.fill(_dist, DistanceTransform.INFINITY);
+
+        StaticMap src = (map instanceof StaticMap) ? (StaticMap)map : GridMapOps.copy(map);
+        for (int i = 0; i < length; i++) {
+            if (src._map[i] < 0) setObstacle(i);
+        }
+        update();
+    }
+
+    /**
+     * Enumerates the coordinate offsets to every neighbor of a cell.
+     */
+    private static int[][] neighborOffsets(int dims) {
+        int count = 1;
+        for (int i = 0; i < dims; i++) {
+            count *= 3;
+        }
+
+        int[][] offsets = new int[count - 1][];
+        int n = 0;
+        for (int c = 0; c < count; c++) {
+            int[] offset = new int[dims];
+            boolean isZero = true;
+
+            int rem = c;
+            for (int i = 0; i < dims; i++) {
+                offset[i] = (rem % 3) - 1;
+                rem /= 3;
+                if (offset[i] != 0) isZero = false;
+            }
+
+            if (!isZero) offsets[n++] = offset;
+        }
+
+        return offsets;
+    }
+
+    /**
+     * Converts a coordinate into a linear index, checking its bounds.
+     */
+    private int index(int[] idx) {
+        if (idx.length != _sizes.length)
+            throw new IllegalArgumentException("Coordinate dimensions do not match map.");
+        
+        int cell = 0;
+        for (int i = 0; i < _sizes.length; i++) {
+            if (idx[i] < 0 || idx[i] >= _sizes[i])
+                throw new IndexOutOfBoundsException("Coordinate outside map: " + Arrays.toString(idx));
+            cell += idx[i] * _strides[i];
+        }
+        return cell;
+    }
+
+    /**
+     * Returns the squared distance between two cells given as linear indices.
+     */
+    private int cellDistance(int a, int b) {
+        int dist = 0;
+        for (int i = _sizes.length - 1; i >= 0; i--) {
+            int d = a / _strides[i] - b / _strides[i];
+            a %= _strides[i];
+            b %= _strides[i];
+            dist += d * d;
+        }
+        return dist;
+    }
+
+    /**
+     * Marks the specified cell as an obstacle.  The change is not propagated
+     * to the rest of the map until update() is called.
+     * @param idx the coordinate of the new obstacle.
+     */
+    public void setObstacle(int... idx) {
+        setObstacle(index(idx));
+    }
+
+    private void setObstacle(int cell) {
+        if (_occupied[cell]) return;
+
+        _occupied[cell] = true;
+        _toRaise[cell] = false;
+        _obst[cell] = cell;
+        _dist[cell] = 0;
+        _open.push(0, cell);
+    }
+
+    /**
+     * Removes an obstacle from the specified cell.  The change is not
+     * propagated to the rest of the map until update() is called.
+     * @param idx the coordinate of the removed obstacle.
+     */
+    public void removeObstacle(int... idx) {
+        int cell = index(idx);
+        if (!_occupied[cell]) return;
+
+        _occupied[cell] = false;
+        _obst[cell] = CLEARED;
+        _dist[cell] = DistanceTransform.INFINITY;
+        _toRaise[cell] = true;
+        _open.push(0, cell);
+    }
+
+    /**
+     * Returns true if the specified cell is currently an obstacle.
+     * @param idx the coordinate of the cell.
+     * @return true if the cell is an obstacle.
+     */
+    public boolean isObstacle(int... idx) {
+        return _occupied[index(idx)];
+    }
+
+    /**
+     * Propagates all pending obstacle changes through the distance map.
+     * Cells that lost their nearest obstacle are first cleared (raised), and
+     * then all cells at the boundary of the cleared region are re-expanded
+     * (lowered) in order of increasing distance.
+     */
+    public void update() {
+        int dims = _sizes.length;
+        int[] coord = new int[dims];
+
+        while (!_open.isEmpty()) {
+            int s = _open.pop();
+
+            // Decode the coordinate of the current cell
+            int rem = s;
+            for (int i = dims - 1; i >= 0; i--) {
+                coord[i] = rem / _strides[i];
+                rem %= _strides[i];
+            }
+
+            if (_toRaise[s]) {
+                raise(s, coord);
+            } else if (_obst[s] != CLEARED && _occupied[_obst[s]]) {
+                lower(s, coord);
+            }
+        }
+    }
+
+    /**
+     * Clears every neighbor whose nearest obstacle no longer exists, and
+     * queues the others so that they can re-expand into the cleared region.
+     */
+    private void raise(int s, int[] coord) {
+        for (int[] offset : _offsets) {
+            int n = neighbor(s, coord, offset);
+            if (n < 0) continue;
+
+            if (_obst[n] != CLEARED && !_toRaise[n]) {
+                _open.push(_dist[n], n);
+                
+                if (!_occupied[_obst[n]]) {
+                    _obst[n] = CLEARED;
+                    _dist[n] = DistanceTransform.INFINITY;
+                    _toRaise[n] = true;
+                }
+            }
+        }
+
+        _toRaise[s] = false;
+    }
+
+    /**
+     * Offers the nearest obstacle of this cell to each of its neighbors.
+     */
+    private void lower(int s, int[] coord) {
+        int obst = _obst[s];
+
+        for (int[] offset : _offsets) {
+            int n = neighbor(s, coord, offset);
+            if (n < 0 || _toRaise[n]) continue;
+
+            int dist = cellDistance(n, obst);
+            if (dist < _dist[n]) {
+                _dist[n] = dist;
+                _obst[n] = obst;
+                _open.push(dist, n);
+            }
+        }
+    }
+
+    /**
+     * Returns the linear index of a neighboring cell, or -1 if the neighbor
+     * lies outside the map.
+     */
+    private int neighbor(int s, int[] coord, int[] offset) {
+        int n = s;
+        for (int i = 0; i < offset.length; i++) {
+            int c = coord[i] + offset[i];
+            if (c < 0 || c >= _sizes[i]) return -1;
+            n += offset[i] * _strides[i];
+        }
+        return n;
+    }
+
+    /**
+     * Returns the squared distance (in cells) from a cell to its nearest
+     * obstacle, as of the last call to update().
+     * @param idx the coordinate of the cell.
+     * @return the squared distance, or DistanceTransform.INFINITY if there are no obstacles.
+     */
+    public int squaredDistance(int... idx) {
+        return _dist[index(idx)];
+    }
+
+    /**
+     * Returns the distance (in cells) from a cell to its nearest obstacle, as
+     * of the last call to update().
+     * @param idx the coordinate of the cell.
+     * @return the distance, or positive infinity if there are no obstacles.
+     */
+    public double distance(int... idx) {
+        int dist = _dist[index(idx)];
+        return (dist == DistanceTransform.INFINITY) ? Double.POSITIVE_INFINITY : Math.sqrt(dist);
+    }
+
+    /**
+     * Returns the squared distances of every cell, in the same linear order
+     * as a StaticMap.  The returned array is the internal state of this map,
+     * and must not be modified.
+     *
+     * @see DistanceTransform#inflate(robotutils.data.GridMap, int[], double, double, byte)
+     * @return the squared distance from each cell to its nearest obstacle.
+     */
+    public int[] squaredDistances() {
+        return _dist;
+    }
+}
@@ -24,17 +24,15 @@
 
 package robotutils.data;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
+import java.io.InterruptedIOException;
 import java.io.RandomAccessFile;
-import java.io.Serializable;
+import java.nio.BufferOverflowException;
 import java.nio.ByteBuffer;
-import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel;
 import java.util.AbstractCollection;
 import java.util.AbstractList;
@@ -47,6 +45,18 @@ import java.util.ListIterator;
 import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 /**
  * Implements a file-backed buffer for storing large objects that need to be
@@ -54,28 +64,229 @@ import java.util.Set;
  * interface backed by a random-access binary data file.  The buffer only
  * supports write operations at this time: <b>objects cannot be deleted</b>.
  *
- * The objects are stored using java serialization into a file-backed linked
- * list, so the typical serialization rules apply:
+ * The objects are encoded by a Codec into a file-backed linked list.  By
+ * default, a compact binary encoding is used for the types that are known to
+ * FileBufferCodecs, and java serialization is used for all other objects, so
+ * the typical serialization rules apply:
  * <ul>
  * <li>objects must implement Serializable to be saved out</li>
  * <li>retrieved objects must have matching serialVersionUIDs</li>
  * </ul>
  *
+ * A buffer must always be reopened with the same codec that was used to
+ * write its contents.
+ *
+ * By default, each object is forced to disk as it is added.  For higher
+ * throughput, the buffer can instead batch objects in memory and write them
+ * out periodically using group commits, and should then be closed when it is
+ * no longer needed to ensure that all objects are written.
+ *
+ * A FileBuffer is safe for use by multiple threads, and is designed for one
+ * thread that adds objects while any number of threads read them.  Objects
+ * are published by appending them to the index and then advancing a volatile
+ * tail position, and are read using positional reads that do not depend on
+ * the position of the underlying channel.  A second volatile tail marks the
+ * end of the objects that have been written, and is only advanced by the
+ * writers and the group commit task, so readers never write to the file or
+ * acquire a lock, except to wait for an object that has been added but not
+ * yet written.  Multiple writers are also safe, but are serialized.
+ *
+ * Objects can also be read from a memory-mapped view of the file, in which
+ * case they are decoded without copying, and their encoded representations
+ * can be accessed directly using getBuffer().
+ *
+ * Each record carries a CRC-32C checksum of its header and payload.  When a
+ * buffer is reopened after a crash, the records at the end of the file are
+ * validated, and the file is truncated after the last complete record, so a
+ * torn or partially written record is discarded rather than returned.
+ *
+ * The offsets of the objects are also recorded in a memory-mapped index file
+ * alongside the data file (with an additional ".idx" extension), which allows
+ * objects to be accessed by insertion order in constant time, and allows the
+ * buffer to be reopened without traversing the linked list.  The index file is
+ * rebuilt from the data file if it is missing or out of date.
+ *
+ * For sequential replay, objects can be read and decoded ahead of the
+ * consumer on a background thread using prefetchIterator().
+ *
+ * @see FileBuffer#setDurability(robotutils.data.FileBuffer.Durability)
+ * @see FileBuffer#setReadMode(robotutils.data.FileBuffer.ReadMode)
+ * @see FileBuffer#prefetchIterator(int)
+ * @see FileBuffer#indexFile(java.io.File)
  * @see java.util.Map
+ * @see FileBufferCodecs
  * @author Prasanna Velagapudi <psigen@gmail.com>
  */
-public class FileBuffer<T extends Serializable> implements Map<Long, T> {
+public class FileBuffer<T> implements Map<Long, T>, Closeable {
 
     /**
      * The default size of a cache used to buffer objects loaded from file.
      */
     public static final int DEFAULT_CACHE_SIZE = 100;
 
+    /**
+     * The initial size of the buffer used to encode objects (in bytes).  The
+     * buffer grows as needed to fit the objects that are pending a write.
+     */
+    public static final int DEFAULT_ENCODE_BUFFER_SIZE = 4096;
+
+    /**
+     * The default maximum delay before objects are written in group commit
+     * mode (in milliseconds).
+     */
+    public static final long DEFAULT_COMMIT_INTERVAL = 10;
+
+    /**
+     * The number of bytes of pending objects that will cause a write in group
+     * commit mode, regardless of the commit interval.
+     */
+    public static final int DEFAULT_COMMIT_SIZE = 1 << 20;
+
+    /**
+     * The default maximum number of objects that are decoded ahead of the
+     * consumer by a prefetching iterator.
+     */
+    public static final int DEFAULT_PREFETCH_DEPTH = 256;
+
+    /**
+     * The number of objects that a prefetching iterator initially decodes
+     * ahead of the consumer.
+     */
+    static final int MIN_PREFETCH_DEPTH = 4;
+
+    /**
+     * Specifies when objects that are added to the buffer are written to disk.
+     */
+    public enum Durability {
+
+        /**
+         * Each add operation is written and forced to disk before returning.
+         */
+        SYNC,
+
+        /**
+         * Objects are buffered in memory, and written and forced to disk in
+         * batches by a background task after at most the commit interval.
+         */
+        GROUP_COMMIT
+    }
+
+    /**
+     * The size of the windows in which the file is mapped in MAPPED read mode
+     * (in bytes).  Objects larger than this are read without mapping.
+     */
+    public static final int DEFAULT_MAP_WINDOW_SIZE = 1 << 26;
+
+    /**
+     * The number of windows that are kept mapped in MAPPED read mode.  Each
+     * window is kept in the slot given by its position in the file modulo
+     * this number, replacing any other window in that slot.
+     */
+    public static final int DEFAULT_MAP_WINDOWS = 8;
+
+    /**
+     * Specifies how objects are read from the backing file.
+     */
+    public enum ReadMode {
+
+        /**
+         * Each object is read from the file into a newly allocated buffer.
+         */
+        CHANNEL,
+
+        /**
+         * The file is memory-mapped in large windows, and objects are decoded
+         * directly from the mapped memory.
+         */
+        MAPPED
+    }
+
+    /**
+     * A shared background thread used to perform group commits.
+     */
+    private static final ScheduledExecutorService _flusher =
+            Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "FileBuffer flusher");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    /**
+     * A shared pool of background threads used to prefetch objects.
+     */
+    private static final ExecutorService _prefetcher =
+            Executors.newCachedThreadPool(new ThreadFactory() {
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "FileBuffer prefetcher");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
     /**
      * The size of the header that accompanies each object in file (in bytes)
      */
     private static final int HEADER_SIZE = Long.SIZE * 5;
 
+    /**
+     * The position of the record checksum within the header (in bytes).  The
+     * checksum is stored as a long containing a tag in its upper half and a
+     * CRC-32C of the header fields and payload in its lower half.  Records
+     * written by older versions have zeros in this position instead.
+     */
+    private static final int CRC_OFFSET = 40;
+
+    /**
+     * The tag that marks a record checksum as present.
+     */
+    private static final long CRC_TAG = 0x43524343L;
+
+
+    /**
+     * Converts objects to and from the binary representation that is stored
+     * in the FileBuffer.
+     *
+     * @param <T> the type of object that is encoded.
+     */
+    public interface Codec<T> {
+
+        /**
+         * Writes the binary representation of an object into a buffer,
+         * starting at its current position.  If the buffer is too small, the
+         * codec should throw a BufferOverflowException, in which case the
+         * encoding will be retried with a larger buffer.
+         *
+         * @param obj the object to be encoded.
+         * @param buf the buffer into which the object is written.
+         * @throws IOException Indicates that the object could not be encoded.
+         */
+        void encode(T obj, ByteBuffer buf) throws IOException;
+
+        /**
+         * Reads an object from the remaining contents of a buffer.
+         *
+         * @param buf the buffer containing exactly one encoded object.
+         * @return the decoded object.
+         * @throws IOException Indicates that the object could not be decoded.
+         * @throws ClassNotFoundException Indicates that the class of the object is not known to the JVM.
+         */
+        T decode(ByteBuffer buf) throws IOException, ClassNotFoundException;
+    }
+
+    /**
+     * A window of the data file that is mapped in MAPPED read mode.
+     */
+    private static class Window {
+        final long id;
+        final MappedByteBuffer buffer;
+
+        Window(long id, MappedByteBuffer buffer) {
+            this.id = id;
+            this.buffer = buffer;
+        }
+    }
 
     /**
      * This is the internal linked list representation used to represent objects
@@ -105,11 +316,29 @@ public class FileBuffer<T extends Serializable> implements Map<Long, T> {
     }
 
     final FileChannel _file;
-    final LRUCache<Long, T> _cache;
+    final FileBufferIndex _index;
+    final Cache<Long, T> _cache;
+    final Codec<T> _codec;
+
+    final Object _writeLock = new Object();
+    ByteBuffer _pending = ByteBuffer.allocate(DEFAULT_ENCODE_BUFFER_SIZE);
+
+    final Object _flushLock = new Object();
+    ByteBuffer _flushing = ByteBuffer.allocate(DEFAULT_ENCODE_BUFFER_SIZE);
+    volatile long _flushedPosition = 0;
+    volatile IOException _flushError = null;
+
+    final Object _commitLock = new Object();
+    volatile IOException _commitError = null;
+
+    volatile Durability _durability = Durability.SYNC;
+    ScheduledFuture<?> _flushTask = null;
+
+    volatile ReadMode _readMode = ReadMode.CHANNEL;
+    final AtomicReferenceArray<Window> _windows = new AtomicReferenceArray<Window>(DEFAULT_MAP_WINDOWS);
 
     long _penultimatePosition = -1;
-    long _lastPosition = 0;
-    int _size;
+    volatile long _lastPosition = 0;
 
     /**
      * Creates a new FileBuffer object backed by the specified data file.  Reuse
@@ -118,7 +347,8 @@ public class FileBuffer<T extends Serializable> implements Map<Long, T> {
      * <b>Note: If the data file does not exist, it will be created.</b>
      * 
      * The behavior of the FileBuffer is undefined if multiple instances attempt
-     * to access the same file at the same time.
+     * to access the same file at the same time.  However, a single instance
+     * may be shared between threads.
      * 
      * @param file The file that will be used as an object data store
      * @throws FileNotFoundException Occurs if the backing file could not be read or opened.
@@ -131,31 +361,152 @@ public class FileBuffer<T extends Serializable> implements Map<Long, T> {
 
     public FileBuffer(File file, int cacheSize) throws FileNotFoundException {
 
+        // Call main constructor using default codec
+        this(file, cacheSize, FileBufferCodecs.<T>defaultCodec());
+    }
+
+    /**
+     * Creates a new FileBuffer object backed by the specified data file, which
+     * uses the specified codec to store objects.
+     *
+     * @see FileBuffer#FileBuffer(java.io.File)
+     * @param file The file that will be used as an object data store
+     * @param cacheSize The number of objects that will be cached in memory
+     * @param codec The codec used to encode and decode objects
+     * @throws FileNotFoundException Occurs if the backing file could not be read or opened.
+     */
+    public FileBuffer(File file, int cacheSize, Codec<T> codec) throws FileNotFoundException {
+
+        // Call main constructor using a cache of the given size
+        this(file, new ClockCache<Long, T>(cacheSize), codec);
+    }
+
+    /**
+     * Creates a new FileBuffer object backed by the specified data file, which
+     * uses the specified codec to store objects and the specified cache to
+     * hold recently used objects in memory.  The cache may be shared between
+     * several buffers only if their UIDs do not overlap.
+     *
+     * @see FileBuffer#FileBuffer(java.io.File)
+     * @see WeightedCache
+     * @param file The file that will be used as an object data store
+     * @param cache The cache that will hold recently used objects
+     * @param codec The codec used to encode and decode objects
+     * @throws FileNotFoundException Occurs if the backing file could not be read or opened.
+     */
+    public FileBuffer(File file, Cache<Long, T> cache, Codec<T> codec) throws FileNotFoundException {
+
+        // Store the codec for the objects in this file
+        _codec = codec;
+
         // Open file for reading and writing
-        _file = new RandomAccessFile(file, "rws").getChannel();
+        _file = new RandomAccessFile(file, "rw").getChannel();
+        _index = new FileBufferIndex(indexFile(file));
         
-        // Initialize cache of given size
-        _cache = new LRUCache(cacheSize);
+        // Use the given cache for recently accessed objects
+        _cache = cache;
 
-        // Search file to determine size and last pointer
-        while(true) {
-            try {
-                _penultimatePosition = _lastPosition;
-                if (!isValid(_lastPosition)) break;
-                _lastPosition = readHeader(_lastPosition).next;
-                ++_size;
-            } catch (IOException ex) {
-                throw new RuntimeException(ex);
+        // Recover the last valid record, then truncate anything after it
+        try {
+            _lastPosition = recover();
+            if (_file.size() > _lastPosition) {
+                _file.truncate(_lastPosition);
+                _file.force(true);
             }
+        } catch (IOException ex) {
+            throw new RuntimeException(ex);
+        }
+
+        _penultimatePosition = _lastPosition;
+        _flushedPosition = _lastPosition;
+    }
+
+    /**
+     * Returns the file used to store the index of the FileBuffer backed by
+     * the specified data file.  This file is created automatically alongside
+     * the data file, and can safely be deleted when the buffer is not in use.
+     *
+     * @param file The file that is used as an object data store
+     * @return The file that is used to store the index of the data file.
+     */
+    public static File indexFile(File file) {
+        return FileBufferIndex.indexFile(file);
+    }
+
+    /**
+     * Finds the end of the last complete record in the data file after a
+     * restart.  Only the tail of the file is validated: indexed records are
+     * discarded from the end of the index until the last one is intact, and
+     * then any records after it are validated and indexed by following the
+     * linked list until the first record that is incomplete or corrupted.
+     *
+     * @return the position immediately following the last valid record.
+     * @throws IOException Indicates that the data file could not be read.
+     */
+    private long recover() throws IOException {
+        long fileSize = _file.size();
+
+        // Drop indexed records that were lost or torn
+        while (_index.size() > 0) {
+            long uid = _index.get(_index.size() - 1);
+            Entry header = validate(uid, fileSize);
+            if (header != null && header.next == _index.end()) break;
+
+            _index.removeLast(uid);
         }
+        if (_index.size() == 0 && _index.end() != 0) _index.clear();
+
+        // Index any complete records that follow the last indexed record
+        long position = _index.end();
+        while (true) {
+            Entry header = validate(position, fileSize);
+            if (header == null) break;
+
+            _index.add(header.self, header.next);
+            position = header.next;
+        }
+
+        return position;
+    }
+
+    /**
+     * Checks that a record is complete and uncorrupted, by checking that its
+     * header is consistent and lies within the file, and that the checksum of
+     * its header and payload matches (for records that have checksums).
+     *
+     * @param uid the UID of the record that is being checked.
+     * @param fileSize the current size of the data file.
+     * @return the header of the record, or null if the record is not valid.
+     * @throws IOException Indicates that the data file could not be read.
+     */
+    private Entry validate(long uid, long fileSize) throws IOException {
+        if (uid < 0 || uid + HEADER_SIZE > fileSize) return null;
+
+        Entry header = readHeader(uid);
+        if (header == null || header.self != uid || header.size < 0
+                || header.next != uid + HEADER_SIZE + header.size
+                || header.next > fileSize || header.size > Integer.MAX_VALUE)
+            return null;
+
+        ByteBuffer buf = region(uid, (int)(HEADER_SIZE + header.size));
+        long stored = buf.getLong(CRC_OFFSET);
+        if (stored == 0) return header;
+        if ((stored >>> 32) != CRC_TAG) return null;
+
+        int crc = CRC32C.compute(buf, 0, CRC_OFFSET);
+        crc = CRC32C.update(crc, buf, HEADER_SIZE, (int)header.size);
+        return (crc == (int)stored) ? header : null;
     }
 
     /**
      * Adds a new object to the FileBuffer.
      *
-     * If the backing file has an IO error or cannot serializable a given object
+     * If the backing file has an IO error or cannot encode a given object
      * type, a RuntimeException will be thrown wrapping the original
-     * corresponding IOException.
+     * corresponding IOException.  If a previous group commit failed, this
+     * error is thrown before the object is added.  Otherwise, if the object
+     * was added but could not be written, it remains pending and will be
+     * written by the next flush, so it should not be added again.
      *
      * @param obj The object to be added.
      * @return The UID to be used as a key to access the object.
@@ -164,7 +515,6 @@ public class FileBuffer<T extends Serializable> implements Map<Long, T> {
         try {
             long id = write(obj);
             _cache.put(id, obj);
-            ++_size;
             return id;
         } catch(IOException ex) {
             throw new RuntimeException(ex);
@@ -172,21 +522,131 @@ public class FileBuffer<T extends Serializable> implements Map<Long, T> {
     }
 
     /**
-     * Adds a new sequential list of objects to the FileBuffer.
+     * Adds a new sequential list of objects to the FileBuffer.  The objects
+     * are encoded into a single contiguous block, which is committed to the
+     * file in one write.  Errors are reported as in add().
      *
+     * @see FileBuffer#add(java.lang.Object)
      * @param objs The objects to be added.
      * @return A list of UIDs to be used as keys to access the objects.
      */
     public final List<Long> addAll(List<T> objs) {
         List<Long> uids = new ArrayList<Long>(objs.size());
 
-        for (T obj : objs) {
-            uids.add(add(obj));
+        try {
+            checkFlushError();
+            synchronized (_writeLock) {
+                for (T obj : objs) {
+                    uids.add(append(obj));
+                }
+            }
+            commit();
+        } catch(IOException ex) {
+            throw new RuntimeException(ex);
+        }
+
+        for (int i = 0; i < uids.size(); i++) {
+            _cache.put(uids.get(i), objs.get(i));
         }
         
         return uids;
     }
 
+    /**
+     * Sets the durability mode of the FileBuffer, using the default commit
+     * interval for group commits.
+     *
+     * @see FileBuffer#setDurability(robotutils.data.FileBuffer.Durability, long)
+     * @param durability the durability mode used for subsequent writes.
+     */
+    public void setDurability(Durability durability) {
+        setDurability(durability, DEFAULT_COMMIT_INTERVAL);
+    }
+
+    /**
+     * Sets the durability mode of the FileBuffer.  In GROUP_COMMIT mode,
+     * a background task writes out pending objects after at most the given
+     * commit interval, which bounds the window of objects that can be lost
+     * if the process crashes.
+     *
+     * <b>Note: a buffer in GROUP_COMMIT mode remains referenced by the
+     * background task until it is closed or returned to SYNC mode.</b>
+     *
+     * @param durability the durability mode used for subsequent writes.
+     * @param commitInterval the maximum delay before objects are written (in milliseconds).
+     */
+    public synchronized void setDurability(Durability durability, long commitInterval) {
+
+        // Stop any existing group commit task
+        if (_flushTask != null) {
+            _flushTask.cancel(false);
+            _flushTask = null;
+        }
+
+        // Start a group commit task if necessary
+        _durability = durability;
+        if (durability == Durability.GROUP_COMMIT) {
+            _flushTask = _flusher.scheduleWithFixedDelay(new Runnable() {
+                public void run() {
+                    try {
+                        flushPending();
+                    } catch (IOException ex) {
+                        _flushError = ex;
+                        Logger.getLogger(FileBuffer.class.getName()).log(Level.SEVERE, null, ex);
+                    }
+                }
+            }, commitInterval, commitInterval, TimeUnit.MILLISECONDS);
+        } else {
+            flush();
+        }
+    }
+
+    /**
+     * Returns the current durability mode of the FileBuffer.
+     *
+     * @return the durability mode used for writes.
+     */
+    public Durability getDurability() {
+        return _durability;
+    }
+
+    /**
+     * Writes any pending objects to the backing file and forces them to disk.
+     *
+     * If the backing file has an IO error, a RuntimeException will be thrown
+     * wrapping the original corresponding IOException.
+     */
+    public void flush() {
+        try {
+            flushPending();
+        } catch (IOException ex) {
+            throw new RuntimeException(ex);
+        }
+    }
+
+    /**
+     * Writes any pending objects and closes the backing file.  The FileBuffer
+     * cannot be used after it has been closed.
+     *
+     * @throws IOException Indicates that pending objects could not be written.
+     */
+    public void close() throws IOException {
+        synchronized (this) {
+            if (_flushTask != null) {
+                _flushTask.cancel(false);
+                _flushTask = null;
+            }
+        }
+
+        try {
+            flushPending();
+        } finally {
+            clearWindows();
+            _file.close();
+            _index.close();
+        }
+    }
+
     /**
      * Internal function used to check whether a provided ID could possibly
      * reference a valid location in the FileBuffer object.  This is not a
@@ -197,11 +657,7 @@ public class FileBuffer<T extends Serializable> implements Map<Long, T> {
      * @return True if the UID matches a valid object header in the FileBuffer.
      */
     protected final boolean isValid(long uid) {
-        try {
-            return (uid >= 0) && (uid < _file.size());
-        } catch (IOException ex) {
-            throw new RuntimeException(ex);
-        }
+        return (uid >= 0) && (uid < _lastPosition);
     }
 
     /**
@@ -214,14 +670,12 @@ public class FileBuffer<T extends Serializable> implements Map<Long, T> {
      * @throws IOException Indicates that de-serialization of the header failed.
      */
     protected final Entry readHeader(long uid) throws IOException {
-        
+
+        // Make sure that pending objects have been written
+        if (uid >= _flushedPosition && uid < _lastPosition) awaitCommit(uid);
+
         // Read header indicating [prev, size, next]
-        ByteBuffer ptrs = ByteBuffer.allocate(HEADER_SIZE);
-        if (_file.read(ptrs, uid) != ptrs.capacity()) {
-            throw new IOException("Could not read file.");
-        } else {
-            ptrs.flip();
-        }
+        ByteBuffer ptrs = region(uid, HEADER_SIZE);
 
         // Store this entry
         Entry entry = new Entry();
@@ -239,6 +693,31 @@ public class FileBuffer<T extends Serializable> implements Map<Long, T> {
         }
     }
 
+    /**
+     * Waits until an object that has been added has also been written to the
+     * backing file by a writer or by the group commit task.  The object is
+     * never written by the waiting thread itself.
+     *
+     * @param uid the UID of the object that is being accessed.
+     * @throws IOException Indicates that the object could not be written, or that the wait was interrupted.
+     */
+    private void awaitCommit(long uid) throws IOException {
+        synchronized (_commitLock) {
+            while (uid >= _flushedPosition && uid < _lastPosition) {
+                IOException error = _commitError;
+                if (error != null)
+                    throw new IOException("Object has not been written.", error);
+
+                try {
+                    _commitLock.wait();
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted waiting for object to be written.");
+                }
+            }
+        }
+    }
+
     /**
      * De-serializes an entire object at a particular location.  Used
      * internally to retrieve objects from the linked list.
@@ -254,19 +733,132 @@ public class FileBuffer<T extends Serializable> implements Map<Long, T> {
         Entry entry = readHeader(uid);
         if (entry == null) return null;
         
-        // Read actual stored object
-        ByteBuffer payload = ByteBuffer.allocate((int)entry.size);
-        if (_file.read(payload, uid + HEADER_SIZE) != payload.capacity()) {
-            throw new IOException("Could not read file");
-        } else {
-            payload.flip();
+        // Decode object directly from the stored payload
+        entry.obj = _codec.decode(region(uid + HEADER_SIZE, (int)entry.size));
+
+        return entry;
+    }
+
+    /**
+     * Returns a buffer containing the specified region of the data file.  In
+     * MAPPED mode, this is a view of a mapped window of the file, otherwise it
+     * is a copy of the region that is read from the file.
+     *
+     * @param position the starting position of the region.
+     * @param length the length of the region (in bytes).
+     * @return a buffer containing exactly the contents of the region.
+     * @throws IOException Indicates that the region could not be read.
+     */
+    private ByteBuffer region(long position, int length) throws IOException {
+
+        // Try to find the region in a mapped window of the file
+        if (_readMode == ReadMode.MAPPED) {
+            ByteBuffer buf = mappedRegion(position, length);
+            if (buf != null) return buf;
         }
 
-        // Deserialize object 
-        ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(payload.array()));
-        entry.obj = (T)ois.readObject();
+        // Otherwise, read a copy of the region from the file
+        ByteBuffer buf = ByteBuffer.allocate(length);
+        while (buf.hasRemaining()) {
+            if (_file.read(buf, position + buf.position()) < 0)
+                throw new IOException("Could not read file.");
+        }
+        buf.flip();
+        return buf;
+    }
 
-        return entry;
+    /**
+     * Returns a view of the specified region of the data file from a mapped
+     * window.  The file is mapped in windows that start at multiples of the
+     * window size and extend up to twice the window size, so any region that
+     * is no longer than the window size is contained in a single window.
+     * Windows that were mapped before the file grew are remapped as needed.
+     *
+     * @param position the starting position of the region.
+     * @param length the length of the region (in bytes).
+     * @return a view of the region, or null if it cannot be mapped.
+     * @throws IOException Indicates that the file could not be mapped.
+     */
+    private ByteBuffer mappedRegion(long position, int length) throws IOException {
+        long end = position + length;
+        if (length > DEFAULT_MAP_WINDOW_SIZE || end > _flushedPosition)
+            return null;
+
+        long windowId = position / DEFAULT_MAP_WINDOW_SIZE;
+        long windowStart = windowId * DEFAULT_MAP_WINDOW_SIZE;
+        int slot = (int)(windowId % DEFAULT_MAP_WINDOWS);
+
+        // Concurrent readers may map the same window, in which case the
+        // last mapping replaces the others once they are no longer in use
+        Window window = _windows.get(slot);
+        if (window == null || window.id != windowId
+                || windowStart + window.buffer.capacity() < end) {
+            long windowLength = Math.min(2L * DEFAULT_MAP_WINDOW_SIZE, _flushedPosition - windowStart);
+            window = new Window(windowId, _file.map(FileChannel.MapMode.READ_ONLY, windowStart, windowLength));
+            _windows.set(slot, window);
+        }
+
+        ByteBuffer buf = window.buffer.duplicate();
+        int offset = (int)(position - windowStart);
+        buf.limit(offset + length);
+        buf.position(offset);
+        return buf.slice();
+    }
+
+    /**
+     * Sets the mode used to read objects from the backing file.
+     *
+     * @param readMode the mode used for subsequent reads.
+     */
+    public void setReadMode(ReadMode readMode) {
+        _readMode = readMode;
+        if (readMode != ReadMode.MAPPED) {
+            clearWindows();
+        }
+    }
+
+    /**
+     * Releases all of the windows mapped in MAPPED read mode.
+     */
+    private void clearWindows() {
+        for (int i = 0; i < _windows.length(); i++) {
+            _windows.set(i, null);
+        }
+    }
+
+    /**
+     * Returns the current mode used to read objects from the backing file.
+     *
+     * @return the mode used for reads.
+     */
+    public ReadMode getReadMode() {
+        return _readMode;
+    }
+
+    /**
+     * Returns a read-only view of the encoded representation of an object,
+     * which can be used to decode objects without the codec of the buffer.
+     * In MAPPED mode, this view is backed directly by a mapping of the file,
+     * so no data is copied.
+     *
+     * If the backing file has an IO error, a RuntimeException will be thrown
+     * wrapping the original corresponding IOException.
+     *
+     * @param uid The UID of the object that is being retrieved.
+     * @return A buffer containing the encoded object, or null if the reference is not valid.
+     */
+    public ByteBuffer getBuffer(long uid) {
+        if (indexOf(uid) < 0)
+            return null;
+
+        try {
+            Entry entry = readHeader(uid);
+            if (entry == null) return null;
+
+            return region(uid + HEADER_SIZE, (int)entry.size).asReadOnlyBuffer();
+        } catch (IOException ex) {
+            throw new RuntimeException(ex);
+        }
     }
 
     /**
@@ -275,41 +867,195 @@ public class FileBuffer<T extends Serializable> implements Map<Long, T> {
      *
      * @param obj the object that will be inserted.
      * @return a UID that can be used to reference the object.
-     * @throws IOException Indicates that serialization of the object failed.
+     * @throws IOException Indicates that encoding of the object failed.
      */
-    protected long write(Serializable obj) throws IOException {
+    protected long write(T obj) throws IOException {
+        long uid;
 
-        // Move to the end of the file
-        _file.position(_lastPosition);
-        
-        // Serialize the object
-        ByteArrayOutputStream baos = new ByteArrayOutputStream();
-        ObjectOutputStream oos = new ObjectOutputStream(baos);
-        oos.writeObject(obj);
-        oos.flush();
-        oos.close();
+        checkFlushError();
+        synchronized (_writeLock) {
+            uid = append(obj);
+        }
+
+        commit();
+        return uid;
+    }
+
+    /**
+     * Encodes a new object with its header at the end of the pending buffer,
+     * growing the buffer until it fits.  Must be called while holding the
+     * write lock.
+     *
+     * @param obj the object that will be inserted.
+     * @return a UID that can be used to reference the object.
+     * @throws IOException Indicates that encoding of the object failed.
+     */
+    private long append(T obj) throws IOException {
+        int start = _pending.position();
+
+        // Encode the object after the space reserved for its header
+        while (true) {
+            try {
+                if (_pending.capacity() - start < HEADER_SIZE)
+                    throw new BufferOverflowException();
+
+                _pending.position(start + HEADER_SIZE);
+                _codec.encode(obj, _pending);
+                break;
+            } catch (BufferOverflowException ex) {
+                ByteBuffer larger = ByteBuffer.allocate(2 * _pending.capacity());
+                _pending.limit(start);
+                _pending.position(0);
+                larger.put(_pending);
+                _pending = larger;
+            }
+        }
+        int size = _pending.position() - start - HEADER_SIZE;
 
         // Construct header information
-        ByteBuffer ptrs = ByteBuffer.allocate(HEADER_SIZE);
-        LongBuffer lptrs = ptrs.asLongBuffer();
-        lptrs.put(_penultimatePosition); // prev
-        lptrs.put(_lastPosition); // self
-        lptrs.put(_lastPosition + baos.size() + ptrs.capacity()); // next
-        lptrs.put(baos.size()); // size
-        lptrs.put(  - _penultimatePosition
+        long next = _lastPosition + HEADER_SIZE + size;
+        _pending.putLong(start, _penultimatePosition); // prev
+        _pending.putLong(start + 8, _lastPosition); // self
+        _pending.putLong(start + 16, next); // next
+        _pending.putLong(start + 24, size); // size
+        _pending.putLong(start + 32, - _penultimatePosition
                     - _lastPosition
-                    - _lastPosition - baos.size() - ptrs.capacity()
-                    - baos.size() ); //checksum
-        _file.write(ptrs);
+                    - next
+                    - size ); // checksum
+        int crc = CRC32C.compute(_pending, start, CRC_OFFSET);
+        crc = CRC32C.update(crc, _pending, start + HEADER_SIZE, size);
+        _pending.putLong(start + CRC_OFFSET, (CRC_TAG << 32) | (crc & 0xFFFFFFFFL)); // crc
+        for (int i = start + CRC_OFFSET + 8; i < start + HEADER_SIZE; i += 8) {
+            _pending.putLong(i, 0);
+        }
 
-        // Construct object information
-        ByteBuffer objBuffer = ByteBuffer.wrap(baos.toByteArray());
-        _file.write(objBuffer);
+        // Publish the new object by indexing it and then advancing the tail
+        long uid = _lastPosition;
+        _index.add(uid, next);
+        _penultimatePosition = uid;
+        _lastPosition = next;
+        return uid;
+    }
 
-        // Return current position as object reference
-        _penultimatePosition = _lastPosition;
-        _lastPosition = _file.position();
-        return _penultimatePosition;
+    /**
+     * Reports an error that occurred while writing pending objects in the
+     * background task.  This is checked before new objects are appended, so
+     * that an object is never left pending by a call that throws this error.
+     *
+     * @throws IOException Indicates that the last group commit failed.
+     */
+    private void checkFlushError() throws IOException {
+        IOException error = _flushError;
+        if (error != null) {
+            _flushError = null;
+            throw error;
+        }
+    }
+
+    /**
+     * Writes out pending objects if required by the durability mode, or if
+     * the pending buffer has grown too large.
+     *
+     * @throws IOException Indicates that pending objects could not be written.
+     */
+    private void commit() throws IOException {
+        boolean isFull;
+        synchronized (_writeLock) {
+            isFull = (_pending.position() >= DEFAULT_COMMIT_SIZE);
+        }
+
+        if (isFull || _durability == Durability.SYNC)
+            flushPending();
+    }
+
+    /**
+     * Writes the pending buffer to the end of the file in a single operation
+     * and forces it to disk.  New objects can be added to a second buffer
+     * while the write is in progress.
+     *
+     * If the write fails, the unwritten objects are kept in front of any
+     * objects that were added in the meantime, so that they are written again
+     * at the same position by the next flush.  Since these objects have
+     * already been indexed, dropping them would misplace every later object.
+     *
+     * Readers that are waiting for the pending objects are woken once the
+     * write completes or fails.
+     *
+     * @throws IOException Indicates that pending objects could not be written.
+     */
+    final void flushPending() throws IOException {
+        synchronized (_flushLock) {
+            ByteBuffer buf;
+
+            // Swap the pending buffer with the (empty) flushing buffer
+            synchronized (_writeLock) {
+                if (_pending.position() == 0) return;
+
+                buf = _pending;
+                _pending = _flushing;
+                _pending.clear();
+                _flushing = buf;
+            }
+
+            // Write the entire buffer at the end of the file
+            buf.flip();
+            long position;
+            try {
+                position = writeBlock(buf, _flushedPosition);
+            } catch (IOException ex) {
+                restorePending(buf);
+                synchronized (_commitLock) {
+                    _commitError = ex;
+                    _commitLock.notifyAll();
+                }
+                throw ex;
+            }
+            buf.clear();
+
+            synchronized (_commitLock) {
+                _commitError = null;
+                _flushedPosition = position;
+                _commitLock.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Writes the remaining contents of a buffer to the file at the given
+     * position and forces it to disk.
+     *
+     * @param buf the buffer to write.
+     * @param position the file position at which to write the buffer.
+     * @return the file position after the written bytes.
+     * @throws IOException Indicates that the buffer could not be written.
+     */
+    long writeBlock(ByteBuffer buf, long position) throws IOException {
+        while (buf.hasRemaining()) {
+            position += _file.write(buf, position);
+        }
+        _file.force(false);
+        return position;
+    }
+
+    /**
+     * Moves the contents of a buffer whose write failed back to the start of
+     * the pending buffer, ahead of any objects added since it was swapped out.
+     * Must be called while holding the flush lock.
+     */
+    private void restorePending(ByteBuffer failed) {
+        synchronized (_writeLock) {
+            failed.position(0);
+
+            ByteBuffer merged = ByteBuffer.allocate(Math.max(failed.capacity(),
+                    Integer.highestOneBit(failed.limit() + _pending.position()) * 2));
+            merged.put(failed);
+            _pending.flip();
+            merged.put(_pending);
+
+            _pending.clear();
+            _flushing = _pending;
+            _pending = merged;
+        }
     }
 
     /**
@@ -325,13 +1071,13 @@ public class FileBuffer<T extends Serializable> implements Map<Long, T> {
         int prevId = -1;
 
         private FileBufferHeaderIterator(int index) {
-            for (int i = 0; i < index; i++) {
-                if (hasNext()) {
-                    next();
-                } else {
-                    throw new IllegalArgumentException("Index out of bounds.");
-                }
-            }
+            if (index < 0 || index > _index.size())
+                throw new IllegalArgumentException("Index out of bounds.");
+
+            next = (index < _index.size()) ? _index.get(index) : _lastPosition;
+            nextId = index;
+            prev = (index > 0) ? _index.get(index - 1) : -1;
+            prevId = index - 1;
         }
 
         public final boolean hasNext() {
@@ -421,13 +1167,13 @@ public class FileBuffer<T extends Serializable> implements Map<Long, T> {
         int prevId = -1;
 
         private FileBufferIterator(int index) {
-            for (int i = 0; i < index; i++) {
-                if (hasNext()) {
-                    next();
-                } else {
-                    throw new IllegalArgumentException("Index out of bounds.");
-                }
-            }
+            if (index < 0 || index > _index.size())
+                throw new IllegalArgumentException("Index out of bounds.");
+
+            next = (index < _index.size()) ? _index.get(index) : _lastPosition;
+            nextId = index;
+            prev = (index > 0) ? _index.get(index - 1) : -1;
+            prevId = index - 1;
         }
 
         public final boolean hasNext() {
@@ -506,13 +1252,170 @@ public class FileBuffer<T extends Serializable> implements Map<Long, T> {
         
     }
 
+    /**
+     * Implements a one-way iterator over the object entries in the FileBuffer
+     * that reads and decodes objects ahead of the consumer on a background
+     * thread, so that reading from disk overlaps with processing.
+     *
+     * The number of objects that may be decoded ahead is adapted to the
+     * consumer: it is doubled whenever the consumer has to wait for an
+     * object, and reduced by one whenever the consumer finds the queue full,
+     * so that a slow consumer does not hold more decoded objects in memory
+     * than it needs.  Objects that are added while iterating are returned if
+     * the prefetcher has not yet reached the end of the buffer.
+     *
+     * <b>Note: the iterator should be closed if it is abandoned before
+     * reaching the end of the buffer, to stop its background task.</b>
+     */
+    public class FileBufferPrefetchIterator implements Iterator<Map.Entry<Long, T>>, Closeable {
+
+        /**
+         * A marker that is queued after the last object.
+         */
+        private final Entry END = new Entry();
+
+        final BlockingQueue<Object> _queue = new LinkedBlockingQueue<Object>();
+        final Semaphore _permits;
+        final int _maxDepth;
+        int _depth;
+        volatile boolean _closed = false;
+        Object _next = null;
+
+        private FileBufferPrefetchIterator(final int index, int maxDepth) {
+            if (index < 0 || index > _index.size())
+                throw new IllegalArgumentException("Index out of bounds.");
+            if (maxDepth < 1)
+                throw new IllegalArgumentException("Invalid prefetch depth.");
+
+            _maxDepth = maxDepth;
+            _depth = Math.min(MIN_PREFETCH_DEPTH, maxDepth);
+            _permits = new Semaphore(_depth);
+
+            _prefetcher.execute(new Runnable() {
+                public void run() {
+                    try {
+                        for (int i = index; !_closed && i < _index.size(); i++) {
+                            _permits.acquire();
+                            if (_closed) break;
+                            _queue.add(read(_index.get(i)));
+                        }
+                        _queue.add(END);
+                    } catch (InterruptedException ex) {
+                        _queue.add(new RuntimeException(ex));
+                    } catch (IOException ex) {
+                        _queue.add(new RuntimeException(ex));
+                    } catch (ClassNotFoundException ex) {
+                        _queue.add(new RuntimeException(ex));
+                    } catch (RuntimeException ex) {
+                        _queue.add(ex);
+                    }
+                }
+            });
+        }
+
+        /**
+         * Waits for the next item from the prefetcher, and adjusts the
+         * prefetch depth according to whether it had to wait.
+         */
+        private Object take() {
+            Object item = _queue.poll();
+            if (item == null) {
+                if (_depth < _maxDepth) {
+                    int depth = Math.min(2 * _depth, _maxDepth);
+                    _permits.release(depth - _depth);
+                    _depth = depth;
+                }
+
+                try {
+                    item = _queue.take();
+                } catch (InterruptedException ex) {
+                    throw new RuntimeException(ex);
+                }
+            } else if (_queue.size() + 1 >= _depth && _depth > MIN_PREFETCH_DEPTH) {
+                // Keep the permit of this item to shrink the prefetch depth
+                _depth--;
+                return item;
+            }
+
+            _permits.release();
+            return item;
+        }
+
+        public boolean hasNext() {
+            if (_next == null) {
+                if (_closed) return false;
+                _next = take();
+            }
+
+            if (_next instanceof RuntimeException) {
+                RuntimeException ex = (RuntimeException)_next;
+                _next = END;
+                _closed = true;
+                throw ex;
+            }
+            return (_next != END);
+        }
+
+        public Map.Entry<Long, T> next() {
+            if (!hasNext())
+                throw new NoSuchElementException();
+
+            Entry e = (Entry)_next;
+            _next = null;
+            return e;
+        }
+
+        /**
+         * Stops the background task and discards any prefetched objects.
+         */
+        public void close() {
+            _closed = true;
+            _next = END;
+            _permits.release(_maxDepth);
+            _queue.clear();
+        }
+
+        /* The following functions are unsupported because this is a write-only buffer (no modifications!) */
+
+        public void remove() {
+            throw new UnsupportedOperationException("Not supported.");
+        }
+    }
+
+    /**
+     * Creates an iterator that reads and decodes the objects in the
+     * FileBuffer on a background thread, starting at the specified index.
+     * This is useful for sequential replay of large buffers, where reading
+     * and decoding would otherwise alternate with processing.
+     *
+     * @see FileBufferPrefetchIterator
+     * @param index the insertion index of the first object to return.
+     * @return an iterator over the entries starting at the given index.
+     */
+    public FileBufferPrefetchIterator prefetchIterator(int index) {
+        return prefetchIterator(index, DEFAULT_PREFETCH_DEPTH);
+    }
+
+    /**
+     * Creates an iterator that reads and decodes the objects in the
+     * FileBuffer on a background thread, starting at the specified index.
+     *
+     * @see FileBufferPrefetchIterator
+     * @param index the insertion index of the first object to return.
+     * @param maxDepth the maximum number of objects to decode ahead.
+     * @return an iterator over the entries starting at the given index.
+     */
+    public FileBufferPrefetchIterator prefetchIterator(int index, int maxDepth) {
+        return new FileBufferPrefetchIterator(index, maxDepth);
+    }
+
     /**
      * Returns the current number of objects stored in the FileBuffer.
      *
      * @return the number of objects currently stored in the FileBuffer.
      */
     public int size() {
-        return _size;
+        return _index.size();
     }
 
     /**
@@ -550,29 +1453,45 @@ public class FileBuffer<T extends Serializable> implements Map<Long, T> {
     }
 
     /**
-     * Does a linear search over the entries to determine if the key is
-     * contained as a valid entry in the full linked list.  This is not the most
-     * optimal thing to do, but it is generally pretty fast.
+     * Does a binary search over the index to determine if the key is
+     * contained as a valid entry in the full linked list.
      *
      * @param uid the UID whose membership is being tested.
      * @return True if this UID matches a valid object header in the FileBuffer.
      */
     public boolean containsKey(Object uid) {
         if (uid instanceof Long) {
-            if (!isValid((Long)uid))
-                return false;
-
-            try {
-                Entry header = readHeader((Long)uid);
-                return (header != null);
-            } catch (IOException ex) {
-                throw new RuntimeException(ex);
-            }
+            return indexOf((Long)uid) >= 0;
         } else {
             return false;
         }
     }
 
+    /**
+     * Returns the UID of the object at the specified position in the order in
+     * which objects were added to the FileBuffer.  This is a constant time
+     * lookup in the index of the buffer.
+     *
+     * @param index the position of the object in insertion order.
+     * @return the UID of the object.
+     * @throws IndexOutOfBoundsException if the index is out of range.
+     */
+    public long uidAt(int index) {
+        return _index.get(index);
+    }
+
+    /**
+     * Returns the position of the object with the specified UID in the order
+     * in which objects were added to the FileBuffer.  This is a binary search
+     * over the index of the buffer.
+     *
+     * @param uid the UID of an object.
+     * @return the position of the object in insertion order, or -1 if the UID does not reference an object.
+     */
+    public int indexOf(long uid) {
+        return _index.indexOf(uid);
+    }
+
     /**
      * Does a linear search over the objects in the FileBuffer to determine
      * if the returned object matches any of the objects in the FileBuffer.
@@ -661,7 +1580,8 @@ public class FileBuffer<T extends Serializable> implements Map<Long, T> {
      * Attempts to retrieve an object from the FileBuffer.  
      * 
      * In order to be a fast operation, this is done directly using the memory
-     * reference of the UID, without traversing the internal linked list.
+     * reference of the UID, without traversing the internal linked list.  The
+     * UID is validated against the index before the file is accessed.
      *
      * If the backing file has an IO error or contains an un-serializable object
      * type, a RuntimeException will be thrown wrapping the original
@@ -688,7 +1608,7 @@ public class FileBuffer<T extends Serializable> implements Map<Long, T> {
         if (obj == null) {
 
             // Verify the validity of the UID
-            if (!isValid(uid))
+            if (indexOf(uid) < 0)
                 return obj;
 
             // Read the entry from file
@@ -712,21 +1632,17 @@ public class FileBuffer<T extends Serializable> implements Map<Long, T> {
 
     /**
      * List wrapper that provides access to the elements of the buffer in the
-     * order they were inserted.
-     *
-     * <i>Note: Since the internal representation of this buffer is a linked
-     * list, lookups on this wrapper require a linear traversal of the buffer
-     * headers. </i>
+     * order they were inserted.  Lookups on this wrapper use the index of the
+     * buffer to locate objects in constant time.
      *
      * @return A list backed by this buffer.
      */
     public List<T> asList() {
         return new AbstractList<T>() {
-            ListIterator<Long> _iterator = new FileBufferHeaderIterator(0);
 
             @Override
             public T get(int i) {
-                return FileBuffer.this.get(new FileBufferHeaderIterator(i).next());
+                return FileBuffer.this.get(uidAt(i));
             }
 
             @Override
@@ -741,7 +1657,7 @@ public class FileBuffer<T extends Serializable> implements Map<Long, T> {
     /**
      * Not supported because this is a write-to-EOF buffer.
      *
-     * @see FileBuffer#add(java.io.Serializable)
+     * @see FileBuffer#add(java.lang.Object)
      *
      * @param k
      * @param v
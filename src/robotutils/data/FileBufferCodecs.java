@@ -0,0 +1,518 @@
+/*
+ *  The MIT License
+ *
+ *  Copyright 2010 Prasanna Velagapudi <psigen@gmail.com>.
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+
+package robotutils.data;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.Map;
+import robotutils.Pose2D;
+import robotutils.Pose3D;
+import robotutils.Quaternion;
+import robotutils.data.FileBuffer.Codec;
+import robotutils.devices.create.CreateStatus;
+import robotutils.devices.create.CreateStatusCodec;
+import robotutils.io.CarmenReader;
+
+/**
+ * A collection of codecs that can be used to store objects in a FileBuffer.
+ * Compact binary codecs are provided for the common data types used in this
+ * library, which write their fields directly into buffers, along with a codec
+ * that uses java serialization for arbitrary objects.
+ *
+ * The DEFAULT codec combines all of these: objects whose class has a built-in
+ * codec are written with a single byte tag followed by their binary encoding,
+ * while all other objects are written using java serialization.  Since java
+ * serialization streams always begin with a fixed magic number, which does
+ * not collide with any of the tags, buffers written using plain java
+ * serialization remain readable with the DEFAULT codec.
+ *
+ * @see FileBuffer
+ * @author Prasanna Velagapudi <psigen@gmail.com>
+ */
+public final class FileBufferCodecs {
+
+    /**
+     * The character set used to encode strings.
+     */
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /**
+     * The first byte of every java serialization stream.
+     */
+    private static final byte SERIALIZATION_TAG = (byte)(ObjectOutputStream.STREAM_MAGIC >> 8);
+
+    private FileBufferCodecs() {}
+
+    /**
+     * An output stream that writes directly into a ByteBuffer, throwing a
+     * BufferOverflowException if the buffer is full.
+     */
+    private static class ByteBufferOutputStream extends OutputStream {
+        final ByteBuffer _buf;
+
+        ByteBufferOutputStream(ByteBuffer buf) {
+            _buf = buf;
+        }
+
+        @Override
+        public void write(int b) {
+            _buf.put((byte)b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            _buf.put(b, off, len);
+        }
+    }
+
+    /**
+     * An input stream that reads directly from the remaining contents of a
+     * ByteBuffer.
+     */
+    private static class ByteBufferInputStream extends InputStream {
+        final ByteBuffer _buf;
+
+        ByteBufferInputStream(ByteBuffer buf) {
+            _buf = buf;
+        }
+
+        @Override
+        public int read() {
+            return _buf.hasRemaining() ? (_buf.get() & 0xFF) : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (len == 0) return 0;
+            if (!_buf.hasRemaining()) return -1;
+
+            len = Math.min(len, _buf.remaining());
+            _buf.get(b, off, len);
+            return len;
+        }
+
+        @Override
+        public int available() {
+            return _buf.remaining();
+        }
+    }
+
+    /**
+     * Encodes objects using java serialization.
+     */
+    public static final Codec<Object> SERIALIZABLE = new Codec<Object>() {
+
+        public void encode(Object obj, ByteBuffer buf) throws IOException {
+            ObjectOutputStream oos = new ObjectOutputStream(new ByteBufferOutputStream(buf));
+            oos.writeObject(obj);
+            oos.flush();
+        }
+
+        public Object decode(ByteBuffer buf) throws IOException, ClassNotFoundException {
+            return new ObjectInputStream(new ByteBufferInputStream(buf)).readObject();
+        }
+    };
+
+    /**
+     * Encodes a string as its length followed by its UTF-8 bytes, or a
+     * negative length if the string is null.
+     *
+     * @param str the string to be encoded.
+     * @param buf the buffer into which the string is written.
+     */
+    public static void putString(String str, ByteBuffer buf) {
+        if (str == null) {
+            buf.putInt(-1);
+        } else {
+            byte[] bytes = str.getBytes(UTF8);
+            buf.putInt(bytes.length);
+            buf.put(bytes);
+        }
+    }
+
+    /**
+     * Decodes a string that was encoded using putString().
+     *
+     * @see FileBufferCodecs#putString(java.lang.String, java.nio.ByteBuffer)
+     * @param buf the buffer from which the string is read.
+     * @return the decoded string.
+     */
+    public static String getString(ByteBuffer buf) {
+        int length = buf.getInt();
+        if (length < 0) return null;
+
+        byte[] bytes = new byte[length];
+        buf.get(bytes);
+        return new String(bytes, UTF8);
+    }
+
+    /**
+     * Encodes an array of doubles as its length followed by its elements, or
+     * a negative length if the array is null.
+     *
+     * @param vals the array to be encoded.
+     * @param buf the buffer into which the array is written.
+     */
+    public static void putDoubles(double[] vals, ByteBuffer buf) {
+        if (vals == null) {
+            buf.putInt(-1);
+        } else {
+            buf.putInt(vals.length);
+            buf.asDoubleBuffer().put(vals);
+            buf.position(buf.position() + 8 * vals.length);
+        }
+    }
+
+    /**
+     * Decodes an array of doubles that was encoded using putDoubles().
+     *
+     * @see FileBufferCodecs#putDoubles(double[], java.nio.ByteBuffer)
+     * @param buf the buffer from which the array is read.
+     * @return the decoded array.
+     */
+    public static double[] getDoubles(ByteBuffer buf) {
+        int length = buf.getInt();
+        if (length < 0) return null;
+
+        double[] vals = new double[length];
+        buf.asDoubleBuffer().get(vals);
+        buf.position(buf.position() + 8 * length);
+        return vals;
+    }
+
+    /**
+     * Encodes a 2D pose as three doubles: [x, y, theta].
+     */
+    public static final Codec<Pose2D> POSE_2D = new Codec<Pose2D>() {
+
+        public void encode(Pose2D obj, ByteBuffer buf) {
+            buf.putDouble(obj.getX());
+            buf.putDouble(obj.getY());
+            buf.putDouble(obj.getTheta());
+        }
+
+        public Pose2D decode(ByteBuffer buf) {
+            return new Pose2D(buf.getDouble(), buf.getDouble(), buf.getDouble());
+        }
+    };
+
+    /**
+     * Encodes a quaternion as four doubles: [w, x, y, z].
+     */
+    public static final Codec<Quaternion> QUATERNION = new Codec<Quaternion>() {
+
+        public void encode(Quaternion obj, ByteBuffer buf) {
+            putQuaternion(obj, buf);
+        }
+
+        public Quaternion decode(ByteBuffer buf) {
+            return getQuaternion(buf);
+        }
+    };
+
+    private static void putQuaternion(Quaternion q, ByteBuffer buf) {
+        buf.putDouble(q.getW());
+        buf.putDouble(q.getX());
+        buf.putDouble(q.getY());
+        buf.putDouble(q.getZ());
+    }
+
+    private static Quaternion getQuaternion(ByteBuffer buf) {
+        return new Quaternion(buf.getDouble(), buf.getDouble(), buf.getDouble(), buf.getDouble());
+    }
+
+    /**
+     * Encodes a 3D pose as seven doubles: [x, y, z, qw, qx, qy, qz].
+     */
+    public static final Codec<Pose3D> POSE_3D = new Codec<Pose3D>() {
+
+        public void encode(Pose3D obj, ByteBuffer buf) {
+            buf.putDouble(obj.getX());
+            buf.putDouble(obj.getY());
+            buf.putDouble(obj.getZ());
+            putQuaternion(obj.getRotation(), buf);
+        }
+
+        public Pose3D decode(ByteBuffer buf) {
+            return new Pose3D(buf.getDouble(), buf.getDouble(), buf.getDouble(), getQuaternion(buf));
+        }
+    };
+
+    /**
+     * Encodes the status of a Create robot.
+     *
+     * @see CreateStatusCodec
+     */
+    public static final Codec<CreateStatus> CREATE_STATUS = new CreateStatusCodec();
+
+    /**
+     * Encodes a pose that may be null, using a leading presence flag.
+     */
+    private static void putPose(Pose2D pose, ByteBuffer buf) {
+        buf.put((byte)(pose == null ? 0 : 1));
+        if (pose != null) {
+            buf.putDouble(pose.getX());
+            buf.putDouble(pose.getY());
+            buf.putDouble(pose.getTheta());
+        }
+    }
+
+    /**
+     * Decodes a pose that was encoded using putPose().
+     */
+    private static Pose2D getPose(ByteBuffer buf) {
+        return (buf.get() == 0) ? null : new Pose2D(buf.getDouble(), buf.getDouble(), buf.getDouble());
+    }
+
+    /**
+     * Base class for codecs of CARMEN log messages, which handles the fields
+     * that are common to all messages.
+     */
+    private static abstract class CarmenCodec<T extends CarmenReader.Message> implements Codec<T> {
+
+        public void encode(T obj, ByteBuffer buf) {
+            buf.putDouble(obj.ipcTimestamp);
+            putString(obj.ipcHostname, buf);
+            buf.putDouble(obj.loggerTimestamp);
+            encodeFields(obj, buf);
+        }
+
+        public T decode(ByteBuffer buf) {
+            T obj = create();
+            obj.ipcTimestamp = buf.getDouble();
+            obj.ipcHostname = getString(buf);
+            obj.loggerTimestamp = buf.getDouble();
+            decodeFields(obj, buf);
+            return obj;
+        }
+
+        abstract T create();
+        abstract void encodeFields(T obj, ByteBuffer buf);
+        abstract void decodeFields(T obj, ByteBuffer buf);
+    }
+
+    /**
+     * Encodes a CARMEN parameter message.
+     */
+    public static final Codec<CarmenReader.Param> CARMEN_PARAM = new CarmenCodec<CarmenReader.Param>() {
+
+        CarmenReader.Param create() {
+            return new CarmenReader.Param();
+        }
+
+        void encodeFields(CarmenReader.Param obj, ByteBuffer buf) {
+            putString(obj.name, buf);
+            putString(obj.value, buf);
+        }
+
+        void decodeFields(CarmenReader.Param obj, ByteBuffer buf) {
+            obj.name = getString(buf);
+            obj.value = getString(buf);
+        }
+    };
+
+    /**
+     * Encodes a CARMEN synchronization message.
+     */
+    public static final Codec<CarmenReader.Sync> CARMEN_SYNC = new CarmenCodec<CarmenReader.Sync>() {
+
+        CarmenReader.Sync create() {
+            return new CarmenReader.Sync();
+        }
+
+        void encodeFields(CarmenReader.Sync obj, ByteBuffer buf) {
+            putString(obj.tagName, buf);
+        }
+
+        void decodeFields(CarmenReader.Sync obj, ByteBuffer buf) {
+            obj.tagName = getString(buf);
+        }
+    };
+
+    /**
+     * Encodes a CARMEN odometry message.
+     */
+    public static final Codec<CarmenReader.Odom> CARMEN_ODOM = new CarmenCodec<CarmenReader.Odom>() {
+
+        CarmenReader.Odom create() {
+            return new CarmenReader.Odom();
+        }
+
+        void encodeFields(CarmenReader.Odom obj, ByteBuffer buf) {
+            putPose(obj.pose, buf);
+            putPose(obj.vel, buf);
+            buf.putDouble(obj.accel);
+        }
+
+        void decodeFields(CarmenReader.Odom obj, ByteBuffer buf) {
+            obj.pose = getPose(buf);
+            obj.vel = getPose(buf);
+            obj.accel = buf.getDouble();
+        }
+    };
+
+    /**
+     * Encodes a CARMEN front laser message.
+     */
+    public static final Codec<CarmenReader.FLaser> CARMEN_FLASER = new CarmenCodec<CarmenReader.FLaser>() {
+
+        CarmenReader.FLaser create() {
+            return new CarmenReader.FLaser();
+        }
+
+        void encodeFields(CarmenReader.FLaser obj, ByteBuffer buf) {
+            putDoubles(obj.readings, buf);
+            putPose(obj.pose, buf);
+            putPose(obj.odom, buf);
+        }
+
+        void decodeFields(CarmenReader.FLaser obj, ByteBuffer buf) {
+            obj.readings = getDoubles(buf);
+            obj.pose = getPose(buf);
+            obj.odom = getPose(buf);
+        }
+    };
+
+    /**
+     * Encodes a CARMEN rear laser message.
+     */
+    public static final Codec<CarmenReader.RLaser> CARMEN_RLASER = new CarmenCodec<CarmenReader.RLaser>() {
+
+        CarmenReader.RLaser create() {
+            return new CarmenReader.RLaser();
+        }
+
+        void encodeFields(CarmenReader.RLaser obj, ByteBuffer buf) {
+            putDoubles(obj.readings, buf);
+            putPose(obj.pose, buf);
+            putPose(obj.odom, buf);
+        }
+
+        void decodeFields(CarmenReader.RLaser obj, ByteBuffer buf) {
+            obj.readings = getDoubles(buf);
+            obj.pose = getPose(buf);
+            obj.odom = getPose(buf);
+        }
+    };
+
+    /**
+     * The built-in codecs used by the DEFAULT codec, in tag order.  Tags are
+     * stored in files, so new codecs must only ever be appended to this list.
+     */
+    private static final Codec<?>[] TAGGED_CODECS = new Codec<?>[] {
+        null, // Tag 0 is reserved
+        POSE_2D,
+        POSE_3D,
+        QUATERNION,
+        CREATE_STATUS,
+        CARMEN_PARAM,
+        CARMEN_SYNC,
+        CARMEN_ODOM,
+        CARMEN_FLASER,
+        CARMEN_RLASER
+    };
+
+    /**
+     * The classes encoded by each of the built-in codecs, in tag order.
+     */
+    private static final Class<?>[] TAGGED_CLASSES = new Class<?>[] {
+        null, // Tag 0 is reserved
+        Pose2D.class,
+        Pose3D.class,
+        Quaternion.class,
+        CreateStatus.class,
+        CarmenReader.Param.class,
+        CarmenReader.Sync.class,
+        CarmenReader.Odom.class,
+        CarmenReader.FLaser.class,
+        CarmenReader.RLaser.class
+    };
+
+    /**
+     * A lookup table from classes to the tags of their built-in codecs.
+     */
+    private static final Map<Class<?>, Byte> TAGS = new HashMap<Class<?>, Byte>();
+    static {
+        for (int i = 1; i < TAGGED_CLASSES.length; i++) {
+            TAGS.put(TAGGED_CLASSES[i], (byte)i);
+        }
+    }
+
+    /**
+     * Encodes objects using their built-in codec if one exists, and java
+     * serialization otherwise.  Only objects of exactly the built-in classes
+     * use the built-in codecs, so that subclasses are always restored with
+     * their original type.
+     */
+    public static final Codec<Object> DEFAULT = new Codec<Object>() {
+
+        @SuppressWarnings("unchecked")
+        public void encode(Object obj, ByteBuffer buf) throws IOException {
+            Byte tag = (obj == null) ? null : TAGS.get(obj.getClass());
+
+            if (tag == null) {
+                SERIALIZABLE.encode(obj, buf);
+            } else {
+                // The tag was looked up by the class of the object, so the
+                // codec always accepts it
+                buf.put(tag);
+                ((Codec<Object>)TAGGED_CODECS[tag]).encode(obj, buf);
+            }
+        }
+
+        public Object decode(ByteBuffer buf) throws IOException, ClassNotFoundException {
+            byte tag = buf.get(buf.position());
+
+            if (tag == SERIALIZATION_TAG) {
+                return SERIALIZABLE.decode(buf);
+            } else if (tag > 0 && tag < TAGGED_CODECS.length) {
+                buf.get();
+                return TAGGED_CODECS[tag].decode(buf);
+            } else {
+                throw new IOException("Unknown codec tag: " + tag);
+            }
+        }
+    };
+
+    /**
+     * Returns the DEFAULT codec typed for objects of a particular class.  The
+     * DEFAULT codec restores every object with its original type, so it can be
+     * used by a buffer of any type as long as only objects of that type are
+     * added to the buffer.
+     *
+     * @param <T> the type of object stored in the buffer.
+     * @return the DEFAULT codec.
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> Codec<T> defaultCodec() {
+        return (Codec<T>)DEFAULT;
+    }
+}
@@ -0,0 +1,264 @@
+/*
+ *  The MIT License
+ *
+ *  Copyright 2010 Prasanna Velagapudi <psigen@gmail.com>.
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+
+package robotutils.data;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A memory-mapped sidecar file that stores a dense table of the offsets of
+ * records in a FileBuffer, allowing records to be located by their insertion
+ * index without traversing the linked list of record headers.
+ *
+ * The sidecar begins with a small header containing a magic number, the
+ * number of indexed records, and the end position of the last indexed record
+ * in the data file.  The offsets follow as a packed array of longs.  The
+ * header is updated after each offset is written, so an interrupted append
+ * leaves the index valid but stale, in which case the missing records are
+ * simply re-indexed from their headers the next time the buffer is opened.
+ *
+ * The index may be read concurrently with a single thread that appends to it.
+ * Each offset is written before the count is incremented, and the count is
+ * volatile, so readers that check the count first always see valid offsets.
+ *
+ * @see FileBuffer
+ * @author Prasanna Velagapudi <psigen@gmail.com>
+ */
+class FileBufferIndex {
+
+    /**
+     * A marker used to identify valid index files.
+     */
+    static final long MAGIC = 0x4642494458000001L;
+
+    /**
+     * The size of the index header (in bytes): [magic, count, end, reserved]
+     */
+    static final int HEADER_SIZE = 4 * 8;
+
+    /**
+     * The minimum number of offsets for which space is mapped in the index.
+     */
+    static final int MIN_CAPACITY = 1024;
+
+    /**
+     * The maximum number of offsets that can be addressed by a single mapping.
+     */
+    static final int MAX_CAPACITY = (Integer.MAX_VALUE - HEADER_SIZE) / 8;
+
+    final FileChannel _channel;
+    volatile MappedByteBuffer _buffer;
+    int _capacity;
+
+    volatile int _count;
+    long _end;
+
+    /**
+     * Opens the index stored in the specified sidecar file.  If the file does
+     * not exist or does not contain a valid index, an empty index is created.
+     * 
+     * @param file the sidecar file containing the index.
+     * @throws FileNotFoundException Occurs if the sidecar file could not be opened.
+     */
+    FileBufferIndex(File file) throws FileNotFoundException {
+        _channel = new RandomAccessFile(file, "rw").getChannel();
+
+        try {
+            if (!load()) clear();
+        } catch (IOException ex) {
+            throw new RuntimeException(ex);
+        }
+    }
+
+    /**
+     * Returns the sidecar file that stores the index for a given data file.
+     *
+     * @param file the data file of a FileBuffer.
+     * @return the corresponding index file.
+     */
+    static File indexFile(File file) {
+        return new File(file.getPath() + ".idx");
+    }
+
+    /**
+     * Attempts to map an existing index from the sidecar file.
+     *
+     * @return true if a valid index was found.
+     */
+    private boolean load() throws IOException {
+        long length = _channel.size();
+        if (length < HEADER_SIZE + 8L * MIN_CAPACITY) return false;
+        
+        int capacity = (int)Math.min((length - HEADER_SIZE) / 8, MAX_CAPACITY);
+        map(capacity);
+
+        if (_buffer.getLong(0) != MAGIC) return false;
+        _count = (int)_buffer.getLong(8);
+        _end = _buffer.getLong(16);
+
+        return (_count >= 0 && _count <= _capacity && _end >= 0);
+    }
+
+    /**
+     * Maps the sidecar file with room for the given number of offsets.
+     */
+    private void map(int capacity) throws IOException {
+        _buffer = _channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE + 8L * capacity);
+        _capacity = capacity;
+    }
+
+    /**
+     * Writes the current count and end position into the index header.
+     */
+    private void commit() {
+        _buffer.putLong(8, _count);
+        _buffer.putLong(16, _end);
+    }
+
+    /**
+     * Returns the number of records in the index.
+     * 
+     * @return the number of indexed records.
+     */
+    int size() {
+        return _count;
+    }
+
+    /**
+     * Returns the position immediately following the last indexed record in
+     * the data file, which is where the next record will be written.
+     *
+     * @return the end position of the indexed records.
+     */
+    long end() {
+        return _end;
+    }
+
+    /**
+     * Returns the offset of the record with the specified insertion index.
+     *
+     * @param index the insertion index of a record.
+     * @return the offset (UID) of the record.
+     */
+    long get(int index) {
+        int count = _count;
+        if (index < 0 || index >= count)
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + count);
+
+        return _buffer.getLong(HEADER_SIZE + 8 * index);
+    }
+
+    /**
+     * Finds the insertion index of the record at the specified offset.  Since
+     * records are appended to the data file, offsets are stored in ascending
+     * order and can be located using a binary search.
+     *
+     * @param offset the offset (UID) of a record.
+     * @return the insertion index of the record, or -1 if no record starts at this offset.
+     */
+    int indexOf(long offset) {
+        int lo = 0;
+        int hi = _count - 1;
+        MappedByteBuffer buffer = _buffer;
+
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            long val = buffer.getLong(HEADER_SIZE + 8 * mid);
+
+            if (val < offset) {
+                lo = mid + 1;
+            } else if (val > offset) {
+                hi = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Appends the offset of a new record to the index, growing the mapping of
+     * the sidecar file if necessary.
+     *
+     * @param offset the offset (UID) of the new record.
+     * @param end the position immediately following the new record.
+     */
+    void add(long offset, long end) {
+        if (_count == _capacity) {
+            if (_capacity == MAX_CAPACITY)
+                throw new IllegalStateException("Index is full.");
+
+            try {
+                map((int)Math.min(2L * _capacity, MAX_CAPACITY));
+            } catch (IOException ex) {
+                throw new RuntimeException(ex);
+            }
+        }
+
+        _buffer.putLong(HEADER_SIZE + 8 * _count, offset);
+        _end = end;
+        _count = _count + 1;
+        commit();
+    }
+
+    /**
+     * Discards the last indexed record, such as one whose data was lost when
+     * the data file was not completely written.
+     *
+     * @param end the position immediately following the new last record.
+     */
+    void removeLast(long end) {
+        if (_count == 0)
+            throw new IllegalStateException("Index is empty.");
+
+        _count = _count - 1;
+        _end = end;
+        commit();
+    }
+
+    /**
+     * Closes the sidecar file.  The mapping of the index remains valid until
+     * it is garbage collected, but it must no longer be used.
+     */
+    void close() throws IOException {
+        _channel.close();
+    }
+
+    /**
+     * Discards the contents of the index.
+     */
+    final void clear() throws IOException {
+        if (_buffer == null || _capacity < MIN_CAPACITY) map(MIN_CAPACITY);
+
+        _count = 0;
+        _end = 0;
+        _buffer.putLong(0, MAGIC);
+        commit();
+    }
+}
@@ -0,0 +1,391 @@
+/*
+ *  The MIT License
+ *
+ *  Copyright 2010 Prasanna Velagapudi <psigen@gmail.com>.
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+
+package robotutils.data;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * A secondary index over the records of a FileBuffer, keyed by a value such
+ * as a timestamp that is extracted from each object.  This allows the records
+ * within a range of keys to be found without decoding every record.
+ *
+ * The index is sparse: it stores the key of every Nth record (the stride)
+ * along with its insertion index, in a memory-mapped sidecar file alongside
+ * the data file.  A range query uses a binary search over the sparse entries
+ * to find a record shortly before the start of the range, and then decodes
+ * records sequentially from there until the end of the range.
+ *
+ * Keys are expected to be non-decreasing in insertion order, as is the case
+ * for timestamps of recorded data.  Each sparse entry actually stores the
+ * largest key seen up to its record, so a range scan never starts after a
+ * matching record even if some keys are out of order, but it ends at the
+ * first record whose key is past the end of the range.
+ *
+ * The index is updated lazily: any records that were added to the buffer
+ * since the last query are decoded and indexed at the start of each query.
+ *
+ * @see FileBuffer
+ * @author Prasanna Velagapudi <psigen@gmail.com>
+ */
+public class FileBufferKeyIndex<T> implements Closeable {
+
+    /**
+     * Extracts the key that is used to index an object.
+     *
+     * @param <T> the type of object that is indexed.
+     */
+    public interface KeyExtractor<T> {
+
+        /**
+         * Returns the key of an object, such as a timestamp.
+         *
+         * @param obj the object that is being indexed.
+         * @return the key of the object.
+         */
+        public long key(T obj);
+    }
+
+    /**
+     * The default number of records between entries of the index.
+     */
+    public static final int DEFAULT_STRIDE = 64;
+
+    /**
+     * A marker used to identify valid key index files.
+     */
+    static final long MAGIC = 0x46424B4944580001L;
+
+    /**
+     * The size of the index header (in bytes): [magic, count, entries, stride, max key, reserved]
+     */
+    static final int HEADER_SIZE = 6 * 8;
+
+    /**
+     * The size of each entry of the index (in bytes): [key, index]
+     */
+    static final int ENTRY_SIZE = 2 * 8;
+
+    /**
+     * The minimum number of entries for which space is mapped in the index.
+     */
+    static final int MIN_CAPACITY = 256;
+
+    final FileBuffer<T> _buffer;
+    final KeyExtractor<? super T> _extractor;
+    final int _stride;
+    final FileChannel _channel;
+    MappedByteBuffer _map;
+    int _capacity;
+
+    int _count;
+    int _entries;
+    long _maxKey;
+
+    /**
+     * Opens or creates a key index for a FileBuffer using the default stride.
+     *
+     * @see FileBufferKeyIndex#keyIndexFile(java.io.File, java.lang.String)
+     * @param buffer the buffer whose records are indexed.
+     * @param file the sidecar file that stores the index.
+     * @param extractor the function used to extract the key of each object.
+     * @throws FileNotFoundException Occurs if the sidecar file could not be opened.
+     */
+    public FileBufferKeyIndex(FileBuffer<T> buffer, File file, KeyExtractor<? super T> extractor) throws FileNotFoundException {
+        this(buffer, file, extractor, DEFAULT_STRIDE);
+    }
+
+    /**
+     * Opens or creates a key index for a FileBuffer.  If the sidecar file
+     * does not contain a valid index for the buffer, it is rebuilt.  The
+     * sidecar must always be reopened with the same key extractor.
+     *
+     * @param buffer the buffer whose records are indexed.
+     * @param file the sidecar file that stores the index.
+     * @param extractor the function used to extract the key of each object.
+     * @param stride the number of records between entries of the index.
+     * @throws FileNotFoundException Occurs if the sidecar file could not be opened.
+     */
+    public FileBufferKeyIndex(FileBuffer<T> buffer, File file, KeyExtractor<? super T> extractor,
+            int stride) throws FileNotFoundException {
+        if (stride < 1)
+            throw new IllegalArgumentException("Invalid stride: " + stride);
+
+        _buffer = buffer;
+        _extractor = extractor;
+        _stride = stride;
+        _channel = new RandomAccessFile(file, "rw").getChannel();
+
+        try {
+            if (!load()) clear();
+        } catch (IOException ex) {
+            throw new RuntimeException(ex);
+        }
+    }
+
+    /**
+     * Returns a sidecar file for a named key index of a FileBuffer data file.
+     *
+     * @param file the data file of a FileBuffer.
+     * @param name the name of the key index, such as "time".
+     * @return the corresponding key index file.
+     */
+    public static File keyIndexFile(File file, String name) {
+        return new File(file.getPath() + "." + name + ".kidx");
+    }
+
+    /**
+     * Attempts to map an existing index from the sidecar file.
+     *
+     * @return true if a valid index was found.
+     */
+    private boolean load() throws IOException {
+        long length = _channel.size();
+        if (length < HEADER_SIZE + (long)ENTRY_SIZE * MIN_CAPACITY) return false;
+
+        map((int)Math.min((length - HEADER_SIZE) / ENTRY_SIZE, Integer.MAX_VALUE / ENTRY_SIZE));
+
+        if (_map.getLong(0) != MAGIC) return false;
+        if (_map.getLong(24) != _stride) return false;
+        _count = (int)_map.getLong(8);
+        _entries = (int)_map.getLong(16);
+        _maxKey = _map.getLong(32);
+
+        // The index is stale if the buffer no longer contains its records
+        return (_count >= 0 && _count <= _buffer.size()
+                && _entries == (_count + _stride - 1) / _stride && _entries <= _capacity);
+    }
+
+    /**
+     * Maps the sidecar file with room for the given number of entries.
+     */
+    private void map(int capacity) throws IOException {
+        _map = _channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE + (long)ENTRY_SIZE * capacity);
+        _capacity = capacity;
+    }
+
+    /**
+     * Writes the current state of the index into its header.
+     */
+    private void commit() {
+        _map.putLong(8, _count);
+        _map.putLong(16, _entries);
+        _map.putLong(32, _maxKey);
+    }
+
+    /**
+     * Discards the contents of the index.
+     */
+    private void clear() throws IOException {
+        if (_map == null || _capacity < MIN_CAPACITY) map(MIN_CAPACITY);
+
+        _count = 0;
+        _entries = 0;
+        _maxKey = Long.MIN_VALUE;
+        _map.putLong(0, MAGIC);
+        _map.putLong(24, _stride);
+        commit();
+    }
+
+    /**
+     * Indexes any records that were added to the buffer since the last
+     * update, decoding them on a background thread.
+     */
+    public synchronized void update() {
+        int size = _buffer.size();
+        if (_count >= size) return;
+
+        FileBuffer<T>.FileBufferPrefetchIterator it = _buffer.prefetchIterator(_count);
+        try {
+            while (_count < size && it.hasNext()) {
+                _maxKey = Math.max(_maxKey, _extractor.key(it.next().getValue()));
+
+                if (_count % _stride == 0) {
+                    if (_entries == _capacity) map(2 * _capacity);
+                    _map.putLong(HEADER_SIZE + ENTRY_SIZE * _entries, _maxKey);
+                    _map.putLong(HEADER_SIZE + ENTRY_SIZE * _entries + 8, _count);
+                    _entries++;
+                }
+                _count++;
+            }
+            commit();
+        } catch (IOException ex) {
+            throw new RuntimeException(ex);
+        } finally {
+            it.close();
+        }
+    }
+
+    /**
+     * Returns the number of records that are covered by the index.
+     *
+     * @return the number of indexed records.
+     */
+    public synchronized int size() {
+        return _count;
+    }
+
+    /**
+     * Finds the insertion index from which a scan for a key should start.
+     * All records before this index have keys smaller than the given key.
+     *
+     * @param key the smallest key that is being searched for.
+     * @return the insertion index of the first record that may match the key.
+     */
+    public synchronized int seek(long key) {
+        update();
+
+        // Find the last entry whose running maximum key is below the key
+        int lo = 0;
+        int hi = _entries - 1;
+        int found = -1;
+
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            if (_map.getLong(HEADER_SIZE + ENTRY_SIZE * mid) < key) {
+                found = mid;
+                lo = mid + 1;
+            } else {
+                hi = mid - 1;
+            }
+        }
+
+        return (found < 0) ? 0 : (int)_map.getLong(HEADER_SIZE + ENTRY_SIZE * found + 8) + 1;
+    }
+
+    /**
+     * Returns an iterator over the records whose keys lie in the range
+     * [fromKey, toKey), in insertion order.  Only the records between the
+     * nearest index entry and the end of the range are decoded.
+     *
+     * <b>Note: the iterator should be closed if it is abandoned before
+     * reaching the end of the range, to stop its background task.</b>
+     *
+     * @param fromKey the lowest key in the range (inclusive).
+     * @param toKey the highest key in the range (exclusive).
+     * @return an iterator over the entries of the matching records.
+     */
+    public RangeIterator range(long fromKey, long toKey) {
+        return new RangeIterator(seek(fromKey), fromKey, toKey);
+    }
+
+    /**
+     * Returns a map of the records whose keys lie in the range
+     * [fromKey, toKey), keyed by their UIDs.
+     *
+     * <b>Note: all of the matching objects are decoded and held in memory.</b>
+     *
+     * @param fromKey the lowest key in the range (inclusive).
+     * @param toKey the highest key in the range (exclusive).
+     * @return a map from the UIDs of the matching records to their objects.
+     */
+    public SortedMap<Long, T> subMap(long fromKey, long toKey) {
+        SortedMap<Long, T> map = new TreeMap<Long, T>();
+
+        RangeIterator it = range(fromKey, toKey);
+        while (it.hasNext()) {
+            Map.Entry<Long, T> e = it.next();
+            map.put(e.getKey(), e.getValue());
+        }
+
+        return map;
+    }
+
+    /**
+     * Implements an iterator over the records within a range of keys, which
+     * scans forward from a starting record until the end of the range.
+     */
+    public class RangeIterator implements Iterator<Map.Entry<Long, T>>, Closeable {
+        final FileBuffer<T>.FileBufferPrefetchIterator _iterator;
+        final long _fromKey;
+        final long _toKey;
+        Map.Entry<Long, T> _next = null;
+        boolean _done = false;
+
+        private RangeIterator(int index, long fromKey, long toKey) {
+            _iterator = _buffer.prefetchIterator(index);
+            _fromKey = fromKey;
+            _toKey = toKey;
+        }
+
+        public boolean hasNext() {
+            while (_next == null && !_done) {
+                if (!_iterator.hasNext()) {
+                    _done = true;
+                    break;
+                }
+
+                Map.Entry<Long, T> e = _iterator.next();
+                long key = _extractor.key(e.getValue());
+                if (key >= _toKey) {
+                    close();
+                } else if (key >= _fromKey) {
+                    _next = e;
+                }
+            }
+            return (_next != null);
+        }
+
+        public Map.Entry<Long, T> next() {
+            if (!hasNext())
+                throw new NoSuchElementException();
+
+            Map.Entry<Long, T> e = _next;
+            _next = null;
+            return e;
+        }
+
+        /**
+         * Stops the scan and its background task.
+         */
+        public void close() {
+            _done = true;
+            _iterator.close();
+        }
+
+        public void remove() {
+            throw new UnsupportedOperationException("Not supported.");
+        }
+    }
+
+    /**
+     * Closes the sidecar file.  The buffer itself is not closed.
+     *
+     * @throws IOException Indicates that the sidecar file could not be closed.
+     */
+    public synchronized void close() throws IOException {
+        _channel.close();
+    }
+}
@@ -25,9 +25,9 @@
 package robotutils.data;
 
 import java.util.AbstractSet;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
-import java.util.HashSet;
 import java.util.Iterator;
 import java.util.NoSuchElementException;
 import java.util.Set;
@@ -36,6 +36,12 @@ import org.jgrapht.graph.AbstractGraph;
 
 /**
  * Creates a graph representation of an underlying grid data structure.
+ *
+ * Vertices of this graph are coordinate arrays, which are allocated as the
+ * graph is traversed.  For large maps, IndexedGridGraph provides the same
+ * kind of implicit graph using integer vertex IDs.
+ *
+ * @see IndexedGridGraph
  * @author Prasanna Velagapudi <psigen@gmail.com>
  */
 public class GridGraph extends AbstractGraph<int[], int[][]> {
@@ -71,13 +77,13 @@ public class GridGraph extends AbstractGraph<int[], int[][]> {
                 }
 
                 public Object next() {
-                    hasNext = inc();
-
-                    if (hasNext) {
-                        return Arrays.copyOf(idx, idx.length);
-                    } else {
+                    if (!hasNext) {
                         throw new NoSuchElementException();
                     }
+
+                    int[] v = Arrays.copyOf(idx, idx.length);
+                    hasNext = inc();
+                    return v;
                 }
 
                 public void remove() {
@@ -147,6 +153,52 @@ public class GridGraph extends AbstractGraph<int[], int[][]> {
 
     }
 
+    /**
+     * A set of edges that compares edges by the values of their endpoints,
+     * since arrays only support identity comparison.  Since the graph is
+     * undirected, an edge matches in either direction.  The edges of a single
+     * vertex are distinct by construction, so they are simply stored in a
+     * list rather than hashed.
+     */
+    class EdgeList extends AbstractSet<int[][]> {
+        final ArrayList<int[][]> _edges;
+
+        EdgeList(int capacity) {
+            _edges = new ArrayList<int[][]>(capacity);
+        }
+
+        @Override
+        public boolean add(int[][] e) {
+            _edges.add(e);
+            return true;
+        }
+
+        @Override
+        public boolean contains(Object o) {
+            if (!(o instanceof int[][])) return false;
+            int[][] e = (int[][])o;
+            if (e.length != 2) return false;
+            
+            for (int[][] edge : _edges) {
+                if (Arrays.equals(edge[0], e[0]) && Arrays.equals(edge[1], e[1]))
+                    return true;
+                if (Arrays.equals(edge[0], e[1]) && Arrays.equals(edge[1], e[0]))
+                    return true;
+            }
+            return false;
+        }
+
+        @Override
+        public Iterator<int[][]> iterator() {
+            return _edges.iterator();
+        }
+
+        @Override
+        public int size() {
+            return _edges.size();
+        }
+    }
+
     public GridGraph(GridMap map) {
         _map = map;
     }
@@ -234,7 +286,7 @@ public class GridGraph extends AbstractGraph<int[], int[][]> {
     public Set<int[][]> edgesOf(int[] v) {
 
         int numNbrs = 2 * _map.dims();
-        HashSet edges = new HashSet(numNbrs);
+        EdgeList edges = new EdgeList(numNbrs);
 
         for (int i = 0; i < _map.dims(); i++) {
             if (v[i] < _map.size(i) - 1) {
@@ -0,0 +1,563 @@
+/*
+ *  The MIT License
+ * 
+ *  Copyright 2011 Prasanna Velagapudi <psigen@gmail.com>.
+ * 
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ * 
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ * 
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+
+package robotutils.data;
+
+import java.util.Arrays;
+import robotutils.util.ParallelUtils;
+import robotutils.util.ParallelUtils.RangeTask;
+
+/**
+ * Contains bulk operations over the cells of a GridMap, such as filling,
+ * element-wise transformation, reduction and separable filtering.
+ *
+ * Operations are split into chunks over the linear index of the map and
+ * run in parallel.  If the map is a StaticMap, the chunks operate directly on
+ * its backing array, otherwise cells are accessed through get() and set(), in
+ * which case the map implementation must tolerate concurrent access to
+ * distinct cells.
+ *
+ * Cell values are treated as signed bytes, so that negative values continue
+ * to represent obstacles as they do in the grid planners.
+ */
+public class GridMapOps {
+
+    /**
+     * An element-wise function over cell values.
+     */
+    public interface ByteOperator {
+        public byte apply(byte val);
+    }
+
+    /**
+     * An element-wise test over cell values.
+     */
+    public interface BytePredicate {
+        public boolean test(byte val);
+    }
+
+    /**
+     * Iterates over the coordinates of a map in linear index order, starting
+     * at an arbitrary linear index.  Used to access maps that do not expose
+     * a backing array.
+     */
+    static final class Cursor {
+        final int[] sizes;
+        final int[] idx;
+
+        Cursor(int[] sizes, int start) {
+            this.sizes = sizes;
+            this.idx = new int[sizes.length];
+
+            for (int i = 0; i < sizes.length; i++) {
+                idx[i] = start % sizes[i];
+                start /= sizes[i];
+            }
+        }
+
+        void next() {
+            for (int i = 0; i < sizes.length; i++) {
+                if (idx[i] < sizes[i] - 1) {
+                    idx[i]++;
+                    return;
+                } else {
+                    idx[i] = 0;
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the backing array of a map if it is directly accessible.
+     * @param map the map whose data is requested.
+     * @return the backing array of the map, or null if there is none.
+     */
+    static byte[] data(GridMap map) {
+        return (map instanceof StaticMap) ? ((StaticMap)map)._map : null;
+    }
+
+    /**
+     * Computes the distance in the linear index between neighboring cells
+     * along each dimension of a map of the given sizes.
+     * @param sizes the sizes of each dimension of a map.
+     * @return the linear stride of each dimension.
+     */
+    static int[] strides(int[] sizes) {
+        int[] strides = new int[sizes.length];
+
+        int stride = 1;
+        for (int i = 0; i < sizes.length; i++) {
+            strides[i] = stride;
+            stride *= sizes[i];
+        }
+
+        return strides;
+    }
+
+    /**
+     * Creates a StaticMap with the same size and contents as the given map.
+     * @param map the map that will be copied.
+     * @return a new StaticMap containing a copy of the map.
+     */
+    public static StaticMap copy(final GridMap map) {
+        final StaticMap copy = new StaticMap(map.sizes());
+        final byte[] src = data(map);
+
+        if (src != null) {
+            System.arraycopy(src, 0, copy._map, 0, src.length);
+        } else {
+            final int[] sizes = map.sizes();
+            ParallelUtils.forRange(map.length(), new RangeTask() {
+                public void run(int chunk, int start, int end) {
+                    Cursor c = new Cursor(sizes, start);
+                    for (int i = start; i < end; i++, c.next()) {
+                        copy._map[i] = map.get(c.idx);
+                    }
+                }
+            });
+        }
+
+        return copy;
+    }
+
+    /**
+     * Sets every cell in the map to the specified value.
+     * @param map the map that will be filled.
+     * @param val the new value of every cell.
+     */
+    public static void fill(final GridMap map, final byte val) {
+        final byte[] data = data(map);
+        final int[] sizes = map.sizes();
+
+        ParallelUtils.forRange(map.length(), new RangeTask() {
+            public void run(int chunk, int start, int end) {
+                if (data != null) {
+                    Arrays.fill(data, start, end, val);
+                } else {
+                    Cursor c = new Cursor(sizes, start);
+                    for (int i = start; i < end; i++, c.next()) {
+                        map.set(val, c.idx);
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Sets every cell within an axis-aligned region of the map to the
+     * specified value.  The region is clipped to the bounds of the map.
+     * 
+     * @param map the map that will be filled.
+     * @param val the new value of every cell in the region.
+     * @param min the lowest corner of the region (inclusive).
+     * @param max the highest corner of the region (exclusive).
+     */
+    public static void fill(final GridMap map, final byte val, int[] min, int[] max) {
+        final int dims = map.dims();
+        if (min.length != dims || max.length != dims)
+            throw new IllegalArgumentException("Region dimensions do not match map.");
+
+        // Clip the region to the map and find the number of rows in it
+        final int[] sizes = map.sizes();
+        final int[] lo = new int[dims];
+        final int[] hi = new int[dims];
+        int rows = 1;
+
+        for (int i = 0; i < dims; i++) {
+            lo[i] = Math.max(min[i], 0);
+            hi[i] = Math.min(max[i], sizes[i]);
+            if (hi[i] <= lo[i]) return;
+            if (i > 0) rows *= hi[i] - lo[i];
+        }
+
+        // Fill each row along the first dimension separately
+        final byte[] data = data(map);
+        final int[] strides = strides(sizes);
+        final int rowLength = hi[0] - lo[0];
+
+        ParallelUtils.forRange(rows, Math.max(1, ParallelUtils.DEFAULT_GRAIN / rowLength), new RangeTask() {
+            public void run(int chunk, int start, int end) {
+                int[] idx = new int[dims];
+                
+                for (int r = start; r < end; r++) {
+                    
+                    // Find the coordinate of the first cell in this row
+                    int rem = r;
+                    int offset = lo[0];
+                    idx[0] = lo[0];
+                    for (int i = 1; i < dims; i++) {
+                        idx[i] = lo[i] + rem % (hi[i] - lo[i]);
+                        rem /= (hi[i] - lo[i]);
+                        offset += idx[i] * strides[i];
+                    }
+
+                    if (data != null) {
+                        Arrays.fill(data, offset, offset + rowLength, val);
+                    } else {
+                        for (idx[0] = lo[0]; idx[0] < hi[0]; idx[0]++) {
+                            map.set(val, idx);
+                        }
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Replaces every cell in the map with the result of applying the given
+     * operator to its current value.
+     * 
+     * @param map the map that will be transformed.
+     * @param op the operator applied to each cell.
+     */
+    public static void transform(final GridMap map, final ByteOperator op) {
+        final byte[] data = data(map);
+        final int[] sizes = map.sizes();
+
+        ParallelUtils.forRange(map.length(), new RangeTask() {
+            public void run(int chunk, int start, int end) {
+                if (data != null) {
+                    for (int i = start; i < end; i++) {
+                        data[i] = op.apply(data[i]);
+                    }
+                } else {
+                    Cursor c = new Cursor(sizes, start);
+                    for (int i = start; i < end; i++, c.next()) {
+                        map.set(op.apply(map.get(c.idx)), c.idx);
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Replaces every cell in the map with one of two values depending on
+     * whether it is below the given level.
+     *
+     * @param map the map that will be thresholded.
+     * @param level the lowest value that is mapped to the high value.
+     * @param low the value assigned to cells below the level.
+     * @param high the value assigned to all other cells.
+     */
+    public static void threshold(GridMap map, final byte level, final byte low, final byte high) {
+        transform(map, new ByteOperator() {
+            public byte apply(byte val) {
+                return (val < level) ? low : high;
+            }
+        });
+    }
+
+    /**
+     * Counts the number of cells in the map that satisfy the given predicate.
+     * 
+     * @param map the map that will be searched.
+     * @param pred the test applied to each cell.
+     * @return the number of cells for which the test was true.
+     */
+    public static long count(final GridMap map, final BytePredicate pred) {
+        final byte[] data = data(map);
+        final int[] sizes = map.sizes();
+        final long[] counts = new long[ParallelUtils.chunks(map.length(), ParallelUtils.DEFAULT_GRAIN)];
+
+        ParallelUtils.forRange(map.length(), new RangeTask() {
+            public void run(int chunk, int start, int end) {
+                long count = 0;
+
+                if (data != null) {
+                    for (int i = start; i < end; i++) {
+                        if (pred.test(data[i])) count++;
+                    }
+                } else {
+                    Cursor c = new Cursor(sizes, start);
+                    for (int i = start; i < end; i++, c.next()) {
+                        if (pred.test(map.get(c.idx))) count++;
+                    }
+                }
+
+                counts[chunk] = count;
+            }
+        });
+
+        long count = 0;
+        for (long c : counts) {
+            count += c;
+        }
+        return count;
+    }
+
+    /**
+     * Computes a histogram of the cell values in the map.  Values are binned
+     * by their unsigned representation, so a value <i>v</i> is counted in
+     * the bin <code>v &amp; 0xFF</code>.
+     *
+     * @param map the map that will be summarized.
+     * @return an array of 256 bins containing the number of cells with each value.
+     */
+    public static long[] histogram(final GridMap map) {
+        final byte[] data = data(map);
+        final int[] sizes = map.sizes();
+        final long[][] bins = new long[ParallelUtils.chunks(map.length(), ParallelUtils.DEFAULT_GRAIN)][];
+
+        ParallelUtils.forRange(map.length(), new RangeTask() {
+            public void run(int chunk, int start, int end) {
+                long[] hist = new long[256];
+
+                if (data != null) {
+                    for (int i = start; i < end; i++) {
+                        hist[data[i] & 0xFF]++;
+                    }
+                } else {
+                    Cursor c = new Cursor(sizes, start);
+                    for (int i = start; i < end; i++, c.next()) {
+                        hist[map.get(c.idx) & 0xFF]++;
+                    }
+                }
+
+                bins[chunk] = hist;
+            }
+        });
+
+        long[] hist = new long[256];
+        for (long[] b : bins) {
+            for (int i = 0; i < hist.length; i++) {
+                hist[i] += b[i];
+            }
+        }
+        return hist;
+    }
+
+    /**
+     * Finds the lowest signed cell value in the map.
+     * @param map the map that will be searched.
+     * @return the lowest cell value, or Byte.MAX_VALUE if the map is empty.
+     */
+    public static byte min(GridMap map) {
+        long[] hist = histogram(map);
+
+        for (int v = Byte.MIN_VALUE; v <= Byte.MAX_VALUE; v++) {
+            if (hist[v & 0xFF] > 0) return (byte)v;
+        }
+        return Byte.MAX_VALUE;
+    }
+
+    /**
+     * Finds the highest signed cell value in the map.
+     * @param map the map that will be searched.
+     * @return the highest cell value, or Byte.MIN_VALUE if the map is empty.
+     */
+    public static byte max(GridMap map) {
+        long[] hist = histogram(map);
+
+        for (int v = Byte.MAX_VALUE; v >= Byte.MIN_VALUE; v--) {
+            if (hist[v & 0xFF] > 0) return (byte)v;
+        }
+        return Byte.MIN_VALUE;
+    }
+
+    /**
+     * A one-dimensional filter that is applied along every line of a map.
+     */
+    private interface LineFilter {
+
+        /**
+         * Filters a line of cell values.
+         * @param in the original values of the line.
+         * @param out the array in which the filtered values are stored.
+         * @param n the length of the line.
+         * @param scratch the scratch space allocated for this filter.
+         */
+        public void apply(byte[] in, byte[] out, int n, int[][] scratch);
+
+        /**
+         * Returns the scratch space needed to filter lines of the given length.
+         */
+        public int[][] scratch(int n);
+    }
+
+    /**
+     * Applies a one-dimensional filter in place along each line of a map that
+     * is parallel to the specified dimension.
+     */
+    private static void filterLines(final StaticMap map, int dim, final LineFilter filter) {
+        final byte[] data = map._map;
+        final int n = map._sizes[dim];
+        final int stride = map._cumSizes[dim];
+        final int lines = map.length() / n;
+
+        ParallelUtils.forRange(lines, Math.max(1, ParallelUtils.DEFAULT_GRAIN / n), new RangeTask() {
+            public void run(int chunk, int start, int end) {
+                byte[] in = new byte[n];
+                byte[] out = new byte[n];
+                int[][] scratch = filter.scratch(n);
+
+                for (int l = start; l < end; l++) {
+                    int base = (l % stride) + (l / stride) * stride * n;
+
+                    for (int j = 0, k = base; j < n; j++, k += stride) {
+                        in[j] = data[k];
+                    }
+
+                    filter.apply(in, out, n, scratch);
+
+                    for (int j = 0, k = base; j < n; j++, k += stride) {
+                        data[k] = out[j];
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Convolves the map with a separable kernel, by applying the same 1-D
+     * kernel along each dimension in turn.  Cells beyond the edge of the map
+     * are treated as having the value of the nearest edge cell.  The result
+     * is rounded and clamped to the signed byte range after each dimension.
+     *
+     * @param map the map that will be convolved.
+     * @param kernel a 1-D kernel of odd length, centered on the middle element.
+     * @return a new map containing the result of the convolution.
+     */
+    public static StaticMap convolve(GridMap map, final double[] kernel) {
+        if (kernel.length % 2 != 1)
+            throw new IllegalArgumentException("Kernel must have odd length.");
+
+        final int ctr = kernel.length / 2;
+        StaticMap result = copy(map);
+
+        LineFilter filter = new LineFilter() {
+            public void apply(byte[] in, byte[] out, int n, int[][] scratch) {
+                for (int j = 0; j < n; j++) {
+                    double sum = 0.0;
+                    for (int t = 0; t < kernel.length; t++) {
+                        int k = Math.min(Math.max(j + t - ctr, 0), n - 1);
+                        sum += kernel[t] * in[k];
+                    }
+
+                    long val = Math.round(sum);
+                    out[j] = (byte)Math.min(Math.max(val, Byte.MIN_VALUE), Byte.MAX_VALUE);
+                }
+            }
+
+            public int[][] scratch(int n) {
+                return null;
+            }
+        };
+
+        for (int d = 0; d < result.dims(); d++) {
+            filterLines(result, d, filter);
+        }
+        return result;
+    }
+
+    /**
+     * Creates a separable running maximum (or minimum) filter over a window
+     * of 2r+1 cells, using the van Herk/Gil-Werman algorithm, which requires
+     * a constant number of comparisons per cell regardless of the radius.
+     */
+    private static LineFilter extremumFilter(final int radius, final boolean isMax) {
+        final int w = 2 * radius + 1;
+
+        return new LineFilter() {
+            public void apply(byte[] in, byte[] out, int n, int[][] scratch) {
+                int[] p = scratch[0];
+                int[] g = scratch[1];
+                int[] h = scratch[2];
+                int m = n + 2 * radius;
+
+                // Pad the line so that cells beyond the edges never win
+                for (int i = 0; i < m; i++) {
+                    int j = i - radius;
+                    if (j < 0 || j >= n) {
+                        p[i] = Integer.MIN_VALUE;
+                    } else {
+                        p[i] = isMax ? in[j] : -in[j];
+                    }
+                }
+
+                // Compute running maxima forward and backward within blocks
+                for (int i = 0; i < m; i++) {
+                    g[i] = (i % w == 0) ? p[i] : Math.max(g[i - 1], p[i]);
+                }
+                for (int i = m - 1; i >= 0; i--) {
+                    h[i] = (i % w == w - 1 || i == m - 1) ? p[i] : Math.max(h[i + 1], p[i]);
+                }
+
+                // Each window spans at most two blocks
+                for (int j = 0; j < n; j++) {
+                    int val = Math.max(h[j], g[j + w - 1]);
+                    out[j] = (byte)(isMax ? val : -val);
+                }
+            }
+
+            public int[][] scratch(int n) {
+                int m = n + 2 * radius;
+                return new int[][] { new int[m], new int[m], new int[m] };
+            }
+        };
+    }
+
+    /**
+     * Replaces each cell with the maximum value within a box of radius
+     * <i>r</i> cells around it (a morphological dilation).
+     *
+     * @param map the map that will be dilated.
+     * @param radius the radius of the box in cells along each dimension.
+     * @return a new map containing the dilated values.
+     */
+    public static StaticMap dilate(GridMap map, int radius) {
+        if (radius < 0)
+            throw new IllegalArgumentException("Radius cannot be negative.");
+        
+        StaticMap result = copy(map);
+        LineFilter filter = extremumFilter(radius, true);
+
+        for (int d = 0; d < result.dims(); d++) {
+            filterLines(result, d, filter);
+        }
+        return result;
+    }
+
+    /**
+     * Replaces each cell with the minimum value within a box of radius
+     * <i>r</i> cells around it (a morphological erosion).  Since obstacles
+     * are represented by negative values, this inflates the obstacles in a
+     * planning map by the given radius.
+     *
+     * @param map the map that will be eroded.
+     * @param radius the radius of the box in cells along each dimension.
+     * @return a new map containing the eroded values.
+     */
+    public static StaticMap erode(GridMap map, int radius) {
+        if (radius < 0)
+            throw new IllegalArgumentException("Radius cannot be negative.");
+
+        StaticMap result = copy(map);
+        LineFilter filter = extremumFilter(radius, false);
+
+        for (int d = 0; d < result.dims(); d++) {
+            filterLines(result, d, filter);
+        }
+        return result;
+    }
+}
@@ -29,10 +29,11 @@ package robotutils.data;
 
 import java.awt.image.BufferedImage;
 import java.awt.image.WritableRaster;
-import java.util.Arrays;
 import org.jgrapht.graph.DefaultWeightedEdge;
 import org.jgrapht.graph.SimpleWeightedGraph;
 import org.jgrapht.graph.UnmodifiableGraph;
+import robotutils.util.ParallelUtils;
+import robotutils.util.ParallelUtils.RangeTask;
 
 /**
  * Helper class that converts GridMaps into a variety of useful formats.
@@ -40,57 +41,126 @@ import org.jgrapht.graph.UnmodifiableGraph;
  */
 public class GridMapUtils {
 
+    /**
+     * Converts a GridMap into a jgrapht graph, where each non-obstacle cell is
+     * a vertex and adjacent non-obstacle cells are connected by an edge whose
+     * weight is the average of their costs plus one.
+     *
+     * <i>Note: this creates a vertex and edge object for every cell and
+     * adjacency in the map.  For large maps, use toCsrGraph() instead.</i>
+     *
+     * @see GridMapUtils#toCsrGraph(robotutils.data.GridMap)
+     * @param map the map that will be converted.
+     * @return an unmodifiable graph representing the map.
+     */
     public static UnmodifiableGraph<Coordinate, DefaultWeightedEdge> toGraph(GridMap map) {
 
         SimpleWeightedGraph<Coordinate, DefaultWeightedEdge> graph =
                 new SimpleWeightedGraph<Coordinate, DefaultWeightedEdge>(DefaultWeightedEdge.class);
-        
-        int dims = map.dims();
-        int length = map.length();
-        int[] sizes = map.sizes();
-        int[] idx = new int[dims];
+
+        // Build the adjacency structure in bulk, then create graph objects
+        CsrGraph csr = toCsrGraph(map);
+        int[] offsets = csr.offsets();
+        int[] targets = csr.targets();
+        double[] weights = csr.weights();
 
         // Add every vertex that is not an obstacle
-        for (int v = 0; v < length; v++) {
-            if (map.get(idx) >= 0) {
-                graph.addVertex(new IntCoord(idx));
+        IntCoord[] coords = new IntCoord[csr.idCount()];
+        GridMapOps.Cursor c = new GridMapOps.Cursor(map.sizes(), 0);
+        for (int v = 0; v < coords.length; v++, c.next()) {
+            if (csr._present[v]) {
+                coords[v] = new IntCoord(c.idx);
+                graph.addVertex(coords[v]);
             }
+        }
 
-            for (int i = 0; i < dims; i++) {
-                if (idx[i] < sizes[i] - 1) {
-                    idx[i]++;
-                    break;
-                } else {
-                    idx[i] = 0;
+        // Add every non-obstacle edge
+        for (int v = 0; v < coords.length; v++) {
+            for (int a = offsets[v]; a < offsets[v + 1]; a++) {
+                if (v < targets[a]) {
+                    DefaultWeightedEdge e = graph.addEdge(coords[v], coords[targets[a]]);
+                    graph.setEdgeWeight(e, weights[a]);
                 }
             }
         }
 
-        // Add every non-obstacle edge
-        for (int v = 0; v < length; v++) {
-            for (int i = 0; i < dims; i++) {
-                if (idx[i] < sizes[i] - 1) {
-                    int[] idx1 = Arrays.copyOf(idx, idx.length);
-                    idx1[i]++;
-
-                    if (map.get(idx) >= 0 && map.get(idx1) >= 0) {
-                        DefaultWeightedEdge e = graph.addEdge(new IntCoord(idx), new IntCoord(idx1));
-                        graph.setEdgeWeight(e, ((double)map.get(idx) + (double)map.get(idx1))/2.0 + 1.0);
+        return new UnmodifiableGraph<Coordinate, DefaultWeightedEdge>(graph);
+    }
+
+    /**
+     * Converts a GridMap into a compressed sparse row graph, where each
+     * non-obstacle cell is a vertex identified by its linear index in the map
+     * (as used by StaticMap), and adjacent non-obstacle cells along each
+     * dimension are connected by an edge whose weight is the average of their
+     * costs plus one.  The conversion is performed in parallel and allocates
+     * only the CSR arrays.
+     *
+     * @param map the map that will be converted.
+     * @return a graph representing the map.
+     */
+    public static CsrGraph toCsrGraph(GridMap map) {
+        final StaticMap src = (map instanceof StaticMap) ? (StaticMap)map : GridMapOps.copy(map);
+        final byte[] data = src._map;
+        final int[] sizes = src._sizes;
+        final int[] strides = src._cumSizes;
+        final int dims = sizes.length;
+        final int length = src.length();
+
+        // Count the traversable neighbors of each traversable cell
+        final int[] offsets = new int[length + 1];
+        final boolean[] present = new boolean[length];
+        ParallelUtils.forRange(length, new RangeTask() {
+            public void run(int chunk, int start, int end) {
+                GridMapOps.Cursor c = new GridMapOps.Cursor(sizes, start);
+                for (int v = start; v < end; v++, c.next()) {
+                    if (data[v] < 0) continue;
+                    present[v] = true;
+
+                    int degree = 0;
+                    for (int i = 0; i < dims; i++) {
+                        if (c.idx[i] > 0 && data[v - strides[i]] >= 0) degree++;
+                        if (c.idx[i] < sizes[i] - 1 && data[v + strides[i]] >= 0) degree++;
                     }
+                    offsets[v + 1] = degree;
                 }
             }
+        });
 
-            for (int i = 0; i < dims; i++) {
-                if (idx[i] < sizes[i] - 1) {
-                    idx[i]++;
-                    break;
-                } else {
-                    idx[i] = 0;
+        // Convert the degrees into row offsets
+        for (int v = 0; v < length; v++) {
+            offsets[v + 1] += offsets[v];
+        }
+
+        // Fill in the neighbors of each cell in ascending order
+        final int[] targets = new int[offsets[length]];
+        final double[] weights = new double[offsets[length]];
+        ParallelUtils.forRange(length, new RangeTask() {
+            public void run(int chunk, int start, int end) {
+                GridMapOps.Cursor c = new GridMapOps.Cursor(sizes, start);
+                for (int v = start; v < end; v++, c.next()) {
+                    if (data[v] < 0) continue;
+                    int arc = offsets[v];
+
+                    for (int i = dims - 1; i >= 0; i--) {
+                        int u = v - strides[i];
+                        if (c.idx[i] > 0 && data[u] >= 0) {
+                            targets[arc] = u;
+                            weights[arc++] = ((double)data[v] + (double)data[u])/2.0 + 1.0;
+                        }
+                    }
+
+                    for (int i = 0; i < dims; i++) {
+                        int u = v + strides[i];
+                        if (c.idx[i] < sizes[i] - 1 && data[u] >= 0) {
+                            targets[arc] = u;
+                            weights[arc++] = ((double)data[v] + (double)data[u])/2.0 + 1.0;
+                        }
+                    }
                 }
             }
-        }
+        });
 
-        return new UnmodifiableGraph<Coordinate, DefaultWeightedEdge>(graph);
+        return new CsrGraph(offsets, targets, weights, present);
     }
 
     public static BufferedImage toImage(StaticMap map) {
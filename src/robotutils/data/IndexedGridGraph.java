@@ -0,0 +1,487 @@
+/*
+ *  The MIT License
+ * 
+ *  Copyright 2011 Prasanna Velagapudi <psigen@gmail.com>.
+ * 
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ * 
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ * 
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+
+package robotutils.data;
+
+import java.util.AbstractSet;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import org.jgrapht.EdgeFactory;
+import org.jgrapht.UndirectedGraph;
+import org.jgrapht.graph.AbstractGraph;
+
+/**
+ * Creates an implicit graph representation of an underlying grid map, in
+ * which vertices are identified by the linear index of their cell (as used
+ * by StaticMap) and edges by a pair of packed vertex IDs.  No adjacency
+ * information is stored: neighbors are enumerated from the grid structure
+ * and edge weights are read directly from the map, so the graph reflects any
+ * subsequent changes to the map.
+ *
+ * The graph follows the same conventions as the grid planners: cells with
+ * negative values are obstacles and are not vertices, movement is possible
+ * in the 2N cardinal directions, and the weight of an edge is the average of
+ * its endpoint costs plus one.
+ *
+ * Planners that do not need the jgrapht Graph interface can enumerate
+ * neighbors through a NeighborCursor, which allocates nothing per vertex.
+ *
+ * The sizes of the vertex and edge sets are counted in a single pass over
+ * the map the first time either is requested, and are then cached, since
+ * graph algorithms query them freely.  If obstacles are added to or removed
+ * from the map afterwards, refresh() must be called to recount them.  Edge
+ * weights are always read directly from the map.
+ *
+ * @see GridGraph
+ * @see CsrGraph
+ */
+public class IndexedGridGraph extends AbstractGraph<Integer, Long>
+        implements UndirectedGraph<Integer, Long> {
+
+    final GridMap _map;
+    final byte[] _data;
+    final int[] _sizes;
+    final int[] _strides;
+    final int _length;
+
+    // Cached sizes of the vertex and edge sets, or -1 if not yet counted
+    int _vertexCount = -1;
+    int _edgeCount = -1;
+
+    /**
+     * Iterates over the neighbors of a vertex, reusing the same object for
+     * every vertex.  Typical usage is:
+     * <pre>
+     * cursor.reset(v);
+     * while (cursor.next()) {
+     *     visit(cursor.target(), cursor.weight());
+     * }
+     * </pre>
+     */
+    public class NeighborCursor {
+        final int[] _coord = new int[_sizes.length];
+        final int[] _nbr = new int[_sizes.length];
+        int _source = -1;
+        int _dir = 0;
+        int _target = -1;
+        double _weight = Double.NaN;
+
+        /**
+         * Moves the cursor to the start of the neighbors of a vertex.
+         * @param v the vertex whose neighbors will be enumerated.
+         */
+        public void reset(int v) {
+            _source = v;
+            _dir = 0;
+            _target = -1;
+
+            for (int i = 0; i < _sizes.length; i++) {
+                _coord[i] = v % _sizes[i];
+                v /= _sizes[i];
+            }
+        }
+
+        /**
+         * Advances the cursor to the next traversable neighbor.
+         * @return true if there is another neighbor, false otherwise.
+         */
+        public boolean next() {
+            while (_dir < 2 * _sizes.length) {
+                int i = _dir >> 1;
+                int step = ((_dir & 1) == 0) ? -1 : 1;
+                _dir++;
+
+                int c = _coord[i] + step;
+                if (c < 0 || c >= _sizes[i]) continue;
+
+                int u = _source + step * _strides[i];
+                byte cost = get(u, _coord, i, c);
+                if (cost < 0) continue;
+
+                _target = u;
+                _weight = ((double)get(_source, _coord, i, _coord[i]) + (double)cost)/2.0 + 1.0;
+                return true;
+            }
+
+            _target = -1;
+            return false;
+        }
+
+        /**
+         * Returns the neighbor at the current position of the cursor.
+         * @return the vertex ID of the neighbor.
+         */
+        public int target() {
+            return _target;
+        }
+
+        /**
+         * Returns the weight of the edge to the neighbor at the current
+         * position of the cursor.
+         * @return the weight of the edge.
+         */
+        public double weight() {
+            return _weight;
+        }
+
+        /**
+         * Returns the value of a cell, given its linear index and its
+         * coordinate expressed as the cursor coordinate with one dimension
+         * replaced.
+         */
+        private byte get(int v, int[] coord, int dim, int val) {
+            if (_data != null) return _data[v];
+
+            System.arraycopy(coord, 0, _nbr, 0, coord.length);
+            _nbr[dim] = val;
+            return _map.get(_nbr);
+        }
+    }
+
+    /**
+     * Constructs an implicit graph over the given map.
+     * @param map the map that will be represented as a graph.
+     */
+    public IndexedGridGraph(GridMap map) {
+        _map = map;
+        _data = GridMapOps.data(map);
+        _sizes = map.sizes();
+        _strides = GridMapOps.strides(_sizes);
+        _length = map.length();
+    }
+
+    /**
+     * Discards the cached sizes of the vertex and edge sets, so that they are
+     * recounted the next time they are requested.  This must be called after
+     * cells of the map are changed to or from obstacles.
+     */
+    public synchronized void refresh() {
+        _vertexCount = -1;
+        _edgeCount = -1;
+    }
+
+    /**
+     * Counts the vertices and edges of the graph in a single pass over the
+     * map, if they have not already been counted.
+     */
+    private synchronized void count() {
+        if (_vertexCount >= 0) return;
+
+        NeighborCursor c = new NeighborCursor();
+        int vertices = 0;
+        int edges = 0;
+        for (int v = 0; v < _length; v++) {
+            if (get(v) < 0) continue;
+            vertices++;
+
+            c.reset(v);
+            while (c.next()) {
+                if (c.target() > v) edges++;
+            }
+        }
+
+        _vertexCount = vertices;
+        _edgeCount = edges;
+    }
+
+    /**
+     * Creates a new cursor over the neighbors of vertices in this graph.
+     * @return a new neighbor cursor.
+     */
+    public NeighborCursor cursor() {
+        return new NeighborCursor();
+    }
+
+    /**
+     * Packs an undirected pair of vertices into an edge identifier.
+     * @param u one endpoint of the edge.
+     * @param v the other endpoint of the edge.
+     * @return the identifier of the edge between the vertices.
+     */
+    public static long edge(int u, int v) {
+        int lo = Math.min(u, v);
+        int hi = Math.max(u, v);
+        return ((long)lo << 32) | (hi & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Returns the value of the cell with the given linear index.
+     */
+    private byte get(int v) {
+        if (_data != null) return _data[v];
+
+        int[] idx = new int[_sizes.length];
+        for (int i = 0; i < _sizes.length; i++) {
+            idx[i] = v % _sizes[i];
+            v /= _sizes[i];
+        }
+        return _map.get(idx);
+    }
+
+    private boolean isVertex(Object v) {
+        if (!(v instanceof Integer)) return false;
+        int id = (Integer)v;
+        return id >= 0 && id < _length && get(id) >= 0;
+    }
+
+    /**
+     * Tests whether two cells are adjacent along a single dimension.
+     */
+    private boolean isAdjacent(int u, int v) {
+        int diff = Math.abs(u - v);
+        
+        for (int i = 0; i < _sizes.length; i++) {
+            if (diff == _strides[i] && _sizes[i] > 1) {
+                // Make sure the step does not wrap around a row boundary
+                int cu = (u / _strides[i]) % _sizes[i];
+                int cv = (v / _strides[i]) % _sizes[i];
+                if ((u > v) ? (cu - cv == 1) : (cv - cu == 1)) return true;
+            }
+        }
+        return false;
+    }
+
+    public Set<Long> getAllEdges(Integer u, Integer v) {
+        Long e = getEdge(u, v);
+        if (e != null) {
+            return Collections.singleton(e);
+        } else {
+            return Collections.emptySet();
+        }
+    }
+
+    public Long getEdge(Integer u, Integer v) {
+        if (isVertex(u) && isVertex(v) && isAdjacent(u, v)) {
+            return edge(u, v);
+        } else {
+            return null;
+        }
+    }
+
+    public boolean containsEdge(Long e) {
+        return (e != null) && getEdge(getEdgeSource(e), getEdgeTarget(e)) != null;
+    }
+
+    public boolean containsVertex(Integer v) {
+        return isVertex(v);
+    }
+
+    public int degreeOf(Integer v) {
+        assertVertexExist(v);
+        
+        NeighborCursor c = new NeighborCursor();
+        c.reset(v);
+
+        int degree = 0;
+        while (c.next()) degree++;
+        return degree;
+    }
+
+    public Set<Long> edgesOf(final Integer v) {
+        assertVertexExist(v);
+
+        return new AbstractSet<Long>() {
+
+            @Override
+            public Iterator<Long> iterator() {
+                final NeighborCursor c = new NeighborCursor();
+                c.reset(v);
+
+                return new Iterator<Long>() {
+                    boolean hasNext = c.next();
+
+                    public boolean hasNext() {
+                        return hasNext;
+                    }
+
+                    public Long next() {
+                        if (!hasNext) throw new NoSuchElementException();
+                        long e = edge(v, c.target());
+                        hasNext = c.next();
+                        return e;
+                    }
+
+                    public void remove() {
+                        throw new UnsupportedOperationException("Not supported.");
+                    }
+                };
+            }
+
+            @Override
+            public boolean contains(Object o) {
+                if (!(o instanceof Long) || !containsEdge((Long)o)) return false;
+                long e = (Long)o;
+                return getEdgeSource(e) == v.intValue() || getEdgeTarget(e) == v.intValue();
+            }
+
+            @Override
+            public int size() {
+                return degreeOf(v);
+            }
+        };
+    }
+
+    public Set<Long> edgeSet() {
+        return new AbstractSet<Long>() {
+
+            @Override
+            public Iterator<Long> iterator() {
+                return new Iterator<Long>() {
+                    final NeighborCursor c = new NeighborCursor();
+                    int v = -1;
+                    long next = advance();
+
+                    // Finds the next edge from a lower to a higher vertex ID
+                    long advance() {
+                        while (true) {
+                            while (v >= 0 && c.next()) {
+                                if (c.target() > v) return edge(v, c.target());
+                            }
+
+                            do {
+                                if (++v >= _length) return -1;
+                            } while (get(v) < 0);
+                            c.reset(v);
+                        }
+                    }
+
+                    public boolean hasNext() {
+                        return next >= 0;
+                    }
+
+                    public Long next() {
+                        if (!hasNext()) throw new NoSuchElementException();
+                        long e = next;
+                        next = advance();
+                        return e;
+                    }
+
+                    public void remove() {
+                        throw new UnsupportedOperationException("Not supported.");
+                    }
+                };
+            }
+
+            @Override
+            public boolean contains(Object o) {
+                return (o instanceof Long) && containsEdge((Long)o);
+            }
+
+            @Override
+            public int size() {
+                count();
+                return _edgeCount;
+            }
+        };
+    }
+
+    public Set<Integer> vertexSet() {
+        return new AbstractSet<Integer>() {
+
+            @Override
+            public Iterator<Integer> iterator() {
+                return new Iterator<Integer>() {
+                    int next = advance(-1);
+
+                    int advance(int v) {
+                        for (v++; v < _length; v++) {
+                            if (get(v) >= 0) return v;
+                        }
+                        return -1;
+                    }
+
+                    public boolean hasNext() {
+                        return next >= 0;
+                    }
+
+                    public Integer next() {
+                        if (!hasNext()) throw new NoSuchElementException();
+                        int v = next;
+                        next = advance(next);
+                        return v;
+                    }
+
+                    public void remove() {
+                        throw new UnsupportedOperationException("Not supported.");
+                    }
+                };
+            }
+
+            @Override
+            public boolean contains(Object o) {
+                return isVertex(o);
+            }
+
+            @Override
+            public int size() {
+                count();
+                return _vertexCount;
+            }
+        };
+    }
+
+    public Integer getEdgeSource(Long e) {
+        return (int)(e >>> 32);
+    }
+
+    public Integer getEdgeTarget(Long e) {
+        return (int)(e & 0xFFFFFFFFL);
+    }
+
+    public double getEdgeWeight(Long e) {
+        return ((double)get(getEdgeSource(e)) + (double)get(getEdgeTarget(e)))/2.0 + 1.0;
+    }
+
+    /* The following functions are unsupported because the graph is implicit. */
+
+    public EdgeFactory<Integer, Long> getEdgeFactory() {
+        throw new UnsupportedOperationException("Not supported.");
+    }
+
+    public Long addEdge(Integer v, Integer v1) {
+        throw new UnsupportedOperationException("Not supported.");
+    }
+
+    public boolean addEdge(Integer v, Integer v1, Long e) {
+        throw new UnsupportedOperationException("Not supported.");
+    }
+
+    public boolean addVertex(Integer v) {
+        throw new UnsupportedOperationException("Not supported.");
+    }
+
+    public Long removeEdge(Integer v, Integer v1) {
+        throw new UnsupportedOperationException("Not supported.");
+    }
+
+    public boolean removeEdge(Long e) {
+        throw new UnsupportedOperationException("Not supported.");
+    }
+
+    public boolean removeVertex(Integer v) {
+        throw new UnsupportedOperationException("Not supported.");
+    }
+}
@@ -30,13 +30,25 @@ import java.util.Arrays;
  * A simple tuple class that correctly represents an integer coordinate
  * in arbitrary dimensions.  Equality, hashcode and comparisons are all
  * implemented as a lexical ordering over the integer array elements.
+ *
+ * The hashcode is computed once at construction, so the array returned by
+ * getInts() must not be modified.  Coordinates of up to three dimensions can
+ * also be packed into a single long, which is used by IntCoordMap to avoid
+ * hashing coordinate arrays altogether.
  */
 public class IntCoord implements Coordinate {
 
+    /**
+     * The number of bits used to pack each element of a 3D coordinate.
+     */
+    static final int PACK_BITS_3D = 21;
+
     final int[] _coords;
+    final int _hash;
 
     public IntCoord(int... values) {
         _coords = Arrays.copyOf(values, values.length);
+        _hash = 67 * 7 + Arrays.hashCode(_coords);
     }
 
     public int[] getInts() {
@@ -61,6 +73,79 @@ public class IntCoord implements Coordinate {
         return _coords.length;
     }
 
+    /**
+     * Returns true if this coordinate can be packed into a long, which is
+     * the case for coordinates of up to two dimensions, and for 3D
+     * coordinates whose elements fit in 21-bit signed integers.
+     * 
+     * @see IntCoord#pack()
+     * @return true if the coordinate can be packed.
+     */
+    public boolean isPackable() {
+        if (_coords.length <= 2) return true;
+        if (_coords.length > 3) return false;
+
+        for (int c : _coords) {
+            if (c < -(1 << (PACK_BITS_3D - 1)) || c >= (1 << (PACK_BITS_3D - 1)))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Packs this coordinate into a single long, such that two coordinates of
+     * the same dimension are equal if and only if their packed values are.
+     *
+     * @see IntCoord#unpack(long, int)
+     * @return the packed representation of this coordinate.
+     * @throws IllegalStateException if this coordinate cannot be packed.
+     */
+    public long pack() {
+        switch (_coords.length) {
+            case 0:
+                return 0;
+            case 1:
+                return _coords[0];
+            case 2:
+                return ((long)_coords[0] << 32) | (_coords[1] & 0xFFFFFFFFL);
+            default:
+                if (!isPackable())
+                    throw new IllegalStateException("Cannot pack coordinate " + this);
+
+                long mask = (1L << PACK_BITS_3D) - 1;
+                return ((_coords[0] & mask) << (2 * PACK_BITS_3D))
+                        | ((_coords[1] & mask) << PACK_BITS_3D)
+                        | (_coords[2] & mask);
+        }
+    }
+
+    /**
+     * Reconstructs a coordinate from its packed representation.
+     * 
+     * @see IntCoord#pack()
+     * @param key the packed representation of the coordinate.
+     * @param dims the number of dimensions of the coordinate.
+     * @return the coordinate that was packed.
+     */
+    public static IntCoord unpack(long key, int dims) {
+        switch (dims) {
+            case 0:
+                return new IntCoord();
+            case 1:
+                return new IntCoord((int)key);
+            case 2:
+                return new IntCoord((int)(key >> 32), (int)key);
+            case 3:
+                int shift = 64 - PACK_BITS_3D;
+                return new IntCoord(
+                        (int)((key << (64 - 3 * PACK_BITS_3D)) >> shift),
+                        (int)((key << (64 - 2 * PACK_BITS_3D)) >> shift),
+                        (int)((key << (64 - PACK_BITS_3D)) >> shift));
+            default:
+                throw new IllegalArgumentException("Cannot unpack " + dims + "-D coordinate.");
+        }
+    }
+
     @Override
     public String toString() {
         return Arrays.toString(_coords);
@@ -68,17 +153,24 @@ public class IntCoord implements Coordinate {
 
     @Override
     public boolean equals(Object obj) {
-        if (obj instanceof IntCoord) {
+        if (obj == this) {
+            return true;
+        } else if (obj instanceof IntCoord) {
             
             // Use int array compare if other object is also an integer array
             IntCoord that = (IntCoord)obj;
-            return Arrays.equals(this._coords, that._coords);
+            return (this._hash == that._hash) && Arrays.equals(this._coords, that._coords);
 
         } else if (obj instanceof Coordinate) {
 
-            // Use slower double array compare if other object in unknown
+            // Use slower element-wise double compare if other object in unknown
             Coordinate that = (Coordinate)obj;
-            return Arrays.equals(this.get(), that.get());
+            if (this._coords.length != that.dims()) return false;
+
+            for (int i = 0; i < _coords.length; i++) {
+                if ((double)_coords[i] != that.get(i)) return false;
+            }
+            return true;
 
         } else {
             return false;
@@ -87,8 +179,6 @@ public class IntCoord implements Coordinate {
 
     @Override
     public int hashCode() {
-        int hash = 7;
-        hash = 67 * hash + Arrays.hashCode(this._coords);
-        return hash;
+        return _hash;
     }
 }
@@ -0,0 +1,250 @@
+/*
+ *  The MIT License
+ * 
+ *  Copyright 2011 Prasanna Velagapudi <psigen@gmail.com>.
+ * 
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ * 
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ * 
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+
+package robotutils.data;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import robotutils.util.LongDoubleHashMap;
+
+/**
+ * An open-addressing hash map keyed by packed integer coordinates of a fixed
+ * dimension (at most three).  Keys are converted to longs using
+ * IntCoord.pack(), so lookups never hash or compare coordinate arrays.
+ *
+ * This is intended for planner state on grids, where it replaces a HashMap
+ * keyed by IntCoord.  Keys that are not IntCoords of the right dimension are
+ * treated as absent by lookups, and rejected by put().
+ *
+ * @see IntCoord#pack()
+ */
+public class IntCoordMap<V> extends AbstractMap<IntCoord, V> {
+
+    private static final double LOAD_FACTOR = 0.5;
+
+    final int _dims;
+    long[] _keys;
+    Object[] _values;
+    boolean[] _used;
+    int _mask;
+    int _size = 0;
+
+    /**
+     * Constructs an empty map for coordinates of the given dimension.
+     * @param dims the number of dimensions of every key, at most 3.
+     * @param capacity the number of entries that can be stored without resizing.
+     */
+    public IntCoordMap(int dims, int capacity) {
+        if (dims > 3)
+            throw new IllegalArgumentException("Cannot pack " + dims + "-D coordinates.");
+
+        int slots = Integer.highestOneBit(Math.max(2, (int)(capacity / LOAD_FACTOR)) - 1) << 1;
+        _dims = dims;
+        _keys = new long[slots];
+        _values = new Object[slots];
+        _used = new boolean[slots];
+        _mask = slots - 1;
+    }
+
+    /**
+     * Finds the slot that contains the key, or the empty slot where it
+     * would be inserted.
+     */
+    private int slot(long key) {
+        int i = LongDoubleHashMap.hash(key) & _mask;
+        while (_used[i] && _keys[i] != key) {
+            i = (i + 1) & _mask;
+        }
+        return i;
+    }
+
+    /**
+     * Finds the slot that contains the given key object, or returns -1 if it
+     * is not a coordinate stored in this map.
+     */
+    private int find(Object o) {
+        if (!(o instanceof IntCoord)) return -1;
+        
+        IntCoord c = (IntCoord)o;
+        if (c.dims() != _dims || !c.isPackable()) return -1;
+
+        int i = slot(c.pack());
+        return _used[i] ? i : -1;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public V get(Object key) {
+        int i = find(key);
+        return (i >= 0) ? (V)_values[i] : null;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return find(key) >= 0;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public V put(IntCoord key, V value) {
+        if (key.dims() != _dims)
+            throw new IllegalArgumentException("Expected " + _dims + "-D coordinate: " + key);
+
+        long k = key.pack();
+        int i = slot(k);
+        if (_used[i]) {
+            V old = (V)_values[i];
+            _values[i] = value;
+            return old;
+        }
+
+        _used[i] = true;
+        _keys[i] = k;
+        _values[i] = value;
+
+        if (++_size > LOAD_FACTOR * _keys.length) {
+            rehash(2 * _keys.length);
+        }
+        return null;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public V remove(Object key) {
+        int i = find(key);
+        if (i < 0) return null;
+
+        V old = (V)_values[i];
+        removeSlot(i);
+        return old;
+    }
+
+    /**
+     * Empties a slot, shifting back any later entries in its probe sequence.
+     */
+    private void removeSlot(int i) {
+        int j = i;
+        while (true) {
+            j = (j + 1) & _mask;
+            if (!_used[j]) break;
+
+            int home = LongDoubleHashMap.hash(_keys[j]) & _mask;
+            if (((j - home) & _mask) >= ((j - i) & _mask)) {
+                _keys[i] = _keys[j];
+                _values[i] = _values[j];
+                i = j;
+            }
+        }
+
+        _used[i] = false;
+        _values[i] = null;
+        _size--;
+    }
+
+    @Override
+    public int size() {
+        return _size;
+    }
+
+    @Override
+    public void clear() {
+        Arrays.fill(_used, false);
+        Arrays.fill(_values, null);
+        _size = 0;
+    }
+
+    private void rehash(int slots) {
+        long[] keys = _keys;
+        Object[] values = _values;
+        boolean[] used = _used;
+
+        _keys = new long[slots];
+        _values = new Object[slots];
+        _used = new boolean[slots];
+        _mask = slots - 1;
+
+        for (int j = 0; j < keys.length; j++) {
+            if (used[j]) {
+                int i = slot(keys[j]);
+                _used[i] = true;
+                _keys[i] = keys[j];
+                _values[i] = values[j];
+            }
+        }
+    }
+
+    /**
+     * Constructs a set view of the entries in the map.  Keys are unpacked
+     * into new IntCoord objects as they are iterated.
+     * @return a set of the entries in the map.
+     */
+    @Override
+    public Set<Map.Entry<IntCoord, V>> entrySet() {
+        return new AbstractSet<Map.Entry<IntCoord, V>>() {
+
+            @Override
+            public Iterator<Map.Entry<IntCoord, V>> iterator() {
+                return new Iterator<Map.Entry<IntCoord, V>>() {
+                    int next = advance(-1);
+                    int last = -1;
+
+                    int advance(int i) {
+                        for (i++; i < _used.length; i++) {
+                            if (_used[i]) return i;
+                        }
+                        return -1;
+                    }
+
+                    public boolean hasNext() {
+                        return next >= 0;
+                    }
+
+                    @SuppressWarnings("unchecked")
+                    public Map.Entry<IntCoord, V> next() {
+                        if (!hasNext()) throw new NoSuchElementException();
+
+                        last = next;
+                        next = advance(next);
+                        return new SimpleImmutableEntry<IntCoord, V>(
+                                IntCoord.unpack(_keys[last], _dims), (V)_values[last]);
+                    }
+
+                    public void remove() {
+                        throw new UnsupportedOperationException("Not supported.");
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return _size;
+            }
+        };
+    }
+}
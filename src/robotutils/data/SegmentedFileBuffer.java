@@ -0,0 +1,1157 @@
+/*
+ *  The MIT License
+ *
+ *  Copyright 2010 Prasanna Velagapudi <psigen@gmail.com>.
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+
+package robotutils.data;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.AbstractCollection;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import robotutils.data.FileBuffer.Codec;
+
+/**
+ * Implements a file-backed log of objects that is split into a sequence of
+ * segments, each of which is stored in its own FileBuffer in a common
+ * directory.  New objects are always added to the last (active) segment, and
+ * a new segment is started when the active segment exceeds a maximum size or
+ * age.  This allows old objects to be discarded cheaply by deleting entire
+ * segments, either explicitly or according to a retention policy.
+ *
+ * The UID of each object encodes the segment that contains it in its upper
+ * bits, and the offset of the object within that segment in its lower bits.
+ * Objects can also be removed individually, which hides them immediately and
+ * records their offsets in a deletion file alongside the segment.  Segments
+ * that contain many removed objects can then be compacted, which rewrites
+ * their remaining objects into a new file along with a table that maps their
+ * original offsets to their new locations, so UIDs remain valid forever.
+ *
+ * The list of segments is stored in a manifest file in the directory, which
+ * is replaced atomically whenever segments are added, compacted or dropped.
+ * Any files in the directory that are not referenced by the manifest (such as
+ * those left by an interrupted compaction) are deleted when it is opened.
+ *
+ * @see FileBuffer
+ * @author Prasanna Velagapudi <psigen@gmail.com>
+ */
+public class SegmentedFileBuffer<T> implements Map<Long, T>, Closeable {
+
+    /**
+     * The default maximum size of a segment (in bytes).
+     */
+    public static final long DEFAULT_SEGMENT_SIZE = 1L << 30;
+
+    /**
+     * The default maximum age of a segment (in milliseconds).
+     */
+    public static final long DEFAULT_SEGMENT_AGE = Long.MAX_VALUE;
+
+    /**
+     * The fraction of removed objects above which a segment is compacted.
+     */
+    public static final double DEFAULT_COMPACTION_THRESHOLD = 0.5;
+
+    /**
+     * The number of bits of a UID that store the offset within a segment.
+     */
+    public static final int OFFSET_BITS = 40;
+
+    /**
+     * The largest segment number that can be stored in a UID.
+     */
+    public static final int MAX_SEGMENTS = (1 << (63 - OFFSET_BITS)) - 1;
+
+    /**
+     * The name of the manifest file within the directory.
+     */
+    static final String MANIFEST = "manifest";
+
+    /**
+     * A shared background thread used to perform compactions.
+     */
+    private static final ScheduledExecutorService _compactor =
+            Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "SegmentedFileBuffer compactor");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    /**
+     * A single segment of the log, consisting of a FileBuffer along with its
+     * deletion file and, if it has been compacted, its remapping table.
+     */
+    final class Segment {
+        final int id;
+        final int generation;
+        final long created;
+        final FileBuffer<T> buffer;
+
+        /**
+         * Sorted original offsets of the objects in a compacted segment, and
+         * their corresponding offsets in the buffer (null if not compacted).
+         */
+        final long[] originals;
+        final long[] offsets;
+
+        final Set<Long> deleted = Collections.newSetFromMap(new ConcurrentHashMap<Long, Boolean>());
+        final FileChannel deletions;
+
+        Segment(int id, int generation, long created, long[] originals, long[] offsets) throws IOException {
+            this.id = id;
+            this.generation = generation;
+            this.created = created;
+            this.originals = originals;
+            this.offsets = offsets;
+
+            buffer = new FileBuffer<T>(file(id, generation, ".dat"), _cacheSize, _codec);
+            buffer.setDurability(_durability);
+
+            // Load the offsets of objects that have been removed
+            deletions = new RandomAccessFile(file(id, generation, ".del"), "rw").getChannel();
+            ByteBuffer buf = ByteBuffer.allocate((int)deletions.size());
+            while (buf.hasRemaining()) {
+                if (deletions.read(buf, buf.position()) < 0) break;
+            }
+            buf.flip();
+            while (buf.remaining() >= 8) {
+                deleted.add(buf.getLong());
+            }
+        }
+
+        /**
+         * Returns the number of objects stored in the segment, including
+         * objects that have been removed since it was compacted.
+         */
+        int count() {
+            return (originals == null) ? buffer.size() : originals.length;
+        }
+
+        /**
+         * Returns the original offset of the i-th object in the segment.
+         */
+        long key(int i) {
+            return (originals == null) ? buffer.uidAt(i) : originals[i];
+        }
+
+        /**
+         * Returns the current offset of an object given its original offset,
+         * or -1 if the object is not stored in this segment.
+         */
+        long locate(long original) {
+            if (deleted.contains(original)) return -1;
+            
+            if (originals == null) {
+                return (buffer.indexOf(original) >= 0) ? original : -1;
+            } else {
+                int i = Arrays.binarySearch(originals, original);
+                return (i >= 0) ? offsets[i] : -1;
+            }
+        }
+
+        /**
+         * Returns the number of objects in the segment that have not been
+         * removed.
+         */
+        int live() {
+            return count() - deleted.size();
+        }
+
+        /**
+         * Records the removal of an object from this segment.
+         */
+        synchronized void delete(long original) throws IOException {
+            if (!deleted.add(original)) return;
+
+            ByteBuffer buf = ByteBuffer.allocate(8);
+            buf.putLong(original).flip();
+            while (buf.hasRemaining()) {
+                deletions.write(buf, deletions.size());
+            }
+            if (_durability == FileBuffer.Durability.SYNC)
+                deletions.force(false);
+        }
+
+        /**
+         * Returns the size of the data file of this segment.
+         */
+        long length() {
+            return buffer._lastPosition;
+        }
+
+        void close() throws IOException {
+            try {
+                buffer.close();
+            } finally {
+                deletions.close();
+            }
+        }
+
+        /**
+         * Closes the segment and deletes all of its files.
+         */
+        void destroy() throws IOException {
+            close();
+            deleteFiles(id, generation);
+        }
+    }
+
+    final File _directory;
+    final int _cacheSize;
+    final Codec<T> _codec;
+    final long _maxSegmentSize;
+    final long _maxSegmentAge;
+
+    final ConcurrentSkipListMap<Integer, Segment> _segments = new ConcurrentSkipListMap<Integer, Segment>();
+    final ReadWriteLock _lock = new ReentrantReadWriteLock();
+
+    volatile FileBuffer.Durability _durability = FileBuffer.Durability.SYNC;
+    long _retentionSize = Long.MAX_VALUE;
+    long _retentionAge = Long.MAX_VALUE;
+    ScheduledFuture<?> _compactionTask = null;
+
+    /**
+     * Opens a segmented log stored in the specified directory, using default
+     * limits on the size and age of segments.
+     *
+     * <b>Note: If the directory does not exist, it will be created.</b>
+     *
+     * @param directory The directory that will contain the segments.
+     * @throws FileNotFoundException Occurs if the segments could not be read or opened.
+     */
+    public SegmentedFileBuffer(File directory) throws FileNotFoundException {
+        this(directory, DEFAULT_SEGMENT_SIZE, DEFAULT_SEGMENT_AGE);
+    }
+
+    public SegmentedFileBuffer(File directory, long maxSegmentSize, long maxSegmentAge) throws FileNotFoundException {
+        this(directory, maxSegmentSize, maxSegmentAge, FileBuffer.DEFAULT_CACHE_SIZE,
+                FileBufferCodecs.<T>defaultCodec());
+    }
+
+    /**
+     * Opens a segmented log stored in the specified directory.
+     *
+     * @param directory The directory that will contain the segments.
+     * @param maxSegmentSize The size (in bytes) after which a new segment is started,
+     * which must be positive and less than 2^OFFSET_BITS.
+     * @param maxSegmentAge The age (in milliseconds) after which a new segment is started.
+     * @param cacheSize The number of objects that will be cached for each segment.
+     * @param codec The codec used to encode and decode objects.
+     * @throws FileNotFoundException Occurs if the segments could not be read or opened.
+     * @throws IllegalArgumentException Occurs if offsets within a segment of
+     * the given size could not be stored in a UID.
+     */
+    public SegmentedFileBuffer(File directory, long maxSegmentSize, long maxSegmentAge,
+            int cacheSize, Codec<T> codec) throws FileNotFoundException {
+        if (maxSegmentSize <= 0 || maxSegmentSize >= (1L << OFFSET_BITS))
+            throw new IllegalArgumentException("Invalid segment size: " + maxSegmentSize);
+
+        _directory = directory;
+        _maxSegmentSize = maxSegmentSize;
+        _maxSegmentAge = maxSegmentAge;
+        _cacheSize = cacheSize;
+        _codec = codec;
+
+        if (!directory.isDirectory() && !directory.mkdirs())
+            throw new FileNotFoundException("Could not create directory: " + directory);
+
+        try {
+            readManifest();
+            deleteOrphans();
+
+            if (_segments.isEmpty()) {
+                addSegment(new Segment(0, 0, System.currentTimeMillis(), null, null));
+                writeManifest();
+            }
+        } catch (FileNotFoundException ex) {
+            throw ex;
+        } catch (IOException ex) {
+            throw new RuntimeException(ex);
+        }
+    }
+
+    /**
+     * Constructs a UID from a segment number and an offset within the segment.
+     *
+     * @param segment the number of the segment.
+     * @param offset the original offset of the object within the segment.
+     * @return the corresponding UID.
+     */
+    public static long uid(int segment, long offset) {
+        return ((long)segment << OFFSET_BITS) | offset;
+    }
+
+    /**
+     * Returns the number of the segment containing the object with the given
+     * UID.
+     *
+     * @param uid the UID of an object.
+     * @return the number of the segment containing the object.
+     */
+    public static int segmentOf(long uid) {
+        return (int)(uid >>> OFFSET_BITS);
+    }
+
+    /**
+     * Returns the original offset of the object with the given UID within its
+     * segment.
+     *
+     * @param uid the UID of an object.
+     * @return the offset of the object within its segment.
+     */
+    public static long offsetOf(long uid) {
+        return uid & ((1L << OFFSET_BITS) - 1);
+    }
+
+    /**
+     * Returns the file in the directory that stores part of a segment.
+     */
+    File file(int id, int generation, String ext) {
+        return new File(_directory, String.format("segment-%08d-%04d%s", id, generation, ext));
+    }
+
+    /**
+     * Deletes all of the files that store part of a segment.
+     */
+    void deleteFiles(int id, int generation) {
+        File dataFile = file(id, generation, ".dat");
+        dataFile.delete();
+        FileBuffer.indexFile(dataFile).delete();
+        file(id, generation, ".del").delete();
+        file(id, generation, ".remap").delete();
+    }
+
+    private void addSegment(Segment segment) {
+        _segments.put(segment.id, segment);
+    }
+
+    /**
+     * Loads the segments that are listed in the manifest, if it exists.  Each
+     * line of the manifest contains the number, generation and creation time
+     * of a segment.
+     */
+    private void readManifest() throws IOException {
+        File manifest = new File(_directory, MANIFEST);
+        if (!manifest.exists()) return;
+
+        BufferedReader reader = new BufferedReader(new FileReader(manifest));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) continue;
+
+                String[] fields = line.split("\\s+");
+                int id = Integer.parseInt(fields[0]);
+                int generation = Integer.parseInt(fields[1]);
+                long created = Long.parseLong(fields[2]);
+
+                long[][] remap = (generation > 0) ? readRemap(file(id, generation, ".remap")) : null;
+                addSegment(new Segment(id, generation, created,
+                        (remap == null) ? null : remap[0],
+                        (remap == null) ? null : remap[1]));
+            }
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * Atomically replaces the manifest with the current list of segments.
+     */
+    private void writeManifest() throws IOException {
+        File manifest = new File(_directory, MANIFEST);
+        File temp = new File(_directory, MANIFEST + ".tmp");
+
+        PrintWriter writer = new PrintWriter(temp);
+        try {
+            writer.println("# segment generation created");
+            for (Segment segment : _segments.values()) {
+                writer.println(segment.id + " " + segment.generation + " " + segment.created);
+            }
+        } finally {
+            writer.close();
+        }
+
+        Files.move(temp.toPath(), manifest.toPath(),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Deletes any segment files in the directory that are not referenced by
+     * the manifest.
+     */
+    private void deleteOrphans() {
+        Set<String> prefixes = new HashSet<String>();
+        for (Segment segment : _segments.values()) {
+            prefixes.add(file(segment.id, segment.generation, ".").getName());
+        }
+
+        File[] files = _directory.listFiles();
+        if (files == null) return;
+
+        for (File file : files) {
+            String name = file.getName();
+            if (!name.startsWith("segment-")) continue;
+
+            int dot = name.indexOf('.');
+            if (dot < 0 || !prefixes.contains(name.substring(0, dot + 1)))
+                file.delete();
+        }
+    }
+
+    /**
+     * Reads a remapping table written by a compaction.
+     */
+    private static long[][] readRemap(File file) throws IOException {
+        FileChannel channel = new RandomAccessFile(file, "r").getChannel();
+        try {
+            ByteBuffer buf = ByteBuffer.allocate((int)channel.size());
+            while (buf.hasRemaining()) {
+                if (channel.read(buf, buf.position()) < 0)
+                    throw new IOException("Could not read remap file: " + file);
+            }
+            buf.flip();
+
+            int n = buf.remaining() / 16;
+            long[][] remap = new long[2][n];
+            for (int i = 0; i < n; i++) {
+                remap[0][i] = buf.getLong();
+                remap[1][i] = buf.getLong();
+            }
+            return remap;
+        } finally {
+            channel.close();
+        }
+    }
+
+    /**
+     * Writes a remapping table for a compacted segment and forces it to disk.
+     */
+    private static void writeRemap(File file, long[] originals, long[] offsets) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(16 * originals.length);
+        for (int i = 0; i < originals.length; i++) {
+            buf.putLong(originals[i]);
+            buf.putLong(offsets[i]);
+        }
+        buf.flip();
+
+        FileChannel channel = new RandomAccessFile(file, "rw").getChannel();
+        try {
+            channel.truncate(0);
+            while (buf.hasRemaining()) {
+                channel.write(buf, buf.position());
+            }
+            channel.force(false);
+        } finally {
+            channel.close();
+        }
+    }
+
+    /**
+     * Returns the segment that new objects are added to.
+     */
+    private Segment active() {
+        return _segments.lastEntry().getValue();
+    }
+
+    /**
+     * Adds a new object to the log, starting a new segment first if the active
+     * segment has exceeded its size or age limits.
+     *
+     * If a backing file has an IO error or cannot encode a given object type,
+     * a RuntimeException will be thrown wrapping the original corresponding
+     * IOException.
+     *
+     * @param obj The object to be added.
+     * @return The UID to be used as a key to access the object.
+     */
+    public long add(T obj) {
+        Segment segment = lockWritableSegment();
+        try {
+            return uid(segment.id, segment.buffer.add(obj));
+        } finally {
+            _lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Adds a new sequential list of objects to the log.  All of the objects
+     * are added to the same segment.
+     *
+     * @param objs The objects to be added.
+     * @return A list of UIDs to be used as keys to access the objects.
+     */
+    public List<Long> addAll(List<T> objs) {
+        Segment segment = lockWritableSegment();
+        try {
+            List<Long> offsets = segment.buffer.addAll(objs);
+            List<Long> uids = new ArrayList<Long>(offsets.size());
+            for (Long offset : offsets) {
+                uids.add(uid(segment.id, offset));
+            }
+            return uids;
+        } finally {
+            _lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Returns the active segment, rolling over to a new segment if it has
+     * exceeded its size or age limits.  The segment is returned with the read
+     * lock held, so that it cannot be dropped by retention or clear() before
+     * it is written, and the caller must release the read lock.
+     */
+    private Segment lockWritableSegment() {
+        _lock.readLock().lock();
+        Segment segment = active();
+        if (!isFull(segment)) return segment;
+        _lock.readLock().unlock();
+
+        _lock.writeLock().lock();
+        try {
+            segment = active();
+            if (isFull(segment)) {
+                if (segment.id == MAX_SEGMENTS)
+                    throw new IllegalStateException("Segment numbers exhausted.");
+
+                segment.buffer.flush();
+                segment = new Segment(segment.id + 1, 0, System.currentTimeMillis(), null, null);
+                addSegment(segment);
+                writeManifest();
+                applyRetention();
+            }
+
+            // Downgrade to the read lock before releasing the write lock
+            _lock.readLock().lock();
+            return segment;
+        } catch (IOException ex) {
+            throw new RuntimeException(ex);
+        } finally {
+            _lock.writeLock().unlock();
+        }
+    }
+
+    private boolean isFull(Segment segment) {
+        return segment.length() >= _maxSegmentSize
+                || System.currentTimeMillis() - segment.created >= _maxSegmentAge;
+    }
+
+    /**
+     * Sets the durability mode of all segments.
+     *
+     * @see FileBuffer#setDurability(robotutils.data.FileBuffer.Durability)
+     * @param durability the durability mode used for subsequent writes.
+     */
+    public void setDurability(FileBuffer.Durability durability) {
+        _lock.writeLock().lock();
+        try {
+            _durability = durability;
+            for (Segment segment : _segments.values()) {
+                segment.buffer.setDurability(durability);
+            }
+        } finally {
+            _lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Sets a retention policy that limits the total size and age of the log.
+     * Whenever a new segment is started, the oldest segments are dropped until
+     * the total size of the remaining segments is within the size limit, and
+     * every remaining segment contains at least one object that is newer than
+     * the age limit.  The active segment is never dropped.
+     *
+     * @param maxSize the maximum total size of the segments (in bytes).
+     * @param maxAge the maximum age of objects that must be retained (in milliseconds).
+     */
+    public void setRetention(long maxSize, long maxAge) {
+        _lock.writeLock().lock();
+        try {
+            _retentionSize = maxSize;
+            _retentionAge = maxAge;
+            applyRetention();
+        } catch (IOException ex) {
+            throw new RuntimeException(ex);
+        } finally {
+            _lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Drops the oldest segments as required by the retention policy.  Must be
+     * called while holding the write lock.
+     */
+    private void applyRetention() throws IOException {
+        long totalSize = 0;
+        for (Segment segment : _segments.values()) {
+            totalSize += segment.length();
+        }
+
+        long now = System.currentTimeMillis();
+        List<Segment> dropped = new ArrayList<Segment>();
+
+        for (Segment segment : _segments.values()) {
+            Map.Entry<Integer, Segment> next = _segments.higherEntry(segment.id);
+            if (next == null) break;
+
+            // The newest object in a segment is no newer than the next segment
+            boolean isTooOld = (now - next.getValue().created > _retentionAge);
+            boolean isTooBig = (totalSize > _retentionSize);
+            if (!isTooOld && !isTooBig) break;
+
+            totalSize -= segment.length();
+            dropped.add(segment);
+        }
+
+        dropSegments(dropped);
+    }
+
+    /**
+     * Drops all segments that only contain objects older than the specified
+     * UID.  The active segment is never dropped.
+     *
+     * @param uid the UID of the oldest object that must be retained.
+     */
+    public void dropBefore(long uid) {
+        _lock.writeLock().lock();
+        try {
+            int last = active().id;
+            dropSegments(new ArrayList<Segment>(
+                    _segments.headMap(Math.min(segmentOf(uid), last)).values()));
+        } catch (IOException ex) {
+            throw new RuntimeException(ex);
+        } finally {
+            _lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Removes the specified segments from the manifest and deletes their
+     * files.  Must be called while holding the write lock.
+     */
+    private void dropSegments(List<Segment> segments) throws IOException {
+        if (segments.isEmpty()) return;
+
+        for (Segment segment : segments) {
+            _segments.remove(segment.id);
+        }
+        writeManifest();
+
+        for (Segment segment : segments) {
+            segment.destroy();
+        }
+    }
+
+    /**
+     * Compacts every segment other than the active segment in which the
+     * fraction of removed objects exceeds the compaction threshold.
+     *
+     * If a backing file has an IO error, a RuntimeException will be thrown
+     * wrapping the original corresponding IOException.
+     */
+    public void compact() {
+        for (Segment segment : _segments.values()) {
+            if (segment == active()) continue;
+            if (segment.count() == 0) continue;
+
+            if (segment.deleted.size() > DEFAULT_COMPACTION_THRESHOLD * segment.count()) {
+                try {
+                    compact(segment);
+                } catch (IOException ex) {
+                    throw new RuntimeException(ex);
+                }
+            }
+        }
+    }
+
+    /**
+     * Rewrites the objects of a segment that have not been removed into a new
+     * generation of the segment, then replaces the segment in the manifest.
+     * Objects that are removed while the compaction is in progress are carried
+     * over to the new generation.
+     */
+    private synchronized void compact(Segment segment) throws IOException {
+        Set<Long> deleted = new HashSet<Long>(segment.deleted);
+        int generation = segment.generation + 1;
+
+        // Copy the remaining objects into a new buffer
+        File dataFile = file(segment.id, generation, ".dat");
+        FileBuffer<T> buffer = new FileBuffer<T>(dataFile, 1, _codec);
+        buffer.setDurability(FileBuffer.Durability.GROUP_COMMIT);
+
+        int count = segment.count();
+        long[] originals = new long[count - deleted.size()];
+        long[] offsets = new long[originals.length];
+        int n = 0;
+
+        // Hold the read lock so the segment cannot be dropped while copying
+        _lock.readLock().lock();
+        try {
+            if (_segments.get(segment.id) != segment) {
+                buffer.close();
+                deleteFiles(segment.id, generation);
+                return;
+            }
+
+            for (int i = 0; i < count; i++) {
+                long original = segment.key(i);
+                if (deleted.contains(original)) continue;
+
+                originals[n] = original;
+                offsets[n] = buffer.add(segment.buffer.get(segment.locate(original)));
+                n++;
+            }
+            buffer.close();
+        } finally {
+            _lock.readLock().unlock();
+        }
+        writeRemap(file(segment.id, generation, ".remap"), originals, offsets);
+
+        // Swap in the new generation of the segment
+        _lock.writeLock().lock();
+        try {
+            if (_segments.get(segment.id) != segment) {
+                deleteFiles(segment.id, generation);
+                return;
+            }
+
+            Segment compacted = new Segment(segment.id, generation, segment.created, originals, offsets);
+            for (Long original : segment.deleted) {
+                if (!deleted.contains(original)) compacted.delete(original);
+            }
+
+            addSegment(compacted);
+            writeManifest();
+            segment.destroy();
+        } finally {
+            _lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Enables or disables periodic compaction of segments by a background
+     * task.
+     *
+     * @see SegmentedFileBuffer#compact()
+     * @param interval the delay between compactions (in milliseconds), or zero to disable compaction.
+     */
+    public synchronized void setCompactionInterval(long interval) {
+        if (_compactionTask != null) {
+            _compactionTask.cancel(false);
+            _compactionTask = null;
+        }
+
+        if (interval > 0) {
+            _compactionTask = _compactor.scheduleWithFixedDelay(new Runnable() {
+                public void run() {
+                    try {
+                        compact();
+                    } catch (RuntimeException ex) {
+                        Logger.getLogger(SegmentedFileBuffer.class.getName()).log(Level.SEVERE, null, ex);
+                    }
+                }
+            }, interval, interval, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Returns the number of segments in the log.
+     *
+     * @return the number of segments.
+     */
+    public int segmentCount() {
+        return _segments.size();
+    }
+
+    /**
+     * Writes any pending objects in the active segment to disk.
+     */
+    public void flush() {
+        active().buffer.flush();
+    }
+
+    /**
+     * Stops background compaction and closes all segments.
+     *
+     * @throws IOException Indicates that pending objects could not be written.
+     */
+    public void close() throws IOException {
+        setCompactionInterval(0);
+
+        _lock.writeLock().lock();
+        try {
+            for (Segment segment : _segments.values()) {
+                segment.close();
+            }
+        } finally {
+            _lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Returns the current number of objects stored in the log.
+     *
+     * @return the number of objects that have been added and not removed.
+     */
+    public int size() {
+        int size = 0;
+        for (Segment segment : _segments.values()) {
+            size += segment.live();
+        }
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return (size() == 0);
+    }
+
+    /**
+     * Looks up the segment and current offset of an object.  Must be called
+     * while holding the read lock.
+     *
+     * @return the segment containing the object, or null if the key is invalid.
+     */
+    private Segment segmentFor(Object key) {
+        if (!(key instanceof Long)) return null;
+
+        long uid = (Long)key;
+        if (uid < 0) return null;
+
+        return _segments.get(segmentOf(uid));
+    }
+
+    /**
+     * Determines whether the key refers to an object in the log that has not
+     * been removed.
+     *
+     * @param key the UID whose membership is being tested.
+     * @return True if this UID refers to a valid object.
+     */
+    public boolean containsKey(Object key) {
+        _lock.readLock().lock();
+        try {
+            Segment segment = segmentFor(key);
+            return (segment != null) && (segment.locate(offsetOf((Long)key)) >= 0);
+        } finally {
+            _lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Retrieves an object from the log.
+     *
+     * If a backing file has an IO error or contains an un-serializable object
+     * type, a RuntimeException will be thrown wrapping the original
+     * corresponding exception.
+     *
+     * @param key The UID of the object that is being retrieved (must be a Long).
+     * @return The object, or null if the reference is not valid.
+     */
+    public T get(Object key) {
+        _lock.readLock().lock();
+        try {
+            Segment segment = segmentFor(key);
+            if (segment == null) return null;
+
+            long offset = segment.locate(offsetOf((Long)key));
+            return (offset < 0) ? null : segment.buffer.get(offset);
+        } finally {
+            _lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Removes an object from the log.  The object is hidden immediately, but
+     * its storage is only reclaimed when its segment is compacted or dropped.
+     *
+     * @param key The UID of the object that is being removed (must be a Long).
+     * @return The removed object, or null if the reference is not valid.
+     */
+    public T remove(Object key) {
+        _lock.readLock().lock();
+        try {
+            Segment segment = segmentFor(key);
+            if (segment == null) return null;
+
+            long original = offsetOf((Long)key);
+            long offset = segment.locate(original);
+            if (offset < 0) return null;
+
+            T obj = segment.buffer.get(offset);
+            segment.delete(original);
+            return obj;
+        } catch (IOException ex) {
+            throw new RuntimeException(ex);
+        } finally {
+            _lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Removes all objects from the log by dropping every segment, and starts
+     * a new empty segment.
+     */
+    public void clear() {
+        _lock.writeLock().lock();
+        try {
+            int next = active().id + 1;
+            dropSegments(new ArrayList<Segment>(_segments.values()));
+            addSegment(new Segment(next, 0, System.currentTimeMillis(), null, null));
+            writeManifest();
+        } catch (IOException ex) {
+            throw new RuntimeException(ex);
+        } finally {
+            _lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Implements an iterator over the UIDs of the objects in the log, in the
+     * order in which they were added.  Objects added or removed after the
+     * iterator reaches their segment may or may not be returned.
+     */
+    private class KeyIterator implements Iterator<Long> {
+        final Iterator<Segment> _segmentIterator = new ArrayList<Segment>(_segments.values()).iterator();
+        Segment _segment = null;
+        int _count = 0;
+        int _index = 0;
+        Long _next = null;
+
+        KeyIterator() {
+            advance();
+        }
+
+        private void advance() {
+            _next = null;
+            while (true) {
+                while (_segment != null && _index < _count) {
+                    long original = _segment.key(_index++);
+                    if (!_segment.deleted.contains(original)) {
+                        _next = uid(_segment.id, original);
+                        return;
+                    }
+                }
+
+                if (!_segmentIterator.hasNext()) return;
+                _segment = _segmentIterator.next();
+                _count = _segment.count();
+                _index = 0;
+            }
+        }
+
+        public boolean hasNext() {
+            return (_next != null);
+        }
+
+        public Long next() {
+            if (_next == null)
+                throw new NoSuchElementException();
+
+            Long uid = _next;
+            advance();
+            return uid;
+        }
+
+        public void remove() {
+            throw new UnsupportedOperationException("Not supported.");
+        }
+    }
+
+    /**
+     * Constructs a set of the UIDs of the objects in the log.  This set does
+     * not decode any objects, and should therefore be fast to traverse.
+     *
+     * @return A set representing the valid UIDs in the log.
+     */
+    public Set<Long> keySet() {
+        return new AbstractSet<Long>() {
+
+            @Override
+            public Iterator<Long> iterator() {
+                return new KeyIterator();
+            }
+
+            @Override
+            public boolean contains(Object o) {
+                return containsKey(o);
+            }
+
+            @Override
+            public int size() {
+                return SegmentedFileBuffer.this.size();
+            }
+        };
+    }
+
+    /**
+     * Constructs a collection of the objects in the log.
+     *
+     * <b>Note: due to decoding costs, using this collection can be extremely
+     * slow!  Do not use it unless absolutely necessary.</b>
+     *
+     * @return A collection representing the objects in the log.
+     */
+    public Collection<T> values() {
+        return new AbstractCollection<T>() {
+
+            @Override
+            public Iterator<T> iterator() {
+                return new Iterator<T>() {
+                    private final KeyIterator _keyIterator = new KeyIterator();
+
+                    public boolean hasNext() {
+                        return _keyIterator.hasNext();
+                    }
+
+                    public T next() {
+                        return get(_keyIterator.next());
+                    }
+
+                    public void remove() {
+                        _keyIterator.remove();
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return SegmentedFileBuffer.this.size();
+            }
+        };
+    }
+
+    /**
+     * Constructs a set of the entries in the log.
+     *
+     * <b>Note: due to decoding costs, using this set can be extremely slow!
+     * Do not use it unless absolutely necessary.</b>
+     *
+     * @return A set representing the entries in the log.
+     */
+    public Set<Map.Entry<Long, T>> entrySet() {
+        return new AbstractSet<Map.Entry<Long, T>>() {
+
+            @Override
+            public Iterator<Map.Entry<Long, T>> iterator() {
+                return new Iterator<Map.Entry<Long, T>>() {
+                    private final KeyIterator _keyIterator = new KeyIterator();
+
+                    public boolean hasNext() {
+                        return _keyIterator.hasNext();
+                    }
+
+                    public Map.Entry<Long, T> next() {
+                        Long uid = _keyIterator.next();
+                        return new java.util.AbstractMap.SimpleImmutableEntry<Long, T>(uid, get(uid));
+                    }
+
+                    public void remove() {
+                        _keyIterator.remove();
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return SegmentedFileBuffer.this.size();
+            }
+        };
+    }
+
+    /**
+     * Does a linear search over the objects in the log.
+     *
+     * <b>Note: due to decoding costs, this operation can be extremely slow!
+     * Do not use it unless absolutely necessary.</b>
+     *
+     * @param obj The object whose membership is being tested.
+     * @return True if the object matches a valid object in the log.
+     */
+    public boolean containsValue(Object obj) {
+        for (T value : values()) {
+            if (value == null ? obj == null : value.equals(obj)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /* The following functions are unsupported because this is a write-to-EOF buffer */
+
+    /**
+     * Not supported because this is a write-to-EOF buffer.
+     *
+     * @see SegmentedFileBuffer#add(java.lang.Object)
+     *
+     * @param k
+     * @param v
+     * @return Unspecified, this function will always throw an exception.
+     */
+    public T put(Long k, T v) {
+        throw new UnsupportedOperationException("Not supported.  Please use the 'add' function.");
+    }
+
+    /**
+     * Not supported because this is a write-to-EOF buffer.
+     *
+     * @see SegmentedFileBuffer#addAll(java.util.List)
+     *
+     * @param map
+     */
+    public void putAll(Map<? extends Long, ? extends T> map) {
+        throw new UnsupportedOperationException("Not supported.  Please use the addAll function.");
+    }
+}
@@ -0,0 +1,461 @@
+/*
+ *  The MIT License
+ *
+ *  Copyright 2010 Prasanna Velagapudi <psigen@gmail.com>.
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+
+package robotutils.data;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Implementation of a thread-safe cache whose capacity is a total weight
+ * (such as a size in bytes) rather than a number of entries, so that a few
+ * large objects and many small objects can share the same memory budget.
+ *
+ * Entries are managed by a segmented LRU (SLRU) policy.  New entries are
+ * placed in a probationary segment, and are only moved to a protected segment
+ * if they are accessed again.  Eviction removes the least recently used
+ * probationary entries first, so a long scan over entries that are used once
+ * cannot flush the frequently used entries out of the cache.
+ *
+ * To allow concurrent access, the cache is split into a number of stripes by
+ * key hash, each of which has its own lock and an equal share of the total
+ * weight.  An entry that is heavier than the share of its stripe is still
+ * cached, as long as it is no heavier than the whole cache: it displaces the
+ * other entries of its stripe, and entries are evicted from the other stripes
+ * until the total weight is back within the capacity.  Only entries that are
+ * heavier than the capacity of the whole cache are never cached.  The cache
+ * also keeps hit, miss and eviction statistics.
+ *
+ * @see ClockCache
+ * @author Prasanna Velagapudi <psigen@gmail.com>
+ */
+public class WeightedCache<K, V> implements Cache<K, V> {
+
+    /**
+     * Computes the weight of a cache entry.
+     */
+    public static interface Weigher<K, V> {
+
+        /**
+         * Returns the weight of an entry, which must not change while it is
+         * in the cache.
+         *
+         * @param key the key of the entry.
+         * @param value the value of the entry.
+         * @return the non-negative weight of the entry.
+         */
+        public int weigh(K key, V value);
+    }
+
+    /**
+     * A weigher that gives every entry a weight of one, so that the capacity
+     * of the cache is a number of entries.
+     */
+    public static final Weigher<Object, Object> SINGLETON = new Weigher<Object, Object>() {
+        public int weigh(Object key, Object value) {
+            return 1;
+        }
+    };
+
+    /**
+     * The default number of independently locked stripes.
+     */
+    public static final int DEFAULT_STRIPES = 16;
+
+    /**
+     * The fraction of the weight of each stripe reserved for protected entries.
+     */
+    public static final double PROTECTED_FRACTION = 0.8;
+
+    /**
+     * The smallest weight that a stripe is allowed to have.
+     */
+    static final long MIN_STRIPE_WEIGHT = 16;
+
+    /**
+     * A cached value along with its weight and segment.
+     */
+    static final class Node<V> {
+        final V value;
+        final int weight;
+        boolean isProtected = false;
+
+        Node(V value, int weight) {
+            this.value = value;
+            this.weight = weight;
+        }
+    }
+
+    /**
+     * An independently locked portion of the cache.  The probationary and
+     * protected segments are kept in insertion order, and entries are moved to
+     * the most recently used end by reinserting them.
+     */
+    final class Stripe {
+        final ReentrantLock lock = new ReentrantLock();
+        final LinkedHashMap<Object, Node<V>> probation = new LinkedHashMap<Object, Node<V>>();
+        final LinkedHashMap<Object, Node<V>> protect = new LinkedHashMap<Object, Node<V>>();
+        final long maxWeight;
+        final long maxProtectedWeight;
+        long probationWeight = 0;
+        long protectedWeight = 0;
+
+        Stripe(long maxWeight) {
+            this.maxWeight = maxWeight;
+            this.maxProtectedWeight = (long)(maxWeight * PROTECTED_FRACTION);
+        }
+
+        V get(Object key) {
+            lock.lock();
+            try {
+                Node<V> node = probation.remove(key);
+                if (node != null) {
+                    // Promote entries that are accessed again while on probation
+                    probationWeight -= node.weight;
+                    node.isProtected = true;
+                    protect.put(key, node);
+                    protectedWeight += node.weight;
+
+                    // Demote the least recently used protected entries if necessary
+                    while (protectedWeight > maxProtectedWeight) {
+                        Iterator<Map.Entry<Object, Node<V>>> it = protect.entrySet().iterator();
+                        Map.Entry<Object, Node<V>> eldest = it.next();
+                        it.remove();
+                        protectedWeight -= eldest.getValue().weight;
+                        eldest.getValue().isProtected = false;
+                        probation.put(eldest.getKey(), eldest.getValue());
+                        probationWeight += eldest.getValue().weight;
+                    }
+                    return node.value;
+                }
+
+                node = protect.remove(key);
+                if (node != null) {
+                    protect.put(key, node);
+                    return node.value;
+                }
+
+                return null;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void put(K key, V value, int weight) {
+            lock.lock();
+            try {
+                remove(key);
+
+                // Entries that could never fit in the cache are not admitted
+                if (weight > _maxWeight) return;
+
+                probation.put(key, new Node<V>(value, weight));
+                probationWeight += weight;
+                _weight.addAndGet(weight);
+
+                // An entry heavier than the stripe may displace all the others
+                long limit = Math.max(maxWeight, weight);
+                while (probationWeight + protectedWeight > limit) {
+                    evict();
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * Evicts the least recently used entry of the stripe, preferring
+         * probationary entries over protected ones.
+         * @return false if the stripe was empty.
+         */
+        boolean evictOne() {
+            lock.lock();
+            try {
+                if (probation.isEmpty() && protect.isEmpty()) return false;
+                evict();
+                return true;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        boolean remove(Object key) {
+            lock.lock();
+            try {
+                Node<V> node = probation.remove(key);
+                if (node == null) node = protect.remove(key);
+                if (node == null) return false;
+
+                release(node);
+                return true;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void clear() {
+            lock.lock();
+            try {
+                _weight.addAndGet(-(probationWeight + protectedWeight));
+                probation.clear();
+                protect.clear();
+                probationWeight = 0;
+                protectedWeight = 0;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        int size() {
+            lock.lock();
+            try {
+                return probation.size() + protect.size();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * Evicts the least recently used entry of a non-empty stripe.  The
+         * stripe lock must be held.
+         */
+        private void evict() {
+            LinkedHashMap<Object, Node<V>> segment = probation.isEmpty() ? protect : probation;
+            Iterator<Node<V>> it = segment.values().iterator();
+            Node<V> victim = it.next();
+            it.remove();
+            release(victim);
+            _evictionCount.incrementAndGet();
+        }
+
+        /**
+         * Accounts for a node that has been unlinked from a segment.
+         */
+        private void release(Node<V> node) {
+            if (node.isProtected) {
+                protectedWeight -= node.weight;
+            } else {
+                probationWeight -= node.weight;
+            }
+            _weight.addAndGet(-node.weight);
+        }
+    }
+
+    private final List<Stripe> _stripes;
+    private final Weigher<? super K, ? super V> _weigher;
+    private final long _maxWeight;
+
+    private final AtomicLong _weight = new AtomicLong();
+    private final AtomicLong _hitCount = new AtomicLong();
+    private final AtomicLong _missCount = new AtomicLong();
+    private final AtomicLong _evictionCount = new AtomicLong();
+
+    /**
+     * Creates a cache that holds up to the specified number of entries.
+     *
+     * @param cacheSize the maximum number of entries in the cache.
+     */
+    public WeightedCache(int cacheSize) {
+        this(cacheSize, SINGLETON);
+    }
+
+    public WeightedCache(long maxWeight, Weigher<? super K, ? super V> weigher) {
+        this(maxWeight, weigher, DEFAULT_STRIPES);
+    }
+
+    /**
+     * Creates a cache that holds entries up to the specified total weight.
+     * The number of stripes is reduced if necessary so that each stripe can
+     * hold a reasonable number of entries.
+     *
+     * @param maxWeight the maximum total weight of the entries in the cache.
+     * @param weigher the function used to compute the weight of each entry.
+     * @param stripes the maximum number of independently locked stripes.
+     */
+    public WeightedCache(long maxWeight, Weigher<? super K, ? super V> weigher, int stripes) {
+        _maxWeight = maxWeight;
+        _weigher = weigher;
+
+        // Use a power of two number of stripes, each with a minimum weight
+        int n = Integer.highestOneBit(Math.max(stripes, 1));
+        while (n > 1 && maxWeight / n < MIN_STRIPE_WEIGHT) {
+            n >>= 1;
+        }
+
+        _stripes = new ArrayList<Stripe>(n);
+        for (int i = 0; i < n; i++) {
+            _stripes.add(new Stripe(maxWeight / n + ((i < maxWeight % n) ? 1 : 0)));
+        }
+    }
+
+    /**
+     * Selects the index of the stripe responsible for a key by spreading its
+     * hash code.
+     */
+    private int index(Object key) {
+        int h = key.hashCode();
+        h ^= (h >>> 16);
+        h *= 0x85ebca6b;
+        h ^= (h >>> 13);
+        return h & (_stripes.size() - 1);
+    }
+
+    private Stripe stripe(Object key) {
+        return _stripes.get(index(key));
+    }
+
+    /**
+     * Returns the value cached for the specified key.
+     *
+     * @param key the key that is being looked up.
+     * @return the cached value, or null if the key is not in the cache.
+     */
+    public V get(Object key) {
+        V value = stripe(key).get(key);
+        if (value == null) {
+            _missCount.incrementAndGet();
+        } else {
+            _hitCount.incrementAndGet();
+        }
+        return value;
+    }
+
+    /**
+     * Inserts a value into the cache, evicting other entries if the cache
+     * is over capacity.  Values that weigh more than the capacity of the
+     * whole cache are not cached.
+     *
+     * @param key the key used to look up the value.
+     * @param value the value that is cached.
+     */
+    public void put(K key, V value) {
+        int weight = _weigher.weigh(key, value);
+        if (weight < 0)
+            throw new IllegalArgumentException("Negative weight: " + weight);
+
+        int i = index(key);
+        _stripes.get(i).put(key, value, weight);
+
+        // Evict from the other stripes if a heavy entry exceeded the capacity
+        for (int j = 1; _weight.get() > _maxWeight && j <= _stripes.size(); j++) {
+            Stripe stripe = _stripes.get((i + j) & (_stripes.size() - 1));
+            while (_weight.get() > _maxWeight && stripe.evictOne()) {}
+        }
+    }
+
+    public void remove(Object key) {
+        stripe(key).remove(key);
+    }
+
+    public void clear() {
+        for (Stripe stripe : _stripes) {
+            stripe.clear();
+        }
+    }
+
+    public int size() {
+        int size = 0;
+        for (Stripe stripe : _stripes) {
+            size += stripe.size();
+        }
+        return size;
+    }
+
+    /**
+     * Returns the total weight of the entries in the cache.
+     *
+     * @return the current weight of the cache.
+     */
+    public long weight() {
+        return _weight.get();
+    }
+
+    /**
+     * Returns the maximum total weight of the entries in the cache.
+     *
+     * @return the capacity of the cache.
+     */
+    public long maxWeight() {
+        return _maxWeight;
+    }
+
+    /**
+     * Returns the number of lookups that found a cached value.
+     *
+     * @return the number of cache hits.
+     */
+    public long hitCount() {
+        return _hitCount.get();
+    }
+
+    /**
+     * Returns the number of lookups that did not find a cached value.
+     *
+     * @return the number of cache misses.
+     */
+    public long missCount() {
+        return _missCount.get();
+    }
+
+    /**
+     * Returns the number of entries that were evicted to make room for others.
+     *
+     * @return the number of evictions.
+     */
+    public long evictionCount() {
+        return _evictionCount.get();
+    }
+
+    /**
+     * Returns the fraction of lookups that found a cached value.
+     *
+     * @return the hit rate, or 1.0 if there have been no lookups.
+     */
+    public double hitRate() {
+        long hits = _hitCount.get();
+        long total = hits + _missCount.get();
+        return (total == 0) ? 1.0 : (double)hits / (double)total;
+    }
+
+    /**
+     * Resets the hit, miss and eviction statistics.
+     */
+    public void resetStats() {
+        _hitCount.set(0);
+        _missCount.set(0);
+        _evictionCount.set(0);
+    }
+
+    @Override
+    public String toString() {
+        return "WeightedCache[size=" + size() + ", weight=" + weight() + "/" + _maxWeight
+                + ", hits=" + hitCount() + ", misses=" + missCount()
+                + ", evictions=" + evictionCount() + "]";
+    }
+}
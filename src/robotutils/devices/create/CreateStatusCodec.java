@@ -0,0 +1,147 @@
+/*
+ * Copyright (c) 2008, Prasanna Velagapudi <pkv@cs.cmu.edu>
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the project nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE PROJECT AND CONTRIBUTORS ''AS IS'' AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE PROJECT AND CONTRIBUTORS BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package robotutils.devices.create;
+
+import java.nio.ByteBuffer;
+import robotutils.data.FileBuffer;
+
+/**
+ * Compact binary codec for storing CreateStatus objects in a FileBuffer.  All
+ * of the boolean sensor states are packed into a single bitfield, followed by
+ * the integer sensor values and the ordinals of the enumerated states.
+ *
+ * @see robotutils.data.FileBufferCodecs#CREATE_STATUS
+ * @author Prasanna Velagapudi <pkv@cs.cmu.edu>
+ */
+public class CreateStatusCodec implements FileBuffer.Codec<CreateStatus> {
+
+    public void encode(CreateStatus s, ByteBuffer buf) {
+        boolean[] flags = new boolean[] {
+            s.wheelDropCaster, s.wheelDropLeft, s.wheelDropRight,
+            s.bumpLeft, s.bumpRight, s.wall,
+            s.cliffLeft, s.cliffFrontLeft, s.cliffFrontRight, s.cliffRight,
+            s.virtualWall, s.leftWheelOvercurrent, s.rightWheelOvercurrent,
+            s.lowSideDriver[0], s.lowSideDriver[1], s.lowSideDriver[2],
+            s.advanceButton, s.playButton, s.deviceDetect,
+            s.cargoBayDigital[0], s.cargoBayDigital[1],
+            s.cargoBayDigital[2], s.cargoBayDigital[3],
+            s.chargeHomeBase, s.chargeInternalCharger, s.songPlaying
+        };
+
+        int bits = 0;
+        for (int i = 0; i < flags.length; i++) {
+            if (flags[i]) bits |= (1 << i);
+        }
+        buf.putInt(bits);
+
+        buf.put(s.infrared);
+        buf.putInt(s.distance);
+        buf.putInt(s.angle);
+        buf.putInt(s.batteryVoltage);
+        buf.putInt(s.batteryCurrent);
+        buf.putInt(s.batteryTemperature);
+        buf.putInt(s.batteryCharge);
+        buf.putInt(s.batteryCapacity);
+        buf.putInt(s.wallSignal);
+        buf.putInt(s.cliffLeftSignal);
+        buf.putInt(s.cliffFrontLeftSignal);
+        buf.putInt(s.cliffFrontRightSignal);
+        buf.putInt(s.cliffRightSignal);
+        buf.putInt(s.cargoBayAnalog);
+        buf.putInt(s.songNumber);
+        buf.putInt(s.numStreamPackets);
+        buf.putInt(s.reqVelocity);
+        buf.putInt(s.reqRadius);
+        buf.putInt(s.reqRightVelocity);
+        buf.putInt(s.reqLeftVelocity);
+
+        buf.put((byte)(s.chargingState == null ? -1 : s.chargingState.ordinal()));
+        buf.put((byte)(s.oiMode == null ? -1 : s.oiMode.ordinal()));
+    }
+
+    public CreateStatus decode(ByteBuffer buf) {
+        CreateStatus s = new CreateStatus();
+
+        int bits = buf.getInt();
+        int i = 0;
+        s.wheelDropCaster =         ((bits & (1 << i++)) != 0);
+        s.wheelDropLeft =           ((bits & (1 << i++)) != 0);
+        s.wheelDropRight =          ((bits & (1 << i++)) != 0);
+        s.bumpLeft =                ((bits & (1 << i++)) != 0);
+        s.bumpRight =               ((bits & (1 << i++)) != 0);
+        s.wall =                    ((bits & (1 << i++)) != 0);
+        s.cliffLeft =               ((bits & (1 << i++)) != 0);
+        s.cliffFrontLeft =          ((bits & (1 << i++)) != 0);
+        s.cliffFrontRight =         ((bits & (1 << i++)) != 0);
+        s.cliffRight =              ((bits & (1 << i++)) != 0);
+        s.virtualWall =             ((bits & (1 << i++)) != 0);
+        s.leftWheelOvercurrent =    ((bits & (1 << i++)) != 0);
+        s.rightWheelOvercurrent =   ((bits & (1 << i++)) != 0);
+        s.lowSideDriver[0] =        ((bits & (1 << i++)) != 0);
+        s.lowSideDriver[1] =        ((bits & (1 << i++)) != 0);
+        s.lowSideDriver[2] =        ((bits & (1 << i++)) != 0);
+        s.advanceButton =           ((bits & (1 << i++)) != 0);
+        s.playButton =              ((bits & (1 << i++)) != 0);
+        s.deviceDetect =            ((bits & (1 << i++)) != 0);
+        s.cargoBayDigital[0] =      ((bits & (1 << i++)) != 0);
+        s.cargoBayDigital[1] =      ((bits & (1 << i++)) != 0);
+        s.cargoBayDigital[2] =      ((bits & (1 << i++)) != 0);
+        s.cargoBayDigital[3] =      ((bits & (1 << i++)) != 0);
+        s.chargeHomeBase =          ((bits & (1 << i++)) != 0);
+        s.chargeInternalCharger =   ((bits & (1 << i++)) != 0);
+        s.songPlaying =             ((bits & (1 << i++)) != 0);
+
+        s.infrared = buf.get();
+        s.distance = buf.getInt();
+        s.angle = buf.getInt();
+        s.batteryVoltage = buf.getInt();
+        s.batteryCurrent = buf.getInt();
+        s.batteryTemperature = buf.getInt();
+        s.batteryCharge = buf.getInt();
+        s.batteryCapacity = buf.getInt();
+        s.wallSignal = buf.getInt();
+        s.cliffLeftSignal = buf.getInt();
+        s.cliffFrontLeftSignal = buf.getInt();
+        s.cliffFrontRightSignal = buf.getInt();
+        s.cliffRightSignal = buf.getInt();
+        s.cargoBayAnalog = buf.getInt();
+        s.songNumber = buf.getInt();
+        s.numStreamPackets = buf.getInt();
+        s.reqVelocity = buf.getInt();
+        s.reqRadius = buf.getInt();
+        s.reqRightVelocity = buf.getInt();
+        s.reqLeftVelocity = buf.getInt();
+
+        byte chargingState = buf.get();
+        s.chargingState = (chargingState < 0) ? null : CreateStatus.ChargeState.values()[chargingState];
+        byte oiMode = buf.get();
+        s.oiMode = (oiMode < 0) ? null : CreateStatus.OIMode.values()[oiMode];
+
+        return s;
+    }
+}
@@ -0,0 +1,551 @@
+/*
+ * Copyright (c) 2008, Prasanna Velagapudi <pkv@cs.cmu.edu>
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the project nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE PROJECT AND CONTRIBUTORS ''AS IS'' AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE PROJECT AND CONTRIBUTORS BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package robotutils.filters;
+
+import robotutils.util.ParallelUtils;
+
+/**
+ * A bank of Kalman filters that share the same process and observation
+ * models, such as the filters used to track a large number of targets.  The
+ * states and covariances of all of the tracks are stored together in
+ * structure-of-arrays form, so that each step runs over all tracks in tight
+ * loops over contiguous memory, and tracks are processed in parallel chunks.
+ *
+ * Element i of the state of track t is stored at x[i * tracks + t], and since
+ * covariances are symmetric, only their upper triangles are stored, in the
+ * same way.  Control inputs and measurements for all tracks are passed to the
+ * filter in the same layout, and a mask selects which tracks have received a
+ * measurement.  Like FixedKalmanFilter, the filter does not allocate memory
+ * after it is constructed.
+ *
+ * Instances are not thread-safe, but each step is internally parallelized.
+ *
+ * @see FixedKalmanFilter
+ * @author Prasanna Velagapudi <pkv@cs.cmu.edu>
+ */
+public class BatchKalmanFilter {
+
+    /**
+     * The default number of tracks that are processed in a single chunk.
+     */
+    public static final int DEFAULT_GRAIN = 256;
+
+    /**
+     * The number of tracks, and the state, observation and control dimensions.
+     */
+    protected final int _tracks, _n, _m, _c;
+
+    /**
+     * The states of all tracks [n x tracks].
+     */
+    protected final double[] _x;
+
+    /**
+     * The upper triangles of the covariances of all tracks [n(n+1)/2 x tracks].
+     */
+    protected final double[] _P;
+
+    /**
+     * Shared process model [n x n], process noise [n x n], control model [n x c],
+     * observation model [m x n] and observation noise [m x m].
+     */
+    protected final double[] _F, _Q, _B, _H, _R;
+
+    /**
+     * The index of each element of a symmetric [n x n] matrix in packed storage.
+     */
+    private final int[] _sym;
+
+    private final int _grain;
+    private final double[][] _work;
+
+    /**
+     * Constructs a bank of filters with the default chunk size.
+     *
+     * @param tracks the number of tracks.
+     * @param n the dimension of the state.
+     * @param m the dimension of the observations.
+     * @param c the dimension of the control inputs (may be zero).
+     */
+    public BatchKalmanFilter(int tracks, int n, int m, int c) {
+        this(tracks, n, m, c, DEFAULT_GRAIN);
+    }
+
+    /**
+     * Constructs a bank of filters whose states and covariances are initially
+     * zero.
+     *
+     * @param tracks the number of tracks.
+     * @param n the dimension of the state.
+     * @param m the dimension of the observations.
+     * @param c the dimension of the control inputs (may be zero).
+     * @param grain the number of tracks processed in a single parallel chunk.
+     */
+    public BatchKalmanFilter(int tracks, int n, int m, int c, int grain) {
+        if (tracks < 0 || n < 1 || m < 1 || c < 0 || grain < 1)
+            throw new IllegalArgumentException("Invalid filter dimensions.");
+
+        _tracks = tracks;
+        _n = n;
+        _m = m;
+        _c = c;
+        _grain = grain;
+
+        _sym = new int[n * n];
+        for (int a = 0, k = 0; a < n; a++) {
+            for (int b = a; b < n; b++, k++) {
+                _sym[a * n + b] = k;
+                _sym[b * n + a] = k;
+            }
+        }
+
+        _x = new double[n * tracks];
+        _P = new double[(n * (n + 1) / 2) * tracks];
+
+        _F = new double[n * n];
+        _Q = new double[n * n];
+        _B = new double[n * c];
+        _H = new double[m * n];
+        _R = new double[m * m];
+
+        // Preallocate a workspace for each chunk of tracks
+        int chunkLength = Math.min(grain, Math.max(tracks, 1));
+        int workSize = Math.max(n * n, 2 * n * m + m * m + m + 1) * chunkLength;
+        _work = new double[ParallelUtils.chunks(tracks, grain)][workSize];
+    }
+
+    /**
+     * Uses the previous state estimates and the shared motion model to
+     * produce estimates of the current states of all tracks.
+     *
+     * @param u the control inputs of all tracks [c x tracks], or null if there are none.
+     */
+    public void predict(final double[] u) {
+        if (u != null) MatrixOps.checkLength(u, _c * _tracks, "u");
+
+        ParallelUtils.forRange(_tracks, _grain, new ParallelUtils.RangeTask() {
+            public void run(int chunk, int start, int end) {
+                predict(_work[chunk], start, end, u);
+            }
+        });
+    }
+
+    /**
+     * Runs the prediction step over the tracks in [start, end).
+     */
+    private void predict(double[] work, int start, int end, double[] u) {
+        final int n = _n;
+        final int N = _tracks;
+        final int L = end - start;
+
+        // Predict states: x = F * x + B * u, using the workspace as a buffer
+        for (int a = 0; a < n; a++) {
+            int w = a * L - start;
+            for (int t = start; t < end; t++) {
+                work[w + t] = 0.0;
+            }
+            for (int i = 0; i < n; i++) {
+                double f = _F[a * n + i];
+                if (f == 0.0) continue;
+
+                int xi = i * N;
+                for (int t = start; t < end; t++) {
+                    work[w + t] += f * _x[xi + t];
+                }
+            }
+            if (u != null) {
+                for (int i = 0; i < _c; i++) {
+                    double b = _B[a * _c + i];
+                    if (b == 0.0) continue;
+
+                    int ui = i * N;
+                    for (int t = start; t < end; t++) {
+                        work[w + t] += b * u[ui + t];
+                    }
+                }
+            }
+        }
+        for (int a = 0; a < n; a++) {
+            System.arraycopy(work, a * L, _x, a * N + start, L);
+        }
+
+        // Compute F * P into the workspace
+        for (int a = 0; a < n; a++) {
+            for (int j = 0; j < n; j++) {
+                int w = (a * n + j) * L - start;
+                for (int t = start; t < end; t++) {
+                    work[w + t] = 0.0;
+                }
+                for (int i = 0; i < n; i++) {
+                    double f = _F[a * n + i];
+                    if (f == 0.0) continue;
+
+                    int p = _sym[i * n + j] * N;
+                    for (int t = start; t < end; t++) {
+                        work[w + t] += f * _P[p + t];
+                    }
+                }
+            }
+        }
+
+        // Compute P = (F * P) * F' + Q, for the upper triangle only
+        for (int a = 0; a < n; a++) {
+            for (int b = a; b < n; b++) {
+                int p = _sym[a * n + b] * N;
+                double q = _Q[a * n + b];
+                for (int t = start; t < end; t++) {
+                    _P[p + t] = q;
+                }
+                for (int j = 0; j < n; j++) {
+                    double f = _F[b * n + j];
+                    if (f == 0.0) continue;
+
+                    int w = (a * n + j) * L - start;
+                    for (int t = start; t < end; t++) {
+                        _P[p + t] += f * work[w + t];
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Current measurement information is used to refine the state estimates
+     * of the tracks that received measurements, using the shared observation
+     * model.  Tracks whose innovation covariance is not positive definite are
+     * left unchanged.
+     *
+     * @param z the measurements of all tracks [m x tracks].
+     * @param mask which tracks received a measurement, or null if all tracks did.
+     * @return the number of tracks that were updated.
+     */
+    public int update(final double[] z, final boolean[] mask) {
+        MatrixOps.checkLength(z, _m * _tracks, "z");
+        if (mask != null && mask.length != _tracks)
+            throw new IllegalArgumentException("Expected " + _tracks + " elements in mask.");
+
+        final int[] updated = new int[_work.length];
+        ParallelUtils.forRange(_tracks, _grain, new ParallelUtils.RangeTask() {
+            public void run(int chunk, int start, int end) {
+                updated[chunk] = update(_work[chunk], start, end, z, mask);
+            }
+        });
+
+        int count = 0;
+        for (int c : updated) {
+            count += c;
+        }
+        return count;
+    }
+
+    /**
+     * Runs the update step over the tracks in [start, end).
+     */
+    private int update(double[] work, int start, int end, double[] z, boolean[] mask) {
+        final int n = _n;
+        final int m = _m;
+        final int N = _tracks;
+        final int L = end - start;
+
+        // Partition the workspace into [PHt: n x m][K: n x m][S: m x m][y: m][weight]
+        final int PHt = -start;
+        final int K = n * m * L - start;
+        final int S = 2 * n * m * L - start;
+        final int Y = (2 * n * m + m * m) * L - start;
+        final int W = (2 * n * m + m * m + m) * L - start;
+
+        // Tracks are only modified if they are masked and the update is valid
+        for (int t = start; t < end; t++) {
+            work[W + t] = (mask == null || mask[t]) ? 1.0 : 0.0;
+        }
+
+        // Innovation: y = z - H * x, where the measurements of tracks that
+        // are masked out are never read, since they may not be finite
+        for (int k = 0; k < m; k++) {
+            int y = Y + k * L;
+            for (int t = start; t < end; t++) {
+                work[y + t] = (work[W + t] != 0.0) ? z[k * N + t] : 0.0;
+            }
+            for (int j = 0; j < n; j++) {
+                double h = _H[k * n + j];
+                if (h == 0.0) continue;
+
+                int xj = j * N;
+                for (int t = start; t < end; t++) {
+                    work[y + t] -= h * _x[xj + t];
+                }
+            }
+        }
+
+        // P * H'
+        for (int i = 0; i < n; i++) {
+            for (int k = 0; k < m; k++) {
+                int ph = PHt + (i * m + k) * L;
+                for (int t = start; t < end; t++) {
+                    work[ph + t] = 0.0;
+                }
+                for (int j = 0; j < n; j++) {
+                    double h = _H[k * n + j];
+                    if (h == 0.0) continue;
+
+                    int p = _sym[i * n + j] * N;
+                    for (int t = start; t < end; t++) {
+                        work[ph + t] += h * _P[p + t];
+                    }
+                }
+            }
+        }
+
+        // Innovation covariance: S = H * (P * H') + R, for the lower triangle
+        for (int k = 0; k < m; k++) {
+            for (int l = 0; l <= k; l++) {
+                int s = S + (k * m + l) * L;
+                double r = _R[k * m + l];
+                for (int t = start; t < end; t++) {
+                    work[s + t] = r;
+                }
+                for (int j = 0; j < n; j++) {
+                    double h = _H[k * n + j];
+                    if (h == 0.0) continue;
+
+                    int ph = PHt + (j * m + l) * L;
+                    for (int t = start; t < end; t++) {
+                        work[s + t] += h * work[ph + t];
+                    }
+                }
+            }
+        }
+
+        // Cholesky factorization of S in place, disabling invalid tracks
+        for (int j = 0; j < m; j++) {
+            int sjj = S + (j * m + j) * L;
+            for (int k = 0; k < j; k++) {
+                int sjk = S + (j * m + k) * L;
+                for (int t = start; t < end; t++) {
+                    work[sjj + t] -= work[sjk + t] * work[sjk + t];
+                }
+            }
+            for (int t = start; t < end; t++) {
+                double d = work[sjj + t];
+                if (d > 0.0) {
+                    work[sjj + t] = Math.sqrt(d);
+                } else {
+                    work[sjj + t] = 1.0;
+                    work[W + t] = 0.0;
+                }
+            }
+
+            for (int i = j + 1; i < m; i++) {
+                int sij = S + (i * m + j) * L;
+                for (int k = 0; k < j; k++) {
+                    int sik = S + (i * m + k) * L;
+                    int sjk = S + (j * m + k) * L;
+                    for (int t = start; t < end; t++) {
+                        work[sij + t] -= work[sik + t] * work[sjk + t];
+                    }
+                }
+                for (int t = start; t < end; t++) {
+                    work[sij + t] /= work[sjj + t];
+                }
+            }
+        }
+
+        // Kalman gain: each row of K solves L * L' * K(i,:)' = (P * H')(i,:)'
+        for (int i = 0; i < n; i++) {
+            for (int k = 0; k < m; k++) {
+                int kk = K + (i * m + k) * L;
+                int ph = PHt + (i * m + k) * L;
+                for (int t = start; t < end; t++) {
+                    work[kk + t] = work[ph + t];
+                }
+                for (int l = 0; l < k; l++) {
+                    int skl = S + (k * m + l) * L;
+                    int kl = K + (i * m + l) * L;
+                    for (int t = start; t < end; t++) {
+                        work[kk + t] -= work[skl + t] * work[kl + t];
+                    }
+                }
+                int skk = S + (k * m + k) * L;
+                for (int t = start; t < end; t++) {
+                    work[kk + t] /= work[skk + t];
+                }
+            }
+            for (int k = m - 1; k >= 0; k--) {
+                int kk = K + (i * m + k) * L;
+                for (int l = k + 1; l < m; l++) {
+                    int slk = S + (l * m + k) * L;
+                    int kl = K + (i * m + l) * L;
+                    for (int t = start; t < end; t++) {
+                        work[kk + t] -= work[slk + t] * work[kl + t];
+                    }
+                }
+                int skk = S + (k * m + k) * L;
+                for (int t = start; t < end; t++) {
+                    work[kk + t] /= work[skk + t];
+                }
+            }
+        }
+
+        // State and covariance: x = x + K * y, P = P - K * (P * H')'.  Tracks
+        // that are not updated are skipped rather than given a zero weight,
+        // since their gain may not be finite.
+        for (int i = 0; i < n; i++) {
+            int xi = i * N;
+            for (int k = 0; k < m; k++) {
+                int kk = K + (i * m + k) * L;
+                int y = Y + k * L;
+                for (int t = start; t < end; t++) {
+                    if (work[W + t] == 0.0) continue;
+                    _x[xi + t] += work[kk + t] * work[y + t];
+                }
+            }
+
+            for (int j = i; j < n; j++) {
+                int p = _sym[i * n + j] * N;
+                for (int k = 0; k < m; k++) {
+                    int kk = K + (i * m + k) * L;
+                    int ph = PHt + (j * m + k) * L;
+                    for (int t = start; t < end; t++) {
+                        if (work[W + t] == 0.0) continue;
+                        _P[p + t] -= work[kk + t] * work[ph + t];
+                    }
+                }
+            }
+        }
+
+        int count = 0;
+        for (int t = start; t < end; t++) {
+            if (work[W + t] != 0.0) count++;
+        }
+        return count;
+    }
+
+    /**
+     * Returns the number of tracks.
+     * @return the number of tracks.
+     */
+    public int size() {
+        return _tracks;
+    }
+
+    /**
+     * Sets the current state estimate of a track.
+     * @param track the index of the track.
+     * @param x the new state estimate [n].
+     */
+    public void setState(int track, double[] x) {
+        MatrixOps.checkLength(x, _n, "x");
+        for (int i = 0; i < _n; i++) {
+            _x[i * _tracks + track] = x[i];
+        }
+    }
+
+    /**
+     * Copies the current state estimate of a track into an array.
+     * @param track the index of the track.
+     * @param x the array that receives the state estimate [n].
+     */
+    public void getState(int track, double[] x) {
+        MatrixOps.checkLength(x, _n, "x");
+        for (int i = 0; i < _n; i++) {
+            x[i] = _x[i * _tracks + track];
+        }
+    }
+
+    /**
+     * Sets the current state covariance of a track.  Only the upper triangle
+     * of the covariance is used.
+     * @param track the index of the track.
+     * @param P the new state covariance [n x n].
+     */
+    public void setStateCov(int track, double[] P) {
+        MatrixOps.checkLength(P, _n * _n, "P");
+        for (int a = 0; a < _n; a++) {
+            for (int b = a; b < _n; b++) {
+                _P[_sym[a * _n + b] * _tracks + track] = P[a * _n + b];
+            }
+        }
+    }
+
+    /**
+     * Copies the current state covariance of a track into an array.
+     * @param track the index of the track.
+     * @param P the array that receives the state covariance [n x n].
+     */
+    public void getStateCov(int track, double[] P) {
+        MatrixOps.checkLength(P, _n * _n, "P");
+        for (int i = 0; i < _n * _n; i++) {
+            P[i] = _P[_sym[i] * _tracks + track];
+        }
+    }
+
+    /**
+     * Sets the shared process model.
+     * @param F the new process model [n x n].
+     */
+    public void setProcessModel(double[] F) {
+        set(F, _F, "F");
+    }
+
+    /**
+     * Sets the shared process noise.
+     * @param Q the new process noise [n x n].
+     */
+    public void setProcessNoise(double[] Q) {
+        set(Q, _Q, "Q");
+    }
+
+    /**
+     * Sets the shared control model.
+     * @param B the new control model [n x c].
+     */
+    public void setControlModel(double[] B) {
+        set(B, _B, "B");
+    }
+
+    /**
+     * Sets the shared observation model.
+     * @param H the new observation model [m x n].
+     */
+    public void setObsModel(double[] H) {
+        set(H, _H, "H");
+    }
+
+    /**
+     * Sets the shared observation noise.
+     * @param R the new observation noise [m x m].
+     */
+    public void setObsNoise(double[] R) {
+        set(R, _R, "R");
+    }
+
+    private static void set(double[] src, double[] dst, String name) {
+        MatrixOps.checkLength(src, dst.length, name);
+        System.arraycopy(src, 0, dst, 0, dst.length);
+    }
+}
@@ -0,0 +1,438 @@
+/*
+ * Copyright (c) 2008, Prasanna Velagapudi <pkv@cs.cmu.edu>
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the project nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE PROJECT AND CONTRIBUTORS ''AS IS'' AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE PROJECT AND CONTRIBUTORS BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package robotutils.filters;
+
+/**
+ * A Kalman filter with fixed state, observation and control dimensions that
+ * performs all of its computations in preallocated arrays, so that the predict
+ * and update steps do not allocate any memory.  This makes it suitable for
+ * running large numbers of filters at high rates, where the matrices created
+ * by KalmanFilter would cause frequent garbage collection.
+ *
+ * All matrices are stored as row-major arrays of doubles.  Models and noise
+ * matrices passed to the filter are copied into its own arrays, and the state
+ * is copied out into arrays provided by the caller.  The innovation covariance
+ * is factored using a Cholesky decomposition rather than being inverted.
+ *
+ * Instances are not thread-safe, since the workspaces are shared between
+ * steps.
+ *
+ * @see KalmanFilter
+ * @author Prasanna Velagapudi <pkv@cs.cmu.edu>
+ */
+public class FixedKalmanFilter {
+
+    /**
+     * Dimension of the state.
+     */
+    protected final int _n;
+
+    /**
+     * Dimension of the observations.
+     */
+    protected final int _m;
+
+    /**
+     * Dimension of the control inputs.
+     */
+    protected final int _c;
+
+    /**
+     * Predicted state [n].
+     */
+    protected final double[] _x;
+
+    /**
+     * Predicted state covariance [n x n].
+     */
+    protected final double[] _P;
+
+    /**
+     * Optimal Kalman gain [n x m].
+     */
+    protected final double[] _K;
+
+    /**
+     * Default process model [n x n], process noise [n x n] and control model [n x c].
+     */
+    protected final double[] _F, _Q, _B;
+
+    /**
+     * Default observation model [m x n] and observation noise [m x m].
+     */
+    protected final double[] _H, _R;
+
+    // Workspaces used during each step
+    private final double[] _xTmp;
+    private final double[] _FP;
+    private final double[] _PHt;
+    private final double[] _S;
+    private final double[] _Kt;
+    private final double[] _y;
+    private final int[] _nzIndices;
+    private final double[] _nzValues;
+
+    /**
+     * Constructs a filter with the given dimensions, whose state, covariance
+     * and models are initially zero.
+     *
+     * @param n the dimension of the state.
+     * @param m the dimension of the observations.
+     * @param c the dimension of the control inputs (may be zero).
+     */
+    public FixedKalmanFilter(int n, int m, int c) {
+        if (n < 1 || m < 1 || c < 0)
+            throw new IllegalArgumentException("Invalid filter dimensions.");
+
+        _n = n;
+        _m = m;
+        _c = c;
+
+        _x = new double[n];
+        _P = new double[n * n];
+        _K = new double[n * m];
+
+        _F = new double[n * n];
+        _Q = new double[n * n];
+        _B = new double[n * c];
+        _H = new double[m * n];
+        _R = new double[m * m];
+
+        _xTmp = new double[n];
+        _FP = new double[n * n];
+        _PHt = new double[n * m];
+        _S = new double[m * m];
+        _Kt = new double[m * n];
+        _y = new double[m];
+        _nzIndices = new int[n];
+        _nzValues = new double[n];
+    }
+
+    /**
+     * Constructs a filter with an initial state estimate and covariance.
+     *
+     * @param x the initial state estimate [n].
+     * @param P the initial state covariance [n x n].
+     * @param m the dimension of the observations.
+     * @param c the dimension of the control inputs (may be zero).
+     */
+    public FixedKalmanFilter(double[] x, double[] P, int m, int c) {
+        this(x.length, m, c);
+        setState(x);
+        setStateCov(P);
+    }
+
+    /**
+     * Uses the previous state estimate and the default motion model to produce
+     * an estimate of the current state.
+     *
+     * @param u the current control input [c], or null if there is none.
+     */
+    public void predict(double[] u) {
+        predictState(_F, _B, u);
+        predictCov(_F, _Q);
+    }
+
+    /**
+     * Uses the previous state estimate and the provided motion model to
+     * produce an estimate of the current state.  The models are not copied.
+     *
+     * @param F the process model [n x n].
+     * @param Q the process noise [n x n].
+     * @param B the control model [n x c], or null if there is no control input.
+     * @param u the current control input [c], or null if there is none.
+     */
+    public void predict(double[] F, double[] Q, double[] B, double[] u) {
+        MatrixOps.checkLength(F, _n * _n, "F");
+        MatrixOps.checkLength(Q, _n * _n, "Q");
+
+        predictState(F, B, u);
+        predictCov(F, Q);
+    }
+
+    /**
+     * Computes x = F * x + B * u.
+     */
+    private void predictState(double[] F, double[] B, double[] u) {
+        MatrixOps.multiplyVector(F, _x, _xTmp, _n, _n, false);
+        if (B != null && u != null && _c > 0)
+            MatrixOps.multiplyVector(B, u, _xTmp, _n, _c, true);
+        System.arraycopy(_xTmp, 0, _x, 0, _n);
+    }
+
+    /**
+     * Computes P = F * P * F' + Q.
+     */
+    private void predictCov(double[] F, double[] Q) {
+        MatrixOps.multiply(F, _P, _FP, _n, _n, _n);
+        System.arraycopy(Q, 0, _P, 0, _n * _n);
+        MatrixOps.multiplyTranspose(_FP, F, _P, _n, _n, _n, true);
+        MatrixOps.symmetrize(_P, _n);
+    }
+
+    /**
+     * Current measurement information is used to refine the state estimate
+     * using the default observation model.
+     *
+     * @param z the current measurement [m].
+     */
+    public void update(double[] z) {
+        update(_H, _R, z);
+    }
+
+    /**
+     * Current measurement information is used to refine the state estimate
+     * using the provided observation model.  The models are not copied.
+     *
+     * @param H the observation model [m x n].
+     * @param R the observation noise [m x m].
+     * @param z the current measurement [m].
+     * @throws IllegalArgumentException if H, R or z have the wrong length.
+     * @throws IllegalStateException if the innovation covariance is not positive definite.
+     */
+    public void update(double[] H, double[] R, double[] z) {
+        final int n = _n;
+        final int m = _m;
+
+        checkObs(H, R, z);
+
+        // Innovation: y = z - H * x
+        MatrixOps.multiplyVector(H, _x, _y, m, n, false);
+        for (int i = 0; i < m; i++) {
+            _y[i] = z[i] - _y[i];
+        }
+
+        // Innovation covariance: S = H * P * H' + R
+        MatrixOps.multiplyTranspose(_P, H, _PHt, n, n, m, false);
+        MatrixOps.multiply(H, _PHt, _S, m, n, m);
+        for (int i = 0; i < m * m; i++) {
+            _S[i] += R[i];
+        }
+
+        // Kalman gain: K' = S^-1 * (P * H')', using a Cholesky factor of S
+        if (!MatrixOps.cholesky(_S, m))
+            throw new IllegalStateException("Innovation covariance is not positive definite.");
+        for (int i = 0; i < n; i++) {
+            for (int j = 0; j < m; j++) {
+                _Kt[j * n + i] = _PHt[i * m + j];
+            }
+        }
+        MatrixOps.choleskySolve(_S, _Kt, m, n);
+        for (int i = 0; i < n; i++) {
+            for (int j = 0; j < m; j++) {
+                _K[i * m + j] = _Kt[j * n + i];
+            }
+        }
+
+        // State and covariance: x = x + K * y, P = P - K * (P * H')'
+        MatrixOps.multiplyVector(_K, _y, _x, n, m, true);
+        for (int i = 0; i < n; i++) {
+            for (int j = 0; j < n; j++) {
+                double s = 0.0;
+                for (int k = 0; k < m; k++) {
+                    s += _K[i * m + k] * _PHt[j * m + k];
+                }
+                _P[i * n + j] -= s;
+            }
+        }
+        MatrixOps.symmetrize(_P, n);
+    }
+
+    /**
+     * Current measurement information is used to refine the state estimate
+     * one scalar measurement at a time, using the default observation model.
+     * This requires the default observation noise to be diagonal.
+     *
+     * @param z the current measurement [m].
+     * @see #updateSequential(double[], double[], double[])
+     */
+    public void updateSequential(double[] z) {
+        updateSequential(_H, _R, z);
+    }
+
+    /**
+     * Current measurement information is used to refine the state estimate
+     * one scalar measurement at a time, using the provided observation model.
+     * If the observation noise is diagonal, this gives the same result as
+     * {@link #update(double[], double[], double[])}, but costs O(m * n^2)
+     * instead of O(m^3 + m * n^2) and skips the zero elements of H.
+     * The Kalman gain is not updated.
+     *
+     * @param H the observation model [m x n].
+     * @param R the observation noise [m x m], which must be diagonal.
+     * @param z the current measurement [m].
+     * @throws IllegalArgumentException if H, R or z have the wrong length, or if R is not diagonal.
+     * @throws IllegalStateException if an innovation variance is not positive.
+     */
+    public void updateSequential(double[] H, double[] R, double[] z) {
+        checkObs(H, R, z);
+        MatrixOps.sequentialUpdate(_x, _P, _n, _m, H, R, z,
+                _xTmp, _nzIndices, _nzValues);
+    }
+
+    /**
+     * Checks the lengths of an observation model and measurement.
+     */
+    private void checkObs(double[] H, double[] R, double[] z) {
+        MatrixOps.checkLength(H, _m * _n, "H");
+        MatrixOps.checkLength(R, _m * _m, "R");
+        MatrixOps.checkLength(z, _m, "z");
+    }
+
+    /**
+     * Current measurement information is used to refine the state estimate
+     * using a single scalar measurement z = h * x + v, where the observation
+     * row h is sparse.  This costs O(n * nnz + n^2) and allocates nothing.
+     * The Kalman gain is not updated.
+     *
+     * @param indices the indices of the nonzero elements of h.
+     * @param h the nonzero elements of h.
+     * @param r the variance of the measurement noise v.
+     * @param z the current measurement.
+     * @throws IllegalStateException if the innovation variance is not positive.
+     */
+    public void update(int[] indices, double[] h, double r, double z) {
+        if (indices.length != h.length)
+            throw new IllegalArgumentException("Expected " + indices.length + " observation coefficients.");
+        MatrixOps.scalarUpdate(_x, _P, _n, indices, h, indices.length, r, z, _xTmp);
+    }
+
+    /**
+     * Returns the dimension of the state.
+     * @return the dimension of the state.
+     */
+    public int getStateDim() {
+        return _n;
+    }
+
+    /**
+     * Returns the dimension of the observations.
+     * @return the dimension of the observations.
+     */
+    public int getObsDim() {
+        return _m;
+    }
+
+    /**
+     * Returns the dimension of the control inputs.
+     * @return the dimension of the control inputs.
+     */
+    public int getControlDim() {
+        return _c;
+    }
+
+    /**
+     * Sets the current state estimate.
+     * @param x the new state estimate [n].
+     */
+    public void setState(double[] x) {
+        set(x, _x, "x");
+    }
+
+    /**
+     * Copies the current state estimate into an array.
+     * @param x the array that receives the state estimate [n].
+     */
+    public void getState(double[] x) {
+        get(_x, x, "x");
+    }
+
+    /**
+     * Sets the current state covariance.
+     * @param P the new state covariance [n x n].
+     */
+    public void setStateCov(double[] P) {
+        set(P, _P, "P");
+    }
+
+    /**
+     * Copies the current state covariance into an array.
+     * @param P the array that receives the state covariance [n x n].
+     */
+    public void getStateCov(double[] P) {
+        get(_P, P, "P");
+    }
+
+    /**
+     * Copies the most recently computed Kalman gain into an array.
+     * @param K the array that receives the Kalman gain [n x m].
+     */
+    public void getKalmanGain(double[] K) {
+        get(_K, K, "K");
+    }
+
+    /**
+     * Sets the default process model.
+     * @param F the new process model [n x n].
+     */
+    public void setProcessModel(double[] F) {
+        set(F, _F, "F");
+    }
+
+    /**
+     * Sets the default process noise.
+     * @param Q the new process noise [n x n].
+     */
+    public void setProcessNoise(double[] Q) {
+        set(Q, _Q, "Q");
+    }
+
+    /**
+     * Sets the default control model.
+     * @param B the new control model [n x c].
+     */
+    public void setControlModel(double[] B) {
+        set(B, _B, "B");
+    }
+
+    /**
+     * Sets the default observation model.
+     * @param H the new observation model [m x n].
+     */
+    public void setObsModel(double[] H) {
+        set(H, _H, "H");
+    }
+
+    /**
+     * Sets the default observation noise.
+     * @param R the new observation noise [m x m].
+     */
+    public void setObsNoise(double[] R) {
+        set(R, _R, "R");
+    }
+
+    private static void set(double[] src, double[] dst, String name) {
+        MatrixOps.checkLength(src, dst.length, name);
+        System.arraycopy(src, 0, dst, 0, dst.length);
+    }
+
+    private static void get(double[] src, double[] dst, String name) {
+        MatrixOps.checkLength(dst, src.length, name);
+        System.arraycopy(src, 0, dst, 0, src.length);
+    }
+}
@@ -0,0 +1,349 @@
+/*
+ * Copyright (c) 2008, Prasanna Velagapudi <pkv@cs.cmu.edu>
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the project nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE PROJECT AND CONTRIBUTORS ''AS IS'' AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE PROJECT AND CONTRIBUTORS BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package robotutils.filters;
+
+import java.util.Arrays;
+import org.apache.commons.math.linear.RealMatrix;
+
+/**
+ * A Kalman filter in information form, which propagates the information
+ * matrix Y = P^-1 and information vector y = P^-1 * x instead of the state
+ * and covariance.  Measurement updates are additive in this form:
+ * Y += H' * R^-1 * H and y += H' * R^-1 * z, so their cost grows linearly
+ * with the size of the measurement vector, and no matrix of the size of the
+ * measurement is ever inverted except for R itself, which is only inverted
+ * when it changes.  This makes updates with large measurement vectors (such
+ * as range scans) much cheaper than in KalmanFilter.
+ *
+ * Predictions are more expensive, since they require the covariance, and
+ * are computed using Cholesky factorizations of the information matrix.  The
+ * information matrix is kept symmetric after each step.  The filter has the
+ * same interface as KalmanFilter.
+ *
+ * @see KalmanFilter
+ * @author Prasanna Velagapudi <pkv@cs.cmu.edu>
+ */
+public class InformationFilter extends KalmanFilter {
+
+    /**
+     * Dimension of the state.
+     */
+    protected final int _n;
+
+    /**
+     * Information matrix [n x n].
+     */
+    protected final double[] _Y;
+
+    /**
+     * Information vector [n].
+     */
+    protected final double[] _y;
+
+    // Workspaces for the Cholesky factor and covariance
+    private final double[] _L;
+    private final double[] _Pw;
+
+    // Most recent observation model, noise and their products
+    private double[] _lastR, _Rinv;
+    private double[] _HtRinv;
+    private int _HtRinvCols;
+
+    /**
+     * Constructs an information filter with no default motion and
+     * observation models.
+     * @param x the initial state estimate.
+     * @param P the initial state covariance.
+     */
+    public InformationFilter(RealMatrix x, RealMatrix P) {
+        super(x, P);
+
+        _n = x.getRowDimension();
+        _Y = new double[_n * _n];
+        _y = new double[_n];
+        _L = new double[_n * _n];
+        _Pw = new double[_n * _n];
+
+        setStateCov(P);
+        setState(x);
+    }
+
+    /**
+     * Constructs an information filter with a default motion model and no
+     * default observation model.
+     * @param x the initial state estimate.
+     * @param P the initial state covariance.
+     * @param F the default process model.
+     * @param Q the default process noise.
+     * @param B the default control model.
+     */
+    public InformationFilter(RealMatrix x, RealMatrix P,
+            RealMatrix F, RealMatrix Q, RealMatrix B) {
+        this(x, P);
+
+        _F = F;
+        _Q = Q;
+        _B = B;
+    }
+
+    /**
+     * Constructs an information filter with a default motion model and
+     * default observation model.
+     * @param x the initial state estimate.
+     * @param P the initial state covariance.
+     * @param F the default process model.
+     * @param Q the default process noise.
+     * @param B the default control model.
+     * @param H the default observation model.
+     * @param R the default observation noise.
+     */
+    public InformationFilter(RealMatrix x, RealMatrix P,
+            RealMatrix F, RealMatrix Q, RealMatrix B,
+            RealMatrix H, RealMatrix R) {
+        this(x, P, F, Q, B);
+
+        _H = H;
+        _R = R;
+    }
+
+    /**
+     * Uses the previous state estimate and the provided motion model to
+     * produce an estimate of the current state.  The state and covariance are
+     * recovered from the information form, predicted, and converted back.
+     * @param F the process model.
+     * @param Q the process noise.
+     * @param B the control model (may be null if there is no control input).
+     * @param u the current control input (may be null).
+     */
+    @Override
+    public void predict(RealMatrix F, RealMatrix Q, RealMatrix B, RealMatrix u) {
+        final int n = _n;
+        double[] f = MatrixOps.toArray(F);
+
+        // Recover state and covariance
+        double[] x = state();
+        covariance(_Pw);
+
+        // Predict state: x = F * x + B * u
+        double[] xp = new double[n];
+        MatrixOps.multiplyVector(f, x, xp, n, n, false);
+        if (B != null && u != null)
+            MatrixOps.multiplyVector(MatrixOps.toArray(B), MatrixOps.toArray(u),
+                    xp, n, B.getColumnDimension(), true);
+
+        // Predict covariance: P = F * P * F' + Q
+        double[] FP = new double[n * n];
+        MatrixOps.multiply(f, _Pw, FP, n, n, n);
+        double[] P = MatrixOps.toArray(Q);
+        MatrixOps.checkLength(P, n * n, "Q");
+        MatrixOps.multiplyTranspose(FP, f, P, n, n, n, true);
+        MatrixOps.symmetrize(P, n);
+
+        // Convert back to information form
+        if (!MatrixOps.inverseSPD(P, _L, _Y, n))
+            throw new IllegalStateException("Predicted covariance is not positive definite.");
+        MatrixOps.multiplyVector(_Y, xp, _y, n, n, false);
+    }
+
+    /**
+     * Current measurement information is used to refine the state estimate
+     * using the provided observation model, by adding the information of the
+     * measurement to the information matrix and vector.
+     * @param H the observation model.
+     * @param R the observation noise.
+     * @param z the current measurement.
+     */
+    @Override
+    public void update(RealMatrix H, RealMatrix R, RealMatrix z) {
+        final int n = _n;
+        final int m = H.getRowDimension();
+        double[] h = MatrixOps.toArray(H);
+        double[] zv = MatrixOps.toArray(z);
+        double[] Rinv = inverseR(R);
+
+        // Compute H' * R^-1, taking advantage of a diagonal R
+        if (_HtRinv == null || _HtRinvCols != m) {
+            _HtRinv = new double[n * m];
+            _HtRinvCols = m;
+        }
+        if (isDiagonal(Rinv, m)) {
+            for (int i = 0; i < n; i++) {
+                for (int k = 0; k < m; k++) {
+                    _HtRinv[i * m + k] = h[k * n + i] * Rinv[k * m + k];
+                }
+            }
+        } else {
+            for (int i = 0; i < n; i++) {
+                for (int k = 0; k < m; k++) {
+                    double s = 0.0;
+                    for (int l = 0; l < m; l++) {
+                        s += h[l * n + i] * Rinv[l * m + k];
+                    }
+                    _HtRinv[i * m + k] = s;
+                }
+            }
+        }
+
+        // Y += (H' * R^-1) * H, y += (H' * R^-1) * z
+        for (int i = 0; i < n; i++) {
+            for (int j = i; j < n; j++) {
+                double s = 0.0;
+                for (int k = 0; k < m; k++) {
+                    s += _HtRinv[i * m + k] * h[k * n + j];
+                }
+                _Y[i * n + j] += s;
+                if (i != j) _Y[j * n + i] += s;
+            }
+        }
+        MatrixOps.multiplyVector(_HtRinv, zv, _y, n, m, true);
+    }
+
+    /**
+     * Returns the inverse of the observation noise, recomputing it only if
+     * it has changed since the last update.
+     */
+    private double[] inverseR(RealMatrix R) {
+        double[] r = MatrixOps.toArray(R);
+        if (_lastR == null || !Arrays.equals(r, _lastR)) {
+            int m = R.getRowDimension();
+            double[] inv = new double[m * m];
+            if (!MatrixOps.inverseSPD(r, new double[m * m], inv, m))
+                throw new IllegalArgumentException("Observation noise is not positive definite.");
+            _lastR = r;
+            _Rinv = inv;
+        }
+        return _Rinv;
+    }
+
+    private static boolean isDiagonal(double[] A, int n) {
+        for (int i = 0; i < n; i++) {
+            for (int j = 0; j < n; j++) {
+                if (i != j && A[i * n + j] != 0.0) return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Recovers the state estimate x = Y^-1 * y.
+     */
+    private double[] state() {
+        System.arraycopy(_Y, 0, _L, 0, _n * _n);
+        if (!MatrixOps.cholesky(_L, _n))
+            throw new IllegalStateException("Information matrix is not positive definite.");
+
+        double[] x = _y.clone();
+        MatrixOps.choleskySolve(_L, x, _n, 1);
+        return x;
+    }
+
+    /**
+     * Recovers the state covariance P = Y^-1.
+     */
+    private void covariance(double[] P) {
+        if (!MatrixOps.inverseSPD(_Y, _L, P, _n))
+            throw new IllegalStateException("Information matrix is not positive definite.");
+    }
+
+    /**
+     * Sets the current state estimate, keeping the current covariance.
+     * @param x the new state estimate.
+     */
+    @Override
+    public void setState(RealMatrix x) {
+        double[] xs = MatrixOps.toArray(x);
+        MatrixOps.checkLength(xs, _n, "x");
+        MatrixOps.multiplyVector(_Y, xs, _y, _n, _n, false);
+    }
+
+    @Override
+    public RealMatrix getState() {
+        return MatrixOps.toMatrix(state(), _n, 1);
+    }
+
+    /**
+     * Sets the current state covariance, keeping the current state estimate.
+     * @param P the new state covariance.
+     */
+    @Override
+    public void setStateCov(RealMatrix P) {
+        double[] p = MatrixOps.toArray(P);
+        MatrixOps.checkLength(p, _n * _n, "P");
+
+        double[] x = isInitialized() ? state() : new double[_n];
+        if (!MatrixOps.inverseSPD(p, _L, _Y, _n))
+            throw new IllegalArgumentException("State covariance is not positive definite.");
+        MatrixOps.multiplyVector(_Y, x, _y, _n, _n, false);
+    }
+
+    private boolean isInitialized() {
+        for (int i = 0; i < _n; i++) {
+            if (_Y[i * _n + i] != 0.0) return true;
+        }
+        return false;
+    }
+
+    @Override
+    public RealMatrix getStateCov() {
+        double[] P = new double[_n * _n];
+        covariance(P);
+        return MatrixOps.toMatrix(P, _n, _n);
+    }
+
+    /**
+     * Gets the current information matrix Y = P^-1.
+     * @return the current information matrix.
+     */
+    public RealMatrix getInformation() {
+        return MatrixOps.toMatrix(_Y, _n, _n);
+    }
+
+    /**
+     * Gets the current information vector y = P^-1 * x.
+     * @return the current information vector.
+     */
+    public RealMatrix getInformationVector() {
+        return MatrixOps.toMatrix(_y, _n, 1);
+    }
+
+    /**
+     * Gets the Kalman gain of the most recent update, K = P * H' * R^-1,
+     * which is computed on demand from the updated covariance.
+     * @return the current Kalman gain.
+     */
+    @Override
+    public RealMatrix getKalmanGain() {
+        if (_HtRinv == null) return null;
+
+        double[] P = new double[_n * _n];
+        covariance(P);
+        double[] K = new double[_n * _HtRinvCols];
+        MatrixOps.multiply(P, _HtRinv, K, _n, _n, _HtRinvCols);
+        return MatrixOps.toMatrix(K, _n, _HtRinvCols);
+    }
+}
@@ -164,10 +164,9 @@ public class KalmanFilter {
      * @param z the current measurement.
      */
     public void update(RealMatrix H, RealMatrix R, RealMatrix z) {
-        // Create a non-square identity matrix
-        RealMatrix I = MatrixUtils.createRealMatrix(_K.getRowDimension(), H.getColumnDimension());
-        int dim = Math.min(_K.getRowDimension(), H.getColumnDimension());
-        I = I.add(MatrixUtils.createRealIdentityMatrix(dim));
+        // Create an identity matrix of the state dimension, which does not
+        // depend on a previous gain having been computed
+        RealMatrix I = MatrixUtils.createRealIdentityMatrix(H.getColumnDimension());
 
         // Apply the rest of the Kalman update
         RealMatrix y = z.subtract(H.multiply(_x));
@@ -177,6 +176,68 @@ public class KalmanFilter {
         _P = I.subtract(_K.multiply(H)).multiply(_P);
     }
     
+    /**
+     * Current measurement information is used to refine the state estimate
+     * one scalar measurement at a time, using the default observation model.
+     * This requires the default observation noise to be diagonal.
+     * @param z the current measurement.
+     * @throws IllegalArgumentException if the default observation noise is
+     * not diagonal.
+     * @see #updateSequential(RealMatrix, RealMatrix, RealMatrix)
+     */
+    public void updateSequential(RealMatrix z) {
+        updateSequential(_H, _R, z);
+    }
+
+    /**
+     * Current measurement information is used to refine the state estimate
+     * one scalar measurement at a time, using the provided observation model.
+     * If the observation noise is diagonal, the measurements are uncorrelated
+     * and this gives the same result as a full update, without inverting the
+     * innovation covariance.  The Kalman gain is not updated.
+     * @param H the observation model.
+     * @param R the observation noise, which must be diagonal.
+     * @param z the current measurement.
+     * @throws IllegalArgumentException if the observation noise is not
+     * diagonal, since correlated measurements cannot be applied one at a time.
+     */
+    public void updateSequential(RealMatrix H, RealMatrix R, RealMatrix z) {
+        int n = H.getColumnDimension();
+        int m = H.getRowDimension();
+
+        double[] x = MatrixOps.toArray(getState());
+        double[] P = MatrixOps.toArray(getStateCov());
+        MatrixOps.sequentialUpdate(x, P, n, m, MatrixOps.toArray(H),
+                MatrixOps.toArray(R), MatrixOps.toArray(z),
+                new double[n], new int[n], new double[n]);
+
+        setState(MatrixOps.toMatrix(x, n, 1));
+        setStateCov(MatrixOps.toMatrix(P, n, n));
+    }
+
+    /**
+     * Current measurement information is used to refine the state estimate
+     * using a single scalar measurement z = h * x + v, where the observation
+     * row h is sparse and given by its nonzero elements.  This requires no
+     * matrix inversion.  The Kalman gain is not updated.
+     * @param indices the indices of the nonzero elements of h.
+     * @param h the nonzero elements of h.
+     * @param r the variance of the measurement noise v.
+     * @param z the current measurement.
+     */
+    public void update(int[] indices, double[] h, double r, double z) {
+        if (indices.length != h.length)
+            throw new IllegalArgumentException("Expected " + indices.length + " observation coefficients.");
+
+        double[] x = MatrixOps.toArray(getState());
+        int n = x.length;
+        double[] P = MatrixOps.toArray(getStateCov());
+        MatrixOps.scalarUpdate(x, P, n, indices, h, indices.length, r, z, new double[n]);
+
+        setState(MatrixOps.toMatrix(x, n, 1));
+        setStateCov(MatrixOps.toMatrix(P, n, n));
+    }
+
     /**
      * Sets the current state estimate.
      * @param x the new state estimate.
@@ -0,0 +1,197 @@
+/*
+ * Copyright (c) 2008, Prasanna Velagapudi <pkv@cs.cmu.edu>
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the project nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE PROJECT AND CONTRIBUTORS ''AS IS'' AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE PROJECT AND CONTRIBUTORS BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package robotutils.filters;
+
+import robotutils.data.DistanceTransform;
+import robotutils.data.GridMap;
+import robotutils.util.ParallelUtils;
+
+/**
+ * A likelihood field measurement model for range sensors, precomputed over a
+ * two-dimensional occupancy grid.  The log-likelihood of a beam endpoint
+ * landing in each cell is a mixture of a Gaussian in the distance from the
+ * cell to the nearest obstacle and a uniform term for random measurements:
+ *
+ *   log(zHit * exp(-d^2 / (2 sigma^2)) + zRand / maxRange)
+ *
+ * The distances come from an exact Euclidean distance transform of the map,
+ * and the whole table is computed once, so scoring a beam costs a single
+ * array lookup.  Endpoints outside the map are given the uniform likelihood.
+ *
+ * Source: Thrun, S., Burgard, W. and Fox, D. 2005. Probabilistic Robotics,
+ * ch. 6.4.  MIT Press.
+ *
+ * @see DistanceTransform
+ * @see ParticleFilter
+ * @author Prasanna Velagapudi <pkv@cs.cmu.edu>
+ */
+public class LikelihoodField {
+
+    /**
+     * The dimensions of the map, in cells.
+     */
+    protected final int _width, _height;
+
+    /**
+     * The size of each cell, and the world coordinates of the corner of cell
+     * (0, 0).
+     */
+    protected final double _resolution, _originX, _originY;
+
+    /**
+     * The log-likelihood of an endpoint in each cell, in StaticMap order.
+     */
+    protected final float[] _field;
+
+    /**
+     * The log-likelihood of an endpoint outside the map.
+     */
+    protected final float _outside;
+
+    /**
+     * Precomputes a likelihood field over a map, where obstacles are the cells
+     * with negative values.
+     *
+     * @param map a two-dimensional map of obstacles.
+     * @param resolution the size of each cell, in world units.
+     * @param originX the x-coordinate of the corner of cell (0, 0).
+     * @param originY the y-coordinate of the corner of cell (0, 0).
+     * @param sigmaHit the standard deviation of measurement noise, in world units.
+     * @param zHit the weight of the Gaussian term of the mixture.
+     * @param zRand the weight of the uniform term of the mixture.
+     * @param maxRange the maximum range of the sensor, in world units.
+     */
+    public LikelihoodField(GridMap map, double resolution, double originX, double originY,
+            double sigmaHit, double zHit, double zRand, double maxRange) {
+        if (map.dims() != 2)
+            throw new IllegalArgumentException("Likelihood fields require a 2D map.");
+        if (resolution <= 0.0 || sigmaHit <= 0.0 || maxRange <= 0.0)
+            throw new IllegalArgumentException("Invalid sensor parameters.");
+
+        _width = map.size(0);
+        _height = map.size(1);
+        _resolution = resolution;
+        _originX = originX;
+        _originY = originY;
+
+        final int[] sqDist = DistanceTransform.squaredDistances(map);
+        final float[] field = new float[sqDist.length];
+        final double scale = -(resolution * resolution) / (2.0 * sigmaHit * sigmaHit);
+        final double hit = zHit;
+        final double rand = zRand / maxRange;
+
+        ParallelUtils.forRange(field.length, new ParallelUtils.RangeTask() {
+            public void run(int chunk, int start, int end) {
+                for (int i = start; i < end; i++) {
+                    double p = (sqDist[i] == DistanceTransform.INFINITY) ? 0.0
+                            : hit * Math.exp(scale * sqDist[i]);
+                    field[i] = (float)Math.log(p + rand);
+                }
+            }
+        });
+
+        _field = field;
+        _outside = (float)Math.log(rand);
+    }
+
+    /**
+     * Returns the log-likelihood of a beam endpoint at the given location.
+     *
+     * @param x the x-coordinate of the endpoint, in world units.
+     * @param y the y-coordinate of the endpoint, in world units.
+     * @return the log-likelihood of the endpoint.
+     */
+    public final double logLikelihood(double x, double y) {
+        double cx = (x - _originX) / _resolution;
+        double cy = (y - _originY) / _resolution;
+        if (!(cx >= 0.0 && cy >= 0.0 && cx < _width && cy < _height))
+            return _outside;
+
+        return _field[(int)cx + (int)cy * _width];
+    }
+
+    /**
+     * Returns the total log-likelihood of a scan taken from the given pose.
+     * The endpoints of the scan are given in the sensor frame, so they can be
+     * computed once and reused for every pose.
+     *
+     * @param x the x-coordinate of the sensor.
+     * @param y the y-coordinate of the sensor.
+     * @param theta the heading of the sensor.
+     * @param ex the x-coordinates of the endpoints in the sensor frame.
+     * @param ey the y-coordinates of the endpoints in the sensor frame.
+     * @param beams the number of endpoints.
+     * @return the sum of the log-likelihoods of the endpoints.
+     */
+    public final double score(double x, double y, double theta,
+            double[] ex, double[] ey, int beams) {
+        final double c = Math.cos(theta);
+        final double s = Math.sin(theta);
+        final double invRes = 1.0 / _resolution;
+        final double ox = (x - _originX) * invRes;
+        final double oy = (y - _originY) * invRes;
+        final double rc = c * invRes;
+        final double rs = s * invRes;
+
+        double total = 0.0;
+        for (int b = 0; b < beams; b++) {
+            double cx = ox + rc * ex[b] - rs * ey[b];
+            double cy = oy + rs * ex[b] + rc * ey[b];
+            if (cx >= 0.0 && cy >= 0.0 && cx < _width && cy < _height) {
+                total += _field[(int)cx + (int)cy * _width];
+            } else {
+                total += _outside;
+            }
+        }
+        return total;
+    }
+
+    /**
+     * Returns the width of the field, in cells.
+     * @return the width of the field.
+     */
+    public int getWidth() {
+        return _width;
+    }
+
+    /**
+     * Returns the height of the field, in cells.
+     * @return the height of the field.
+     */
+    public int getHeight() {
+        return _height;
+    }
+
+    /**
+     * Returns the size of each cell, in world units.
+     * @return the size of each cell.
+     */
+    public double getResolution() {
+        return _resolution;
+    }
+}
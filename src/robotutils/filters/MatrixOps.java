@@ -0,0 +1,457 @@
+/*
+ * Copyright (c) 2008, Prasanna Velagapudi <pkv@cs.cmu.edu>
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the project nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE PROJECT AND CONTRIBUTORS ''AS IS'' AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE PROJECT AND CONTRIBUTORS BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package robotutils.filters;
+
+import org.apache.commons.math.linear.MatrixUtils;
+import org.apache.commons.math.linear.RealMatrix;
+
+/**
+ * Dense linear algebra routines that operate in place on matrices stored as
+ * row-major arrays of doubles, for use by filters that must not allocate
+ * memory on each step.  The dimensions of each matrix are passed explicitly,
+ * and output arrays must not alias the inputs unless otherwise noted.
+ *
+ * @author Prasanna Velagapudi <pkv@cs.cmu.edu>
+ */
+final class MatrixOps {
+
+    private MatrixOps() {
+    }
+
+    /**
+     * Computes C = A * B, where A is [rows x inner] and B is [inner x cols].
+     */
+    static void multiply(double[] A, double[] B, double[] C, int rows, int inner, int cols) {
+        for (int i = 0; i < rows; i++) {
+            int c = i * cols;
+            for (int j = 0; j < cols; j++) {
+                C[c + j] = 0.0;
+            }
+
+            for (int k = 0; k < inner; k++) {
+                double a = A[i * inner + k];
+                if (a == 0.0) continue;
+
+                int b = k * cols;
+                for (int j = 0; j < cols; j++) {
+                    C[c + j] += a * B[b + j];
+                }
+            }
+        }
+    }
+
+    /**
+     * Computes C = A * B' (+ C if accumulate), where A is [rows x inner] and
+     * B is [cols x inner].
+     */
+    static void multiplyTranspose(double[] A, double[] B, double[] C,
+            int rows, int inner, int cols, boolean accumulate) {
+        for (int i = 0; i < rows; i++) {
+            int a = i * inner;
+            for (int j = 0; j < cols; j++) {
+                int b = j * inner;
+                double sum = accumulate ? C[i * cols + j] : 0.0;
+                for (int k = 0; k < inner; k++) {
+                    sum += A[a + k] * B[b + k];
+                }
+                C[i * cols + j] = sum;
+            }
+        }
+    }
+
+    /**
+     * Computes y = A * x (+ y if accumulate), where A is [rows x cols].
+     */
+    static void multiplyVector(double[] A, double[] x, double[] y, int rows, int cols, boolean accumulate) {
+        for (int i = 0; i < rows; i++) {
+            int a = i * cols;
+            double sum = accumulate ? y[i] : 0.0;
+            for (int k = 0; k < cols; k++) {
+                sum += A[a + k] * x[k];
+            }
+            y[i] = sum;
+        }
+    }
+
+    /**
+     * Replaces a symmetric positive definite matrix A [n x n] with its lower
+     * triangular Cholesky factor L, such that A = L * L'.  The upper triangle
+     * is set to zero.
+     *
+     * @return false if the matrix is not positive definite.
+     */
+    static boolean cholesky(double[] A, int n) {
+        for (int j = 0; j < n; j++) {
+            int rj = j * n;
+
+            double d = A[rj + j];
+            for (int k = 0; k < j; k++) {
+                d -= A[rj + k] * A[rj + k];
+            }
+            if (!(d > 0.0)) return false;
+
+            double ljj = Math.sqrt(d);
+            A[rj + j] = ljj;
+
+            for (int i = j + 1; i < n; i++) {
+                int ri = i * n;
+                double s = A[ri + j];
+                for (int k = 0; k < j; k++) {
+                    s -= A[ri + k] * A[rj + k];
+                }
+                A[ri + j] = s / ljj;
+            }
+
+            for (int k = j + 1; k < n; k++) {
+                A[rj + k] = 0.0;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Replaces a symmetric positive semidefinite matrix A [n x n] with a lower
+     * triangular factor L, such that A = L * L'.  Unlike cholesky(), pivots
+     * that are zero to within rounding error produce zero columns, so that
+     * singular covariances (such as noise on only some states) can be
+     * factored.
+     *
+     * @return false if the matrix is not positive semidefinite.
+     */
+    static boolean choleskySemidefinite(double[] A, int n) {
+        double scale = 0.0;
+        for (int i = 0; i < n; i++) {
+            scale = Math.max(scale, Math.abs(A[i * n + i]));
+        }
+        double tol = 1e-12 * scale;
+
+        for (int j = 0; j < n; j++) {
+            int rj = j * n;
+
+            double d = A[rj + j];
+            for (int k = 0; k < j; k++) {
+                d -= A[rj + k] * A[rj + k];
+            }
+            if (d < -tol || Double.isNaN(d)) return false;
+
+            double ljj = (d > tol) ? Math.sqrt(d) : 0.0;
+            A[rj + j] = ljj;
+
+            for (int i = j + 1; i < n; i++) {
+                int ri = i * n;
+                if (ljj == 0.0) {
+                    A[ri + j] = 0.0;
+                    continue;
+                }
+
+                double s = A[ri + j];
+                for (int k = 0; k < j; k++) {
+                    s -= A[ri + k] * A[rj + k];
+                }
+                A[ri + j] = s / ljj;
+            }
+
+            for (int k = j + 1; k < n; k++) {
+                A[rj + k] = 0.0;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Reduces A [rows x cols] to upper triangular form R in place using
+     * Householder reflections, such that A = Q * R for some orthogonal Q,
+     * which is discarded.  The diagonal of R is made non-negative.  This is
+     * used to combine matrix square roots, since A' * A = R' * R.
+     */
+    static void triangularize(double[] A, int rows, int cols) {
+        int steps = Math.min(rows, cols);
+        for (int k = 0; k < steps; k++) {
+            double norm = 0.0;
+            for (int i = k; i < rows; i++) {
+                norm += A[i * cols + k] * A[i * cols + k];
+            }
+            norm = Math.sqrt(norm);
+            if (norm == 0.0) continue;
+
+            // Form the Householder vector in the k-th column
+            double alpha = (A[k * cols + k] > 0.0) ? -norm : norm;
+            A[k * cols + k] -= alpha;
+            double vtv = 0.0;
+            for (int i = k; i < rows; i++) {
+                vtv += A[i * cols + k] * A[i * cols + k];
+            }
+
+            // Reflect the remaining columns
+            for (int j = k + 1; j < cols; j++) {
+                double dot = 0.0;
+                for (int i = k; i < rows; i++) {
+                    dot += A[i * cols + k] * A[i * cols + j];
+                }
+                double f = 2.0 * dot / vtv;
+                for (int i = k; i < rows; i++) {
+                    A[i * cols + j] -= f * A[i * cols + k];
+                }
+            }
+
+            A[k * cols + k] = alpha;
+            for (int i = k + 1; i < rows; i++) {
+                A[i * cols + k] = 0.0;
+            }
+        }
+
+        // Flip the signs of rows with negative diagonal elements
+        for (int k = 0; k < steps; k++) {
+            if (A[k * cols + k] < 0.0) {
+                for (int j = k; j < cols; j++) {
+                    A[k * cols + j] = -A[k * cols + j];
+                }
+            }
+        }
+    }
+
+    /**
+     * Solves L * x = b in place for x, where L [n x n] is lower triangular
+     * (only the first n rows and columns of an array with the given stride
+     * are used).
+     */
+    static void lowerSolve(double[] L, int stride, double[] b, int n) {
+        for (int i = 0; i < n; i++) {
+            double s = b[i];
+            for (int k = 0; k < i; k++) {
+                s -= L[i * stride + k] * b[k];
+            }
+            b[i] = s / L[i * stride + i];
+        }
+    }
+
+    /**
+     * Computes the inverse of a symmetric positive definite matrix A [n x n]
+     * into Ainv, using L [n x n] as a workspace for its Cholesky factor.
+     *
+     * @return false if the matrix is not positive definite.
+     */
+    static boolean inverseSPD(double[] A, double[] L, double[] Ainv, int n) {
+        System.arraycopy(A, 0, L, 0, n * n);
+        if (!cholesky(L, n)) return false;
+
+        for (int i = 0; i < n * n; i++) {
+            Ainv[i] = 0.0;
+        }
+        for (int i = 0; i < n; i++) {
+            Ainv[i * n + i] = 1.0;
+        }
+        choleskySolve(L, Ainv, n, n);
+        symmetrize(Ainv, n);
+        return true;
+    }
+
+    /**
+     * Applies a Kalman update for a single scalar measurement z = h * x + v,
+     * where v has variance r, and the observation row h is sparse and given
+     * by its nonzero values and their indices.  This costs O(n * nnz + n^2)
+     * and requires no matrix inversion.
+     *
+     * @param x the state [n], updated in place.
+     * @param P the state covariance [n x n], updated in place.
+     * @param n the dimension of the state.
+     * @param indices the indices of the nonzero elements of h.
+     * @param h the nonzero elements of h.
+     * @param nnz the number of nonzero elements of h.
+     * @param r the variance of the measurement noise.
+     * @param z the measurement.
+     * @param work a workspace of at least n elements.
+     */
+    static void scalarUpdate(double[] x, double[] P, int n,
+            int[] indices, double[] h, int nnz, double r, double z, double[] work) {
+
+        // Innovation: y = z - h * x
+        double y = z;
+        for (int k = 0; k < nnz; k++) {
+            y -= h[k] * x[indices[k]];
+        }
+
+        // P * h'
+        for (int i = 0; i < n; i++) {
+            double s = 0.0;
+            int row = i * n;
+            for (int k = 0; k < nnz; k++) {
+                s += P[row + indices[k]] * h[k];
+            }
+            work[i] = s;
+        }
+
+        // Innovation variance: s = h * P * h' + r
+        double s = r;
+        for (int k = 0; k < nnz; k++) {
+            s += h[k] * work[indices[k]];
+        }
+        if (!(s > 0.0))
+            throw new IllegalStateException("Innovation variance is not positive.");
+
+        // x = x + (P * h') * y / s, P = P - (P * h') * (P * h')' / s
+        double inv = 1.0 / s;
+        for (int i = 0; i < n; i++) {
+            x[i] += work[i] * inv * y;
+        }
+        for (int i = 0; i < n; i++) {
+            double wi = work[i] * inv;
+            if (wi == 0.0) continue;
+
+            for (int j = i; j < n; j++) {
+                double d = wi * work[j];
+                P[i * n + j] -= d;
+                if (i != j) P[j * n + i] -= d;
+            }
+        }
+    }
+
+    /**
+     * Applies a sequence of scalar Kalman updates, one for each row of a dense
+     * observation model, skipping its zero elements.  This is equivalent to a
+     * single update with the full model if the observation noise is diagonal,
+     * and only the diagonal of R is used.
+     *
+     * @param x the state [n], updated in place.
+     * @param P the state covariance [n x n], updated in place.
+     * @param n the dimension of the state.
+     * @param m the number of measurements.
+     * @param H the observation model [m x n].
+     * @param R the observation noise [m x m], which must be diagonal.
+     * @param z the measurements [m].
+     * @param work a workspace of at least n elements.
+     * @param indices a workspace of at least n elements.
+     * @param values a workspace of at least n elements.
+     */
+    static void sequentialUpdate(double[] x, double[] P, int n, int m,
+            double[] H, double[] R, double[] z,
+            double[] work, int[] indices, double[] values) {
+        for (int i = 0; i < m; i++) {
+            for (int j = 0; j < m; j++) {
+                if (i != j && R[i * m + j] != 0.0)
+                    throw new IllegalArgumentException("Observation noise must be diagonal.");
+            }
+        }
+
+        for (int i = 0; i < m; i++) {
+            int nnz = 0;
+            for (int j = 0; j < n; j++) {
+                if (H[i * n + j] != 0.0) {
+                    indices[nnz] = j;
+                    values[nnz] = H[i * n + j];
+                    nnz++;
+                }
+            }
+
+            scalarUpdate(x, P, n, indices, values, nnz, R[i * m + i], z[i], work);
+        }
+    }
+
+    /**
+     * Copies a matrix into a row-major array.
+     */
+    static double[] toArray(RealMatrix A) {
+        int rows = A.getRowDimension();
+        int cols = A.getColumnDimension();
+
+        double[] a = new double[rows * cols];
+        for (int i = 0; i < rows; i++) {
+            for (int j = 0; j < cols; j++) {
+                a[i * cols + j] = A.getEntry(i, j);
+            }
+        }
+        return a;
+    }
+
+    /**
+     * Copies a row-major array into a new matrix.
+     */
+    static RealMatrix toMatrix(double[] a, int rows, int cols) {
+        RealMatrix A = MatrixUtils.createRealMatrix(rows, cols);
+        for (int i = 0; i < rows; i++) {
+            for (int j = 0; j < cols; j++) {
+                A.setEntry(i, j, a[i * cols + j]);
+            }
+        }
+        return A;
+    }
+
+    /**
+     * Solves L * L' * X = B in place for X, where L [n x n] is a lower
+     * triangular Cholesky factor and B is [n x cols].
+     */
+    static void choleskySolve(double[] L, double[] B, int n, int cols) {
+        // Forward substitution: L * Y = B
+        for (int i = 0; i < n; i++) {
+            int ri = i * n;
+            double lii = L[ri + i];
+            for (int c = 0; c < cols; c++) {
+                double s = B[i * cols + c];
+                for (int k = 0; k < i; k++) {
+                    s -= L[ri + k] * B[k * cols + c];
+                }
+                B[i * cols + c] = s / lii;
+            }
+        }
+
+        // Backward substitution: L' * X = Y
+        for (int i = n - 1; i >= 0; i--) {
+            double lii = L[i * n + i];
+            for (int c = 0; c < cols; c++) {
+                double s = B[i * cols + c];
+                for (int k = i + 1; k < n; k++) {
+                    s -= L[k * n + i] * B[k * cols + c];
+                }
+                B[i * cols + c] = s / lii;
+            }
+        }
+    }
+
+    /**
+     * Replaces a square matrix A [n x n] with (A + A') / 2, to remove the
+     * asymmetry caused by rounding errors in covariance updates.
+     */
+    static void symmetrize(double[] A, int n) {
+        for (int i = 0; i < n; i++) {
+            for (int j = i + 1; j < n; j++) {
+                double v = 0.5 * (A[i * n + j] + A[j * n + i]);
+                A[i * n + j] = v;
+                A[j * n + i] = v;
+            }
+        }
+    }
+
+    /**
+     * Checks that an array has the expected number of elements.
+     */
+    static void checkLength(double[] A, int length, String name) {
+        if (A.length != length)
+            throw new IllegalArgumentException("Expected " + length
+                    + " elements in " + name + ", found " + A.length + ".");
+    }
+}
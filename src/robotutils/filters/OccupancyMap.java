@@ -34,35 +34,440 @@ import java.io.DataOutputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLongArray;
+import robotutils.util.ParallelUtils;
 
 /**
+ * A dense three-dimensional occupancy grid that integrates range measurements
+ * as clamped log-odds.  Each measurement is a ray from the sensor origin to an
+ * endpoint: the cells that the ray passes through are updated as free, and
+ * the cell containing the endpoint is updated as occupied.
+ *
+ * Rays are traversed using the voxel traversal algorithm of Amanatides and
+ * Woo, after being clipped to the bounds of the grid.  Log-odds are quantized
+ * in units of LOG_ODDS_SCALE and stored as bytes in a StaticMap, where zero
+ * is unknown, positive values are likely occupied and negative values are
+ * likely free.
+ *
+ * Rays are integrated in batches, where a batch is typically a full scan.
+ * Within a batch, each cell is updated at most once, so a cell crossed by
+ * many rays near the sensor is not driven to the free bound by a single scan,
+ * and a cell that contains an endpoint of any ray in the batch is only updated
+ * as occupied.
+ *
+ * Batches may optionally be integrated in parallel.  The rays are split into
+ * chunks that are traced concurrently, and each cell is claimed by exactly
+ * one chunk by setting its bit in a shared bitset with compare-and-set.  Each
+ * chunk then applies the updates to the cells it has claimed, so no two
+ * threads ever write the same cell and no locks are needed.  Since each cell
+ * is updated once, based only on whether any ray hit or passed through it,
+ * the resulting grid does not depend on how the chunks are scheduled.
+ *
+ * Source: Amanatides, J. and Woo, A. 1987. A Fast Voxel Traversal Algorithm
+ * for Ray Tracing. Eurographics '87, 3-10.
  *
  * @author Prasanna Velagapudi <pkv@cs.cmu.edu>
  */
 public class OccupancyMap {
-    double ctr[];
-    double res;
 
-    GridMap map = new StaticMap();
+    /**
+     * The log-odds represented by one unit of a stored cell value.
+     */
+    public static final double LOG_ODDS_SCALE = 0.05;
+
+    /**
+     * The default number of rays that are traced in a single parallel chunk.
+     */
+    public static final int DEFAULT_GRAIN = 4096;
+
+    /**
+     * The default quantized log-odds updates and bounds.
+     */
+    static final byte DEFAULT_HIT = 17, DEFAULT_MISS = -8, DEFAULT_MIN = -40, DEFAULT_MAX = 70;
+
+    /**
+     * The world coordinates of the corner of cell (0, 0, 0).
+     */
+    protected final double[] _origin;
+
+    /**
+     * The size of each cell, in world units.
+     */
+    protected final double _resolution;
+
+    /**
+     * The quantized log-odds of each cell.
+     */
+    protected final StaticMap _map = new StaticMap();
+
+    /**
+     * The dimensions of the grid, in cells.
+     */
+    protected final int _sx, _sy, _sz;
 
+    // Quantized log-odds updates and bounds
+    private byte _hit = DEFAULT_HIT;
+    private byte _miss = DEFAULT_MISS;
+    private byte _min = DEFAULT_MIN;
+    private byte _max = DEFAULT_MAX;
+
+    // Cells claimed by each chunk of the current batch, and bitsets marking them
+    private CellList[] _hits = new CellList[0];
+    private CellList[] _misses = new CellList[0];
+    private AtomicLongArray _hitMarks;
+    private AtomicLongArray _missMarks;
+
+    private boolean _isParallel = false;
+    private int _grain = DEFAULT_GRAIN;
+
+    /**
+     * A growable list of linear cell indices.
+     */
+    static final class CellList {
+        int[] cells = new int[1024];
+        int size = 0;
+
+        void add(int cell) {
+            if (size == cells.length)
+                cells = Arrays.copyOf(cells, size * 2);
+            cells[size++] = cell;
+        }
+    }
+
+    /**
+     * Constructs an empty grid, where every cell is unknown.
+     *
+     * @param x the number of cells along the x-axis.
+     * @param y the number of cells along the y-axis.
+     * @param z the number of cells along the z-axis.
+     * @param xctr the x-coordinate of the corner of cell (0, 0, 0).
+     * @param yctr the y-coordinate of the corner of cell (0, 0, 0).
+     * @param zctr the z-coordinate of the corner of cell (0, 0, 0).
+     * @param r the size of each cell, in world units.
+     */
     public OccupancyMap(int x, int y, int z,
             double xctr, double yctr, double zctr,
             double r) {
-        map.resize(new int[] {x, y, z});
-        ctr = new double[] {xctr, yctr, zctr};
-        res = r;
+        if (x < 1 || y < 1 || z < 1 || r <= 0.0)
+            throw new IllegalArgumentException("Invalid map dimensions.");
+
+        _map.resize(new int[] {x, y, z});
+        _origin = new double[] {xctr, yctr, zctr};
+        _resolution = r;
+        _sx = x;
+        _sy = y;
+        _sz = z;
     }
 
+    /**
+     * Sets the log-odds updates applied by each measurement, and the bounds
+     * to which the log-odds of each cell are clamped.  Values are rounded to
+     * multiples of LOG_ODDS_SCALE.
+     *
+     * @param hit the log-odds added to a cell containing an endpoint.
+     * @param miss the log-odds added to a cell that a ray passes through.
+     * @param min the minimum log-odds of a cell.
+     * @param max the maximum log-odds of a cell.
+     */
+    public void setLogOdds(double hit, double miss, double min, double max) {
+        if (hit < 0.0 || miss > 0.0 || min > 0.0 || max < 0.0)
+            throw new IllegalArgumentException("Invalid log-odds parameters.");
+
+        _hit = quantize(hit);
+        _miss = quantize(miss);
+        _min = quantize(min);
+        _max = quantize(max);
+    }
+
+    /**
+     * Rounds log-odds to the nearest stored value.
+     */
+    static byte quantize(double logOdds) {
+        long q = Math.round(logOdds / LOG_ODDS_SCALE);
+        return (byte)Math.max(Byte.MIN_VALUE, Math.min(Byte.MAX_VALUE, q));
+    }
+
+    /**
+     * Integrates a single ray.
+     *
+     * @param pos the world coordinates of the sensor origin [3].
+     * @param ray the offset from the origin to the endpoint [3].
+     */
     public void addScan(double[] pos, double[] ray) {
-        int[] pt = new int[3];
+        addScan(pos, ray, 1);
+    }
+
+    /**
+     * Integrates a batch of rays from a common origin, updating each cell at
+     * most once.
+     *
+     * @param pos the world coordinates of the sensor origin [3].
+     * @param rays the offsets from the origin to each endpoint [3 x count],
+     * stored as consecutive (x, y, z) triples.
+     * @param count the number of rays.
+     */
+    public void addScan(final double[] pos, final double[] rays, final int count) {
+        if (rays.length < 3 * count)
+            throw new IllegalArgumentException("Expected " + count + " rays.");
+
+        final int grain = _isParallel ? _grain : Math.max(count, 1);
+        final int chunks = ParallelUtils.chunks(count, grain);
+        ensureWorkspace(chunks);
+
+        // Trace the rays, with each chunk claiming the cells it reaches first
+        final boolean exclusive = (chunks == 1);
+        ParallelUtils.forRange(count, grain, new ParallelUtils.RangeTask() {
+            public void run(int chunk, int start, int end) {
+                for (int i = start; i < end; i++) {
+                    traceRay(pos, rays, i, _hits[chunk], _misses[chunk], exclusive);
+                }
+            }
+        });
+
+        // Apply the updates to the claimed cells, which are disjoint between chunks
+        ParallelUtils.forRange(chunks, 1, new ParallelUtils.RangeTask() {
+            public void run(int chunk, int start, int end) {
+                applyScan(_hits[chunk], _misses[chunk]);
+            }
+        });
+
+        // Clear the hit bitset once no chunk needs to read it
+        ParallelUtils.forRange(chunks, 1, new ParallelUtils.RangeTask() {
+            public void run(int chunk, int start, int end) {
+                CellList hits = _hits[chunk];
+                for (int i = 0; i < hits.size; i++) {
+                    _hitMarks.set(hits.cells[i] >>> 6, 0L);
+                }
+                hits.size = 0;
+            }
+        });
+    }
+
+    /**
+     * Allocates the bitsets used to de-duplicate cells within a batch, and
+     * the cell lists of the given number of chunks.
+     */
+    private void ensureWorkspace(int chunks) {
+        if (_hitMarks == null) {
+            int words = (_map.length() + 63) >>> 6;
+            _hitMarks = new AtomicLongArray(words);
+            _missMarks = new AtomicLongArray(words);
+        }
+
+        if (_hits.length < chunks) {
+            int oldLength = _hits.length;
+            _hits = Arrays.copyOf(_hits, chunks);
+            _misses = Arrays.copyOf(_misses, chunks);
+            for (int i = oldLength; i < chunks; i++) {
+                _hits[i] = new CellList();
+                _misses[i] = new CellList();
+            }
+        }
+    }
+
+    /**
+     * Atomically sets the bit of a cell, returning true if this call set it.
+     * If the caller is the only thread using the bitset, the compare-and-set
+     * is replaced by an ordinary store.
+     */
+    private static boolean mark(AtomicLongArray marks, int cell, boolean exclusive) {
+        final int idx = cell >>> 6;
+        final long bit = 1L << cell;
+
+        long word = marks.get(idx);
+        if (exclusive) {
+            if ((word & bit) != 0)
+                return false;
+            marks.lazySet(idx, word | bit);
+            return true;
+        }
 
-        pt[0] = (int)((pos[0] + ray[0]) / res - ctr[0]);
-        pt[1] = (int)((pos[1] + ray[1]) / res - ctr[1]);
-        pt[2] = (int)((pos[2] + ray[2]) / res - ctr[2]);
+        while ((word & bit) == 0) {
+            if (marks.compareAndSet(idx, word, word | bit))
+                return true;
+            word = marks.get(idx);
+        }
+        return false;
+    }
 
-        //System.out.println("Point at " + Arrays.toString(pt) + ", " + map.get(pt));
+    /**
+     * Enables or disables parallel integration of batches of rays.
+     *
+     * @param isParallel true if rays should be integrated in parallel.
+     */
+    public void setParallel(boolean isParallel) {
+        _isParallel = isParallel;
+    }
 
-        map.set((byte)255, pt);
+    /**
+     * Sets the number of rays that are traced in a single parallel chunk.
+     *
+     * @param grain the number of rays in a chunk.
+     */
+    public void setGrain(int grain) {
+        if (grain < 1)
+            throw new IllegalArgumentException("Grain size must be positive.");
+        _grain = grain;
+    }
+
+    /**
+     * Traverses a single ray through the grid, adding the cells that it passes
+     * through and the cell containing its endpoint to the given lists if they
+     * have not already been claimed.
+     */
+    void traceRay(double[] pos, double[] rays, int i,
+            CellList hits, CellList misses, boolean exclusive) {
+        final double inv = 1.0 / _resolution;
+
+        // Convert the ray into grid coordinates, in units of cells
+        double sx = (pos[0] - _origin[0]) * inv;
+        double sy = (pos[1] - _origin[1]) * inv;
+        double sz = (pos[2] - _origin[2]) * inv;
+        double dx = rays[3 * i] * inv;
+        double dy = rays[3 * i + 1] * inv;
+        double dz = rays[3 * i + 2] * inv;
+
+        // Clip the segment s + t * d, t in [0, 1], to the bounds of the grid
+        double t0 = 0.0, t1 = 1.0;
+        if (dx != 0.0) {
+            double ta = -sx / dx, tb = (_sx - sx) / dx;
+            t0 = Math.max(t0, Math.min(ta, tb));
+            t1 = Math.min(t1, Math.max(ta, tb));
+        } else if (sx < 0.0 || sx >= _sx) {
+            return;
+        }
+        if (dy != 0.0) {
+            double ta = -sy / dy, tb = (_sy - sy) / dy;
+            t0 = Math.max(t0, Math.min(ta, tb));
+            t1 = Math.min(t1, Math.max(ta, tb));
+        } else if (sy < 0.0 || sy >= _sy) {
+            return;
+        }
+        if (dz != 0.0) {
+            double ta = -sz / dz, tb = (_sz - sz) / dz;
+            t0 = Math.max(t0, Math.min(ta, tb));
+            t1 = Math.min(t1, Math.max(ta, tb));
+        } else if (sz < 0.0 || sz >= _sz) {
+            return;
+        }
+        if (t0 > t1)
+            return;
+
+        // Find the cell containing the endpoint, if it lies inside the grid
+        int end = -1;
+        if (t1 == 1.0) {
+            int ex = (int)Math.floor(sx + dx);
+            int ey = (int)Math.floor(sy + dy);
+            int ez = (int)Math.floor(sz + dz);
+            if (ex >= 0 && ey >= 0 && ez >= 0 && ex < _sx && ey < _sy && ez < _sz)
+                end = ex + _sx * (ey + _sy * ez);
+        }
+
+        // Start at the cell where the clipped segment enters the grid
+        double px = sx + t0 * dx, py = sy + t0 * dy, pz = sz + t0 * dz;
+        int x = Math.min(_sx - 1, Math.max(0, (int)Math.floor(px)));
+        int y = Math.min(_sy - 1, Math.max(0, (int)Math.floor(py)));
+        int z = Math.min(_sz - 1, Math.max(0, (int)Math.floor(pz)));
+
+        int stepX = (dx > 0) ? 1 : -1;
+        int stepY = (dy > 0) ? 1 : -1;
+        int stepZ = (dz > 0) ? 1 : -1;
+        double deltaX = (dx != 0.0) ? Math.abs(1.0 / dx) : Double.POSITIVE_INFINITY;
+        double deltaY = (dy != 0.0) ? Math.abs(1.0 / dy) : Double.POSITIVE_INFINITY;
+        double deltaZ = (dz != 0.0) ? Math.abs(1.0 / dz) : Double.POSITIVE_INFINITY;
+        double maxX = (dx != 0.0) ? t0 + ((dx > 0 ? x + 1 : x) - px) / dx : Double.POSITIVE_INFINITY;
+        double maxY = (dy != 0.0) ? t0 + ((dy > 0 ? y + 1 : y) - py) / dy : Double.POSITIVE_INFINITY;
+        double maxZ = (dz != 0.0) ? t0 + ((dz > 0 ? z + 1 : z) - pz) / dz : Double.POSITIVE_INFINITY;
+
+        // Step through each cell until the segment leaves the grid or reaches the endpoint
+        int cell = x + _sx * (y + _sy * z);
+        int strideY = stepY * _sx;
+        int strideZ = stepZ * _sx * _sy;
+        while (cell != end) {
+            if (mark(_missMarks, cell, exclusive))
+                misses.add(cell);
+
+            if (maxX < maxY && maxX < maxZ) {
+                if (maxX > t1) break;
+                x += stepX;
+                if (x < 0 || x >= _sx) break;
+                cell += stepX;
+                maxX += deltaX;
+            } else if (maxY < maxZ) {
+                if (maxY > t1) break;
+                y += stepY;
+                if (y < 0 || y >= _sy) break;
+                cell += strideY;
+                maxY += deltaY;
+            } else {
+                if (maxZ > t1) break;
+                z += stepZ;
+                if (z < 0 || z >= _sz) break;
+                cell += strideZ;
+                maxZ += deltaZ;
+            }
+        }
+
+        if (end >= 0 && mark(_hitMarks, end, exclusive))
+            hits.add(end);
+    }
+
+    /**
+     * Applies the updates to the cells claimed by one chunk of a batch, and
+     * clears its misses for the next batch.  Cells that were both hit and
+     * passed through are only updated as hits.
+     */
+    void applyScan(CellList hits, CellList misses) {
+        final byte[] data = _map.getData();
+
+        for (int i = 0; i < hits.size; i++) {
+            int cell = hits.cells[i];
+            data[cell] = (byte)Math.min(_max, data[cell] + _hit);
+        }
+
+        for (int i = 0; i < misses.size; i++) {
+            int cell = misses.cells[i];
+            if ((_hitMarks.get(cell >>> 6) & (1L << cell)) == 0)
+                data[cell] = (byte)Math.max(_min, data[cell] + _miss);
+            _missMarks.set(cell >>> 6, 0L);
+        }
+        misses.size = 0;
+    }
+
+    /**
+     * Returns the log-odds of a cell.
+     *
+     * @param idx the index of the cell (x, y, z).
+     * @return the log-odds that the cell is occupied.
+     */
+    public double getLogOdds(int... idx) {
+        return _map.get(idx) * LOG_ODDS_SCALE;
+    }
+
+    /**
+     * Returns the probability that a cell is occupied.
+     *
+     * @param idx the index of the cell (x, y, z).
+     * @return the probability that the cell is occupied.
+     */
+    public double getProbability(int... idx) {
+        return 1.0 - 1.0 / (1.0 + Math.exp(getLogOdds(idx)));
+    }
+
+    /**
+     * Returns the grid of quantized log-odds, in units of LOG_ODDS_SCALE.
+     * @return the grid of quantized log-odds.
+     */
+    public GridMap getMap() {
+        return _map;
+    }
+
+    /**
+     * Returns the size of each cell, in world units.
+     * @return the size of each cell.
+     */
+    public double getResolution() {
+        return _resolution;
     }
 
     public void save(String filename) {
@@ -70,17 +475,14 @@ public class OccupancyMap {
             System.out.println("START: Serializing map.");
             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(filename)));
 
-            out.writeShort(map.size(0));
-            out.writeShort(map.size(1));
-            out.writeShort(map.size(2));
+            out.writeShort(_sx);
+            out.writeShort(_sy);
+            out.writeShort(_sz);
 
-            int[] idx = new int[3];
-            for (idx[2] = 0; idx[2] < map.size(2); idx[2]++) {
-                for (idx[1] = 0; idx[1] < map.size(1); idx[1]++) {
-                    for (idx[0] = 0; idx[0] < map.size(0); idx[0]++) {
-                        out.write((map.get(idx) == 0) ? 0 : 255);
-                    }
-                }
+            // Cells are stored with x varying fastest, as in the map itself
+            byte[] data = _map.getData();
+            for (int i = 0; i < data.length; i++) {
+                out.write((data[i] > 0) ? 255 : 0);
             }
 
             out.flush();
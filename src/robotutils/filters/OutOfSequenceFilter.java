@@ -0,0 +1,298 @@
+/*
+ * Copyright (c) 2008, Prasanna Velagapudi <pkv@cs.cmu.edu>
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the project nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE PROJECT AND CONTRIBUTORS ''AS IS'' AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE PROJECT AND CONTRIBUTORS BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package robotutils.filters;
+
+import java.util.Arrays;
+
+/**
+ * Wraps a FixedKalmanFilter to accept measurements that arrive after the
+ * filter has already been propagated past their timestamps, such as lidar or
+ * camera data that is delayed relative to odometry.
+ *
+ * The filter keeps a fixed-size ring buffer of its recent history.  Each entry
+ * holds the timestamp and control input of a prediction step, the
+ * measurements that were applied at that step, and the resulting state and
+ * covariance.  When a delayed measurement arrives, it is applied to the most
+ * recent entry at or before its timestamp, and only the entries after that one
+ * are re-propagated by replaying their stored inputs and measurements.  All
+ * of the history is preallocated, so memory use is bounded and the worst-case
+ * cost of a delayed update is proportional to the capacity of the buffer.
+ *
+ * Measurements that are older than the oldest entry in the buffer cannot be
+ * applied and are rejected.  The default process and observation models of the
+ * wrapped filter are used for every step, and the wrapped filter should not be
+ * stepped directly while it is wrapped.  Instances are not thread-safe.
+ *
+ * @see FixedKalmanFilter
+ * @author Prasanna Velagapudi <pkv@cs.cmu.edu>
+ */
+public class OutOfSequenceFilter {
+
+    /**
+     * The default maximum number of measurements stored per step.
+     */
+    public static final int DEFAULT_MAX_UPDATES = 4;
+
+    /**
+     * The wrapped filter, which always holds the newest state.
+     */
+    protected final FixedKalmanFilter _filter;
+
+    // Dimensions of the filter and of the history
+    private final int _n;
+    private final int _m;
+    private final int _c;
+    private final int _capacity;
+    private final int _maxUpdates;
+
+    // History of steps, stored as a ring buffer ending at _head
+    private final long[] _times;
+    private final double[] _us;
+    private final double[] _zs;
+    private final int[] _zCounts;
+    private final double[] _xs;
+    private final double[] _Ps;
+    private int _head;
+    private int _size;
+
+    // Workspace for replaying inputs
+    private final double[] _u;
+    private final double[] _z;
+
+    /**
+     * Wraps a filter with a history of the given number of steps, storing up
+     * to DEFAULT_MAX_UPDATES measurements per step.
+     *
+     * @param filter the filter to wrap, holding the state at the initial time.
+     * @param capacity the maximum number of steps kept in the history.
+     * @param time the timestamp of the current state of the filter.
+     */
+    public OutOfSequenceFilter(FixedKalmanFilter filter, int capacity, long time) {
+        this(filter, capacity, DEFAULT_MAX_UPDATES, time);
+    }
+
+    /**
+     * Wraps a filter with a history of the given number of steps.
+     *
+     * @param filter the filter to wrap, holding the state at the initial time.
+     * @param capacity the maximum number of steps kept in the history.
+     * @param maxUpdates the maximum number of measurements stored per step.
+     * @param time the timestamp of the current state of the filter.
+     */
+    public OutOfSequenceFilter(FixedKalmanFilter filter, int capacity, int maxUpdates, long time) {
+        if (capacity < 1 || maxUpdates < 1)
+            throw new IllegalArgumentException("Invalid history size.");
+
+        _filter = filter;
+        _n = filter.getStateDim();
+        _m = filter.getObsDim();
+        _c = filter.getControlDim();
+        _capacity = capacity;
+        _maxUpdates = maxUpdates;
+
+        _times = new long[capacity];
+        _us = new double[capacity * _c];
+        _zs = new double[capacity * maxUpdates * _m];
+        _zCounts = new int[capacity];
+        _xs = new double[capacity * _n];
+        _Ps = new double[capacity * _n * _n];
+
+        _u = new double[_c];
+        _z = new double[_m];
+
+        // The initial state forms the first entry of the history
+        _head = 0;
+        _size = 1;
+        _times[0] = time;
+        save(0);
+    }
+
+    /**
+     * Propagates the filter to a new time step using the default motion model,
+     * and records the step in the history.  If the history is full, the oldest
+     * step is discarded.
+     *
+     * @param time the timestamp of the new step, which must be later than the
+     * timestamp of the current state.
+     * @param u the control input [c], or null if there is none.
+     */
+    public void predict(long time, double[] u) {
+        if (time <= _times[_head])
+            throw new IllegalArgumentException("Prediction at " + time
+                    + " is not after current time " + _times[_head] + ".");
+
+        _head = (_head + 1) % _capacity;
+        if (_size < _capacity)
+            _size++;
+
+        _times[_head] = time;
+        _zCounts[_head] = 0;
+        if (u != null) {
+            System.arraycopy(u, 0, _us, _head * _c, _c);
+        } else {
+            Arrays.fill(_us, _head * _c, (_head + 1) * _c, 0.0);
+        }
+
+        System.arraycopy(_us, _head * _c, _u, 0, _c);
+        _filter.predict(_u);
+        save(_head);
+    }
+
+    /**
+     * Refines the state estimate using a measurement taken at the given time.
+     * If the measurement is older than the current state, it is applied to
+     * the latest step at or before its timestamp, and the following steps are
+     * re-propagated.  Measurements newer than the current state are applied
+     * to the current state.
+     *
+     * @param time the timestamp of the measurement.
+     * @param z the measurement [m].
+     * @return true if the measurement was applied, false if it was older than
+     * the history or its step already held the maximum number of measurements.
+     */
+    public boolean update(long time, double[] z) {
+        int age = find(time);
+        if (age < 0)
+            return false;
+
+        int idx = index(age);
+        int count = _zCounts[idx];
+        if (count >= _maxUpdates)
+            return false;
+
+        // Record the measurement and apply it to the state at its step
+        System.arraycopy(z, 0, _zs, (idx * _maxUpdates + count) * _m, _m);
+        _zCounts[idx] = count + 1;
+
+        if (age > 0)
+            restore(idx);
+        _filter.update(z);
+        save(idx);
+
+        // Replay the inputs and measurements of every later step
+        for (int a = age - 1; a >= 0; a--) {
+            int j = index(a);
+            System.arraycopy(_us, j * _c, _u, 0, _c);
+            _filter.predict(_u);
+            for (int k = 0; k < _zCounts[j]; k++) {
+                System.arraycopy(_zs, (j * _maxUpdates + k) * _m, _z, 0, _m);
+                _filter.update(_z);
+            }
+            save(j);
+        }
+
+        return true;
+    }
+
+    /**
+     * Finds the latest step at or before the given time.
+     *
+     * @return the number of steps before the newest step, or -1 if the time
+     * is older than the history.
+     */
+    private int find(long time) {
+        // Binary search over ages, where timestamps decrease with age
+        int lo = 0, hi = _size - 1;
+        if (time < _times[index(hi)])
+            return -1;
+
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (_times[index(mid)] <= time) {
+                hi = mid;
+            } else {
+                lo = mid + 1;
+            }
+        }
+        return lo;
+    }
+
+    /**
+     * Converts the age of a step into its position in the ring buffer.
+     */
+    private int index(int age) {
+        return (_head - age + _capacity) % _capacity;
+    }
+
+    /**
+     * Copies the state of the filter into a step of the history.
+     */
+    private void save(int idx) {
+        System.arraycopy(_filter._x, 0, _xs, idx * _n, _n);
+        System.arraycopy(_filter._P, 0, _Ps, idx * _n * _n, _n * _n);
+    }
+
+    /**
+     * Copies a step of the history into the state of the filter.
+     */
+    private void restore(int idx) {
+        System.arraycopy(_xs, idx * _n, _filter._x, 0, _n);
+        System.arraycopy(_Ps, idx * _n * _n, _filter._P, 0, _n * _n);
+    }
+
+    /**
+     * Returns the timestamp of the current state.
+     * @return the timestamp of the current state.
+     */
+    public long getTime() {
+        return _times[_head];
+    }
+
+    /**
+     * Returns the timestamp of the oldest step in the history, before which
+     * measurements can no longer be applied.
+     * @return the timestamp of the oldest step in the history.
+     */
+    public long getOldestTime() {
+        return _times[index(_size - 1)];
+    }
+
+    /**
+     * Returns the wrapped filter, which holds the current state.
+     * @return the wrapped filter.
+     */
+    public FixedKalmanFilter getFilter() {
+        return _filter;
+    }
+
+    /**
+     * Copies the current state estimate into the provided array.
+     * @param x an array [n] to receive the state estimate.
+     */
+    public void getState(double[] x) {
+        _filter.getState(x);
+    }
+
+    /**
+     * Copies the current state covariance into the provided array.
+     * @param P an array [n x n] to receive the state covariance.
+     */
+    public void getStateCov(double[] P) {
+        _filter.getStateCov(P);
+    }
+}
@@ -0,0 +1,603 @@
+/*
+ * Copyright (c) 2008, Prasanna Velagapudi <pkv@cs.cmu.edu>
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the project nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE PROJECT AND CONTRIBUTORS ''AS IS'' AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE PROJECT AND CONTRIBUTORS BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package robotutils.filters;
+
+import java.util.Arrays;
+import java.util.Random;
+import robotutils.Pose2D;
+import robotutils.util.ParallelUtils;
+
+/**
+ * A particle filter over planar poses for localizing a robot in a known map.
+ * Particles are stored in structure-of-arrays form, with separate arrays of
+ * x-coordinates, y-coordinates, headings and log-weights, so that the motion,
+ * measurement and resampling steps run as tight loops over contiguous memory.
+ * Each step is split into parallel chunks of particles, and no objects are
+ * created per particle.
+ *
+ * Motion updates are provided by a pluggable MotionModel, and measurement
+ * updates score laser scans against a precomputed LikelihoodField.  The
+ * filter resamples using low-variance (systematic) resampling in O(N) time,
+ * and can optionally adapt the number of particles to the spread of the
+ * distribution by KLD-sampling.
+ *
+ * The particle arrays are swapped with a second set of arrays on each
+ * resampling step, so references returned by the accessors are only valid
+ * until the next call to resample().  Instances are not thread-safe, but each
+ * step is internally parallelized.
+ *
+ * Source: Thrun, S., Burgard, W. and Fox, D. 2005. Probabilistic Robotics,
+ * ch. 4.3 and 8.3.  MIT Press.
+ *
+ * @see LikelihoodField
+ * @author Prasanna Velagapudi <pkv@cs.cmu.edu>
+ */
+public class ParticleFilter {
+
+    /**
+     * The default number of particles that are processed in a single chunk.
+     */
+    public static final int DEFAULT_GRAIN = 4096;
+
+    /**
+     * Samples new particle poses given a motion of the robot.
+     */
+    public interface MotionModel {
+
+        /**
+         * Moves the particles in the range [start, end) by a sample of the
+         * motion model, in place.
+         *
+         * @param delta the measured motion of the robot, in its previous frame.
+         * @param x the x-coordinates of the particles.
+         * @param y the y-coordinates of the particles.
+         * @param theta the headings of the particles.
+         * @param start the first particle to move (inclusive).
+         * @param end the last particle to move (exclusive).
+         * @param rnd a random number generator used only by this range.
+         */
+        public void apply(Pose2D delta, double[] x, double[] y, double[] theta,
+                int start, int end, Random rnd);
+    }
+
+    /**
+     * The odometry motion model, which decomposes each motion into a rotation,
+     * a translation and a second rotation, and perturbs each of them with
+     * Gaussian noise that grows with the size of the motion.
+     */
+    public static class OdometryMotionModel implements MotionModel {
+        private final double _a1, _a2, _a3, _a4;
+
+        /**
+         * Constructs an odometry motion model with the given noise parameters.
+         *
+         * @param a1 rotational noise caused by rotation.
+         * @param a2 rotational noise caused by translation.
+         * @param a3 translational noise caused by translation.
+         * @param a4 translational noise caused by rotation.
+         */
+        public OdometryMotionModel(double a1, double a2, double a3, double a4) {
+            _a1 = a1;
+            _a2 = a2;
+            _a3 = a3;
+            _a4 = a4;
+        }
+
+        public void apply(Pose2D delta, double[] x, double[] y, double[] theta,
+                int start, int end, Random rnd) {
+            double dx = delta.getX();
+            double dy = delta.getY();
+            double trans = Math.hypot(dx, dy);
+            double rot1 = (trans > 1e-9) ? Math.atan2(dy, dx) : 0.0;
+            double rot2 = delta.getTheta() - rot1;
+
+            double sdRot1 = Math.sqrt(_a1 * rot1 * rot1 + _a2 * trans * trans);
+            double sdTrans = Math.sqrt(_a3 * trans * trans + _a4 * (rot1 * rot1 + rot2 * rot2));
+            double sdRot2 = Math.sqrt(_a1 * rot2 * rot2 + _a2 * trans * trans);
+
+            for (int i = start; i < end; i++) {
+                double r1 = rot1 + sdRot1 * rnd.nextGaussian();
+                double t = trans + sdTrans * rnd.nextGaussian();
+                double r2 = rot2 + sdRot2 * rnd.nextGaussian();
+
+                double heading = theta[i] + r1;
+                x[i] += t * Math.cos(heading);
+                y[i] += t * Math.sin(heading);
+                theta[i] = normalizeAngle(heading + r2);
+            }
+        }
+    }
+
+    /**
+     * The maximum number of particles.
+     */
+    protected final int _capacity;
+
+    /**
+     * The current number of particles.
+     */
+    protected int _size;
+
+    /**
+     * The poses and log-weights of the particles, and the arrays that receive
+     * them during resampling.
+     */
+    protected double[] _x, _y, _theta, _w;
+    private double[] _xNext, _yNext, _thetaNext, _wNext;
+
+    private final int _grain;
+    private final Random _rnd;
+    private final Random[] _chunkRnds;
+    private final double[] _chunkSums;
+
+    // Parameters and workspace for adaptive resampling
+    private boolean _adaptive = false;
+    private int _minParticles = 100;
+    private double _kldEpsilon = 0.05;
+    private double _kldZ = 2.326;
+    private double _binSize = 0.5;
+    private double _binAngle = Math.toRadians(10.0);
+    private final long[] _bins;
+
+    private static final long EMPTY_BIN = Long.MIN_VALUE;
+
+    /**
+     * Constructs a filter with the given maximum number of particles, using
+     * the default chunk size and a random seed.
+     *
+     * @param capacity the maximum number of particles.
+     */
+    public ParticleFilter(int capacity) {
+        this(capacity, new Random().nextLong(), DEFAULT_GRAIN);
+    }
+
+    /**
+     * Constructs a filter with the given maximum number of particles, which
+     * initially contains no particles.  Given the same seed, chunk size and
+     * inputs, the filter produces the same particles regardless of how its
+     * chunks are scheduled.
+     *
+     * @param capacity the maximum number of particles.
+     * @param seed the seed of the random number generators.
+     * @param grain the number of particles processed in a single parallel chunk.
+     */
+    public ParticleFilter(int capacity, long seed, int grain) {
+        if (capacity < 1 || grain < 1)
+            throw new IllegalArgumentException("Invalid filter dimensions.");
+
+        _capacity = capacity;
+        _size = 0;
+        _grain = grain;
+
+        _x = new double[capacity];
+        _y = new double[capacity];
+        _theta = new double[capacity];
+        _w = new double[capacity];
+        _xNext = new double[capacity];
+        _yNext = new double[capacity];
+        _thetaNext = new double[capacity];
+        _wNext = new double[capacity];
+
+        _rnd = new Random(seed);
+        int chunks = ParallelUtils.chunks(capacity, grain);
+        _chunkRnds = new Random[chunks];
+        for (int i = 0; i < chunks; i++) {
+            _chunkRnds[i] = new Random(_rnd.nextLong());
+        }
+        _chunkSums = new double[chunks];
+
+        _bins = new long[Integer.highestOneBit(Math.max(capacity, 1)) * 4];
+    }
+
+    /**
+     * Wraps an angle into the range [-pi, pi).
+     *
+     * @param angle an angle in radians.
+     * @return the equivalent angle in [-pi, pi).
+     */
+    public static double normalizeAngle(double angle) {
+        return angle - 2.0 * Math.PI * Math.floor((angle + Math.PI) / (2.0 * Math.PI));
+    }
+
+    /**
+     * Replaces the particles with samples from a Gaussian distribution around
+     * a pose, with equal weights.
+     *
+     * @param count the number of particles.
+     * @param mean the mean pose.
+     * @param sdXY the standard deviation of the position.
+     * @param sdTheta the standard deviation of the heading.
+     */
+    public void initialize(int count, final Pose2D mean, final double sdXY, final double sdTheta) {
+        setSize(count);
+
+        ParallelUtils.forRange(_size, _grain, new ParallelUtils.RangeTask() {
+            public void run(int chunk, int start, int end) {
+                Random rnd = _chunkRnds[chunk];
+                for (int i = start; i < end; i++) {
+                    _x[i] = mean.getX() + sdXY * rnd.nextGaussian();
+                    _y[i] = mean.getY() + sdXY * rnd.nextGaussian();
+                    _theta[i] = normalizeAngle(mean.getTheta() + sdTheta * rnd.nextGaussian());
+                    _w[i] = 0.0;
+                }
+            }
+        });
+    }
+
+    /**
+     * Replaces the particles with samples spread uniformly over a rectangle
+     * and all headings, with equal weights, for global localization.
+     *
+     * @param count the number of particles.
+     * @param minX the minimum x-coordinate.
+     * @param minY the minimum y-coordinate.
+     * @param maxX the maximum x-coordinate.
+     * @param maxY the maximum y-coordinate.
+     */
+    public void initializeUniform(int count, final double minX, final double minY,
+            final double maxX, final double maxY) {
+        setSize(count);
+
+        ParallelUtils.forRange(_size, _grain, new ParallelUtils.RangeTask() {
+            public void run(int chunk, int start, int end) {
+                Random rnd = _chunkRnds[chunk];
+                for (int i = start; i < end; i++) {
+                    _x[i] = minX + (maxX - minX) * rnd.nextDouble();
+                    _y[i] = minY + (maxY - minY) * rnd.nextDouble();
+                    _theta[i] = Math.PI * (2.0 * rnd.nextDouble() - 1.0);
+                    _w[i] = 0.0;
+                }
+            }
+        });
+    }
+
+    private void setSize(int count) {
+        if (count < 1 || count > _capacity)
+            throw new IllegalArgumentException("Particle count must be in [1, " + _capacity + "].");
+        _size = count;
+    }
+
+    /**
+     * Moves every particle by a sample of the given motion model.
+     *
+     * @param model the motion model.
+     * @param delta the measured motion of the robot, in its previous frame.
+     */
+    public void predict(final MotionModel model, final Pose2D delta) {
+        ParallelUtils.forRange(_size, _grain, new ParallelUtils.RangeTask() {
+            public void run(int chunk, int start, int end) {
+                model.apply(delta, _x, _y, _theta, start, end, _chunkRnds[chunk]);
+            }
+        });
+    }
+
+    /**
+     * Weights every particle by the likelihood of a scan.  The endpoints of
+     * the scan are given in the sensor frame, which is assumed to coincide
+     * with the frame of the particles.  Weights are accumulated in log form,
+     * so several scans may be applied before resampling.
+     *
+     * @param field the likelihood field of the map.
+     * @param ex the x-coordinates of the endpoints in the sensor frame.
+     * @param ey the y-coordinates of the endpoints in the sensor frame.
+     * @param beams the number of endpoints.
+     */
+    public void update(final LikelihoodField field,
+            final double[] ex, final double[] ey, final int beams) {
+        ParallelUtils.forRange(_size, _grain, new ParallelUtils.RangeTask() {
+            public void run(int chunk, int start, int end) {
+                for (int i = start; i < end; i++) {
+                    _w[i] += field.score(_x[i], _y[i], _theta[i], ex, ey, beams);
+                }
+            }
+        });
+    }
+
+    /**
+     * Rescales the log-weights so that the weights sum to one.
+     */
+    public void normalize() {
+        double max = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < _size; i++) {
+            if (_w[i] > max) max = _w[i];
+        }
+        if (max == Double.NEGATIVE_INFINITY)
+            throw new IllegalStateException("All particles have zero weight.");
+
+        final double offset = max;
+        ParallelUtils.forRange(_size, _grain, new ParallelUtils.RangeTask() {
+            public void run(int chunk, int start, int end) {
+                double sum = 0.0;
+                for (int i = start; i < end; i++) {
+                    sum += Math.exp(_w[i] - offset);
+                }
+                _chunkSums[chunk] = sum;
+            }
+        });
+
+        double sum = 0.0;
+        for (int c = 0, chunks = ParallelUtils.chunks(_size, _grain); c < chunks; c++) {
+            sum += _chunkSums[c];
+        }
+
+        final double logTotal = offset + Math.log(sum);
+        ParallelUtils.forRange(_size, _grain, new ParallelUtils.RangeTask() {
+            public void run(int chunk, int start, int end) {
+                for (int i = start; i < end; i++) {
+                    _w[i] -= logTotal;
+                }
+            }
+        });
+    }
+
+    /**
+     * Returns the effective sample size of the particles, 1 / sum(w^2), which
+     * is commonly used to decide when to resample.
+     *
+     * @return the effective sample size, between 1 and the number of particles.
+     */
+    public double getEffectiveSampleSize() {
+        normalize();
+
+        double sumSq = 0.0;
+        for (int i = 0; i < _size; i++) {
+            sumSq += Math.exp(2.0 * _w[i]);
+        }
+        return 1.0 / sumSq;
+    }
+
+    /**
+     * Draws a new set of equally weighted particles from the current weighted
+     * particles by systematic resampling.  If adaptive resampling is enabled,
+     * the number of new particles is chosen by KLD-sampling from the number
+     * of histogram bins occupied by the current particles; otherwise, the
+     * number of particles is unchanged.
+     */
+    public void resample() {
+        normalize();
+        int count = _adaptive ? kldSize() : _size;
+        resample(count);
+    }
+
+    /**
+     * Draws a given number of equally weighted particles from the current
+     * weighted particles by systematic resampling.  A single random offset is
+     * used to place evenly spaced pointers over the cumulative weights, and
+     * each chunk of the old particles writes the new particles whose pointers
+     * fall into its range of weights, so chunks can be processed in parallel.
+     *
+     * @param count the number of new particles.
+     */
+    public void resample(final int count) {
+        if (count < 1 || count > _capacity)
+            throw new IllegalArgumentException("Particle count must be in [1, " + _capacity + "].");
+        normalize();
+
+        // Compute the total weight of each chunk
+        ParallelUtils.forRange(_size, _grain, new ParallelUtils.RangeTask() {
+            public void run(int chunk, int start, int end) {
+                double sum = 0.0;
+                for (int i = start; i < end; i++) {
+                    sum += Math.exp(_w[i]);
+                }
+                _chunkSums[chunk] = sum;
+            }
+        });
+
+        // Convert chunk weights into exclusive prefix sums, scaled by count
+        final int chunks = ParallelUtils.chunks(_size, _grain);
+        double total = 0.0;
+        for (int c = 0; c < chunks; c++) {
+            double sum = _chunkSums[c];
+            _chunkSums[c] = total;
+            total += sum;
+        }
+        final double scale = count / total;
+        final double offset = _rnd.nextDouble();
+
+        // Pointer k lands on the first particle whose cumulative weight exceeds
+        // k + offset, where chunk boundaries use exactly the same prefix sums
+        ParallelUtils.forRange(_size, _grain, new ParallelUtils.RangeTask() {
+            public void run(int chunk, int start, int end) {
+                double cumulative = _chunkSums[chunk] * scale;
+                double chunkEnd = (chunk + 1 < chunks) ? _chunkSums[chunk + 1] * scale : count;
+                int k = (int)Math.max(0.0, Math.ceil(cumulative - offset));
+                for (int i = start; i < end && k < count; i++) {
+                    cumulative += Math.exp(_w[i]) * scale;
+                    if (i == end - 1)
+                        cumulative = chunkEnd;
+                    while (k < count && k + offset < cumulative) {
+                        _xNext[k] = _x[i];
+                        _yNext[k] = _y[i];
+                        _thetaNext[k] = _theta[i];
+                        k++;
+                    }
+                }
+            }
+        });
+
+        // Swap in the new particles with equal weights
+        double[] tmp;
+        tmp = _x; _x = _xNext; _xNext = tmp;
+        tmp = _y; _y = _yNext; _yNext = tmp;
+        tmp = _theta; _theta = _thetaNext; _thetaNext = tmp;
+        tmp = _w; _w = _wNext; _wNext = tmp;
+
+        _size = count;
+        Arrays.fill(_w, 0, count, -Math.log(count));
+    }
+
+    /**
+     * Computes the number of particles needed to bound the KL-divergence
+     * between the particle distribution and the true posterior, given the
+     * number of histogram bins that are occupied by particles with
+     * non-negligible weight.
+     */
+    private int kldSize() {
+        Arrays.fill(_bins, EMPTY_BIN);
+        int mask = _bins.length - 1;
+        double threshold = Math.log(1e-3 / _size);
+
+        int k = 0;
+        for (int i = 0; i < _size; i++) {
+            if (_w[i] < threshold)
+                continue;
+
+            long bx = (long)Math.floor(_x[i] / _binSize) & 0x1FFFFF;
+            long by = (long)Math.floor(_y[i] / _binSize) & 0x1FFFFF;
+            long bt = (long)Math.floor(_theta[i] / _binAngle) & 0x1FFFFF;
+            long bin = (bx << 42) | (by << 21) | bt;
+
+            // Insert the bin into an open-addressing set
+            int h = (int)((bin * 0x9E3779B97F4A7C15L) >>> 40) & mask;
+            while (_bins[h] != EMPTY_BIN && _bins[h] != bin) {
+                h = (h + 1) & mask;
+            }
+            if (_bins[h] == EMPTY_BIN) {
+                _bins[h] = bin;
+                k++;
+            }
+        }
+
+        if (k <= 1)
+            return Math.min(_minParticles, _capacity);
+
+        // Wilson-Hilferty approximation of the chi-square quantile
+        double a = 2.0 / (9.0 * (k - 1));
+        double b = 1.0 - a + Math.sqrt(a) * _kldZ;
+        double n = (k - 1) / (2.0 * _kldEpsilon) * b * b * b;
+
+        return (int)Math.max(_minParticles, Math.min(_capacity, Math.ceil(n)));
+    }
+
+    /**
+     * Enables or disables KLD-adaptive resampling.
+     * @param adaptive true if resample() should adapt the number of particles.
+     */
+    public void setAdaptive(boolean adaptive) {
+        _adaptive = adaptive;
+    }
+
+    /**
+     * Returns whether KLD-adaptive resampling is enabled.
+     * @return true if resample() adapts the number of particles.
+     */
+    public boolean isAdaptive() {
+        return _adaptive;
+    }
+
+    /**
+     * Sets the parameters of KLD-adaptive resampling.
+     *
+     * @param epsilon the maximum KL-divergence between the particles and the posterior.
+     * @param z the upper standard normal quantile of the confidence in the bound.
+     * @param binSize the size of a histogram bin in position.
+     * @param binAngle the size of a histogram bin in heading, in radians.
+     * @param minParticles the minimum number of particles.
+     */
+    public void setKldParameters(double epsilon, double z, double binSize,
+            double binAngle, int minParticles) {
+        if (epsilon <= 0.0 || binSize <= 0.0 || binAngle <= 0.0
+                || minParticles < 1 || minParticles > _capacity)
+            throw new IllegalArgumentException("Invalid KLD parameters.");
+
+        _kldEpsilon = epsilon;
+        _kldZ = z;
+        _binSize = binSize;
+        _binAngle = binAngle;
+        _minParticles = minParticles;
+    }
+
+    /**
+     * Returns the weighted mean pose of the particles, using the circular
+     * mean of the headings.
+     *
+     * @return the mean pose.
+     */
+    public Pose2D getMean() {
+        normalize();
+
+        double sx = 0.0, sy = 0.0, sc = 0.0, ss = 0.0;
+        for (int i = 0; i < _size; i++) {
+            double w = Math.exp(_w[i]);
+            sx += w * _x[i];
+            sy += w * _y[i];
+            sc += w * Math.cos(_theta[i]);
+            ss += w * Math.sin(_theta[i]);
+        }
+        return new Pose2D(sx, sy, Math.atan2(ss, sc));
+    }
+
+    /**
+     * Returns the current number of particles.
+     * @return the current number of particles.
+     */
+    public int size() {
+        return _size;
+    }
+
+    /**
+     * Returns the maximum number of particles.
+     * @return the maximum number of particles.
+     */
+    public int getCapacity() {
+        return _capacity;
+    }
+
+    /**
+     * Returns the x-coordinates of the particles, which are valid up to size().
+     * @return the array of x-coordinates.
+     */
+    public double[] getX() {
+        return _x;
+    }
+
+    /**
+     * Returns the y-coordinates of the particles, which are valid up to size().
+     * @return the array of y-coordinates.
+     */
+    public double[] getY() {
+        return _y;
+    }
+
+    /**
+     * Returns the headings of the particles, which are valid up to size().
+     * @return the array of headings.
+     */
+    public double[] getTheta() {
+        return _theta;
+    }
+
+    /**
+     * Returns the log-weights of the particles, which are valid up to size().
+     * @return the array of log-weights.
+     */
+    public double[] getLogWeights() {
+        return _w;
+    }
+}
@@ -0,0 +1,775 @@
+/*
+ * Copyright (c) 2008, Prasanna Velagapudi <pkv@cs.cmu.edu>
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the project nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE PROJECT AND CONTRIBUTORS ''AS IS'' AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE PROJECT AND CONTRIBUTORS BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package robotutils.filters;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import robotutils.util.LongDoubleHashMap;
+
+/**
+ * A sparse three-dimensional occupancy map with unbounded extent, which
+ * integrates range measurements as clamped log-odds in the same way as
+ * OccupancyMap, but only stores the regions that have been observed.
+ *
+ * Like a VDB grid, the map is a shallow tree.  Voxels are grouped into leaves
+ * of 8 x 8 x 8 voxels, and leaves are grouped into internal nodes of
+ * 16 x 16 x 16 leaves, which are kept in an open-addressing hash table keyed
+ * by their packed node coordinates.  A leaf whose voxels all have the same
+ * value is pruned into a tile that stores a single byte in its node, and a
+ * node whose leaves are all tiles of the same value is in turn pruned into a
+ * single byte, which is common for free space that has been observed until
+ * its log-odds reach their lower bound.  Nodes that return to the unknown
+ * value are removed.  Memory therefore scales with the amount of observed
+ * surface rather than with the bounding volume of the map.
+ *
+ * Rays are traversed voxel by voxel using the algorithm of Amanatides and Woo,
+ * and since successive voxels usually lie in the same leaf, the most recently
+ * used node and leaf are cached to avoid hash lookups.  Within a batch of
+ * rays, each voxel is updated at most once, and hits take precedence over
+ * misses.
+ *
+ * Instances are not thread-safe.
+ *
+ * @see OccupancyMap
+ * @author Prasanna Velagapudi <pkv@cs.cmu.edu>
+ */
+public class SparseOccupancyMap {
+
+    /**
+     * The number of bits of a voxel coordinate that index within a leaf.
+     */
+    public static final int LEAF_BITS = 3;
+
+    /**
+     * The number of voxels along each edge of a leaf.
+     */
+    public static final int LEAF_SIZE = 1 << LEAF_BITS;
+
+    /**
+     * The number of voxels in a leaf.
+     */
+    static final int LEAF_VOXELS = LEAF_SIZE * LEAF_SIZE * LEAF_SIZE;
+
+    /**
+     * The number of bits of a leaf coordinate that index within a node.
+     */
+    public static final int NODE_BITS = 4;
+
+    /**
+     * The number of leaves along each edge of a node.
+     */
+    public static final int NODE_SIZE = 1 << NODE_BITS;
+
+    /**
+     * The number of leaves in a node.
+     */
+    static final int NODE_LEAVES = NODE_SIZE * NODE_SIZE * NODE_SIZE;
+
+    /**
+     * The number of bits of a voxel coordinate that index within a node.
+     */
+    static final int NODE_SHIFT = LEAF_BITS + NODE_BITS;
+
+    /**
+     * The number of bits used to store each node coordinate in a key.
+     */
+    static final int KEY_BITS = 21;
+    static final int KEY_MASK = (1 << KEY_BITS) - 1;
+
+    /**
+     * The largest magnitude of a node coordinate.
+     */
+    static final int MAX_NODE = (1 << (KEY_BITS - 1)) - 1;
+
+    /**
+     * Identifies the serialized form of a map, including its version.
+     */
+    static final int MAGIC = 0x534F4D02;
+
+    /**
+     * A block of voxels, which is either dense or a uniform tile.  Tiles are
+     * only stored as leaves while they are being updated by a batch, and are
+     * otherwise stored as a single byte in their node.
+     */
+    static final class Leaf {
+        final Node node;
+        final int slot;
+
+        /**
+         * The values of the voxels, or null if every voxel has the tile value.
+         */
+        byte[] values;
+        byte tile;
+
+        /**
+         * Bitsets of the voxels hit [0-7] and passed through [8-15] by the
+         * current batch, or null if the leaf has not been touched.
+         */
+        long[] marks;
+
+        Leaf(Node node, int slot) {
+            this.node = node;
+            this.slot = slot;
+        }
+
+        byte get(int voxel) {
+            return (values == null) ? tile : values[voxel];
+        }
+    }
+
+    /**
+     * A block of leaves, which is either expanded into a leaf or tile for
+     * each of its slots, or is a uniform tile.
+     */
+    static final class Node {
+        final long key;
+
+        /**
+         * The leaves of each slot, or null if the slot is a tile.  Both this
+         * and the tile values are null if the whole node has the tile value.
+         */
+        Leaf[] leaves;
+        byte[] tiles;
+        byte tile;
+
+        /**
+         * The number of non-null leaves.
+         */
+        int leafCount;
+
+        Node(long key) {
+            this.key = key;
+        }
+
+        /**
+         * Converts a uniform node into one with a tile for each slot.
+         */
+        void expand() {
+            leaves = new Leaf[NODE_LEAVES];
+            tiles = new byte[NODE_LEAVES];
+            Arrays.fill(tiles, tile);
+        }
+    }
+
+    /**
+     * An open-addressing hash table of nodes keyed by their packed node
+     * coordinates.  Collisions are resolved by linear probing, and removals
+     * shift subsequent entries backwards, in the same way as LongDoubleHashMap.
+     *
+     * @see LongDoubleHashMap
+     */
+    static final class NodeTable {
+        Node[] slots = new Node[16];
+        int mask = slots.length - 1;
+        int size = 0;
+
+        /**
+         * Finds the slot that contains the key, or the empty slot where it
+         * would be inserted.
+         */
+        int slot(long key) {
+            int i = LongDoubleHashMap.hash(key) & mask;
+            while (slots[i] != null && slots[i].key != key) {
+                i = (i + 1) & mask;
+            }
+            return i;
+        }
+
+        Node get(long key) {
+            return slots[slot(key)];
+        }
+
+        void put(Node node) {
+            int i = slot(node.key);
+            if (slots[i] == null) size++;
+            slots[i] = node;
+
+            if (size > slots.length / 2) {
+                Node[] old = slots;
+                slots = new Node[2 * old.length];
+                mask = slots.length - 1;
+                for (Node n : old) {
+                    if (n != null) slots[slot(n.key)] = n;
+                }
+            }
+        }
+
+        void remove(long key) {
+            int i = slot(key);
+            if (slots[i] == null) return;
+
+            // Shift back any later entries in the probe sequence
+            int j = i;
+            while (true) {
+                j = (j + 1) & mask;
+                if (slots[j] == null) break;
+
+                int home = LongDoubleHashMap.hash(slots[j].key) & mask;
+                if (((j - home) & mask) >= ((j - i) & mask)) {
+                    slots[i] = slots[j];
+                    i = j;
+                }
+            }
+
+            slots[i] = null;
+            size--;
+        }
+    }
+
+    /**
+     * The world coordinates of the corner of voxel (0, 0, 0).
+     */
+    protected final double[] _origin;
+
+    /**
+     * The size of each voxel, in world units.
+     */
+    protected final double _resolution;
+
+    /**
+     * The nodes of the map, keyed by their packed node coordinates.
+     */
+    final NodeTable _nodes = new NodeTable();
+
+    // Quantized log-odds updates and bounds
+    private byte _hit = OccupancyMap.DEFAULT_HIT;
+    private byte _miss = OccupancyMap.DEFAULT_MISS;
+    private byte _min = OccupancyMap.DEFAULT_MIN;
+    private byte _max = OccupancyMap.DEFAULT_MAX;
+
+    // The most recently used node and leaf
+    private Node _cachedNode = null;
+    private Leaf _cachedLeaf = null;
+
+    // Leaves touched by the current batch, and spare bitsets for marking them
+    private final ArrayList<Leaf> _touched = new ArrayList<Leaf>();
+    private final ArrayList<long[]> _spareMarks = new ArrayList<long[]>();
+
+    /**
+     * Constructs an empty map, where every voxel is unknown.
+     *
+     * @param x the x-coordinate of the corner of voxel (0, 0, 0).
+     * @param y the y-coordinate of the corner of voxel (0, 0, 0).
+     * @param z the z-coordinate of the corner of voxel (0, 0, 0).
+     * @param resolution the size of each voxel, in world units.
+     */
+    public SparseOccupancyMap(double x, double y, double z, double resolution) {
+        if (resolution <= 0.0)
+            throw new IllegalArgumentException("Invalid map resolution.");
+
+        _origin = new double[] {x, y, z};
+        _resolution = resolution;
+    }
+
+    /**
+     * Sets the log-odds updates applied by each measurement, and the bounds
+     * to which the log-odds of each voxel are clamped.  Values are rounded to
+     * multiples of OccupancyMap.LOG_ODDS_SCALE.
+     *
+     * @param hit the log-odds added to a voxel containing an endpoint.
+     * @param miss the log-odds added to a voxel that a ray passes through.
+     * @param min the minimum log-odds of a voxel.
+     * @param max the maximum log-odds of a voxel.
+     */
+    public void setLogOdds(double hit, double miss, double min, double max) {
+        if (hit < 0.0 || miss > 0.0 || min > 0.0 || max < 0.0)
+            throw new IllegalArgumentException("Invalid log-odds parameters.");
+
+        _hit = OccupancyMap.quantize(hit);
+        _miss = OccupancyMap.quantize(miss);
+        _min = OccupancyMap.quantize(min);
+        _max = OccupancyMap.quantize(max);
+    }
+
+    /**
+     * Packs the coordinates of the node containing a voxel into a key.
+     */
+    static long nodeKey(int x, int y, int z) {
+        int nx = x >> NODE_SHIFT, ny = y >> NODE_SHIFT, nz = z >> NODE_SHIFT;
+        if (Math.abs(nx) > MAX_NODE || Math.abs(ny) > MAX_NODE || Math.abs(nz) > MAX_NODE)
+            throw new IllegalArgumentException("Voxel is outside the extent of the map.");
+
+        return ((long)(nx & KEY_MASK) << (2 * KEY_BITS))
+                | ((long)(ny & KEY_MASK) << KEY_BITS)
+                | (long)(nz & KEY_MASK);
+    }
+
+    /**
+     * Returns the index of the leaf containing a voxel within its node.
+     */
+    static int leafIndex(int x, int y, int z) {
+        final int m = NODE_SIZE - 1;
+        return ((x >> LEAF_BITS) & m) | (((y >> LEAF_BITS) & m) << NODE_BITS)
+                | (((z >> LEAF_BITS) & m) << (2 * NODE_BITS));
+    }
+
+    /**
+     * Returns the index of a voxel within its leaf.
+     */
+    static int voxelIndex(int x, int y, int z) {
+        final int m = LEAF_SIZE - 1;
+        return (x & m) | ((y & m) << LEAF_BITS) | ((z & m) << (2 * LEAF_BITS));
+    }
+
+    /**
+     * Returns the node containing a voxel, or null if it does not exist.
+     */
+    private Node node(int x, int y, int z) {
+        long key = nodeKey(x, y, z);
+        if (_cachedNode != null && _cachedNode.key == key)
+            return _cachedNode;
+
+        Node node = _nodes.get(key);
+        if (node != null)
+            _cachedNode = node;
+        return node;
+    }
+
+    /**
+     * Returns the leaf containing a voxel, creating it and its node if they
+     * do not exist.  A leaf that is created in place of a tile has the value
+     * of the tile.
+     */
+    private Leaf leaf(int x, int y, int z) {
+        Node node = node(x, y, z);
+        int slot = leafIndex(x, y, z);
+        if (_cachedLeaf != null && _cachedLeaf.node == node && _cachedLeaf.slot == slot)
+            return _cachedLeaf;
+
+        if (node == null) {
+            node = new Node(nodeKey(x, y, z));
+            _nodes.put(node);
+            _cachedNode = node;
+        }
+        if (node.leaves == null)
+            node.expand();
+
+        Leaf leaf = node.leaves[slot];
+        if (leaf == null) {
+            leaf = new Leaf(node, slot);
+            leaf.tile = node.tiles[slot];
+            node.leaves[slot] = leaf;
+            node.leafCount++;
+        }
+
+        _cachedLeaf = leaf;
+        return leaf;
+    }
+
+    /**
+     * Integrates a single ray.
+     *
+     * @param pos the world coordinates of the sensor origin [3].
+     * @param ray the offset from the origin to the endpoint [3].
+     */
+    public void addScan(double[] pos, double[] ray) {
+        addScan(pos, ray, 1);
+    }
+
+    /**
+     * Integrates a batch of rays from a common origin, updating each voxel at
+     * most once.
+     *
+     * @param pos the world coordinates of the sensor origin [3].
+     * @param rays the offsets from the origin to each endpoint [3 x count],
+     * stored as consecutive (x, y, z) triples.
+     * @param count the number of rays.
+     */
+    public void addScan(double[] pos, double[] rays, int count) {
+        if (rays.length < 3 * count)
+            throw new IllegalArgumentException("Expected " + count + " rays.");
+
+        for (int i = 0; i < count; i++) {
+            traceRay(pos, rays, i);
+        }
+        applyScan();
+    }
+
+    /**
+     * Traverses a single ray, marking the voxels that it passes through and
+     * the voxel containing its endpoint.
+     */
+    private void traceRay(double[] pos, double[] rays, int i) {
+        final double inv = 1.0 / _resolution;
+
+        // Convert the ray into voxel coordinates
+        double sx = (pos[0] - _origin[0]) * inv;
+        double sy = (pos[1] - _origin[1]) * inv;
+        double sz = (pos[2] - _origin[2]) * inv;
+        double dx = rays[3 * i] * inv;
+        double dy = rays[3 * i + 1] * inv;
+        double dz = rays[3 * i + 2] * inv;
+
+        int x = (int)Math.floor(sx), y = (int)Math.floor(sy), z = (int)Math.floor(sz);
+        int ex = (int)Math.floor(sx + dx), ey = (int)Math.floor(sy + dy), ez = (int)Math.floor(sz + dz);
+
+        int stepX = (dx > 0) ? 1 : -1;
+        int stepY = (dy > 0) ? 1 : -1;
+        int stepZ = (dz > 0) ? 1 : -1;
+        double deltaX = (dx != 0.0) ? Math.abs(1.0 / dx) : Double.POSITIVE_INFINITY;
+        double deltaY = (dy != 0.0) ? Math.abs(1.0 / dy) : Double.POSITIVE_INFINITY;
+        double deltaZ = (dz != 0.0) ? Math.abs(1.0 / dz) : Double.POSITIVE_INFINITY;
+        double maxX = (dx != 0.0) ? ((dx > 0 ? x + 1 : x) - sx) / dx : Double.POSITIVE_INFINITY;
+        double maxY = (dy != 0.0) ? ((dy > 0 ? y + 1 : y) - sy) / dy : Double.POSITIVE_INFINITY;
+        double maxZ = (dz != 0.0) ? ((dz > 0 ? z + 1 : z) - sz) / dz : Double.POSITIVE_INFINITY;
+
+        // Take exactly one step per boundary crossed between the two voxels,
+        // never stepping an axis past the voxel containing the endpoint
+        int steps = Math.abs(ex - x) + Math.abs(ey - y) + Math.abs(ez - z);
+        for (int k = 0; k < steps; k++) {
+            mark(x, y, z, LEAF_VOXELS / 64);
+
+            double mx = (x != ex) ? maxX : Double.POSITIVE_INFINITY;
+            double my = (y != ey) ? maxY : Double.POSITIVE_INFINITY;
+            double mz = (z != ez) ? maxZ : Double.POSITIVE_INFINITY;
+            if (mx < my && mx < mz) {
+                x += stepX;
+                maxX += deltaX;
+            } else if (my < mz) {
+                y += stepY;
+                maxY += deltaY;
+            } else {
+                z += stepZ;
+                maxZ += deltaZ;
+            }
+        }
+
+        mark(ex, ey, ez, 0);
+    }
+
+    /**
+     * Marks a voxel in the hit or miss bitset of its leaf, which starts at the
+     * given word offset.
+     */
+    private void mark(int x, int y, int z, int offset) {
+        Leaf leaf = leaf(x, y, z);
+        if (leaf.marks == null) {
+            int spares = _spareMarks.size();
+            leaf.marks = (spares > 0) ? _spareMarks.remove(spares - 1)
+                    : new long[2 * LEAF_VOXELS / 64];
+            _touched.add(leaf);
+        }
+
+        int voxel = voxelIndex(x, y, z);
+        leaf.marks[offset + (voxel >>> 6)] |= 1L << voxel;
+    }
+
+    /**
+     * Applies the updates marked by the current batch to each touched leaf,
+     * then prunes leaves and nodes that have become uniform.
+     */
+    private void applyScan() {
+        final int words = LEAF_VOXELS / 64;
+
+        for (int t = 0; t < _touched.size(); t++) {
+            Leaf leaf = _touched.get(t);
+            long[] marks = leaf.marks;
+
+            // A tile only needs to be expanded if some voxel would change
+            if (leaf.values == null) {
+                boolean changed = false;
+                for (int voxel = 0; voxel < LEAF_VOXELS && !changed; voxel++) {
+                    changed = (update(leaf.tile, marks, voxel, words) != leaf.tile);
+                }
+                if (changed) {
+                    leaf.values = new byte[LEAF_VOXELS];
+                    Arrays.fill(leaf.values, leaf.tile);
+                }
+            }
+
+            // Update the marked voxels, and check if they are all equal
+            if (leaf.values != null) {
+                byte[] values = leaf.values;
+                for (int voxel = 0; voxel < LEAF_VOXELS; voxel++) {
+                    values[voxel] = update(values[voxel], marks, voxel, words);
+                }
+                prune(leaf);
+            }
+
+            Arrays.fill(marks, 0L);
+            _spareMarks.add(marks);
+            leaf.marks = null;
+
+            // Uniform leaves are stored as a tile in their node
+            if (leaf.values == null) {
+                Node node = leaf.node;
+                node.leaves[leaf.slot] = null;
+                node.tiles[leaf.slot] = leaf.tile;
+                node.leafCount--;
+            }
+        }
+
+        // Nodes are pruned once all of their leaves have been applied
+        for (int t = 0; t < _touched.size(); t++) {
+            Node node = _touched.get(t).node;
+            if (node.leaves != null && node.leafCount == 0)
+                prune(node);
+        }
+
+        _touched.clear();
+        _cachedNode = null;
+        _cachedLeaf = null;
+    }
+
+    /**
+     * Returns the updated value of a voxel given the marks of the batch.
+     */
+    private byte update(byte value, long[] marks, int voxel, int words) {
+        long bit = 1L << voxel;
+        if ((marks[voxel >>> 6] & bit) != 0)
+            return (byte)Math.min(_max, value + _hit);
+        if ((marks[words + (voxel >>> 6)] & bit) != 0)
+            return (byte)Math.max(_min, value + _miss);
+        return value;
+    }
+
+    /**
+     * Converts a dense leaf into a tile if all of its voxels are equal.
+     */
+    private static void prune(Leaf leaf) {
+        byte[] values = leaf.values;
+        byte first = values[0];
+        for (int voxel = 1; voxel < LEAF_VOXELS; voxel++) {
+            if (values[voxel] != first)
+                return;
+        }
+
+        leaf.values = null;
+        leaf.tile = first;
+    }
+
+    /**
+     * Converts a node without leaves into a tile if all of its tiles are
+     * equal, and removes it if that tile is unknown.
+     */
+    private void prune(Node node) {
+        byte[] tiles = node.tiles;
+        byte first = tiles[0];
+        for (int slot = 1; slot < NODE_LEAVES; slot++) {
+            if (tiles[slot] != first)
+                return;
+        }
+
+        node.leaves = null;
+        node.tiles = null;
+        node.tile = first;
+
+        // Unknown tiles carry no information
+        if (first == 0)
+            _nodes.remove(node.key);
+    }
+
+    /**
+     * Returns the quantized log-odds of a voxel, in units of
+     * OccupancyMap.LOG_ODDS_SCALE.
+     *
+     * @param x the x-index of the voxel.
+     * @param y the y-index of the voxel.
+     * @param z the z-index of the voxel.
+     * @return the quantized log-odds of the voxel, or zero if it is unknown.
+     */
+    public byte getValue(int x, int y, int z) {
+        Node node = node(x, y, z);
+        if (node == null)
+            return 0;
+        if (node.leaves == null)
+            return node.tile;
+
+        int slot = leafIndex(x, y, z);
+        Leaf leaf = node.leaves[slot];
+        return (leaf == null) ? node.tiles[slot] : leaf.get(voxelIndex(x, y, z));
+    }
+
+    /**
+     * Returns the log-odds of a voxel.
+     *
+     * @param x the x-index of the voxel.
+     * @param y the y-index of the voxel.
+     * @param z the z-index of the voxel.
+     * @return the log-odds that the voxel is occupied.
+     */
+    public double getLogOdds(int x, int y, int z) {
+        return getValue(x, y, z) * OccupancyMap.LOG_ODDS_SCALE;
+    }
+
+    /**
+     * Returns the probability that a voxel is occupied.
+     *
+     * @param x the x-index of the voxel.
+     * @param y the y-index of the voxel.
+     * @param z the z-index of the voxel.
+     * @return the probability that the voxel is occupied.
+     */
+    public double getProbability(int x, int y, int z) {
+        return 1.0 - 1.0 / (1.0 + Math.exp(getLogOdds(x, y, z)));
+    }
+
+    /**
+     * Returns the number of nodes stored in the map, including nodes that
+     * have been pruned into tiles.
+     * @return the number of nodes.
+     */
+    public int getNodeCount() {
+        return _nodes.size;
+    }
+
+    /**
+     * Returns the number of leaves stored in the map, including leaf tiles
+     * that are not unknown.  Leaves within nodes that have been pruned into
+     * tiles are not counted.
+     * @return the number of leaves.
+     */
+    public int getLeafCount() {
+        int count = 0;
+        for (Node node : _nodes.slots) {
+            if (node == null || node.leaves == null) continue;
+            for (int slot = 0; slot < NODE_LEAVES; slot++) {
+                if (node.leaves[slot] != null || node.tiles[slot] != 0) count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Returns the number of leaves that store a value for every voxel.
+     * @return the number of dense leaves.
+     */
+    public int getDenseLeafCount() {
+        int count = 0;
+        for (Node node : _nodes.slots) {
+            if (node != null) count += node.leafCount;
+        }
+        return count;
+    }
+
+    /**
+     * Returns the size of each voxel, in world units.
+     * @return the size of each voxel.
+     */
+    public double getResolution() {
+        return _resolution;
+    }
+
+    /**
+     * Writes the map in a compact binary form, with the nodes in order of
+     * their keys.  Uniform nodes are written as a single byte, and other
+     * nodes as a byte for each leaf tile followed by their dense leaves.
+     *
+     * @param out the output to which the map is written.
+     * @throws IOException if the map cannot be written.
+     */
+    public void write(DataOutput out) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeDouble(_origin[0]);
+        out.writeDouble(_origin[1]);
+        out.writeDouble(_origin[2]);
+        out.writeDouble(_resolution);
+        out.writeByte(_hit);
+        out.writeByte(_miss);
+        out.writeByte(_min);
+        out.writeByte(_max);
+
+        long[] keys = new long[_nodes.size];
+        int k = 0;
+        for (Node node : _nodes.slots) {
+            if (node != null) keys[k++] = node.key;
+        }
+        Arrays.sort(keys);
+
+        out.writeInt(keys.length);
+        for (long key : keys) {
+            Node node = _nodes.get(key);
+            out.writeLong(key);
+            if (node.leaves == null) {
+                out.writeByte(0);
+                out.writeByte(node.tile);
+            } else {
+                out.writeByte(1);
+                out.write(node.tiles);
+                out.writeShort(node.leafCount);
+                for (int slot = 0; slot < NODE_LEAVES; slot++) {
+                    if (node.leaves[slot] != null) {
+                        out.writeShort(slot);
+                        out.write(node.leaves[slot].values);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads a map that was written by write(DataOutput).
+     *
+     * @param in the input from which the map is read.
+     * @return the map that was read.
+     * @throws IOException if the map cannot be read or is not a valid map.
+     */
+    public static SparseOccupancyMap read(DataInput in) throws IOException {
+        if (in.readInt() != MAGIC)
+            throw new IOException("Not a sparse occupancy map.");
+
+        SparseOccupancyMap map = new SparseOccupancyMap(
+                in.readDouble(), in.readDouble(), in.readDouble(), in.readDouble());
+        map._hit = in.readByte();
+        map._miss = in.readByte();
+        map._min = in.readByte();
+        map._max = in.readByte();
+
+        int count = in.readInt();
+        for (int i = 0; i < count; i++) {
+            Node node = new Node(in.readLong());
+            int type = in.readByte();
+            if (type == 0) {
+                node.tile = in.readByte();
+            } else if (type == 1) {
+                node.expand();
+                in.readFully(node.tiles);
+                int leaves = in.readUnsignedShort();
+                for (int l = 0; l < leaves; l++) {
+                    int slot = in.readUnsignedShort();
+                    if (slot >= NODE_LEAVES || node.leaves[slot] != null)
+                        throw new IOException("Invalid leaf slot " + slot + ".");
+
+                    Leaf leaf = new Leaf(node, slot);
+                    leaf.values = new byte[LEAF_VOXELS];
+                    in.readFully(leaf.values);
+                    node.leaves[slot] = leaf;
+                    node.leafCount++;
+                }
+            } else {
+                throw new IOException("Invalid node type " + type + ".");
+            }
+            map._nodes.put(node);
+        }
+
+        return map;
+    }
+}
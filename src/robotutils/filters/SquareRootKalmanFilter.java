@@ -0,0 +1,342 @@
+/*
+ * Copyright (c) 2008, Prasanna Velagapudi <pkv@cs.cmu.edu>
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the project nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE PROJECT AND CONTRIBUTORS ''AS IS'' AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE PROJECT AND CONTRIBUTORS BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package robotutils.filters;
+
+import java.util.Arrays;
+import org.apache.commons.math.linear.RealMatrix;
+
+/**
+ * A Kalman filter that propagates a lower triangular square root S of the
+ * state covariance (such that P = S * S') instead of the covariance itself.
+ * The covariance that it represents is always symmetric and positive
+ * semidefinite, and the square root has half the dynamic range of the
+ * covariance, so the filter remains numerically stable over very long runs
+ * without needing to be reset.
+ *
+ * Both steps are computed using orthogonal (Householder) transformations of
+ * combined square root arrays, so the innovation covariance is never
+ * inverted.  The noise matrices are factored when they change.  The filter
+ * has the same interface as KalmanFilter.
+ *
+ * @see KalmanFilter
+ * @author Prasanna Velagapudi <pkv@cs.cmu.edu>
+ */
+public class SquareRootKalmanFilter extends KalmanFilter {
+
+    /**
+     * Dimension of the state.
+     */
+    protected final int _n;
+
+    /**
+     * Current state estimate [n].
+     */
+    protected final double[] _xs;
+
+    /**
+     * Lower triangular square root of the state covariance [n x n].
+     */
+    protected final double[] _S;
+
+    /**
+     * The most recently computed Kalman gain [n x m].
+     */
+    private double[] _gain;
+    private int _gainCols;
+
+    // Most recent noise matrices and their square roots
+    private double[] _lastQ, _sqrtQ;
+    private double[] _lastR, _sqrtR;
+
+    /**
+     * Constructs a square root Kalman filter with no default motion and
+     * observation models.
+     * @param x the initial state estimate.
+     * @param P the initial state covariance.
+     */
+    public SquareRootKalmanFilter(RealMatrix x, RealMatrix P) {
+        super(x, P);
+
+        _n = x.getRowDimension();
+        _xs = MatrixOps.toArray(x);
+        _S = new double[_n * _n];
+        setStateCov(P);
+    }
+
+    /**
+     * Constructs a square root Kalman filter with a default motion model and
+     * no default observation model.
+     * @param x the initial state estimate.
+     * @param P the initial state covariance.
+     * @param F the default process model.
+     * @param Q the default process noise.
+     * @param B the default control model.
+     */
+    public SquareRootKalmanFilter(RealMatrix x, RealMatrix P,
+            RealMatrix F, RealMatrix Q, RealMatrix B) {
+        this(x, P);
+
+        _F = F;
+        _Q = Q;
+        _B = B;
+    }
+
+    /**
+     * Constructs a square root Kalman filter with a default motion model and
+     * default observation model.
+     * @param x the initial state estimate.
+     * @param P the initial state covariance.
+     * @param F the default process model.
+     * @param Q the default process noise.
+     * @param B the default control model.
+     * @param H the default observation model.
+     * @param R the default observation noise.
+     */
+    public SquareRootKalmanFilter(RealMatrix x, RealMatrix P,
+            RealMatrix F, RealMatrix Q, RealMatrix B,
+            RealMatrix H, RealMatrix R) {
+        this(x, P, F, Q, B);
+
+        _H = H;
+        _R = R;
+    }
+
+    /**
+     * Uses the previous state estimate and the provided motion model to
+     * produce an estimate of the current state.  The square root of the
+     * predicted covariance is obtained by triangularizing [F * S, sqrt(Q)]'.
+     * @param F the process model.
+     * @param Q the process noise.
+     * @param B the control model (may be null if there is no control input).
+     * @param u the current control input (may be null).
+     */
+    @Override
+    public void predict(RealMatrix F, RealMatrix Q, RealMatrix B, RealMatrix u) {
+        final int n = _n;
+        double[] f = MatrixOps.toArray(F);
+
+        // Predict state: x = F * x + B * u
+        double[] x = new double[n];
+        MatrixOps.multiplyVector(f, _xs, x, n, n, false);
+        if (B != null && u != null)
+            MatrixOps.multiplyVector(MatrixOps.toArray(B), MatrixOps.toArray(u),
+                    x, n, B.getColumnDimension(), true);
+        System.arraycopy(x, 0, _xs, 0, n);
+
+        // Predict square root of covariance from the array [F * S, sqrt(Q)]'
+        double[] sqrtQ = sqrtQ(Q);
+        double[] FS = new double[n * n];
+        MatrixOps.multiply(f, _S, FS, n, n, n);
+
+        double[] A = new double[2 * n * n];
+        for (int i = 0; i < n; i++) {
+            for (int j = 0; j < n; j++) {
+                A[j * n + i] = FS[i * n + j];
+                A[(n + j) * n + i] = sqrtQ[i * n + j];
+            }
+        }
+        MatrixOps.triangularize(A, 2 * n, n);
+
+        for (int i = 0; i < n; i++) {
+            for (int j = 0; j < n; j++) {
+                _S[i * n + j] = (j <= i) ? A[j * n + i] : 0.0;
+            }
+        }
+    }
+
+    /**
+     * Current measurement information is used to refine the state estimate
+     * using the provided observation model.  The update triangularizes the
+     * array [sqrt(R), H * S; 0, S]', which yields the square roots of the
+     * innovation covariance and of the updated state covariance, along with
+     * a scaled Kalman gain.
+     * @param H the observation model.
+     * @param R the observation noise.
+     * @param z the current measurement.
+     */
+    @Override
+    public void update(RealMatrix H, RealMatrix R, RealMatrix z) {
+        final int n = _n;
+        final int m = H.getRowDimension();
+        final int d = m + n;
+        double[] h = MatrixOps.toArray(H);
+        double[] sqrtR = sqrtR(R);
+
+        // Innovation: y = z - H * x
+        double[] y = MatrixOps.toArray(z);
+        for (int i = 0; i < m; i++) {
+            double s = 0.0;
+            for (int j = 0; j < n; j++) {
+                s += h[i * n + j] * _xs[j];
+            }
+            y[i] -= s;
+        }
+
+        // Construct the transpose of the pre-array and triangularize it
+        double[] HS = new double[m * n];
+        MatrixOps.multiply(h, _S, HS, m, n, n);
+
+        double[] A = new double[d * d];
+        for (int i = 0; i < m; i++) {
+            for (int j = 0; j < m; j++) {
+                A[j * d + i] = sqrtR[i * m + j];
+            }
+            for (int j = 0; j < n; j++) {
+                A[(m + j) * d + i] = HS[i * n + j];
+            }
+        }
+        for (int i = 0; i < n; i++) {
+            for (int j = 0; j < n; j++) {
+                A[(m + j) * d + (m + i)] = _S[i * n + j];
+            }
+        }
+        MatrixOps.triangularize(A, d, d);
+
+        // The post-array is L = A', containing [sqrt(Re), 0; Kbar, S+]
+        double[] L = new double[d * d];
+        for (int i = 0; i < d; i++) {
+            for (int j = 0; j <= i; j++) {
+                L[i * d + j] = A[j * d + i];
+            }
+        }
+
+        // Kalman gain: K = Kbar * sqrt(Re)^-1
+        if (_gain == null || _gainCols != m) {
+            _gain = new double[n * m];
+            _gainCols = m;
+        }
+        for (int i = 0; i < n; i++) {
+            for (int c = m - 1; c >= 0; c--) {
+                double s = L[(m + i) * d + c];
+                for (int l = c + 1; l < m; l++) {
+                    s -= L[l * d + c] * _gain[i * m + l];
+                }
+                _gain[i * m + c] = s / L[c * d + c];
+            }
+        }
+
+        // State: x = x + Kbar * (sqrt(Re)^-1 * y)
+        MatrixOps.lowerSolve(L, d, y, m);
+        for (int i = 0; i < n; i++) {
+            double s = 0.0;
+            for (int c = 0; c < m; c++) {
+                s += L[(m + i) * d + c] * y[c];
+            }
+            _xs[i] += s;
+        }
+
+        // Covariance square root: S = S+
+        for (int i = 0; i < n; i++) {
+            for (int j = 0; j < n; j++) {
+                _S[i * n + j] = (j <= i) ? L[(m + i) * d + (m + j)] : 0.0;
+            }
+        }
+    }
+
+    /**
+     * Returns the square root of the process noise, refactoring it only if
+     * it has changed since the last prediction.
+     */
+    private double[] sqrtQ(RealMatrix Q) {
+        double[] q = MatrixOps.toArray(Q);
+        if (_lastQ == null || !Arrays.equals(q, _lastQ)) {
+            double[] sqrt = q.clone();
+            if (!MatrixOps.choleskySemidefinite(sqrt, _n))
+                throw new IllegalArgumentException("Process noise is not positive semidefinite.");
+            _lastQ = q;
+            _sqrtQ = sqrt;
+        }
+        return _sqrtQ;
+    }
+
+    /**
+     * Returns the square root of the observation noise, refactoring it only
+     * if it has changed since the last update.
+     */
+    private double[] sqrtR(RealMatrix R) {
+        double[] r = MatrixOps.toArray(R);
+        if (_lastR == null || !Arrays.equals(r, _lastR)) {
+            double[] sqrt = r.clone();
+            if (!MatrixOps.cholesky(sqrt, R.getRowDimension()))
+                throw new IllegalArgumentException("Observation noise is not positive definite.");
+            _lastR = r;
+            _sqrtR = sqrt;
+        }
+        return _sqrtR;
+    }
+
+    @Override
+    public void setState(RealMatrix x) {
+        double[] xs = MatrixOps.toArray(x);
+        MatrixOps.checkLength(xs, _n, "x");
+        System.arraycopy(xs, 0, _xs, 0, _n);
+    }
+
+    @Override
+    public RealMatrix getState() {
+        return MatrixOps.toMatrix(_xs, _n, 1);
+    }
+
+    /**
+     * Sets the current state covariance, which is factored into its square
+     * root.
+     * @param P the new state covariance.
+     */
+    @Override
+    public void setStateCov(RealMatrix P) {
+        double[] S = MatrixOps.toArray(P);
+        MatrixOps.checkLength(S, _n * _n, "P");
+        if (!MatrixOps.choleskySemidefinite(S, _n))
+            throw new IllegalArgumentException("State covariance is not positive semidefinite.");
+        System.arraycopy(S, 0, _S, 0, _n * _n);
+    }
+
+    /**
+     * Gets the current state covariance, reconstructed from its square root.
+     * @return the current state covariance.
+     */
+    @Override
+    public RealMatrix getStateCov() {
+        double[] P = new double[_n * _n];
+        MatrixOps.multiplyTranspose(_S, _S, P, _n, _n, _n, false);
+        return MatrixOps.toMatrix(P, _n, _n);
+    }
+
+    /**
+     * Gets the lower triangular square root of the current state covariance.
+     * @return the current state covariance square root.
+     */
+    public RealMatrix getStateCovSqrt() {
+        return MatrixOps.toMatrix(_S, _n, _n);
+    }
+
+    @Override
+    public RealMatrix getKalmanGain() {
+        return (_gain == null) ? null : MatrixOps.toMatrix(_gain, _n, _gainCols);
+    }
+}
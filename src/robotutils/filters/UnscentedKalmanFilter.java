@@ -24,53 +24,420 @@
 
 package robotutils.filters;
 
-import org.apache.commons.math.linear.RealMatrix;
+import robotutils.util.ParallelUtils;
 
 /**
- * An extension of the Kalman filter that allows for the motion models to be
- * approximated linearized around the current state using sigma points.
+ * An unscented Kalman filter, which propagates a set of 2n+1 deterministically
+ * chosen sigma points through nonlinear process and observation models
+ * instead of linearizing them around the current state.  This captures the
+ * mean and covariance of the transformed distribution to second order, and
+ * does not require Jacobians of the models.
  *
- * Note that directly using the "set" accessors to the model and observation
- * matrices will have no effect, as these matrices are now generated via the
- * provided linearization functions.
- * 
- * @author Prasanna Velagapudi <pkv@cs.cmu.edu>
+ * The models are provided as functions over arrays of doubles.  Sigma points
+ * are generated from a Cholesky factor of the state covariance, and all
+ * sigma points, moments and gains are computed in preallocated arrays.  When
+ * the models are expensive, the sigma points can be propagated in parallel, in
+ * which case the models must be safe to call from multiple threads.
+ *
+ * Process and observation noise are assumed to be additive.  All matrices are
+ * stored as row-major arrays of doubles.
+ *
+ * @see FixedKalmanFilter
+ * @author Prasanna Velagapudi <psigen@gmail.com>
  */
-public class UnscentedKalmanFilter extends ExtendedKalmanFilter {
+public class UnscentedKalmanFilter {
+
+    /**
+     * A nonlinear process model x' = f(x, u).
+     */
+    public static interface ProcessModel {
+
+        /**
+         * Computes the next state from a state and a control input.
+         *
+         * @param x the current state [n] (must not be modified).
+         * @param u the control input, or null if there is none.
+         * @param result the array that receives the next state [n].
+         */
+        public void propagate(double[] x, double[] u, double[] result);
+    }
+
+    /**
+     * A nonlinear observation model z = h(x).
+     */
+    public static interface ObservationModel {
+
+        /**
+         * Computes the expected measurement of a state.
+         *
+         * @param x the state [n] (must not be modified).
+         * @param result the array that receives the expected measurement [m].
+         */
+        public void observe(double[] x, double[] result);
+    }
+
+    /**
+     * The default spread of the sigma points around the mean.
+     */
+    public static final double DEFAULT_ALPHA = 1e-3;
+
+    /**
+     * The default weighting of the central sigma point for the covariance,
+     * which is optimal for Gaussian distributions.
+     */
+    public static final double DEFAULT_BETA = 2.0;
+
+    /**
+     * The default secondary scaling parameter.
+     */
+    public static final double DEFAULT_KAPPA = 0.0;
+
+    /**
+     * Dimension of the state and of the observations.
+     */
+    protected final int _n, _m;
+
+    /**
+     * Current state estimate [n] and covariance [n x n].
+     */
+    protected final double[] _x, _P;
+
+    /**
+     * Additive process noise [n x n] and observation noise [m x m].
+     */
+    protected final double[] _Q, _R;
+
+    protected ProcessModel _process;
+    protected ObservationModel _observation;
+
+    // Sigma point weights and scaling
+    private final double[] _Wm, _Wc;
+    private double _gamma;
+
+    // Cholesky factor of the state covariance
+    private final double[] _L;
+
+    // Sigma points and their images under the models
+    private final double[][] _X, _Xp, _Z;
+
+    // Workspaces for the update
+    private final double[] _zhat, _S, _Pxz, _Kt, _y;
+
+    private boolean _isParallel = false;
+    private double[] _u;
+    private final ParallelUtils.RangeTask _propagateTask = new ParallelUtils.RangeTask() {
+        public void run(int chunk, int start, int end) {
+            for (int j = start; j < end; j++) {
+                _process.propagate(_X[j], _u, _Xp[j]);
+            }
+        }
+    };
+    private final ParallelUtils.RangeTask _observeTask = new ParallelUtils.RangeTask() {
+        public void run(int chunk, int start, int end) {
+            for (int j = start; j < end; j++) {
+                _observation.observe(_X[j], _Z[j]);
+            }
+        }
+    };
+
+    /**
+     * Constructs an unscented Kalman filter with the given initial state and
+     * models, and zero process and observation noise.
+     *
+     * @param x the initial state estimate [n].
+     * @param P the initial state covariance [n x n].
+     * @param process the process model.
+     * @param observation the observation model.
+     * @param m the dimension of the observations.
+     */
+    public UnscentedKalmanFilter(double[] x, double[] P,
+            ProcessModel process, ObservationModel observation, int m) {
+        if (m < 1)
+            throw new IllegalArgumentException("Invalid observation dimension.");
+
+        int n = x.length;
+        _n = n;
+        _m = m;
+        _process = process;
+        _observation = observation;
+
+        _x = new double[n];
+        _P = new double[n * n];
+        _Q = new double[n * n];
+        _R = new double[m * m];
+        _L = new double[n * n];
+
+        _Wm = new double[2 * n + 1];
+        _Wc = new double[2 * n + 1];
+        _X = new double[2 * n + 1][n];
+        _Xp = new double[2 * n + 1][n];
+        _Z = new double[2 * n + 1][m];
+
+        _zhat = new double[m];
+        _S = new double[m * m];
+        _Pxz = new double[n * m];
+        _Kt = new double[m * n];
+        _y = new double[m];
+
+        setParameters(DEFAULT_ALPHA, DEFAULT_BETA, DEFAULT_KAPPA);
+        setState(x);
+        setStateCov(P);
+    }
+
+    /**
+     * Sets the parameters that determine the placement and weighting of the
+     * sigma points.
+     *
+     * @param alpha the spread of the sigma points around the mean.
+     * @param beta the weighting of the central point for the covariance.
+     * @param kappa the secondary scaling parameter.
+     */
+    public final void setParameters(double alpha, double beta, double kappa) {
+        double lambda = alpha * alpha * (_n + kappa) - _n;
+        double scale = _n + lambda;
+        if (!(scale > 0.0))
+            throw new IllegalArgumentException("Invalid sigma point parameters.");
+
+        _gamma = Math.sqrt(scale);
+        _Wm[0] = lambda / scale;
+        _Wc[0] = lambda / scale + (1.0 - alpha * alpha + beta);
+        for (int j = 1; j < 2 * _n + 1; j++) {
+            _Wm[j] = 0.5 / scale;
+            _Wc[j] = 0.5 / scale;
+        }
+    }
+
+    /**
+     * Enables or disables parallel propagation of the sigma points.  This is
+     * only worthwhile if the models are expensive to evaluate, and requires
+     * them to be thread-safe.
+     *
+     * @param isParallel true if sigma points should be propagated in parallel.
+     */
+    public void setParallel(boolean isParallel) {
+        _isParallel = isParallel;
+    }
+
+    /**
+     * Generates the sigma points of the current state distribution.
+     */
+    private void generateSigmaPoints() {
+        final int n = _n;
+
+        System.arraycopy(_P, 0, _L, 0, n * n);
+        if (!MatrixOps.choleskySemidefinite(_L, n))
+            throw new IllegalStateException("State covariance is not positive semidefinite.");
+
+        System.arraycopy(_x, 0, _X[0], 0, n);
+        for (int i = 0; i < n; i++) {
+            double[] plus = _X[1 + i];
+            double[] minus = _X[1 + n + i];
+            for (int k = 0; k < n; k++) {
+                double d = _gamma * _L[k * n + i];
+                plus[k] = _x[k] + d;
+                minus[k] = _x[k] - d;
+            }
+        }
+    }
+
+    /**
+     * Runs a task over all of the sigma points, in parallel if enabled.
+     */
+    private void forSigmaPoints(ParallelUtils.RangeTask task) {
+        int count = 2 * _n + 1;
+        if (_isParallel) {
+            ParallelUtils.forRange(count, 1, task);
+        } else {
+            task.run(0, 0, count);
+        }
+    }
+
+    /**
+     * Uses the previous state estimate and the process model to produce an
+     * estimate of the current state.
+     *
+     * @param u the current control input, or null if there is none.
+     */
+    public void predict(double[] u) {
+        final int n = _n;
+        final int count = 2 * n + 1;
+
+        generateSigmaPoints();
+        _u = u;
+        try {
+            forSigmaPoints(_propagateTask);
+        } finally {
+            _u = null;
+        }
+
+        // Weighted mean of the propagated points
+        for (int k = 0; k < n; k++) {
+            double s = 0.0;
+            for (int j = 0; j < count; j++) {
+                s += _Wm[j] * _Xp[j][k];
+            }
+            _x[k] = s;
+        }
+
+        // Weighted covariance of the propagated points, plus process noise
+        for (int a = 0; a < n; a++) {
+            for (int b = a; b < n; b++) {
+                double s = _Q[a * n + b];
+                for (int j = 0; j < count; j++) {
+                    s += _Wc[j] * (_Xp[j][a] - _x[a]) * (_Xp[j][b] - _x[b]);
+                }
+                _P[a * n + b] = s;
+                _P[b * n + a] = s;
+            }
+        }
+    }
+
+    /**
+     * Current measurement information is used to refine the state estimate
+     * using the observation model.
+     *
+     * @param z the current measurement [m].
+     * @throws IllegalStateException if the innovation covariance is not positive definite.
+     */
+    public void update(double[] z) {
+        final int n = _n;
+        final int m = _m;
+        final int count = 2 * n + 1;
+
+        generateSigmaPoints();
+        forSigmaPoints(_observeTask);
+
+        // Weighted mean of the expected measurements
+        for (int k = 0; k < m; k++) {
+            double s = 0.0;
+            for (int j = 0; j < count; j++) {
+                s += _Wm[j] * _Z[j][k];
+            }
+            _zhat[k] = s;
+        }
+
+        // Innovation covariance and state-measurement cross covariance
+        for (int a = 0; a < m; a++) {
+            for (int b = a; b < m; b++) {
+                double s = _R[a * m + b];
+                for (int j = 0; j < count; j++) {
+                    s += _Wc[j] * (_Z[j][a] - _zhat[a]) * (_Z[j][b] - _zhat[b]);
+                }
+                _S[a * m + b] = s;
+                _S[b * m + a] = s;
+            }
+        }
+        for (int a = 0; a < n; a++) {
+            for (int b = 0; b < m; b++) {
+                double s = 0.0;
+                for (int j = 0; j < count; j++) {
+                    s += _Wc[j] * (_X[j][a] - _x[a]) * (_Z[j][b] - _zhat[b]);
+                }
+                _Pxz[a * m + b] = s;
+            }
+        }
+
+        // Kalman gain: K' = S^-1 * Pxz'
+        if (!MatrixOps.cholesky(_S, m))
+            throw new IllegalStateException("Innovation covariance is not positive definite.");
+        for (int a = 0; a < n; a++) {
+            for (int b = 0; b < m; b++) {
+                _Kt[b * n + a] = _Pxz[a * m + b];
+            }
+        }
+        MatrixOps.choleskySolve(_S, _Kt, m, n);
+
+        // State and covariance: x = x + K * (z - zhat), P = P - K * Pxz'
+        for (int b = 0; b < m; b++) {
+            _y[b] = z[b] - _zhat[b];
+        }
+        for (int a = 0; a < n; a++) {
+            double s = 0.0;
+            for (int b = 0; b < m; b++) {
+                s += _Kt[b * n + a] * _y[b];
+            }
+            _x[a] += s;
+        }
+        for (int a = 0; a < n; a++) {
+            for (int c = a; c < n; c++) {
+                double s = 0.0;
+                for (int b = 0; b < m; b++) {
+                    s += _Kt[b * n + a] * _Pxz[c * m + b];
+                }
+                _P[a * n + c] -= s;
+                if (a != c) _P[c * n + a] -= s;
+            }
+        }
+    }
 
     /**
-     * Constructs an extended Kalman filter with no default motion and
-     * observation models.
-     * @param x the initial state estimate.
-     * @param P the initial state covariance.
+     * Sets the process model.
+     * @param process the new process model.
      */
-    public UnscentedKalmanFilter(RealMatrix x, RealMatrix P) {
-        super(x, P);
+    public void setProcessModel(ProcessModel process) {
+        _process = process;
     }
 
-    @Override
-    protected RealMatrix F(RealMatrix x) {
-        throw new UnsupportedOperationException("Not supported yet.");
+    /**
+     * Sets the observation model.
+     * @param observation the new observation model.
+     */
+    public void setObsModel(ObservationModel observation) {
+        _observation = observation;
     }
 
-    @Override
-    protected RealMatrix Q(RealMatrix x) {
-        throw new UnsupportedOperationException("Not supported yet.");
+    /**
+     * Sets the additive process noise.
+     * @param Q the new process noise [n x n].
+     */
+    public void setProcessNoise(double[] Q) {
+        set(Q, _Q, "Q");
     }
 
-    @Override
-    protected RealMatrix B(RealMatrix x) {
-        throw new UnsupportedOperationException("Not supported yet.");
+    /**
+     * Sets the additive observation noise.
+     * @param R the new observation noise [m x m].
+     */
+    public void setObsNoise(double[] R) {
+        set(R, _R, "R");
     }
 
-    @Override
-    protected RealMatrix H(RealMatrix x) {
-        throw new UnsupportedOperationException("Not supported yet.");
+    /**
+     * Sets the current state estimate.
+     * @param x the new state estimate [n].
+     */
+    public final void setState(double[] x) {
+        set(x, _x, "x");
+    }
+
+    /**
+     * Copies the current state estimate into an array.
+     * @param x the array that receives the state estimate [n].
+     */
+    public void getState(double[] x) {
+        MatrixOps.checkLength(x, _n, "x");
+        System.arraycopy(_x, 0, x, 0, _n);
+    }
+
+    /**
+     * Sets the current state covariance.
+     * @param P the new state covariance [n x n].
+     */
+    public final void setStateCov(double[] P) {
+        set(P, _P, "P");
     }
 
-    @Override
-    protected RealMatrix R(RealMatrix x) {
-        throw new UnsupportedOperationException("Not supported yet.");
+    /**
+     * Copies the current state covariance into an array.
+     * @param P the array that receives the state covariance [n x n].
+     */
+    public void getStateCov(double[] P) {
+        MatrixOps.checkLength(P, _n * _n, "P");
+        System.arraycopy(_P, 0, P, 0, _n * _n);
     }
 
+    private static void set(double[] src, double[] dst, String name) {
+        MatrixOps.checkLength(src, dst.length, name);
+        System.arraycopy(src, 0, dst, 0, dst.length);
+    }
 }
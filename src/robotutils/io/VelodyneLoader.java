@@ -33,6 +33,7 @@ import java.io.FileNotFoundException;
 import java.io.FileReader;
 import java.io.FilenameFilter;
 import java.io.IOException;
+import java.util.Arrays;
 import java.util.regex.Pattern;
 import robotutils.Pose3D;
 import robotutils.filters.OccupancyMap;
@@ -45,6 +46,11 @@ import robotutils.filters.OccupancyMap;
 public class VelodyneLoader {
     private static Pattern linePat = Pattern.compile(" *, *");
 
+    /**
+     * The maximum number of rays that are integrated as a single scan.
+     */
+    public static final int MAX_SCAN_RAYS = 100000;
+
     BufferedReader state;
     BufferedReader laser;
 
@@ -162,12 +168,18 @@ public class VelodyneLoader {
     public static void loadData(OccupancyMap omap, VelodyneLoader vl) {
         Ray r = new Ray();
 
+        // Rays from the same vehicle state are integrated as a single scan
+        double[] pos = null;
+        double[] rays = new double[3 * MAX_SCAN_RAYS];
+        int count = 0;
+
         for (int i = 1; i < 10000000; i++) {
             // Get next scan
             for (int j = 1; j < 100; j++) {
                 r = vl.step();
-                if (r == null) return;
+                if (r == null) break;
             }
+            if (r == null) break;
 
             // Add scan to occupancy grid
             if (r.ray[0] == 0) {
@@ -179,12 +191,25 @@ public class VelodyneLoader {
             if (r.ray[2] == 0) {
                 continue;
             }
-            omap.addScan(r.pos, r.ray);
+
+            // Add the accumulated rays to the occupancy grid once the
+            // vehicle has moved or the scan is full
+            if (count > 0 && (count == MAX_SCAN_RAYS || !Arrays.equals(pos, r.pos))) {
+                omap.addScan(pos, rays, count);
+                count = 0;
+            }
+            pos = r.pos;
+            System.arraycopy(r.ray, 0, rays, 3 * count, 3);
+            count++;
 
             // On certain intervals output iteration number
             if (i % 10000 == 0) {
                 System.out.println("i = " + i);
             }
         }
+
+        if (count > 0) {
+            omap.addScan(pos, rays, count);
+        }
     }
 }
@@ -32,7 +32,6 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
@@ -62,6 +61,8 @@ public abstract class AStar<State> {
         double g = Double.POSITIVE_INFINITY;
         double h = Double.POSITIVE_INFINITY;
         double f = Double.POSITIVE_INFINITY;
+        boolean open = false;
+        boolean closed = false;
     }
 
     /**
@@ -115,6 +116,17 @@ public abstract class AStar<State> {
      */
     protected abstract double c(State a, State b);
 
+    /**
+     * Creates the map used to store the scores of each state visited during
+     * a search.  Subclasses can override this to provide a map that is
+     * specialized for their state representation.
+     * 
+     * @return an empty map from states to scores.
+     */
+    protected Map<State, Score<State>> createScoreMap() {
+        return new HashMap<State, Score<State>>(INITIAL_CAPACITY);
+    }
+
     /**
      * Adapted from wikipedia entry
      */
@@ -125,9 +137,9 @@ public abstract class AStar<State> {
             return Collections.emptyList();
         }
 
-        // Create open and closed sets, and a map to store node meta-info
-        HashMap<State, Score<State>> scores = new HashMap(INITIAL_CAPACITY);
-        HashSet<State> closed = new HashSet();
+        // Create an open set, and a map to store node meta-info (including
+        // whether each node is currently in the open or closed sets)
+        Map<State, Score<State>> scores = createScoreMap();
         PriorityQueue<State> open = new PriorityQueue(INITIAL_CAPACITY, new ScoreComparator(scores));
 
         // Insert the start node into our search tree
@@ -135,6 +147,7 @@ public abstract class AStar<State> {
         startScore.g = 0;
         startScore.h = h(start, goal);
         startScore.f = startScore.h;
+        startScore.open = true;
         scores.put(start, startScore);
         open.add(start);
 
@@ -143,6 +156,8 @@ public abstract class AStar<State> {
 
             // Get the node at the top of the priority queue
             State x = open.poll();
+            Score<State> xScore = scores.get(x);
+            xScore.open = false;
 
             // If we reach the goal, traverse backwards to build a path
             if (x.equals(goal)) {
@@ -162,27 +177,31 @@ public abstract class AStar<State> {
             }
 
             // The node is now closed -- no more searching it!
-            closed.add(x);
+            xScore.closed = true;
 
             // Search each of this node's neighbors
             for (State y : succ(x)) {
 
                 // Find the neighbor and make sure it has metadata
-                if (!scores.containsKey(y)) scores.put(y, new Score());
+                Score<State> yScore = scores.get(y);
+                if (yScore == null) {
+                    yScore = new Score<State>();
+                    scores.put(y, yScore);
+                }
 
                 // If the neighbor was already searched, ignore it
-                if (closed.contains(y)) continue;
+                if (yScore.closed) continue;
 
                 // Get the current estimate of the distance to goal
-                double tentativeGScore = scores.get(x).g + c(x, y);
+                double tentativeGScore = xScore.g + c(x, y);
                 boolean tentativeIsBetter;
                 boolean isInOpenSet;
                 
                 // If the node is unopened, or we have a better score, update
-                if (!open.contains(y)) {
+                if (!yScore.open) {
                     tentativeIsBetter = true;
                     isInOpenSet = false;
-                } else if (tentativeGScore < scores.get(y).g) {
+                } else if (tentativeGScore < yScore.g) {
                     tentativeIsBetter = true;
                     isInOpenSet = true;
                 } else {
@@ -192,7 +211,6 @@ public abstract class AStar<State> {
 
                 // Update the node with the new score
                 if (tentativeIsBetter) {
-                    Score yScore = scores.get(y);
                     yScore.prev = x;
                     yScore.g = tentativeGScore;
                     yScore.h = h(y, goal);
@@ -203,6 +221,7 @@ public abstract class AStar<State> {
                     if (isInOpenSet) {
                         open.update(y);
                     } else {
+                        yScore.open = true;
                         open.add(y);
                     }
                 }
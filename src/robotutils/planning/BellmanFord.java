@@ -30,6 +30,7 @@ import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Implementation of the Bellman–Ford algorithm, a graph search algorithm that
@@ -57,7 +58,7 @@ public abstract class BellmanFord<State> {
      * @see BellmanFord#pathTo(java.lang.Object) 
      * @see BellmanFord#costTo(java.lang.Object)
      */
-    private LinkedHashMap<State, Score<State>> _scores = new LinkedHashMap(INITIAL_CAPACITY);
+    private Map<State, Score<State>> _scores = null;
 
     /**
      * Contains the source node for the currently cached search.  Accessible
@@ -102,6 +103,18 @@ public abstract class BellmanFord<State> {
      */
     protected abstract double c(State a, State b);
 
+    /**
+     * Creates the map used to store the scores of each state reachable from
+     * the source of a search.  Subclasses can override this to provide a map
+     * that is specialized for their state representation, but the map must
+     * iterate over states in a consistent order between calls.
+     *
+     * @return an empty map from states to scores.
+     */
+    protected Map<State, Score<State>> createScoreMap() {
+        return new LinkedHashMap<State, Score<State>>(INITIAL_CAPACITY);
+    }
+
     /**
      * Performs a search for the shortest (lowest cost) path from the specified
      * start node to every other node that is reachable from the start node.
@@ -124,7 +137,11 @@ public abstract class BellmanFord<State> {
         // Add the source node (has zero distance, and no previous node)
         Score<State> startScore = new Score();
         startScore.dist = 0.0;
-        _scores.clear();
+        if (_scores == null) {
+            _scores = createScoreMap();
+        } else {
+            _scores.clear();
+        }
         _scores.put(_source, startScore);
         
 
@@ -149,9 +166,10 @@ public abstract class BellmanFord<State> {
 
         // Step 2: relax edges repeatedly
         for (int i = 0; i < _scores.size() - 1; ++i) {
-            for (State u : _scores.keySet()) {
+            for (Map.Entry<State, Score<State>> entry : _scores.entrySet()) {
+                State u = entry.getKey();
+                Score<State> uScore = entry.getValue();
                 for (State v : succ(u)) {
-                    Score<State> uScore = _scores.get(u);
                     Score<State> vScore = _scores.get(v);
                     double uvCost = c(u, v);
 
@@ -164,9 +182,10 @@ public abstract class BellmanFord<State> {
         }
 
         // Step 3: check for negative-weight cycles
-        for (State u : _scores.keySet()) {
+        for (Map.Entry<State, Score<State>> entry : _scores.entrySet()) {
+            State u = entry.getKey();
+            Score<State> uScore = entry.getValue();
             for (State v : succ(u)) {
-                Score<State> uScore = _scores.get(u);
                 Score<State> vScore = _scores.get(v);
                 double uvCost = c(u, v);
 
@@ -212,6 +231,9 @@ public abstract class BellmanFord<State> {
         // Iterate backwards to reach the start
         while (!curr.equals(_source)) {
             Score<State> currScore = _scores.get(curr);
+            if (currScore == null)
+                return Collections.EMPTY_LIST;
+
             path.addFirst(currScore.prev);
             curr = currScore.prev;
 
@@ -233,8 +255,9 @@ public abstract class BellmanFord<State> {
         // Can't find a path if no valid search occurred
         if (_source == null)
             return Double.POSITIVE_INFINITY;
-        else if (_scores.containsKey(goal)) {
-            return _scores.get(goal).dist;
+        Score<State> goalScore = _scores.get(goal);
+        if (goalScore != null) {
+            return goalScore.dist;
         } else {
             return Double.POSITIVE_INFINITY;
         }
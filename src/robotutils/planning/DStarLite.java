@@ -99,14 +99,16 @@ public abstract class DStarLite<State> {
     /**
      * A simple wrapper to a HashMap that returns infinity if a match is not
      * found.  This cheaply implements the lookup behavior required by D*.
+     * Subclasses may replace the underlying storage with a representation that
+     * is specialized for their state type.
+     *
+     * @see DStarLite#createValueMap()
      */
-    final class ValueMap extends HashMap<State, Double> {
-
-        @Override
-        public Double get(Object key) {
+    protected class ValueMap {
+        private final HashMap<State, Double> _values = new HashMap<State, Double>(INITIAL_CAPACITY);
 
-            @SuppressWarnings("element-type-mismatch")
-            Double res = super.get(key);
+        public double get(State key) {
+            Double res = _values.get(key);
 
             if (res == null) {
                 return Double.POSITIVE_INFINITY;
@@ -114,6 +116,10 @@ public abstract class DStarLite<State> {
                 return res;
             }
         }
+
+        public void put(State key, double value) {
+            _values.put(key, value);
+        }
     }
 
     /**
@@ -255,12 +261,25 @@ public abstract class DStarLite<State> {
     protected State _start;
     protected final State _goal;
 
-    final ValueMap _rhs = new ValueMap();
-    final ValueMap _g = new ValueMap();
+    final ValueMap _rhs = createValueMap();
+    final ValueMap _g = createValueMap();
 
     final KeyQueue _U = new KeyQueue();
     double _Km = 0;
 
+    /**
+     * Creates a map used to store the g and rhs values of states, in which
+     * states that have no value are treated as having a value of infinity.
+     *
+     * This function is called during construction of this object, so
+     * implementations must not depend on any fields of a subclass.
+     *
+     * @return an empty map from states to values.
+     */
+    protected ValueMap createValueMap() {
+        return new ValueMap();
+    }
+
     /**
      * Initializes a D* search object with the specified start and goal states.
      * This constructor roughly corresponds to the <i>initialize()<i> function
@@ -28,9 +28,11 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 import robotutils.data.CoordUtils;
 import robotutils.data.GridMap;
 import robotutils.data.IntCoord;
+import robotutils.data.IntCoordMap;
 
 /**
  * Implementation of the A* algorithm that solves the planning problem for
@@ -80,6 +82,20 @@ public class GridAStar extends AStar<IntCoord> {
         return nbrs;
     }
 
+    /**
+     * Stores scores in a map keyed by packed coordinates, which avoids
+     * hashing coordinate arrays for maps of up to three dimensions.
+     * @return an empty map from states to scores.
+     */
+    @Override
+    protected Map<IntCoord, Score<IntCoord>> createScoreMap() {
+        if (_map.dims() <= 3) {
+            return new IntCoordMap<Score<IntCoord>>(_map.dims(), INITIAL_CAPACITY);
+        } else {
+            return super.createScoreMap();
+        }
+    }
+
     @Override
     protected Collection<IntCoord> succ(IntCoord s) {
         return nbrs(s);
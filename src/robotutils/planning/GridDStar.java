@@ -32,6 +32,7 @@ import java.util.List;
 import robotutils.data.CoordUtils;
 import robotutils.data.GridMap;
 import robotutils.data.IntCoord;
+import robotutils.util.LongDoubleHashMap;
 
 /**
  * Implementation of the D*-lite algorithm that solves the planning problem for
@@ -59,6 +60,43 @@ public class GridDStar extends DStarLite<IntCoord> {
         _map = map;
     }
 
+    /**
+     * A value map that stores values in an open-addressing table keyed by
+     * packed coordinates.  Since this map is created before the grid map is
+     * known, the dimension of the keys is taken from the first coordinate that
+     * is stored, and any coordinates that cannot be packed are stored in the
+     * default map instead.
+     */
+    class PackedValueMap extends ValueMap {
+        private final LongDoubleHashMap _packed =
+                new LongDoubleHashMap(INITIAL_CAPACITY, Double.POSITIVE_INFINITY);
+        private int _dims = -1;
+
+        private boolean isPacked(IntCoord key) {
+            if (_dims < 0 && key.dims() <= 3) _dims = key.dims();
+            return key.dims() == _dims && key.isPackable();
+        }
+
+        @Override
+        public double get(IntCoord key) {
+            return isPacked(key) ? _packed.get(key.pack()) : super.get(key);
+        }
+
+        @Override
+        public void put(IntCoord key, double value) {
+            if (isPacked(key)) {
+                _packed.put(key.pack(), value);
+            } else {
+                super.put(key, value);
+            }
+        }
+    }
+
+    @Override
+    protected ValueMap createValueMap() {
+        return new PackedValueMap();
+    }
+
     /**
      * Returns a list of neighbors to the current grid cell, excluding neighbor
      * cells that have negative cost values.
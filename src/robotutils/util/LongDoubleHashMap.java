@@ -0,0 +1,200 @@
+/*
+ *  The MIT License
+ * 
+ *  Copyright 2011 Prasanna Velagapudi <psigen@gmail.com>.
+ * 
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ * 
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ * 
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+
+package robotutils.util;
+
+import java.util.Arrays;
+
+/**
+ * An open-addressing hash map from primitive long keys to primitive double
+ * values.  Lookups of missing keys return a configurable default value, and
+ * no objects are allocated by any operation other than a resize.
+ *
+ * Collisions are resolved by linear probing, and removals shift subsequent
+ * entries backwards, so the table never accumulates deleted markers.
+ */
+public class LongDoubleHashMap {
+
+    /**
+     * The maximum fraction of slots that may be occupied before the table
+     * is doubled in size.
+     */
+    private static final double LOAD_FACTOR = 0.5;
+
+    long[] _keys;
+    double[] _values;
+    boolean[] _used;
+    int _mask;
+    int _size = 0;
+    final double _default;
+
+    /**
+     * Constructs an empty map.
+     * @param capacity the number of entries that can be stored without resizing.
+     * @param defaultValue the value returned when a key is not in the map.
+     */
+    public LongDoubleHashMap(int capacity, double defaultValue) {
+        int slots = Integer.highestOneBit(Math.max(2, (int)(capacity / LOAD_FACTOR)) - 1) << 1;
+        _keys = new long[slots];
+        _values = new double[slots];
+        _used = new boolean[slots];
+        _mask = slots - 1;
+        _default = defaultValue;
+    }
+
+    /**
+     * Scrambles the bits of a key so that nearby keys (such as packed
+     * neighboring coordinates) are spread across the table.
+     * @param key the key being hashed.
+     * @return a well-mixed hash of the key.
+     */
+    public static int hash(long key) {
+        key *= 0x9E3779B97F4A7C15L;
+        return (int)(key ^ (key >>> 32));
+    }
+
+    /**
+     * Finds the slot that contains the key, or the empty slot where it
+     * would be inserted.
+     */
+    private int slot(long key) {
+        int i = hash(key) & _mask;
+        while (_used[i] && _keys[i] != key) {
+            i = (i + 1) & _mask;
+        }
+        return i;
+    }
+
+    /**
+     * Returns the value associated with a key.
+     * @param key the key being looked up.
+     * @return the value of the key, or the default value if there is none.
+     */
+    public double get(long key) {
+        int i = slot(key);
+        return _used[i] ? _values[i] : _default;
+    }
+
+    /**
+     * Returns true if the map contains an entry for the key.
+     * @param key the key being looked up.
+     * @return true if the key has an associated value.
+     */
+    public boolean containsKey(long key) {
+        return _used[slot(key)];
+    }
+
+    /**
+     * Associates a value with a key, replacing any previous value.
+     * @param key the key being stored.
+     * @param value the new value of the key.
+     */
+    public void put(long key, double value) {
+        int i = slot(key);
+        if (_used[i]) {
+            _values[i] = value;
+            return;
+        }
+
+        _used[i] = true;
+        _keys[i] = key;
+        _values[i] = value;
+
+        if (++_size > LOAD_FACTOR * _keys.length) {
+            rehash(2 * _keys.length);
+        }
+    }
+
+    /**
+     * Removes the entry for a key, if one exists.
+     * @param key the key being removed.
+     * @return true if an entry was removed.
+     */
+    public boolean remove(long key) {
+        int i = slot(key);
+        if (!_used[i]) return false;
+
+        // Shift back any later entries in the probe sequence
+        int j = i;
+        while (true) {
+            j = (j + 1) & _mask;
+            if (!_used[j]) break;
+
+            int home = hash(_keys[j]) & _mask;
+            if (((j - home) & _mask) >= ((j - i) & _mask)) {
+                _keys[i] = _keys[j];
+                _values[i] = _values[j];
+                i = j;
+            }
+        }
+
+        _used[i] = false;
+        _size--;
+        return true;
+    }
+
+    /**
+     * Returns the number of entries in the map.
+     * @return the number of entries in the map.
+     */
+    public int size() {
+        return _size;
+    }
+
+    /**
+     * Returns true if the map contains no entries.
+     * @return true if the map is empty.
+     */
+    public boolean isEmpty() {
+        return _size == 0;
+    }
+
+    /**
+     * Removes every entry from the map, keeping its current capacity.
+     */
+    public void clear() {
+        Arrays.fill(_used, false);
+        _size = 0;
+    }
+
+    private void rehash(int slots) {
+        long[] keys = _keys;
+        double[] values = _values;
+        boolean[] used = _used;
+
+        _keys = new long[slots];
+        _values = new double[slots];
+        _used = new boolean[slots];
+        _mask = slots - 1;
+
+        for (int j = 0; j < keys.length; j++) {
+            if (used[j]) {
+                int i = slot(keys[j]);
+                _used[i] = true;
+                _keys[i] = keys[j];
+                _values[i] = values[j];
+            }
+        }
+    }
+}
@@ -0,0 +1,150 @@
+/*
+ *  The MIT License
+ * 
+ *  Copyright 2011 Prasanna Velagapudi <psigen@gmail.com>.
+ * 
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ * 
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ * 
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+
+package robotutils.util;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Contains helper methods for splitting bulk operations over large arrays
+ * into chunks that are executed in parallel on a shared fork/join pool.
+ *
+ * Work is divided into fixed-size chunks of contiguous indices, so that a
+ * task can keep partial results (e.g. for a reduction) in a slot per chunk
+ * and combine them once all chunks have completed.
+ */
+public class ParallelUtils {
+
+    /**
+     * The default number of elements processed by a single chunk.  Ranges
+     * smaller than this are simply executed on the calling thread.
+     */
+    public static final int DEFAULT_GRAIN = 1 << 16;
+
+    /**
+     * The pool that is shared by all parallel bulk operations.
+     */
+    private static final ForkJoinPool _pool = new ForkJoinPool();
+
+    /**
+     * A unit of work over a contiguous range of indices.
+     */
+    public interface RangeTask {
+
+        /**
+         * Processes the indices in the range [start, end).
+         * @param chunk the index of this chunk, in the range [0, chunks).
+         * @param start the first index in the range (inclusive).
+         * @param end the last index in the range (exclusive).
+         */
+        public void run(int chunk, int start, int end);
+    }
+
+    /**
+     * Recursively splits a set of chunks until a single chunk remains, and
+     * then runs the task over the corresponding index range.
+     */
+    private static final class RangeAction extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        final RangeTask _task;
+        final int _length;
+        final int _grain;
+        final int _lo;
+        final int _hi;
+
+        RangeAction(RangeTask task, int length, int grain, int lo, int hi) {
+            _task = task;
+            _length = length;
+            _grain = grain;
+            _lo = lo;
+            _hi = hi;
+        }
+
+        @Override
+        protected void compute() {
+            if (_hi - _lo == 1) {
+                int start = _lo * _grain;
+                _task.run(_lo, start, start + Math.min(_grain, _length - start));
+            } else {
+                int mid = (_lo + _hi) >>> 1;
+                invokeAll(new RangeAction(_task, _length, _grain, _lo, mid),
+                          new RangeAction(_task, _length, _grain, mid, _hi));
+            }
+        }
+    }
+
+    /**
+     * Returns the pool used to execute parallel operations.
+     * @return the shared fork/join pool.
+     */
+    public static ForkJoinPool pool() {
+        return _pool;
+    }
+
+    /**
+     * Returns the number of chunks that a range of the given length will be
+     * split into using the specified grain size.
+     * @param length the number of elements in the range.
+     * @param grain the maximum number of elements in a single chunk.
+     * @return the number of chunks needed to cover the range.
+     */
+    public static int chunks(int length, int grain) {
+        if (grain <= 0)
+            throw new IllegalArgumentException("Grain size must be positive.");
+
+        // Avoids overflowing length + grain for lengths near Integer.MAX_VALUE
+        return (length > 0) ? (length - 1) / grain + 1 : 0;
+    }
+
+    /**
+     * Runs a task over the range [0, length) using the default grain size.
+     * @see ParallelUtils#forRange(int, int, robotutils.util.ParallelUtils.RangeTask)
+     */
+    public static void forRange(int length, RangeTask task) {
+        forRange(length, DEFAULT_GRAIN, task);
+    }
+
+    /**
+     * Runs a task over the range [0, length), splitting the range into
+     * chunks of at most <i>grain</i> elements that are executed in parallel.
+     * This function blocks until every chunk has been processed.
+     * 
+     * @param length the number of elements in the range.
+     * @param grain the maximum number of elements in a single chunk.
+     * @param task the task that will process each chunk.
+     */
+    public static void forRange(int length, int grain, RangeTask task) {
+        int chunks = chunks(length, grain);
+
+        if (chunks == 0) {
+            return;
+        } else if (chunks == 1) {
+            task.run(0, 0, length);
+        } else {
+            _pool.invoke(new RangeAction(task, length, grain, 0, chunks));
+        }
+    }
+}
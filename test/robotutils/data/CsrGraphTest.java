@@ -0,0 +1,180 @@
+/*
+ *  The MIT License
+ * 
+ *  Copyright 2010 pkv.
+ * 
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ * 
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ * 
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+
+package robotutils.data;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import org.jgrapht.Graph;
+import org.jgrapht.graph.DefaultWeightedEdge;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Test harness for CsrGraph and the grid map conversions that produce it.
+ * Both conversions are checked against adjacency computed directly from the
+ * map, using obstacles at negative cells and weights of (a + b)/2 + 1.
+ */
+public class CsrGraphTest {
+
+    /**
+     * Creates a small map with a wall of obstacles and a few isolated ones.
+     */
+    private static StaticMap obstacleMap() {
+        StaticMap map = new StaticMap(6, 5);
+        for (int y = 0; y < 5; y++) {
+            for (int x = 0; x < 6; x++) {
+                map.set((byte)((x * 3 + y * 7) % 11), x, y);
+            }
+        }
+
+        for (int y = 0; y < 4; y++) {
+            map.set((byte)-1, 2, y);
+        }
+        map.set((byte)-1, 0, 0);
+        map.set((byte)-128, 5, 4);
+        map.set((byte)-3, 4, 1);
+        return map;
+    }
+
+    /**
+     * Computes the expected edges of the map, keyed by the pair of linear
+     * indices of their endpoints.
+     */
+    private static Map<Long, Double> expectedEdges(StaticMap map) {
+        Map<Long, Double> edges = new HashMap<Long, Double>();
+        int[] sizes = map.sizes();
+
+        for (int y = 0; y < sizes[1]; y++) {
+            for (int x = 0; x < sizes[0]; x++) {
+                byte a = map.get(x, y);
+                if (a < 0) continue;
+
+                if (x + 1 < sizes[0] && map.get(x + 1, y) >= 0) {
+                    edges.put(IndexedGridGraph.edge(x + y * sizes[0], x + 1 + y * sizes[0]),
+                            (a + map.get(x + 1, y))/2.0 + 1.0);
+                }
+                if (y + 1 < sizes[1] && map.get(x, y + 1) >= 0) {
+                    edges.put(IndexedGridGraph.edge(x + y * sizes[0], x + (y + 1) * sizes[0]),
+                            (a + map.get(x, y + 1))/2.0 + 1.0);
+                }
+            }
+        }
+
+        return edges;
+    }
+
+    /**
+     * Test of toCsrGraph method, of class GridMapUtils.
+     */
+    @Test
+    public void testToCsrGraph() {
+        System.out.println("toCsrGraph");
+        StaticMap map = obstacleMap();
+        Map<Long, Double> expected = expectedEdges(map);
+        CsrGraph graph = GridMapUtils.toCsrGraph(map);
+
+        assertEquals(map.length(), graph.idCount());
+        for (int v = 0; v < map.length(); v++) {
+            assertEquals(map.getData()[v] >= 0, graph.containsVertex(v));
+            assertEquals(map.getData()[v] >= 0, graph.vertexSet().contains(v));
+        }
+        assertEquals(map.length() - 7, graph.vertexSet().size());
+
+        // Every edge is stored once, in the row of its lower endpoint
+        Map<Long, Double> actual = new HashMap<Long, Double>();
+        for (Integer e : graph.edgeSet()) {
+            int u = graph.getEdgeSource(e);
+            int v = graph.getEdgeTarget(e);
+            assertTrue(u < v);
+            assertEquals(u, graph.source(e));
+            assertTrue(graph.containsEdge(e));
+            assertEquals(e, graph.getEdge(u, v));
+            assertEquals(e, graph.getEdge(v, u));
+            assertNull(actual.put(IndexedGridGraph.edge(u, v), graph.getEdgeWeight(e)));
+        }
+        assertEquals(expected, actual);
+        assertEquals(expected.size(), graph.edgeSet().size());
+
+        // Arcs stored in the row of the higher endpoint are not edge IDs
+        int[] offsets = graph.offsets();
+        int[] targets = graph.targets();
+        for (int v = 0; v < graph.idCount(); v++) {
+            for (int a = offsets[v]; a < offsets[v + 1]; a++) {
+                assertEquals(v, graph.source(a));
+                assertEquals(targets[a] > v, graph.containsEdge(a));
+                if (a > offsets[v]) assertTrue(targets[a - 1] < targets[a]);
+            }
+        }
+        assertFalse(graph.containsEdge(-1));
+        assertFalse(graph.containsEdge(targets.length));
+
+        // The edges of each vertex are exactly those incident on it
+        for (Integer v : graph.vertexSet()) {
+            Set<Long> incident = new HashSet<Long>();
+            for (Long e : expected.keySet()) {
+                if ((int)(e >>> 32) == v || (int)(long)e == v) incident.add(e);
+            }
+
+            Set<Long> edges = new HashSet<Long>();
+            for (Integer e : graph.edgesOf(v)) {
+                assertTrue(graph.edgesOf(v).contains(e));
+                edges.add(IndexedGridGraph.edge(graph.getEdgeSource(e), graph.getEdgeTarget(e)));
+            }
+            assertEquals(incident, edges);
+            assertEquals(incident.size(), graph.edgesOf(v).size());
+            assertEquals(incident.size(), graph.degreeOf(v));
+        }
+    }
+
+    /**
+     * Test of toGraph method, of class GridMapUtils.
+     */
+    @Test
+    public void testToGraph() {
+        System.out.println("toGraph");
+        StaticMap map = obstacleMap();
+        Map<Long, Double> expected = expectedEdges(map);
+        Graph<Coordinate, DefaultWeightedEdge> graph = GridMapUtils.toGraph(map);
+        int width = map.size(0);
+
+        Set<Coordinate> vertices = new HashSet<Coordinate>();
+        for (int v = 0; v < map.length(); v++) {
+            if (map.getData()[v] >= 0) vertices.add(new IntCoord(v % width, v / width));
+        }
+        assertEquals(vertices, graph.vertexSet());
+
+        Map<Long, Double> actual = new HashMap<Long, Double>();
+        for (DefaultWeightedEdge e : graph.edgeSet()) {
+            int[] u = ((IntCoord)graph.getEdgeSource(e)).getInts();
+            int[] v = ((IntCoord)graph.getEdgeTarget(e)).getInts();
+            actual.put(IndexedGridGraph.edge(u[0] + u[1] * width, v[0] + v[1] * width),
+                    graph.getEdgeWeight(e));
+        }
+        assertEquals(expected, actual);
+        assertEquals(expected.size(), graph.edgeSet().size());
+    }
+}
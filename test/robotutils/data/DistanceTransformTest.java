@@ -0,0 +1,150 @@
+/*
+ *  The MIT License
+ * 
+ *  Copyright 2011 Prasanna Velagapudi <psigen@gmail.com>.
+ * 
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ * 
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ * 
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+
+package robotutils.data;
+
+import java.util.Random;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Test harness for DistanceTransform and DynamicDistanceMap.
+ */
+public class DistanceTransformTest {
+
+    /**
+     * Creates a 3D map with a sparse set of random obstacles.
+     */
+    private static StaticMap randomMap(Random rnd, int... sizes) {
+        StaticMap map = new StaticMap(sizes);
+        byte[] data = map.getData();
+        
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (rnd.nextDouble() < 0.01) ? (byte)-1 : (byte)rnd.nextInt(10);
+        }
+        return map;
+    }
+
+    /**
+     * Computes squared distances to the nearest obstacle by exhaustive search.
+     */
+    private static int[] bruteForce(StaticMap map) {
+        int[] sizes = map.sizes();
+        int[] dist = new int[map.length()];
+        byte[] data = map.getData();
+
+        for (int i = 0; i < dist.length; i++) {
+            dist[i] = DistanceTransform.INFINITY;
+            
+            for (int j = 0; j < dist.length; j++) {
+                if (data[j] >= 0) continue;
+
+                int d = 0;
+                for (int a = i, b = j, k = 0; k < sizes.length; k++) {
+                    int diff = a % sizes[k] - b % sizes[k];
+                    a /= sizes[k];
+                    b /= sizes[k];
+                    d += diff * diff;
+                }
+                dist[i] = Math.min(dist[i], d);
+            }
+        }
+        return dist;
+    }
+
+    /**
+     * Test of squaredDistances method, of class DistanceTransform.
+     */
+    @Test
+    public void testSquaredDistances() {
+        System.out.println("squaredDistances");
+        StaticMap map = randomMap(new Random(1), 23, 17, 9);
+
+        int[] expected = bruteForce(map);
+        int[] result = DistanceTransform.squaredDistances(map);
+
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals(expected[i], result[i]);
+        }
+
+        int[] empty = DistanceTransform.squaredDistances(new StaticMap(5, 5));
+        assertEquals(DistanceTransform.INFINITY, empty[12]);
+    }
+
+    /**
+     * Test of inflate method, of class DistanceTransform.
+     */
+    @Test
+    public void testInflate() {
+        System.out.println("inflate");
+        StaticMap map = new StaticMap(21, 21);
+        map.set((byte)-1, 10, 10);
+
+        StaticMap result = DistanceTransform.inflate(map, 2.0, 0.5, (byte)100);
+        assertEquals((byte)-1, result.get(10, 10));
+        assertEquals((byte)-1, result.get(12, 10));
+        assertEquals((byte)-1, result.get(11, 11));
+        assertEquals((byte)60, result.get(13, 10));
+        assertEquals((byte)36, result.get(14, 10));
+        assertEquals((byte)0, result.get(0, 20));
+    }
+
+    /**
+     * Test of incremental updates, of class DynamicDistanceMap.
+     */
+    @Test
+    public void testDynamicUpdates() {
+        System.out.println("DynamicDistanceMap");
+        Random rnd = new Random(2);
+        StaticMap map = randomMap(rnd, 30, 25, 5);
+        DynamicDistanceMap dmap = new DynamicDistanceMap(map);
+
+        int[] idx = new int[3];
+        for (int iter = 0; iter < 10; iter++) {
+            for (int k = 0; k < 20; k++) {
+                idx[0] = rnd.nextInt(map.size(0));
+                idx[1] = rnd.nextInt(map.size(1));
+                idx[2] = rnd.nextInt(map.size(2));
+
+                if (map.get(idx) < 0) {
+                    map.set((byte)0, idx);
+                    dmap.removeObstacle(idx);
+                } else {
+                    map.set((byte)-1, idx);
+                    dmap.setObstacle(idx);
+                }
+            }
+            dmap.update();
+
+            // The brushfire is approximate, but must never be far off
+            int[] exact = DistanceTransform.squaredDistances(map);
+            int[] approx = dmap.squaredDistances();
+            for (int i = 0; i < exact.length; i++) {
+                assertTrue(approx[i] >= exact[i]);
+                assertTrue(Math.sqrt(approx[i]) - Math.sqrt(exact[i]) < 1.0);
+                if (exact[i] == 0) assertEquals(0, approx[i]);
+            }
+        }
+    }
+}
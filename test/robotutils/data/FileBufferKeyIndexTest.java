@@ -0,0 +1,106 @@
+/*
+ *  The MIT License
+ * 
+ *  Copyright 2010 pkv.
+ * 
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ * 
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ * 
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+
+package robotutils.data;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.SortedMap;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Test harness for FileBufferKeyIndex, a sparse secondary index over the
+ * records of a FileBuffer.
+ *
+ * @author pkv
+ */
+public class FileBufferKeyIndexTest {
+    File dataFile;
+    File indexFile;
+
+    /**
+     * Uses the value of each object as its key.
+     */
+    static final FileBufferKeyIndex.KeyExtractor<Long> IDENTITY = new FileBufferKeyIndex.KeyExtractor<Long>() {
+        public long key(Long obj) {
+            return obj;
+        }
+    };
+
+    @Before
+    public void setUp() throws IOException {
+        dataFile = File.createTempFile("FileBufferKeyIndex", ".dat");
+        dataFile.delete();
+        indexFile = FileBufferKeyIndex.keyIndexFile(dataFile, "time");
+    }
+
+    @After
+    public void tearDown() {
+        dataFile.delete();
+        FileBuffer.indexFile(dataFile).delete();
+        indexFile.delete();
+    }
+
+    /**
+     * Test of subMap method, of class FileBufferKeyIndex.
+     */
+    @Test
+    public void testSubMap() throws IOException {
+        System.out.println("subMap");
+        FileBuffer<Long> buffer = new FileBuffer<Long>(dataFile);
+        buffer.setDurability(FileBuffer.Durability.GROUP_COMMIT);
+        for (long i = 0; i < 1000; i++) {
+            buffer.add(10 * i);
+        }
+
+        FileBufferKeyIndex<Long> instance = new FileBufferKeyIndex<Long>(buffer, indexFile, IDENTITY, 16);
+        SortedMap<Long, Long> result = instance.subMap(2005, 5005);
+        assertEquals(300, result.size());
+        assertEquals(Long.valueOf(2010), result.get(result.firstKey()));
+        assertEquals(Long.valueOf(5000), result.get(result.lastKey()));
+        assertEquals(buffer.uidAt(201), result.firstKey().longValue());
+
+        // Seeking should start within one stride of the first match
+        int start = instance.seek(2010);
+        assertTrue(start <= 201 && start > 201 - 16);
+        assertEquals(0, instance.seek(-1));
+        instance.close();
+
+        // Records added after the index was closed are indexed on reopening
+        for (long i = 1000; i < 1100; i++) {
+            buffer.add(10 * i);
+        }
+        instance = new FileBufferKeyIndex<Long>(buffer, indexFile, IDENTITY, 16);
+        assertEquals(1000, instance.size());
+        assertEquals(50, instance.subMap(10500, 20000).size());
+        assertEquals(1100, instance.size());
+        assertTrue(instance.subMap(20000, 30000).isEmpty());
+
+        instance.close();
+        buffer.close();
+    }
+}
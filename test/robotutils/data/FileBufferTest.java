@@ -27,10 +27,17 @@ package robotutils.data;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.RandomAccessFile;
 import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
@@ -39,6 +46,11 @@ import org.junit.AfterClass;
 import org.junit.BeforeClass;
 import org.junit.Test;
 import static org.junit.Assert.*;
+import robotutils.Pose2D;
+import robotutils.Pose3D;
+import robotutils.Quaternion;
+import robotutils.devices.create.CreateStatus;
+import robotutils.io.CarmenReader;
 import robotutils.data.FileBuffer.Entry;
 
 /**
@@ -120,6 +132,13 @@ public class FileBufferTest {
         // Delete test file
         if (!testFile.delete())
             throw new IOException("Test file cleanup failed: " + testFile);
+
+        // Delete index files
+        for (File file : new File[] { emptyFile, tempFile, testFile }) {
+            File indexFile = FileBuffer.indexFile(file);
+            if (indexFile.exists() && !indexFile.delete())
+                throw new IOException("Index file cleanup failed: " + indexFile);
+        }
     }
 
     /**
@@ -564,4 +583,430 @@ public class FileBufferTest {
         }
     }
 
-}
\ No newline at end of file
+    /**
+     * Test of uidAt and indexOf methods, of class FileBuffer.
+     */
+    @Test
+    public void testUidAt() throws Exception {
+        System.out.println("uidAt");
+
+        FileBuffer<BigObject> instance = new FileBuffer(testFile);
+        Long[] keys = instance.keySet().toArray(new Long[0]);
+        assertEquals(TEST_FILE_SIZE, keys.length);
+
+        for (int i = 0; i < keys.length; i++) {
+            assertEquals((long)keys[i], instance.uidAt(i));
+            assertEquals(i, instance.indexOf(keys[i]));
+            assertEquals(-1, instance.indexOf(keys[i] + 1));
+        }
+
+        // Rebuild the index from scratch and check that it is unchanged
+        File rebuiltFile = File.createTempFile("FileBufferRebuiltFile", ".dat");
+        try {
+            FileBuffer<BigObject> source = new FileBuffer(tempFile);
+            source.add(new BigObject(1, null));
+            Files.copy(tempFile.toPath(), rebuiltFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            
+            FileBuffer<BigObject> rebuilt = new FileBuffer(rebuiltFile);
+            assertEquals(source.size(), rebuilt.size());
+            for (int i = 0; i < source.size(); i++) {
+                assertEquals(source.uidAt(i), rebuilt.uidAt(i));
+            }
+        } finally {
+            rebuiltFile.delete();
+            FileBuffer.indexFile(rebuiltFile).delete();
+        }
+    }
+
+    /**
+     * Test of recovery from torn and corrupted writes, of class FileBuffer.
+     */
+    @Test
+    public void testRecovery() throws Exception {
+        System.out.println("recovery");
+
+        File crashFile = File.createTempFile("FileBufferCrashFile", ".dat");
+        try {
+            FileBuffer<String> instance = new FileBuffer(crashFile);
+            for (int i = 0; i < 10; i++) {
+                instance.add("Record " + i);
+            }
+            long lastUid = instance.uidAt(9);
+            long length = instance._lastPosition;
+            instance.close();
+
+            // Corrupt the payload of the last record and append a torn header
+            RandomAccessFile raf = new RandomAccessFile(crashFile, "rw");
+            raf.seek(length - 1);
+            int last = raf.read();
+            raf.seek(length - 1);
+            raf.write(last ^ 0xFF);
+            raf.seek(length);
+            raf.write(new byte[100]);
+            raf.close();
+
+            // Recover using the index sidecar, then without it
+            for (int pass = 0; pass < 2; pass++) {
+                if (pass == 1) FileBuffer.indexFile(crashFile).delete();
+
+                instance = new FileBuffer(crashFile);
+                assertEquals(9, instance.size());
+                assertFalse(instance.containsKey(lastUid));
+                assertEquals(lastUid, crashFile.length());
+                assertEquals("Record 8", instance.get(instance.uidAt(8)));
+                instance.close();
+            }
+
+            // The recovered buffer can be appended to normally
+            instance = new FileBuffer(crashFile);
+            assertEquals(lastUid, instance.add("Record 9"));
+            instance.close();
+
+            instance = new FileBuffer(crashFile);
+            assertEquals("Record 9", instance.get(lastUid));
+            instance.close();
+        } finally {
+            crashFile.delete();
+            FileBuffer.indexFile(crashFile).delete();
+        }
+    }
+
+    /**
+     * Test of recovery from a failed write, of class FileBuffer, which should
+     * keep the unwritten objects and write them with the next flush.
+     */
+    @Test
+    public void testFailedWrite() throws Exception {
+        System.out.println("failedWrite");
+
+        File failFile = File.createTempFile("FileBufferFailFile", ".dat");
+        try {
+            final int[] failures = { 0 };
+            FileBuffer<String> instance = new FileBuffer<String>(failFile) {
+                @Override
+                long writeBlock(ByteBuffer buf, long position) throws IOException {
+                    if (failures[0] > 0) {
+                        failures[0]--;
+                        throw new IOException("Injected write failure.");
+                    }
+                    return super.writeBlock(buf, position);
+                }
+            };
+
+            long[] uids = new long[4];
+            uids[0] = instance.add("Record 0");
+
+            // The failed record stays pending, and is written by the next flush
+            failures[0] = 2;
+            try {
+                instance.add("Record 1");
+                fail("Expected the injected write failure.");
+            } catch (RuntimeException ex) {
+                assertTrue(ex.getCause() instanceof IOException);
+            }
+            try {
+                instance.add("Record 2");
+                fail("Expected the injected write failure.");
+            } catch (RuntimeException ex) {
+                assertTrue(ex.getCause() instanceof IOException);
+            }
+            uids[1] = instance.uidAt(1);
+            uids[2] = instance.uidAt(2);
+            uids[3] = instance.add("Record 3");
+            instance.close();
+
+            instance = new FileBuffer<String>(failFile);
+            assertEquals(4, instance.size());
+            for (int i = 0; i < 4; i++) {
+                assertEquals(uids[i], instance.uidAt(i));
+                assertEquals("Record " + i, instance.get(uids[i]));
+            }
+            assertEquals(failFile.length(), instance._lastPosition);
+            instance.close();
+        } finally {
+            failFile.delete();
+            FileBuffer.indexFile(failFile).delete();
+        }
+    }
+
+    /**
+     * Test of a failed group commit, of class FileBuffer, which should be
+     * reported by the next add without adding its object.
+     */
+    @Test
+    public void testFailedGroupCommit() throws Exception {
+        System.out.println("failedGroupCommit");
+
+        File failFile = File.createTempFile("FileBufferFailFile", ".dat");
+        try {
+            final int[] failures = { 1 };
+            FileBuffer<String> instance = new FileBuffer<String>(failFile) {
+                @Override
+                long writeBlock(ByteBuffer buf, long position) throws IOException {
+                    if (failures[0] > 0) {
+                        failures[0]--;
+                        throw new IOException("Injected write failure.");
+                    }
+                    return super.writeBlock(buf, position);
+                }
+            };
+            instance.setDurability(FileBuffer.Durability.GROUP_COMMIT, 1);
+            instance.add("Record 0");
+            while (instance._flushError == null) {
+                Thread.sleep(1);
+            }
+
+            try {
+                instance.add("Record 1");
+                fail("Expected the injected write failure.");
+            } catch (RuntimeException ex) {
+                assertTrue(ex.getCause() instanceof IOException);
+            }
+            assertEquals(1, instance.size());
+
+            // Retrying the add should not duplicate the object
+            long uid = instance.add("Record 1");
+            assertEquals(2, instance.size());
+            assertEquals(uid, instance.uidAt(1));
+            instance.close();
+
+            instance = new FileBuffer<String>(failFile);
+            assertEquals(2, instance.size());
+            for (int i = 0; i < 2; i++) {
+                assertEquals("Record " + i, instance.asList().get(i));
+            }
+            instance.close();
+        } finally {
+            failFile.delete();
+            FileBuffer.indexFile(failFile).delete();
+        }
+    }
+
+    /**
+     * Test of the built-in codecs, of class FileBufferCodecs.
+     */
+    @Test
+    public void testCodecs() throws Exception {
+        System.out.println("codecs");
+
+        Pose2D pose2 = new Pose2D(1.0, -2.0, 0.5);
+        Pose3D pose3 = new Pose3D(1.0, 2.0, 3.0, new Quaternion(0.5, 0.5, -0.5, 0.5));
+
+        CarmenReader.FLaser laser = new CarmenReader.FLaser();
+        laser.ipcHostname = "localhost";
+        laser.loggerTimestamp = 12.5;
+        laser.readings = new double[] { 1.0, 2.0, 3.0 };
+        laser.pose = pose2;
+
+        FileBuffer<Object> instance = new FileBuffer(tempFile);
+        long uid2 = instance.add(pose2);
+        long uid3 = instance.add(pose3);
+        long uidLaser = instance.add(laser);
+        long uidString = instance.add("FOOBAR");
+
+        // Reopen the buffer to avoid reading objects from the cache
+        instance = new FileBuffer(tempFile);
+        assertEquals(pose2.toString(), instance.get(uid2).toString());
+        assertEquals(pose3.toString(), instance.get(uid3).toString());
+        assertEquals("FOOBAR", instance.get(uidString));
+
+        CarmenReader.FLaser laserCopy = (CarmenReader.FLaser)instance.get(uidLaser);
+        assertEquals(laser.ipcHostname, laserCopy.ipcHostname);
+        assertEquals(laser.loggerTimestamp, laserCopy.loggerTimestamp, 0.0);
+        assertTrue(Arrays.equals(laser.readings, laserCopy.readings));
+        assertEquals(laser.pose.toString(), laserCopy.pose.toString());
+        assertNull(laserCopy.odom);
+
+        // Compact codecs should only store a tag and the fields
+        assertEquals(1L + 7 * 8, instance.readHeader(uid3).size);
+
+        // Buffers written using serialization are readable by default
+        FileBuffer<Object> serialized = new FileBuffer(tempFile, 1, FileBufferCodecs.SERIALIZABLE);
+        long uidSerialized = serialized.add(pose3);
+        assertEquals(pose3.toString(), new FileBuffer(tempFile).get(uidSerialized).toString());
+
+        // Status objects should survive a round trip through their codec
+        ByteBuffer buf = ByteBuffer.allocate(1024);
+        FileBufferCodecs.CREATE_STATUS.encode(new CreateStatus(), buf);
+        buf.flip();
+        ByteBuffer copy = ByteBuffer.allocate(1024);
+        FileBufferCodecs.CREATE_STATUS.encode(FileBufferCodecs.CREATE_STATUS.decode(buf.duplicate()), copy);
+        copy.flip();
+        assertEquals(buf, copy);
+    }
+
+    /**
+     * Test of setDurability method, of class FileBuffer.
+     */
+    @Test
+    public void testSetDurability() throws Exception {
+        System.out.println("setDurability");
+
+        int numTests = 1000;
+        List<String> contents = new ArrayList<String>(numTests);
+        for (int i = 0; i < numTests; i++) {
+            contents.add("FOOBAR" + i);
+        }
+
+        // Use a tiny cache so that pending objects must be read back
+        FileBuffer<String> instance = new FileBuffer(tempFile, 1);
+        int offset = instance.size();
+        instance.setDurability(FileBuffer.Durability.GROUP_COMMIT, 1000);
+
+        List<Long> uids = instance.addAll(contents.subList(0, numTests / 2));
+        for (String obj : contents.subList(numTests / 2, numTests)) {
+            uids.add(instance.add(obj));
+        }
+
+        for (int i = 0; i < numTests; i++) {
+            assertEquals(contents.get(i), instance.get(uids.get(i)));
+            assertEquals(contents.get(i), instance.asList().get(offset + i));
+        }
+
+        instance.add("FOOBAR-LAST");
+        instance.close();
+
+        FileBuffer<String> reopened = new FileBuffer(tempFile);
+        assertEquals(offset + numTests + 1, reopened.size());
+        assertEquals("FOOBAR-LAST", reopened.asList().get(offset + numTests));
+        for (int i = 0; i < numTests; i++) {
+            assertEquals(contents.get(i), reopened.get(uids.get(i)));
+        }
+    }
+
+    /**
+     * Test of setReadMode and getBuffer methods, of class FileBuffer.
+     */
+    @Test
+    public void testSetReadMode() throws Exception {
+        System.out.println("setReadMode");
+
+        FileBuffer<BigObject> channel = new FileBuffer(testFile, 1);
+        FileBuffer<BigObject> mapped = new FileBuffer(testFile, 1);
+        mapped.setReadMode(FileBuffer.ReadMode.MAPPED);
+
+        for (int i = 0; i < TEST_FILE_SIZE; i++) {
+            long uid = mapped.uidAt(i);
+            assertEquals(new BigObject(i, null), mapped.get(uid));
+
+            ByteBuffer buf = mapped.getBuffer(uid);
+            assertTrue(buf.isReadOnly());
+            assertEquals(channel.getBuffer(uid), buf);
+        }
+
+        assertNull(mapped.getBuffer(mapped.uidAt(0) + 1));
+    }
+
+    /**
+     * Test of prefetchIterator method, of class FileBuffer.
+     */
+    @Test
+    public void testPrefetchIterator() throws Exception {
+        System.out.println("prefetchIterator");
+
+        FileBuffer<BigObject> instance = new FileBuffer(testFile, 1);
+
+        int count = 0;
+        Iterator<Map.Entry<Long, BigObject>> it = instance.prefetchIterator(0, 8);
+        while (it.hasNext()) {
+            Map.Entry<Long, BigObject> e = it.next();
+            assertEquals(instance.uidAt(count), e.getKey().longValue());
+            assertEquals(new BigObject(count, null), e.getValue());
+            count++;
+        }
+        assertEquals(TEST_FILE_SIZE, count);
+
+        FileBuffer<BigObject>.FileBufferPrefetchIterator partial = instance.prefetchIterator(TEST_FILE_SIZE - 10);
+        assertEquals(new BigObject(TEST_FILE_SIZE - 10, null), partial.next().getValue());
+        partial.close();
+        assertFalse(partial.hasNext());
+    }
+
+    /**
+     * Test of concurrent reads while adding objects, of class FileBuffer.
+     */
+    @Test
+    public void testConcurrentAccess() throws Exception {
+        System.out.println("concurrentAccess");
+
+        final int numTests = 2000;
+        final FileBuffer<String> instance = new FileBuffer(tempFile, 10);
+        final int offset = instance.size();
+        instance.setDurability(FileBuffer.Durability.GROUP_COMMIT, 1);
+        instance.setReadMode(FileBuffer.ReadMode.MAPPED);
+
+        final List<Throwable> errors = Collections.synchronizedList(new ArrayList<Throwable>());
+        Thread[] readers = new Thread[3];
+        for (int i = 0; i < readers.length; i++) {
+            readers[i] = new Thread() {
+                @Override
+                public void run() {
+                    Random rnd = new Random();
+                    try {
+                        while (instance.size() < offset + numTests) {
+                            int published = instance.size() - offset;
+                            if (published == 0) continue;
+
+                            int index = rnd.nextInt(published);
+                            assertEquals("FOOBAR" + index, instance.asList().get(offset + index));
+                        }
+                    } catch (Throwable t) {
+                        errors.add(t);
+                    }
+                }
+            };
+            readers[i].start();
+        }
+
+        for (int i = 0; i < numTests; i++) {
+            instance.add("FOOBAR" + i);
+        }
+
+        for (Thread reader : readers) {
+            reader.join();
+        }
+        instance.close();
+
+        assertTrue(errors.toString(), errors.isEmpty());
+    }
+
+    /**
+     * Test of reading objects that have not yet been written, of class
+     * FileBuffer, which should wait for the group commit rather than write
+     * the objects on the reading thread.
+     */
+    @Test
+    public void testCommittedRead() throws Exception {
+        System.out.println("committedRead");
+
+        final List<Thread> writers = Collections.synchronizedList(new ArrayList<Thread>());
+        final FileBuffer<String> instance = new FileBuffer<String>(tempFile, 0) {
+            @Override
+            long writeBlock(ByteBuffer buf, long position) throws IOException {
+                writers.add(Thread.currentThread());
+                return super.writeBlock(buf, position);
+            }
+        };
+        instance.setDurability(FileBuffer.Durability.GROUP_COMMIT, 200);
+
+        final long uid = instance.add("FOOBAR-PENDING");
+        final List<Object> results = Collections.synchronizedList(new ArrayList<Object>());
+        Thread reader = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    results.add(instance.get(uid));
+                } catch (Throwable t) {
+                    results.add(t);
+                }
+            }
+        };
+        reader.start();
+        reader.join();
+        instance.close();
+
+        assertEquals(Arrays.asList((Object)"FOOBAR-PENDING"), results);
+        assertFalse(writers.isEmpty());
+        assertFalse(writers.contains(reader));
+    }
+}
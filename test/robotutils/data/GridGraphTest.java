@@ -0,0 +1,85 @@
+/*
+ *  The MIT License
+ * 
+ *  Copyright 2010 pkv.
+ * 
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ * 
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ * 
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+
+package robotutils.data;
+
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Test harness for GridGraph, the implicit graph over coordinate arrays.
+ */
+public class GridGraphTest {
+
+    /**
+     * Test of vertexSet method, of class GridGraph.
+     */
+    @Test
+    public void testVertexSet() {
+        System.out.println("vertexSet");
+        GridGraph graph = new GridGraph(new StaticMap(3, 4, 2));
+
+        Set<IntCoord> visited = new HashSet<IntCoord>();
+        Iterator<int[]> it = graph.vertexSet().iterator();
+        
+        int[] first = it.next();
+        assertEquals(0, first[0]);
+        assertEquals(0, first[1]);
+        assertEquals(0, first[2]);
+        visited.add(new IntCoord(first));
+
+        while (it.hasNext()) {
+            assertTrue(visited.add(new IntCoord(it.next())));
+        }
+        
+        assertEquals(24, visited.size());
+        assertEquals(24, graph.vertexSet().size());
+    }
+
+    /**
+     * Test of edgesOf method, of class GridGraph.
+     */
+    @Test
+    public void testEdgesOf() {
+        System.out.println("edgesOf");
+        GridGraph graph = new GridGraph(new StaticMap(3, 4));
+
+        Set<int[][]> edges = graph.edgesOf(new int[] {1, 1});
+        assertEquals(4, edges.size());
+        assertTrue(edges.contains(new int[][] {{1, 1}, {2, 1}}));
+        assertTrue(edges.contains(new int[][] {{1, 1}, {1, 0}}));
+        assertTrue(edges.contains(new int[][] {{2, 1}, {1, 1}}));
+        assertTrue(edges.contains(new int[][] {{1, 2}, {1, 1}}));
+        assertFalse(edges.contains(new int[][] {{1, 1}, {2, 2}}));
+        assertFalse(edges.contains(new int[][] {{0, 1}, {0, 2}}));
+        assertFalse(edges.contains(new int[] {1, 1}));
+
+        assertEquals(2, graph.edgesOf(new int[] {0, 0}).size());
+        assertEquals(2, graph.edgesOf(new int[] {2, 3}).size());
+        assertEquals(3, graph.edgesOf(new int[] {0, 2}).size());
+    }
+}
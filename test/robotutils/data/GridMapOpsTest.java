@@ -0,0 +1,151 @@
+/*
+ *  The MIT License
+ * 
+ *  Copyright 2011 Prasanna Velagapudi <psigen@gmail.com>.
+ * 
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ * 
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ * 
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+
+package robotutils.data;
+
+import java.util.Arrays;
+import java.util.Random;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Test harness for GridMapOps, bulk operations over GridMaps.
+ */
+public class GridMapOpsTest {
+
+    /**
+     * Creates a random map large enough to be split into several chunks.
+     */
+    private static StaticMap randomMap(int... sizes) {
+        StaticMap map = new StaticMap(sizes);
+        new Random(0).nextBytes(map.getData());
+        return map;
+    }
+
+    /**
+     * Test of fill method, of class GridMapOps.
+     */
+    @Test
+    public void testFill() {
+        System.out.println("fill");
+        StaticMap map = randomMap(300, 300, 3);
+
+        GridMapOps.fill(map, (byte)5);
+        assertEquals((long)map.length(), GridMapOps.count(map, new GridMapOps.BytePredicate() {
+            public boolean test(byte val) {
+                return val == 5;
+            }
+        }));
+
+        GridMapOps.fill(map, (byte)-1, new int[] {10, -5, 1}, new int[] {20, 30, 2});
+        int[] idx = new int[3];
+        for (idx[2] = 0; idx[2] < map.size(2); idx[2]++) {
+            for (idx[1] = 0; idx[1] < map.size(1); idx[1]++) {
+                for (idx[0] = 0; idx[0] < map.size(0); idx[0]++) {
+                    boolean inside = idx[0] >= 10 && idx[0] < 20 && idx[1] < 30 && idx[2] == 1;
+                    assertEquals((byte)(inside ? -1 : 5), map.get(idx));
+                }
+            }
+        }
+    }
+
+    /**
+     * Test of histogram, min and max methods, of class GridMapOps.
+     */
+    @Test
+    public void testReductions() {
+        System.out.println("histogram/min/max");
+        StaticMap map = randomMap(500, 400);
+
+        long[] expected = new long[256];
+        byte min = Byte.MAX_VALUE;
+        byte max = Byte.MIN_VALUE;
+        for (byte b : map.getData()) {
+            expected[b & 0xFF]++;
+            min = (byte)Math.min(min, b);
+            max = (byte)Math.max(max, b);
+        }
+
+        assertTrue(Arrays.equals(expected, GridMapOps.histogram(map)));
+        assertEquals(min, GridMapOps.min(map));
+        assertEquals(max, GridMapOps.max(map));
+    }
+
+    /**
+     * Test of dilate and erode methods, of class GridMapOps.
+     */
+    @Test
+    public void testDilateErode() {
+        System.out.println("dilate/erode");
+        StaticMap map = randomMap(40, 30, 20);
+        int r = 2;
+
+        StaticMap dilated = GridMapOps.dilate(map, r);
+        StaticMap eroded = GridMapOps.erode(map, r);
+
+        int[] idx = new int[3];
+        int[] nbr = new int[3];
+        for (idx[2] = 0; idx[2] < map.size(2); idx[2]++) {
+            for (idx[1] = 0; idx[1] < map.size(1); idx[1]++) {
+                for (idx[0] = 0; idx[0] < map.size(0); idx[0]++) {
+                    int hi = Byte.MIN_VALUE;
+                    int lo = Byte.MAX_VALUE;
+
+                    for (nbr[2] = idx[2] - r; nbr[2] <= idx[2] + r; nbr[2]++) {
+                        for (nbr[1] = idx[1] - r; nbr[1] <= idx[1] + r; nbr[1]++) {
+                            for (nbr[0] = idx[0] - r; nbr[0] <= idx[0] + r; nbr[0]++) {
+                                if (map.index(nbr) < 0) continue;
+                                hi = Math.max(hi, map.get(nbr));
+                                lo = Math.min(lo, map.get(nbr));
+                            }
+                        }
+                    }
+
+                    assertEquals((byte)hi, dilated.get(idx));
+                    assertEquals((byte)lo, eroded.get(idx));
+                }
+            }
+        }
+    }
+
+    /**
+     * Test of convolve method, of class GridMapOps.
+     */
+    @Test
+    public void testConvolve() {
+        System.out.println("convolve");
+        StaticMap map = new StaticMap(50, 50);
+        map.set((byte)90, 25, 25);
+
+        StaticMap result = GridMapOps.convolve(map, new double[] {1.0/3.0, 1.0/3.0, 1.0/3.0});
+        assertEquals((byte)10, result.get(24, 24));
+        assertEquals((byte)10, result.get(26, 25));
+        assertEquals((byte)0, result.get(27, 25));
+
+        // An identity kernel should leave the map unchanged
+        StaticMap random = randomMap(20, 30);
+        StaticMap same = GridMapOps.convolve(random, new double[] {0.0, 1.0, 0.0});
+        assertTrue(Arrays.equals(random.getData(), same.getData()));
+    }
+}
@@ -0,0 +1,149 @@
+/*
+ *  The MIT License
+ * 
+ *  Copyright 2010 pkv.
+ * 
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ * 
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ * 
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+
+package robotutils.data;
+
+import java.util.Random;
+import org.jgrapht.Graph;
+import org.jgrapht.graph.DefaultWeightedEdge;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Test harness for IndexedGridGraph, the implicit graph over linear cell
+ * indices.  Its structure is checked against the explicit graph built by
+ * GridMapUtils.toGraph().
+ */
+public class IndexedGridGraphTest {
+
+    /**
+     * Creates a random map in which roughly a fifth of the cells are
+     * obstacles, and the rest have small non-negative costs.
+     */
+    private static StaticMap randomMap(int... sizes) {
+        StaticMap map = new StaticMap(sizes);
+        byte[] data = map.getData();
+
+        Random rnd = new Random(0);
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (rnd.nextInt(5) == 0) ? (byte)-1 : (byte)rnd.nextInt(10);
+        }
+
+        return map;
+    }
+
+    /**
+     * Converts a linear index into the coordinate used by toGraph().
+     */
+    private static IntCoord coord(int v, int[] sizes) {
+        int[] idx = new int[sizes.length];
+        for (int i = 0; i < sizes.length; i++) {
+            idx[i] = v % sizes[i];
+            v /= sizes[i];
+        }
+        return new IntCoord(idx);
+    }
+
+    /**
+     * Checks every vertex and edge of an IndexedGridGraph against toGraph().
+     */
+    private static void checkGraph(StaticMap map) {
+        int[] sizes = map.sizes();
+        IndexedGridGraph graph = new IndexedGridGraph(map);
+        Graph<Coordinate, DefaultWeightedEdge> expected = GridMapUtils.toGraph(map);
+
+        assertEquals(expected.vertexSet().size(), graph.vertexSet().size());
+        assertEquals(expected.edgeSet().size(), graph.edgeSet().size());
+
+        for (int v = 0; v < map.length(); v++) {
+            IntCoord c = coord(v, sizes);
+            assertEquals(expected.containsVertex(c), graph.containsVertex(v));
+            if (!graph.containsVertex(v)) continue;
+
+            assertEquals(expected.edgesOf(c).size(), graph.edgesOf(v).size());
+            assertEquals(expected.edgesOf(c).size(), graph.degreeOf(v));
+
+            for (Long e : graph.edgesOf(v)) {
+                assertTrue(graph.containsEdge(e));
+                assertTrue(graph.edgeSet().contains(e));
+
+                int u = graph.getEdgeSource(e);
+                int w = graph.getEdgeTarget(e);
+                assertTrue(u == v || w == v);
+                assertEquals(e, graph.getEdge(w, u));
+
+                DefaultWeightedEdge de = expected.getEdge(coord(u, sizes), coord(w, sizes));
+                assertNotNull(de);
+                assertEquals(expected.getEdgeWeight(de), graph.getEdgeWeight(e), 0.0);
+            }
+
+            // Cells that are not neighbors never share an edge
+            for (int u = 0; u < map.length(); u++) {
+                boolean adjacent = expected.containsVertex(coord(u, sizes))
+                        && expected.getEdge(c, coord(u, sizes)) != null;
+                assertEquals(adjacent, graph.containsEdge(IndexedGridGraph.edge(u, v)));
+            }
+        }
+    }
+
+    /**
+     * Test of the graph structure of a 2D map, of class IndexedGridGraph.
+     */
+    @Test
+    public void testGraph2D() {
+        System.out.println("graph2D");
+        checkGraph(randomMap(9, 7));
+    }
+
+    /**
+     * Test of the graph structure of a 3D map, of class IndexedGridGraph.
+     */
+    @Test
+    public void testGraph3D() {
+        System.out.println("graph3D");
+        checkGraph(randomMap(5, 4, 3));
+    }
+
+    /**
+     * Test of refresh method, of class IndexedGridGraph.
+     */
+    @Test
+    public void testRefresh() {
+        System.out.println("refresh");
+        StaticMap map = new StaticMap(4, 3);
+        IndexedGridGraph graph = new IndexedGridGraph(map);
+
+        assertEquals(12, graph.vertexSet().size());
+        assertEquals(17, graph.edgeSet().size());
+
+        // Sizes are cached until the graph is refreshed
+        map.set((byte)-1, 1, 1);
+        assertEquals(12, graph.vertexSet().size());
+        assertFalse(graph.containsVertex(5));
+
+        graph.refresh();
+        assertEquals(11, graph.vertexSet().size());
+        assertEquals(13, graph.edgeSet().size());
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ *  The MIT License
+ * 
+ *  Copyright 2011 Prasanna Velagapudi <psigen@gmail.com>.
+ * 
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ * 
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ * 
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+
+package robotutils.data;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Test harness for IntCoordMap and coordinate packing.
+ */
+public class IntCoordMapTest {
+
+    /**
+     * Test of pack and unpack methods, of class IntCoord.
+     */
+    @Test
+    public void testPack() {
+        Random rnd = new Random(0);
+        int limit = 1 << (IntCoord.PACK_BITS_3D - 1);
+
+        for (int i = 0; i < 1000; i++) {
+            IntCoord c2 = new IntCoord(rnd.nextInt(), rnd.nextInt());
+            assertEquals(c2, IntCoord.unpack(c2.pack(), 2));
+
+            IntCoord c3 = new IntCoord(rnd.nextInt(2*limit) - limit,
+                    rnd.nextInt(2*limit) - limit, rnd.nextInt(2*limit) - limit);
+            assertTrue(c3.isPackable());
+            assertEquals(c3, IntCoord.unpack(c3.pack(), 3));
+        }
+
+        assertFalse(new IntCoord(limit, 0, 0).isPackable());
+        assertFalse(new IntCoord(0, 0, 0, 0).isPackable());
+    }
+
+    /**
+     * Test of random insertions and removals, of class IntCoordMap.
+     */
+    @Test
+    public void testRandomOperations() {
+        Random rnd = new Random(1);
+        IntCoordMap<Integer> instance = new IntCoordMap<Integer>(3, 4);
+        Map<IntCoord, Integer> expected = new HashMap<IntCoord, Integer>();
+
+        for (int i = 0; i < 20000; i++) {
+            IntCoord c = new IntCoord(rnd.nextInt(20) - 10, rnd.nextInt(20) - 10, rnd.nextInt(20) - 10);
+
+            if (rnd.nextInt(3) == 0) {
+                assertEquals(expected.remove(c), instance.remove(c));
+            } else {
+                assertEquals(expected.put(c, i), instance.put(c, i));
+            }
+            assertEquals(expected.size(), instance.size());
+        }
+
+        for (Map.Entry<IntCoord, Integer> entry : expected.entrySet()) {
+            assertEquals(entry.getValue(), instance.get(entry.getKey()));
+        }
+        assertEquals(expected, instance);
+        assertNull(instance.get(new IntCoord(1, 2)));
+    }
+}
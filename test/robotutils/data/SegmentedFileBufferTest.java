@@ -0,0 +1,196 @@
+/*
+ *  The MIT License
+ * 
+ *  Copyright 2010 pkv.
+ * 
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ * 
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ * 
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+
+package robotutils.data;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Test harness for SegmentedFileBuffer, a rolling file-backed Map.
+ *
+ * @author pkv
+ */
+public class SegmentedFileBufferTest {
+    File directory;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("SegmentedFileBuffer").toFile();
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+
+    /**
+     * Test of add method, of class SegmentedFileBuffer, across segment
+     * boundaries and after reopening the directory.
+     */
+    @Test
+    public void testAdd() throws IOException {
+        System.out.println("add");
+        SegmentedFileBuffer<String> instance = new SegmentedFileBuffer<String>(directory, 4096, Long.MAX_VALUE);
+
+        List<Long> uids = new ArrayList<Long>();
+        for (int i = 0; i < 100; i++) {
+            uids.add(instance.add("Object " + i));
+        }
+        assertTrue(instance.segmentCount() > 1);
+        assertEquals(100, instance.size());
+        instance.close();
+
+        instance = new SegmentedFileBuffer<String>(directory, 4096, Long.MAX_VALUE);
+        assertEquals(100, instance.size());
+        for (int i = 0; i < 100; i++) {
+            assertEquals("Object " + i, instance.get(uids.get(i)));
+        }
+        assertEquals(uids, new ArrayList<Long>(instance.keySet()));
+        instance.close();
+    }
+
+    /**
+     * Test of the constructor of class SegmentedFileBuffer, with segments too
+     * large for their offsets to be stored in a UID.
+     */
+    @Test(expected=IllegalArgumentException.class)
+    public void testSegmentSize() throws IOException {
+        System.out.println("segmentSize");
+        new SegmentedFileBuffer<String>(directory, 1L << SegmentedFileBuffer.OFFSET_BITS, Long.MAX_VALUE);
+    }
+
+    /**
+     * Test of add method, of class SegmentedFileBuffer, while other threads
+     * roll over and clear the segments.
+     */
+    @Test
+    public void testConcurrentAdd() throws Exception {
+        System.out.println("concurrentAdd");
+        final SegmentedFileBuffer<String> instance = new SegmentedFileBuffer<String>(directory, 512, Long.MAX_VALUE);
+        instance.setDurability(FileBuffer.Durability.GROUP_COMMIT);
+        final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+
+        Thread[] writers = new Thread[4];
+        for (int t = 0; t < writers.length; t++) {
+            writers[t] = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        for (int i = 0; i < 500; i++) {
+                            instance.add("Object " + i);
+                        }
+                    } catch (Throwable ex) {
+                        error.compareAndSet(null, ex);
+                    }
+                }
+            };
+            writers[t].start();
+        }
+
+        for (int i = 0; i < 50; i++) {
+            instance.clear();
+            Thread.yield();
+        }
+
+        for (Thread writer : writers) {
+            writer.join();
+        }
+        assertNull(error.get());
+
+        long uid = instance.add("Last");
+        assertEquals("Last", instance.get(uid));
+        instance.close();
+    }
+
+    /**
+     * Test of compact method, of class SegmentedFileBuffer.
+     */
+    @Test
+    public void testCompact() throws IOException {
+        System.out.println("compact");
+        SegmentedFileBuffer<String> instance = new SegmentedFileBuffer<String>(directory, 4096, Long.MAX_VALUE);
+
+        List<Long> uids = new ArrayList<Long>();
+        for (int i = 0; i < 100; i++) {
+            uids.add(instance.add("Object " + i));
+        }
+        for (int i = 0; i < 100; i++) {
+            if (i % 4 != 0) assertEquals("Object " + i, instance.remove(uids.get(i)));
+        }
+        assertNull(instance.remove(uids.get(1)));
+        assertEquals(25, instance.size());
+
+        instance.compact();
+        instance.close();
+
+        instance = new SegmentedFileBuffer<String>(directory, 4096, Long.MAX_VALUE);
+        assertEquals(25, instance.size());
+        for (int i = 0; i < 100; i++) {
+            if (i % 4 == 0) {
+                assertEquals("Object " + i, instance.get(uids.get(i)));
+            } else {
+                assertFalse(instance.containsKey(uids.get(i)));
+            }
+        }
+        instance.close();
+    }
+
+    /**
+     * Test of setRetention method, of class SegmentedFileBuffer.
+     */
+    @Test
+    public void testSetRetention() throws IOException {
+        System.out.println("setRetention");
+        SegmentedFileBuffer<String> instance = new SegmentedFileBuffer<String>(directory, 4096, Long.MAX_VALUE);
+        instance.setRetention(3 * 4096, Long.MAX_VALUE);
+
+        List<Long> uids = new ArrayList<Long>();
+        for (int i = 0; i < 200; i++) {
+            uids.add(instance.add("Object " + i));
+        }
+        assertTrue(instance.segmentCount() <= 4);
+        assertFalse(instance.containsKey(uids.get(0)));
+        assertEquals("Object 199", instance.get(uids.get(199)));
+
+        instance.dropBefore(uids.get(199));
+        assertEquals(1, instance.segmentCount());
+        assertEquals("Object 199", instance.get(uids.get(199)));
+        instance.close();
+    }
+}
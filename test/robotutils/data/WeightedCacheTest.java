@@ -0,0 +1,133 @@
+/*
+ *  The MIT License
+ * 
+ *  Copyright 2010 pkv.
+ * 
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ * 
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ * 
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+
+package robotutils.data;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Test harness for WeightedCache, a size-aware concurrent cache.
+ *
+ * @author pkv
+ */
+public class WeightedCacheTest {
+
+    /**
+     * Test of put method, of class WeightedCache, with entries of different
+     * weights.
+     */
+    @Test
+    public void testPut() {
+        System.out.println("put");
+        WeightedCache<Integer, byte[]> instance = new WeightedCache<Integer, byte[]>(
+                1000, new WeightedCache.Weigher<Integer, byte[]>() {
+            public int weigh(Integer key, byte[] value) {
+                return value.length;
+            }
+        }, 1);
+
+        for (int i = 0; i < 100; i++) {
+            instance.put(i, new byte[10 * (i % 10)]);
+            assertTrue(instance.weight() <= instance.maxWeight());
+        }
+
+        // Entries that are larger than the cache are not admitted
+        instance.put(-1, new byte[2000]);
+        assertNull(instance.get(-1));
+        assertNotNull(instance.get(99));
+        assertTrue(instance.evictionCount() > 0);
+
+        instance.clear();
+        assertEquals(0, instance.size());
+        assertEquals(0L, instance.weight());
+    }
+
+    /**
+     * Test of put method, of class WeightedCache, with entries that are
+     * heavier than the share of a single stripe.
+     */
+    @Test
+    public void testPutHeavy() {
+        System.out.println("putHeavy");
+        WeightedCache<Integer, byte[]> instance = new WeightedCache<Integer, byte[]>(
+                1600, new WeightedCache.Weigher<Integer, byte[]>() {
+            public int weigh(Integer key, byte[] value) {
+                return value.length;
+            }
+        }, 16);
+
+        for (int i = 0; i < 100; i++) {
+            instance.put(i, new byte[10]);
+        }
+        assertTrue(instance.weight() <= instance.maxWeight());
+
+        // An entry ten times the share of a stripe is still cached
+        instance.put(-1, new byte[1000]);
+        assertNotNull(instance.get(-1));
+        assertEquals(1000, instance.get(-1).length);
+        assertTrue(instance.weight() <= instance.maxWeight());
+        assertTrue(instance.size() > 1);
+
+        // An entry as heavy as the whole cache displaces everything else
+        instance.put(-2, new byte[1600]);
+        assertNotNull(instance.get(-2));
+        assertEquals(1, instance.size());
+        assertEquals(1600L, instance.weight());
+
+        // Entries heavier than the whole cache are never cached
+        instance.put(-3, new byte[1601]);
+        assertNull(instance.get(-3));
+        assertTrue(instance.weight() <= instance.maxWeight());
+    }
+
+    /**
+     * Test of get method, of class WeightedCache, under a scan of entries
+     * that are only used once.
+     */
+    @Test
+    public void testGet() {
+        System.out.println("get");
+        WeightedCache<Integer, Integer> instance = new WeightedCache<Integer, Integer>(100);
+
+        // Establish a frequently used working set
+        for (int i = 0; i < 50; i++) {
+            instance.put(i, i);
+        }
+        for (int i = 0; i < 50; i++) {
+            assertEquals(Integer.valueOf(i), instance.get(i));
+        }
+
+        // A long scan should not flush the working set out of the cache
+        for (int i = 1000; i < 10000; i++) {
+            instance.put(i, i);
+        }
+        instance.resetStats();
+        for (int i = 0; i < 50; i++) {
+            instance.get(i);
+        }
+        assertTrue(instance.hitRate() > 0.9);
+        assertTrue(instance.size() <= 100);
+    }
+}
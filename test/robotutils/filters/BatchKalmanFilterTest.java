@@ -0,0 +1,160 @@
+/*
+ *  The MIT License
+ * 
+ *  Copyright 2010 pkv.
+ * 
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ * 
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ * 
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+
+package robotutils.filters;
+
+import java.util.Random;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import static robotutils.filters.FixedKalmanFilterTest.*;
+
+/**
+ * Test harness for BatchKalmanFilter, a structure-of-arrays bank of filters.
+ *
+ * @author pkv
+ */
+public class BatchKalmanFilterTest {
+
+    /**
+     * Test of predict and update methods, of class BatchKalmanFilter, against
+     * an independent filter for each track.
+     */
+    @Test
+    public void testPredictUpdate() {
+        System.out.println("predictUpdate");
+        Random rnd = new Random(2);
+        int tracks = 37, n = 4, m = 2, c = 1;
+
+        double[] F = flatten(randomMatrix(rnd, n, n));
+        double[] Q = flatten(randomCov(rnd, n));
+        double[] B = flatten(randomMatrix(rnd, n, c));
+        double[] H = flatten(randomMatrix(rnd, m, n));
+        double[] R = flatten(randomCov(rnd, m));
+
+        BatchKalmanFilter instance = new BatchKalmanFilter(tracks, n, m, c, 8);
+        instance.setProcessModel(F);
+        instance.setProcessNoise(Q);
+        instance.setControlModel(B);
+        instance.setObsModel(H);
+        instance.setObsNoise(R);
+
+        FixedKalmanFilter[] filters = new FixedKalmanFilter[tracks];
+        for (int t = 0; t < tracks; t++) {
+            double[] x = flatten(randomMatrix(rnd, n, 1));
+            double[] P = flatten(randomCov(rnd, n));
+            instance.setState(t, x);
+            instance.setStateCov(t, P);
+
+            filters[t] = new FixedKalmanFilter(x, P, m, c);
+            filters[t].setProcessModel(F);
+            filters[t].setProcessNoise(Q);
+            filters[t].setControlModel(B);
+            filters[t].setObsModel(H);
+            filters[t].setObsNoise(R);
+        }
+
+        double[] u = new double[c * tracks];
+        double[] z = new double[m * tracks];
+        boolean[] mask = new boolean[tracks];
+        double[] xExpected = new double[n], xActual = new double[n];
+        double[] PExpected = new double[n * n], PActual = new double[n * n];
+
+        for (int step = 0; step < 5; step++) {
+            for (int i = 0; i < u.length; i++) u[i] = rnd.nextGaussian();
+            for (int i = 0; i < z.length; i++) z[i] = rnd.nextGaussian();
+
+            int expectedCount = 0;
+            for (int t = 0; t < tracks; t++) {
+                mask[t] = rnd.nextBoolean();
+                double[] ut = new double[c];
+                double[] zt = new double[m];
+                for (int i = 0; i < c; i++) ut[i] = u[i * tracks + t];
+                for (int i = 0; i < m; i++) zt[i] = z[i * tracks + t];
+
+                filters[t].predict(ut);
+                if (mask[t]) {
+                    filters[t].update(zt);
+                    expectedCount++;
+                }
+            }
+
+            instance.predict(u);
+            assertEquals(expectedCount, instance.update(z, mask));
+
+            for (int t = 0; t < tracks; t++) {
+                filters[t].getState(xExpected);
+                filters[t].getStateCov(PExpected);
+                instance.getState(t, xActual);
+                instance.getStateCov(t, PActual);
+
+                for (int i = 0; i < n; i++) {
+                    assertEquals(xExpected[i], xActual[i], 1e-8 * (1.0 + Math.abs(xExpected[i])));
+                }
+                for (int i = 0; i < n * n; i++) {
+                    assertEquals(PExpected[i], PActual[i], 1e-8 * (1.0 + Math.abs(PExpected[i])));
+                }
+            }
+        }
+    }
+
+    /**
+     * Test of update method, of class BatchKalmanFilter, with measurements
+     * that are not finite in tracks that are masked out.
+     */
+    @Test
+    public void testUpdateMasked() {
+        System.out.println("updateMasked");
+        int n = 2, m = 1;
+
+        BatchKalmanFilter instance = new BatchKalmanFilter(3, n, m, 0, 8);
+        instance.setObsModel(new double[] {1.0, 0.0});
+        instance.setObsNoise(new double[] {1.0});
+        double[] x0 = {1.0, 2.0};
+        double[] P0 = {2.0, 0.5, 0.5, 1.0};
+        for (int t = 0; t < 3; t++) {
+            instance.setState(t, x0);
+            instance.setStateCov(t, P0);
+        }
+
+        double[] z = {5.0, Double.NaN, Double.POSITIVE_INFINITY};
+        boolean[] mask = {true, false, false};
+        assertEquals(1, instance.update(z, mask));
+
+        // Tracks that are masked out are left exactly unchanged
+        double[] x = new double[n], P = new double[n * n];
+        for (int t = 1; t < 3; t++) {
+            instance.getState(t, x);
+            instance.getStateCov(t, P);
+            for (int i = 0; i < n; i++) {
+                assertEquals(x0[i], x[i], 0.0);
+            }
+            for (int i = 0; i < n * n; i++) {
+                assertEquals(P0[i], P[i], 0.0);
+            }
+        }
+
+        instance.getState(0, x);
+        assertEquals(1.0 + 2.0 / 3.0 * 4.0, x[0], 1e-12);
+    }
+}
@@ -0,0 +1,230 @@
+/*
+ *  The MIT License
+ * 
+ *  Copyright 2010 pkv.
+ * 
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ * 
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ * 
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+
+package robotutils.filters;
+
+import java.util.Random;
+import org.apache.commons.math.linear.LUDecompositionImpl;
+import org.apache.commons.math.linear.MatrixUtils;
+import org.apache.commons.math.linear.RealMatrix;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Test harness for FixedKalmanFilter, an allocation-free Kalman filter.
+ *
+ * @author pkv
+ */
+public class FixedKalmanFilterTest {
+
+    /**
+     * Creates a random symmetric positive definite matrix.
+     */
+    static RealMatrix randomCov(Random rnd, int n) {
+        RealMatrix A = MatrixUtils.createRealMatrix(n, n);
+        for (int i = 0; i < n; i++) {
+            for (int j = 0; j < n; j++) {
+                A.setEntry(i, j, rnd.nextGaussian());
+            }
+        }
+        return A.multiply(A.transpose()).add(MatrixUtils.createRealIdentityMatrix(n));
+    }
+
+    static RealMatrix randomMatrix(Random rnd, int rows, int cols) {
+        RealMatrix A = MatrixUtils.createRealMatrix(rows, cols);
+        for (int i = 0; i < rows; i++) {
+            for (int j = 0; j < cols; j++) {
+                A.setEntry(i, j, rnd.nextGaussian());
+            }
+        }
+        return A;
+    }
+
+    static double[] flatten(RealMatrix A) {
+        int rows = A.getRowDimension();
+        int cols = A.getColumnDimension();
+        double[] a = new double[rows * cols];
+        for (int i = 0; i < rows; i++) {
+            for (int j = 0; j < cols; j++) {
+                a[i * cols + j] = A.getEntry(i, j);
+            }
+        }
+        return a;
+    }
+
+    static void assertMatrixEquals(RealMatrix expected, double[] actual, double tol) {
+        double[] e = flatten(expected);
+        assertEquals(e.length, actual.length);
+        for (int i = 0; i < e.length; i++) {
+            assertEquals(e[i], actual[i], tol);
+        }
+    }
+
+    /**
+     * Test of predict and update methods, of class FixedKalmanFilter, against
+     * the textbook equations.
+     */
+    @Test
+    public void testPredictUpdate() {
+        System.out.println("predictUpdate");
+        Random rnd = new Random(1);
+        int n = 4, m = 2, c = 1;
+
+        RealMatrix x = randomMatrix(rnd, n, 1);
+        RealMatrix P = randomCov(rnd, n);
+        RealMatrix F = randomMatrix(rnd, n, n);
+        RealMatrix Q = randomCov(rnd, n);
+        RealMatrix B = randomMatrix(rnd, n, c);
+        RealMatrix H = randomMatrix(rnd, m, n);
+        RealMatrix R = randomCov(rnd, m);
+
+        FixedKalmanFilter instance = new FixedKalmanFilter(flatten(x), flatten(P), m, c);
+        instance.setProcessModel(flatten(F));
+        instance.setProcessNoise(flatten(Q));
+        instance.setControlModel(flatten(B));
+        instance.setObsModel(flatten(H));
+        instance.setObsNoise(flatten(R));
+
+        double[] xOut = new double[n];
+        double[] POut = new double[n * n];
+
+        for (int step = 0; step < 5; step++) {
+            RealMatrix u = randomMatrix(rnd, c, 1);
+            RealMatrix z = randomMatrix(rnd, m, 1);
+
+            x = F.multiply(x).add(B.multiply(u));
+            P = F.multiply(P).multiply(F.transpose()).add(Q);
+            instance.predict(flatten(u));
+
+            RealMatrix S = H.multiply(P).multiply(H.transpose()).add(R);
+            RealMatrix K = P.multiply(H.transpose()).multiply(new LUDecompositionImpl(S).getSolver().getInverse());
+            x = x.add(K.multiply(z.subtract(H.multiply(x))));
+            P = MatrixUtils.createRealIdentityMatrix(n).subtract(K.multiply(H)).multiply(P);
+            instance.update(flatten(z));
+
+            double scale = 1e-9 * (1.0 + P.getNorm());
+            instance.getState(xOut);
+            instance.getStateCov(POut);
+            assertMatrixEquals(x, xOut, scale * (1.0 + x.getNorm()));
+            assertMatrixEquals(P, POut, scale);
+        }
+    }
+
+    /**
+     * Test of updateSequential and sparse scalar update methods, of classes
+     * FixedKalmanFilter and KalmanFilter, against a joint update.
+     */
+    @Test
+    public void testUpdateSequential() {
+        System.out.println("updateSequential");
+        Random rnd = new Random(2);
+        int n = 8, m = 3;
+
+        RealMatrix x = randomMatrix(rnd, n, 1);
+        RealMatrix P = randomCov(rnd, n);
+        RealMatrix H = MatrixUtils.createRealMatrix(m, n);
+        RealMatrix R = MatrixUtils.createRealMatrix(m, m);
+        RealMatrix z = randomMatrix(rnd, m, 1);
+        for (int i = 0; i < m; i++) {
+            R.setEntry(i, i, 0.5 + rnd.nextDouble());
+            H.setEntry(i, i, rnd.nextGaussian());
+            H.setEntry(i, n - 1 - i, rnd.nextGaussian());
+        }
+
+        FixedKalmanFilter joint = new FixedKalmanFilter(flatten(x), flatten(P), m, 0);
+        joint.update(flatten(H), flatten(R), flatten(z));
+        double[] xJoint = new double[n];
+        double[] PJoint = new double[n * n];
+        joint.getState(xJoint);
+        joint.getStateCov(PJoint);
+
+        FixedKalmanFilter sequential = new FixedKalmanFilter(flatten(x), flatten(P), m, 0);
+        sequential.updateSequential(flatten(H), flatten(R), flatten(z));
+        double[] xOut = new double[n];
+        double[] POut = new double[n * n];
+        sequential.getState(xOut);
+        sequential.getStateCov(POut);
+        assertMatrixEquals(MatrixOps.toMatrix(xJoint, n, 1), xOut, 1e-9);
+        assertMatrixEquals(MatrixOps.toMatrix(PJoint, n, n), POut, 1e-9);
+
+        KalmanFilter dense = new KalmanFilter(x, P);
+        dense.updateSequential(H, R, z);
+        assertMatrixEquals(dense.getState(), xJoint, 1e-9);
+        assertMatrixEquals(dense.getStateCov(), PJoint, 1e-9);
+
+        KalmanFilter sparse = new KalmanFilter(x, P);
+        for (int i = 0; i < m; i++) {
+            sparse.update(new int[] { i, n - 1 - i },
+                    new double[] { H.getEntry(i, i), H.getEntry(i, n - 1 - i) },
+                    R.getEntry(i, i), z.getEntry(i, 0));
+        }
+        assertMatrixEquals(sparse.getState(), xJoint, 1e-9);
+        assertMatrixEquals(sparse.getStateCov(), PJoint, 1e-9);
+
+        try {
+            R.setEntry(0, 1, 0.1);
+            dense.updateSequential(H, R, z);
+            fail("Expected non-diagonal observation noise to be rejected.");
+        } catch (IllegalArgumentException e) {
+            // Expected
+        }
+    }
+
+    /**
+     * Test of update and updateSequential methods, of class FixedKalmanFilter,
+     * with observation models of the wrong dimensions.
+     */
+    @Test
+    public void testUpdateLengths() {
+        System.out.println("updateLengths");
+        double[] x = {1.0, 2.0};
+        double[] P = {1.0, 0.0, 0.0, 1.0};
+        FixedKalmanFilter instance = new FixedKalmanFilter(x, P, 1, 0);
+
+        double[][][] invalid = {
+            { {1.0}, {1.0}, {0.0} },
+            { {1.0, 0.0}, {1.0, 0.0}, {0.0} },
+            { {1.0, 0.0}, {1.0}, {0.0, 0.0} },
+        };
+        for (double[][] obs : invalid) {
+            try {
+                instance.update(obs[0], obs[1], obs[2]);
+                fail("Expected mismatched observation model to be rejected.");
+            } catch (IllegalArgumentException e) {
+                // Expected
+            }
+            try {
+                instance.updateSequential(obs[0], obs[1], obs[2]);
+                fail("Expected mismatched observation model to be rejected.");
+            } catch (IllegalArgumentException e) {
+                // Expected
+            }
+        }
+
+        double[] xOut = new double[2];
+        instance.getState(xOut);
+        assertEquals(1.0, xOut[0], 0.0);
+        assertEquals(2.0, xOut[1], 0.0);
+    }
+}
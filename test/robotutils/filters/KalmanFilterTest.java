@@ -0,0 +1,198 @@
+/*
+ *  The MIT License
+ * 
+ *  Copyright 2010 pkv.
+ * 
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ * 
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ * 
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+
+package robotutils.filters;
+
+import java.util.Random;
+import org.apache.commons.math.linear.MatrixUtils;
+import org.apache.commons.math.linear.RealMatrix;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import static robotutils.filters.FixedKalmanFilterTest.*;
+
+/**
+ * Test harness for the sequential and sparse updates of KalmanFilter, which
+ * are checked against the dense update of the same filter with a diagonal
+ * observation noise.  The updates are inherited by SquareRootKalmanFilter and
+ * InformationFilter, which are checked in the same way through their own
+ * representations of the state covariance.
+ *
+ * @author pkv
+ */
+public class KalmanFilterTest {
+
+    /**
+     * Constructs filters of a particular class.
+     */
+    interface Factory {
+        KalmanFilter create(RealMatrix x, RealMatrix P, RealMatrix H, RealMatrix R);
+    }
+
+    static final Factory KALMAN = new Factory() {
+        public KalmanFilter create(RealMatrix x, RealMatrix P, RealMatrix H, RealMatrix R) {
+            return new KalmanFilter(x, P, null, null, null, H, R);
+        }
+    };
+
+    static final Factory SQUARE_ROOT = new Factory() {
+        public KalmanFilter create(RealMatrix x, RealMatrix P, RealMatrix H, RealMatrix R) {
+            return new SquareRootKalmanFilter(x, P, null, null, null, H, R);
+        }
+    };
+
+    static final Factory INFORMATION = new Factory() {
+        public KalmanFilter create(RealMatrix x, RealMatrix P, RealMatrix H, RealMatrix R) {
+            return new InformationFilter(x, P, null, null, null, H, R);
+        }
+    };
+
+    /**
+     * Creates a random diagonal covariance.
+     */
+    static RealMatrix randomDiagonal(Random rnd, int n) {
+        double[] d = new double[n];
+        for (int i = 0; i < n; i++) {
+            d[i] = 0.1 + rnd.nextDouble();
+        }
+        return MatrixUtils.createRealDiagonalMatrix(d);
+    }
+
+    /**
+     * Checks that two filters have the same state and state covariance.
+     */
+    static void assertFiltersEqual(KalmanFilter expected, KalmanFilter actual) {
+        RealMatrix x = expected.getState();
+        RealMatrix P = expected.getStateCov();
+        double tol = 1e-8 * (1.0 + P.getNorm() + x.getNorm());
+        assertMatrixEquals(x, flatten(actual.getState()), tol);
+        assertMatrixEquals(P, flatten(actual.getStateCov()), tol);
+    }
+
+    /**
+     * Compares updateSequential against the dense update, using both the
+     * provided and the default observation models.
+     */
+    static void checkSequential(Factory factory, long seed) {
+        Random rnd = new Random(seed);
+        int n = 5, m = 3;
+
+        RealMatrix x = randomMatrix(rnd, n, 1);
+        RealMatrix P = randomCov(rnd, n);
+        RealMatrix H = randomMatrix(rnd, m, n);
+        RealMatrix R = randomDiagonal(rnd, m);
+
+        KalmanFilter dense = factory.create(x, P, H, R);
+        KalmanFilter sequential = factory.create(x, P, H, R);
+        KalmanFilter defaults = factory.create(x, P, H, R);
+
+        for (int step = 0; step < 4; step++) {
+            RealMatrix z = randomMatrix(rnd, m, 1);
+            dense.update(H, R, z);
+            sequential.updateSequential(H, R, z);
+            defaults.updateSequential(z);
+
+            assertFiltersEqual(dense, sequential);
+            assertFiltersEqual(dense, defaults);
+        }
+
+        // Correlated measurements cannot be applied one at a time
+        try {
+            sequential.updateSequential(H, randomCov(rnd, m), randomMatrix(rnd, m, 1));
+            fail("Expected non-diagonal noise to be rejected.");
+        } catch (IllegalArgumentException ex) {
+            System.out.println("Threw " + ex);
+        }
+    }
+
+    /**
+     * Compares the sparse scalar update against the dense update with a
+     * single observation row.
+     */
+    static void checkSparse(Factory factory, long seed) {
+        Random rnd = new Random(seed);
+        int n = 6;
+
+        RealMatrix x = randomMatrix(rnd, n, 1);
+        RealMatrix P = randomCov(rnd, n);
+        KalmanFilter dense = factory.create(x, P, null, null);
+        KalmanFilter sparse = factory.create(x, P, null, null);
+
+        int[][] indices = { {1, 4}, {0}, {2, 3, 5} };
+        for (int[] idx : indices) {
+            double[] h = new double[idx.length];
+            RealMatrix H = MatrixUtils.createRealMatrix(1, n);
+            for (int i = 0; i < idx.length; i++) {
+                h[i] = rnd.nextGaussian();
+                H.setEntry(0, idx[i], h[i]);
+            }
+            double r = 0.1 + rnd.nextDouble();
+            double z = rnd.nextGaussian();
+
+            dense.update(H, MatrixUtils.createRealDiagonalMatrix(new double[] {r}),
+                    MatrixUtils.createColumnRealMatrix(new double[] {z}));
+            sparse.update(idx, h, r, z);
+            assertFiltersEqual(dense, sparse);
+        }
+    }
+
+    /**
+     * Test of updateSequential method, of class KalmanFilter.
+     */
+    @Test
+    public void testUpdateSequential() {
+        System.out.println("updateSequential");
+        checkSequential(KALMAN, 11);
+    }
+
+    /**
+     * Test of sparse update method, of class KalmanFilter.
+     */
+    @Test
+    public void testUpdateSparse() {
+        System.out.println("updateSparse");
+        checkSparse(KALMAN, 12);
+    }
+
+    /**
+     * Test of updateSequential and sparse update methods, of class
+     * SquareRootKalmanFilter.
+     */
+    @Test
+    public void testSquareRoot() {
+        System.out.println("squareRoot");
+        checkSequential(SQUARE_ROOT, 13);
+        checkSparse(SQUARE_ROOT, 14);
+    }
+
+    /**
+     * Test of updateSequential and sparse update methods, of class
+     * InformationFilter.
+     */
+    @Test
+    public void testInformation() {
+        System.out.println("information");
+        checkSequential(INFORMATION, 15);
+        checkSparse(INFORMATION, 16);
+    }
+}
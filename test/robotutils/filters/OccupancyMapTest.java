@@ -0,0 +1,157 @@
+/*
+ *  The MIT License
+ * 
+ *  Copyright 2010 pkv.
+ * 
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ * 
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ * 
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+
+package robotutils.filters;
+
+import java.util.Random;
+import org.junit.Test;
+import robotutils.data.StaticMap;
+import static org.junit.Assert.*;
+
+/**
+ * Test harness for OccupancyMap, which integrates rays into a log-odds grid.
+ *
+ * @author pkv
+ */
+public class OccupancyMapTest {
+
+    static final int HIT = 17, MISS = -8;
+
+    static int cell(OccupancyMap map, int x, int y, int z) {
+        return map.getMap().get(x, y, z);
+    }
+
+    /**
+     * Test of addScan method, of class OccupancyMap, along a single axis.
+     */
+    @Test
+    public void testAxisRay() {
+        System.out.println("axisRay");
+        OccupancyMap instance = new OccupancyMap(20, 20, 20, 0.0, 0.0, 0.0, 0.5);
+        instance.addScan(new double[] { 1.25, 1.25, 1.25 }, new double[] { 5.0, 0.0, 0.0 });
+
+        assertEquals(0, cell(instance, 1, 2, 2));
+        for (int x = 2; x < 12; x++) {
+            assertEquals(MISS, cell(instance, x, 2, 2));
+        }
+        assertEquals(HIT, cell(instance, 12, 2, 2));
+        assertEquals(0, cell(instance, 13, 2, 2));
+        assertEquals(0, cell(instance, 5, 3, 2));
+        assertTrue(instance.getProbability(12, 2, 2) > 0.5);
+        assertTrue(instance.getProbability(5, 2, 2) < 0.5);
+    }
+
+    /**
+     * Test of addScan method, of class OccupancyMap, along a diagonal ray that
+     * starts outside the grid.
+     */
+    @Test
+    public void testClippedRay() {
+        System.out.println("clippedRay");
+        OccupancyMap instance = new OccupancyMap(10, 10, 10, 0.0, 0.0, 0.0, 1.0);
+        instance.addScan(new double[] { -3.3, -2.2, -1.1 }, new double[] { 10.1, 9.3, 8.7 });
+
+        // The ray enters at cell (0, 0, 1) and crosses one boundary per step
+        int free = 0, occupied = 0;
+        for (int z = 0; z < 10; z++) {
+            for (int y = 0; y < 10; y++) {
+                for (int x = 0; x < 10; x++) {
+                    int v = cell(instance, x, y, z);
+                    if (v == MISS) free++;
+                    if (v == HIT) occupied++;
+                }
+            }
+        }
+        assertEquals(HIT, cell(instance, 6, 7, 7));
+        assertEquals(1, occupied);
+        assertEquals(MISS, cell(instance, 0, 0, 1));
+        assertEquals(6 + 7 + 6, free);
+    }
+
+    /**
+     * Test of addScan method, of class OccupancyMap, which should update each
+     * cell at most once per batch, preferring hits over misses.
+     */
+    @Test
+    public void testBatch() {
+        System.out.println("batch");
+        OccupancyMap instance = new OccupancyMap(20, 20, 20, 0.0, 0.0, 0.0, 1.0);
+        double[] pos = { 0.5, 0.5, 0.5 };
+
+        double[] rays = new double[3 * 101];
+        for (int i = 0; i < 100; i++) {
+            rays[3 * i] = 10.0;
+        }
+        rays[3 * 100] = 5.0;
+
+        for (int scan = 0; scan < 3; scan++) {
+            instance.addScan(pos, rays, 101);
+        }
+        assertEquals(3 * MISS, cell(instance, 3, 0, 0));
+        assertEquals(3 * HIT, cell(instance, 5, 0, 0));
+        assertEquals(3 * HIT, cell(instance, 10, 0, 0));
+
+        // Log-odds are clamped to their bounds
+        for (int scan = 0; scan < 10; scan++) {
+            instance.addScan(pos, rays, 101);
+        }
+        assertEquals(-40, cell(instance, 3, 0, 0));
+        assertEquals(70, cell(instance, 10, 0, 0));
+    }
+
+    /**
+     * Test of addScan method, of class OccupancyMap, which should produce the
+     * same grid whether rays are integrated serially or in parallel.
+     */
+    @Test
+    public void testParallel() {
+        System.out.println("parallel");
+        Random rnd = new Random(7);
+        int count = 20000;
+        double[] pos = { 8.1, 7.9, 4.2 };
+        double[] rays = new double[3 * count];
+        for (int i = 0; i < rays.length; i++) {
+            rays[i] = 12.0 * rnd.nextGaussian();
+        }
+
+        OccupancyMap serial = new OccupancyMap(32, 32, 16, 0.0, 0.0, 0.0, 0.5);
+        OccupancyMap parallel = new OccupancyMap(32, 32, 16, 0.0, 0.0, 0.0, 0.5);
+        parallel.setParallel(true);
+        parallel.setGrain(97);
+
+        for (int scan = 0; scan < 3; scan++) {
+            serial.addScan(pos, rays, count);
+            parallel.addScan(pos, rays, count);
+        }
+
+        byte[] expected = ((StaticMap)serial.getMap()).getData();
+        byte[] actual = ((StaticMap)parallel.getMap()).getData();
+        int occupied = 0;
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals(expected[i], actual[i]);
+            if (expected[i] > 0) occupied++;
+        }
+        assertTrue(occupied > 0);
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ *  The MIT License
+ * 
+ *  Copyright 2010 pkv.
+ * 
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ * 
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ * 
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+
+package robotutils.filters;
+
+import java.util.Random;
+import org.apache.commons.math.linear.RealMatrix;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import static robotutils.filters.FixedKalmanFilterTest.*;
+
+/**
+ * Test harness for OutOfSequenceFilter, which applies delayed measurements.
+ *
+ * @author pkv
+ */
+public class OutOfSequenceFilterTest {
+
+    static FixedKalmanFilter createFilter(long seed, int n, int m, int c) {
+        Random rnd = new Random(seed);
+        FixedKalmanFilter filter = new FixedKalmanFilter(
+                flatten(randomMatrix(rnd, n, 1)), flatten(randomCov(rnd, n)), m, c);
+        RealMatrix F = randomMatrix(rnd, n, n).scalarMultiply(0.3);
+        for (int i = 0; i < n; i++) {
+            F.addToEntry(i, i, 1.0);
+        }
+        filter.setProcessModel(flatten(F));
+        filter.setProcessNoise(flatten(randomCov(rnd, n)));
+        filter.setControlModel(flatten(randomMatrix(rnd, n, c)));
+        filter.setObsModel(flatten(randomMatrix(rnd, m, n)));
+        filter.setObsNoise(flatten(randomCov(rnd, m)));
+        return filter;
+    }
+
+    /**
+     * Test of predict and update methods, of class OutOfSequenceFilter,
+     * against a filter that receives the same measurements in order.
+     */
+    @Test
+    public void testDelayedUpdate() {
+        System.out.println("delayedUpdate");
+        Random rnd = new Random(3);
+        int n = 4, m = 2, c = 1, steps = 20, delay = 5;
+
+        double[][] us = new double[steps][];
+        double[][] zs = new double[steps][];
+        for (int i = 0; i < steps; i++) {
+            us[i] = flatten(randomMatrix(rnd, c, 1));
+            zs[i] = flatten(randomMatrix(rnd, m, 1));
+        }
+
+        // Apply each measurement at its own step
+        FixedKalmanFilter expected = createFilter(4, n, m, c);
+        for (int i = 0; i < steps; i++) {
+            expected.predict(us[i]);
+            expected.update(zs[i]);
+        }
+
+        // Apply each measurement several steps late
+        OutOfSequenceFilter instance = new OutOfSequenceFilter(
+                createFilter(4, n, m, c), 8, 0L);
+        for (int i = 0; i < steps + delay; i++) {
+            if (i < steps)
+                instance.predict(10L * (i + 1), us[i]);
+            if (i >= delay)
+                assertTrue(instance.update(10L * (i - delay + 1) + 3, zs[i - delay]));
+        }
+
+        double[] x = new double[n];
+        double[] P = new double[n * n];
+        double[] xOut = new double[n];
+        double[] POut = new double[n * n];
+        expected.getState(x);
+        expected.getStateCov(P);
+        instance.getState(xOut);
+        instance.getStateCov(POut);
+        for (int i = 0; i < n; i++) {
+            assertEquals(x[i], xOut[i], 1e-9);
+        }
+        for (int i = 0; i < n * n; i++) {
+            assertEquals(P[i], POut[i], 1e-9);
+        }
+
+        // Measurements older than the history are rejected
+        assertEquals(10L * steps, instance.getTime());
+        assertEquals(10L * (steps - 7), instance.getOldestTime());
+        assertFalse(instance.update(10L * (steps - 8), zs[0]));
+    }
+}
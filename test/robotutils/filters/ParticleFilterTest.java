@@ -0,0 +1,163 @@
+/*
+ *  The MIT License
+ * 
+ *  Copyright 2010 pkv.
+ * 
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ * 
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ * 
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+
+package robotutils.filters;
+
+import java.util.Random;
+import org.junit.Test;
+import robotutils.Pose2D;
+import robotutils.data.StaticMap;
+import static org.junit.Assert.*;
+
+/**
+ * Test harness for ParticleFilter and LikelihoodField.
+ *
+ * @author pkv
+ */
+public class ParticleFilterTest {
+
+    static final double RESOLUTION = 0.1;
+
+    /**
+     * Creates a 10m x 10m map with walls on its border and an off-center box.
+     */
+    static StaticMap createMap() {
+        StaticMap map = new StaticMap(100, 100);
+        for (int i = 0; i < 100; i++) {
+            map.set((byte)-1, i, 0);
+            map.set((byte)-1, i, 99);
+            map.set((byte)-1, 0, i);
+            map.set((byte)-1, 99, i);
+        }
+        for (int i = 20; i < 35; i++) {
+            for (int j = 60; j < 80; j++) {
+                map.set((byte)-1, i, j);
+            }
+        }
+        return map;
+    }
+
+    /**
+     * Simulates a scan by marching along each beam until it reaches an obstacle.
+     */
+    static void simulateScan(StaticMap map, Pose2D pose, double[] ex, double[] ey) {
+        int beams = ex.length;
+        for (int b = 0; b < beams; b++) {
+            double angle = 2.0 * Math.PI * b / beams;
+            double r = 0.0;
+            while (r < 20.0) {
+                double wx = pose.getX() + r * Math.cos(pose.getTheta() + angle);
+                double wy = pose.getY() + r * Math.sin(pose.getTheta() + angle);
+                if (map.get((int)(wx / RESOLUTION), (int)(wy / RESOLUTION)) < 0)
+                    break;
+                r += 0.01;
+            }
+            ex[b] = r * Math.cos(angle);
+            ey[b] = r * Math.sin(angle);
+        }
+    }
+
+    /**
+     * Test of predict, update and resample methods, of class ParticleFilter,
+     * tracking a robot in a known map.
+     */
+    @Test
+    public void testLocalization() {
+        System.out.println("localization");
+        StaticMap map = createMap();
+        LikelihoodField field = new LikelihoodField(map, RESOLUTION, 0.0, 0.0, 0.1, 0.9, 0.1, 20.0);
+        ParticleFilter.MotionModel motion = new ParticleFilter.OdometryMotionModel(0.01, 0.01, 0.01, 0.01);
+
+        double[] ex = new double[60];
+        double[] ey = new double[60];
+        Pose2D pose = new Pose2D(5.0, 4.0, 0.3);
+        Pose2D delta = new Pose2D(0.1, 0.0, 0.02);
+
+        ParticleFilter instance = new ParticleFilter(20000, 5L, 1024);
+        instance.initialize(20000, new Pose2D(5.3, 3.7, 0.1), 0.3, 0.2);
+
+        for (int step = 0; step < 10; step++) {
+            double c = Math.cos(pose.getTheta()), s = Math.sin(pose.getTheta());
+            pose = new Pose2D(pose.getX() + c * delta.getX() - s * delta.getY(),
+                    pose.getY() + s * delta.getX() + c * delta.getY(),
+                    pose.getTheta() + delta.getTheta());
+
+            instance.predict(motion, delta);
+            simulateScan(map, pose, ex, ey);
+            instance.update(field, ex, ey, ex.length);
+            instance.resample();
+        }
+
+        Pose2D mean = instance.getMean();
+        assertEquals(pose.getX(), mean.getX(), 0.1);
+        assertEquals(pose.getY(), mean.getY(), 0.1);
+        assertEquals(0.0, ParticleFilter.normalizeAngle(pose.getTheta() - mean.getTheta()), 0.05);
+        assertEquals(20000, instance.size());
+
+        // A converged distribution needs far fewer particles
+        instance.setAdaptive(true);
+        instance.setKldParameters(0.05, 2.326, 0.5, Math.toRadians(10.0), 500);
+        instance.update(field, ex, ey, ex.length);
+        instance.resample();
+        assertTrue(instance.size() < 2000);
+        assertTrue(instance.size() >= 500);
+    }
+
+    /**
+     * Test of resample method, of class ParticleFilter, which should copy
+     * particles in proportion to their weights.
+     */
+    @Test
+    public void testResample() {
+        System.out.println("resample");
+        ParticleFilter instance = new ParticleFilter(1000, 6L, 64);
+        instance.initializeUniform(1000, 0.0, 0.0, 1.0, 1.0);
+
+        // Give three quarters of the weight to particle 10 and the rest to particle 500
+        double[] w = instance.getLogWeights();
+        double x10 = instance.getX()[10];
+        double x500 = instance.getX()[500];
+        for (int i = 0; i < instance.size(); i++) {
+            w[i] = Double.NEGATIVE_INFINITY;
+        }
+        w[10] = Math.log(3.0);
+        w[500] = 0.0;
+
+        instance.resample(800);
+        assertEquals(800, instance.size());
+
+        int count10 = 0, count500 = 0;
+        double[] x = instance.getX();
+        for (int i = 0; i < instance.size(); i++) {
+            if (x[i] == x10) {
+                count10++;
+            } else if (x[i] == x500) {
+                count500++;
+            }
+        }
+        assertEquals(600, count10);
+        assertEquals(200, count500);
+        assertEquals(1.0 / 800.0, Math.exp(instance.getLogWeights()[0]), 1e-12);
+    }
+}
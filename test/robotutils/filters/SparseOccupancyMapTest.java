@@ -0,0 +1,198 @@
+/*
+ *  The MIT License
+ * 
+ *  Copyright 2010 pkv.
+ * 
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ * 
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ * 
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+
+package robotutils.filters;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Test harness for SparseOccupancyMap, a sparse log-odds voxel map.
+ *
+ * @author pkv
+ */
+public class SparseOccupancyMapTest {
+
+    /**
+     * Test of addScan method, of class SparseOccupancyMap, against a dense
+     * OccupancyMap covering the same voxels.
+     */
+    @Test
+    public void testMatchesDense() {
+        System.out.println("matchesDense");
+        Random rnd = new Random(8);
+        int count = 5000;
+        double[] pos = { 8.1, 7.9, 4.2 };
+        double[] rays = new double[3 * count];
+        for (int i = 0; i < count; i++) {
+            rays[3 * i] = 3.0 * rnd.nextGaussian();
+            rays[3 * i + 1] = 3.0 * rnd.nextGaussian();
+            rays[3 * i + 2] = 1.5 * rnd.nextGaussian();
+        }
+
+        // Keep every ray inside the dense grid so that nothing is clipped
+        for (int i = 0; i < 3 * count; i++) {
+            double limit = (i % 3 == 2) ? 3.5 : 7.5;
+            rays[i] = Math.max(-limit, Math.min(limit, rays[i]));
+        }
+
+        OccupancyMap dense = new OccupancyMap(32, 32, 16, 0.0, 0.0, 0.0, 0.5);
+        SparseOccupancyMap sparse = new SparseOccupancyMap(0.0, 0.0, 0.0, 0.5);
+        for (int scan = 0; scan < 4; scan++) {
+            dense.addScan(pos, rays, count);
+            sparse.addScan(pos, rays, count);
+        }
+
+        for (int z = 0; z < 16; z++) {
+            for (int y = 0; y < 32; y++) {
+                for (int x = 0; x < 32; x++) {
+                    assertEquals(dense.getMap().get(x, y, z), sparse.getValue(x, y, z));
+                }
+            }
+        }
+        assertEquals(0, (int)sparse.getValue(-1, 0, 0));
+        assertEquals(0, (int)sparse.getValue(100, 100, 100));
+    }
+
+    /**
+     * Test of addScan method, of class SparseOccupancyMap, which should prune
+     * saturated free space into tiles and extend to negative coordinates.
+     */
+    @Test
+    public void testPruning() {
+        System.out.println("pruning");
+        SparseOccupancyMap instance = new SparseOccupancyMap(0.0, 0.0, 0.0, 1.0);
+
+        // Sweep parallel rays along -x through a 5 x 2 x 2 block of leaves
+        double[] ray = { -40.0, 0.0, 0.0 };
+        for (int scan = 0; scan < 10; scan++) {
+            for (int y = 0; y < 16; y++) {
+                for (int z = 0; z < 16; z++) {
+                    instance.addScan(new double[] { 0.5, y + 0.5, z + 0.5 }, ray);
+                }
+            }
+        }
+
+        assertEquals(-40, (int)instance.getValue(-20, 8, 8));
+        assertEquals(-40, (int)instance.getValue(0, 8, 8));
+        assertEquals(70, (int)instance.getValue(-40, 0, 0));
+        assertEquals(0, (int)instance.getValue(1, 8, 8));
+
+        // Only the leaves containing the origins or endpoints remain dense
+        assertEquals(8, instance.getDenseLeafCount());
+        assertEquals(24, instance.getLeafCount());
+    }
+
+    /**
+     * Test of addScan method, of class SparseOccupancyMap, which should prune
+     * a node whose leaves are all saturated free space into a single tile.
+     */
+    @Test
+    public void testNodePruning() throws IOException {
+        System.out.println("nodePruning");
+        SparseOccupancyMap instance = new SparseOccupancyMap(0.0, 0.0, 0.0, 1.0);
+        instance.setLogOdds(0.85, -0.4, -0.4, 3.5);
+        byte free = OccupancyMap.quantize(-0.4);
+        byte hit = OccupancyMap.quantize(0.85);
+
+        // Sweep parallel rays along +x through the whole of the first node
+        int size = SparseOccupancyMap.NODE_SIZE * SparseOccupancyMap.LEAF_SIZE;
+        double[] ray = { size + 2.0, 0.0, 0.0 };
+        for (int y = 0; y < size; y++) {
+            for (int z = 0; z < size; z++) {
+                instance.addScan(new double[] { 0.5, y + 0.5, z + 0.5 }, ray);
+            }
+        }
+
+        // Only the leaves of the second node remain, and they are all dense
+        assertEquals(2, instance.getNodeCount());
+        assertEquals(256, instance.getLeafCount());
+        assertEquals(256, instance.getDenseLeafCount());
+        assertEquals(free, instance.getValue(0, 0, 0));
+        assertEquals(free, instance.getValue(size - 1, size - 1, size - 1));
+        assertEquals(free, instance.getValue(size + 1, 7, 9));
+        assertEquals(hit, instance.getValue(size + 2, 7, 9));
+        assertEquals(0, (int)instance.getValue(size + 3, 7, 9));
+        assertEquals(0, (int)instance.getValue(0, size, 0));
+
+        // Pruned nodes are written as a single tile
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        instance.write(new DataOutputStream(bytes));
+        SparseOccupancyMap copy = SparseOccupancyMap.read(
+                new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+        assertEquals(2, copy.getNodeCount());
+        assertEquals(256, copy.getDenseLeafCount());
+        assertEquals(free, copy.getValue(size - 1, 0, size - 1));
+        assertEquals(hit, copy.getValue(size + 2, 7, 9));
+
+        // Updating a pruned node expands only the leaf that changed
+        instance.addScan(new double[] { 60.5, 64.5, 64.5 }, new double[] { 4.0, 0.0, 0.0 });
+        assertEquals((byte)(free + hit), instance.getValue(64, 64, 64));
+        assertEquals(free, instance.getValue(65, 64, 64));
+        assertEquals(2, instance.getNodeCount());
+        assertEquals(257, instance.getDenseLeafCount());
+        assertEquals(SparseOccupancyMap.NODE_LEAVES + 256, instance.getLeafCount());
+    }
+
+    /**
+     * Test of write and read methods, of class SparseOccupancyMap.
+     */
+    @Test
+    public void testSerialization() throws IOException {
+        System.out.println("serialization");
+        SparseOccupancyMap instance = new SparseOccupancyMap(1.0, 2.0, 3.0, 0.25);
+        Random rnd = new Random(9);
+        double[] rays = new double[3 * 500];
+        for (int i = 0; i < rays.length; i++) {
+            rays[i] = 5.0 * rnd.nextGaussian();
+        }
+        instance.addScan(new double[] { 0.0, 0.0, 0.0 }, rays, 500);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        instance.write(new DataOutputStream(bytes));
+        SparseOccupancyMap copy = SparseOccupancyMap.read(
+                new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+
+        assertEquals(instance.getLeafCount(), copy.getLeafCount());
+        assertEquals(instance.getDenseLeafCount(), copy.getDenseLeafCount());
+        for (int z = -40; z < 40; z++) {
+            for (int y = -40; y < 40; y++) {
+                for (int x = -40; x < 40; x++) {
+                    assertEquals(instance.getValue(x, y, z), copy.getValue(x, y, z));
+                }
+            }
+        }
+
+        ByteArrayOutputStream rewritten = new ByteArrayOutputStream();
+        copy.write(new DataOutputStream(rewritten));
+        assertTrue(Arrays.equals(bytes.toByteArray(), rewritten.toByteArray()));
+    }
+}
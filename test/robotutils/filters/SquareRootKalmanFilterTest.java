@@ -0,0 +1,82 @@
+/*
+ *  The MIT License
+ * 
+ *  Copyright 2010 pkv.
+ * 
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ * 
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ * 
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+
+package robotutils.filters;
+
+import java.util.Random;
+import org.apache.commons.math.linear.LUDecompositionImpl;
+import org.apache.commons.math.linear.MatrixUtils;
+import org.apache.commons.math.linear.RealMatrix;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import static robotutils.filters.FixedKalmanFilterTest.*;
+
+/**
+ * Test harness for SquareRootKalmanFilter.
+ *
+ * @author pkv
+ */
+public class SquareRootKalmanFilterTest {
+
+    /**
+     * Test of predict and update methods, of class SquareRootKalmanFilter, against
+     * the textbook equations.
+     */
+    @Test
+    public void testPredictUpdate() {
+        System.out.println("predictUpdate");
+        Random rnd = new Random(3);
+        int n = 4, m = 3, c = 2;
+
+        RealMatrix x = randomMatrix(rnd, n, 1);
+        RealMatrix P = randomCov(rnd, n);
+        RealMatrix F = randomMatrix(rnd, n, n);
+        RealMatrix Q = randomCov(rnd, n);
+        RealMatrix B = randomMatrix(rnd, n, c);
+        RealMatrix H = randomMatrix(rnd, m, n);
+        RealMatrix R = randomCov(rnd, m);
+
+        SquareRootKalmanFilter instance = new SquareRootKalmanFilter(x, P, F, Q, B, H, R);
+
+        for (int step = 0; step < 5; step++) {
+            RealMatrix u = randomMatrix(rnd, c, 1);
+            RealMatrix z = randomMatrix(rnd, m, 1);
+
+            x = F.multiply(x).add(B.multiply(u));
+            P = F.multiply(P).multiply(F.transpose()).add(Q);
+            instance.predict(u);
+
+            RealMatrix S = H.multiply(P).multiply(H.transpose()).add(R);
+            RealMatrix K = P.multiply(H.transpose()).multiply(new LUDecompositionImpl(S).getSolver().getInverse());
+            x = x.add(K.multiply(z.subtract(H.multiply(x))));
+            P = MatrixUtils.createRealIdentityMatrix(n).subtract(K.multiply(H)).multiply(P);
+            instance.update(z);
+
+            double tol = 1e-8 * (1.0 + P.getNorm() + x.getNorm());
+            assertMatrixEquals(x, flatten(instance.getState()), tol);
+            assertMatrixEquals(P, flatten(instance.getStateCov()), tol);
+            assertMatrixEquals(K, flatten(instance.getKalmanGain()), tol * (1.0 + K.getNorm()));
+        }
+    }
+}
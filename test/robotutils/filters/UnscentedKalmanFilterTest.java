@@ -0,0 +1,107 @@
+/*
+ *  The MIT License
+ * 
+ *  Copyright 2010 pkv.
+ * 
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ * 
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ * 
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+
+package robotutils.filters;
+
+import java.util.Random;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import static robotutils.filters.FixedKalmanFilterTest.*;
+
+/**
+ * Test harness for UnscentedKalmanFilter.
+ *
+ * @author pkv
+ */
+public class UnscentedKalmanFilterTest {
+
+    /**
+     * Test of predict and update methods, of class UnscentedKalmanFilter,
+     * which should match a linear Kalman filter exactly for linear models.
+     */
+    @Test
+    public void testPredictUpdate() {
+        System.out.println("predictUpdate");
+        Random rnd = new Random(4);
+        final int n = 4, m = 2, c = 1;
+
+        final double[] F = flatten(randomMatrix(rnd, n, n));
+        final double[] B = flatten(randomMatrix(rnd, n, c));
+        final double[] H = flatten(randomMatrix(rnd, m, n));
+        double[] Q = flatten(randomCov(rnd, n));
+        double[] R = flatten(randomCov(rnd, m));
+        double[] x = flatten(randomMatrix(rnd, n, 1));
+        double[] P = flatten(randomCov(rnd, n));
+
+        UnscentedKalmanFilter.ProcessModel process = new UnscentedKalmanFilter.ProcessModel() {
+            public void propagate(double[] x, double[] u, double[] result) {
+                MatrixOps.multiplyVector(F, x, result, n, n, false);
+                MatrixOps.multiplyVector(B, u, result, n, c, true);
+            }
+        };
+        UnscentedKalmanFilter.ObservationModel observation = new UnscentedKalmanFilter.ObservationModel() {
+            public void observe(double[] x, double[] result) {
+                MatrixOps.multiplyVector(H, x, result, m, n, false);
+            }
+        };
+
+        for (boolean isParallel : new boolean[] { false, true }) {
+            FixedKalmanFilter expected = new FixedKalmanFilter(x, P, m, c);
+            expected.setProcessModel(F);
+            expected.setProcessNoise(Q);
+            expected.setControlModel(B);
+            expected.setObsModel(H);
+            expected.setObsNoise(R);
+
+            UnscentedKalmanFilter instance = new UnscentedKalmanFilter(x, P, process, observation, m);
+            instance.setProcessNoise(Q);
+            instance.setObsNoise(R);
+            instance.setParameters(1.0, 2.0, 0.0);
+            instance.setParallel(isParallel);
+
+            double[] xExpected = new double[n], xActual = new double[n];
+            double[] PExpected = new double[n * n], PActual = new double[n * n];
+            for (int step = 0; step < 5; step++) {
+                double[] u = { rnd.nextGaussian() };
+                double[] z = { rnd.nextGaussian(), rnd.nextGaussian() };
+
+                expected.predict(u);
+                expected.update(z);
+                instance.predict(u);
+                instance.update(z);
+
+                expected.getState(xExpected);
+                expected.getStateCov(PExpected);
+                instance.getState(xActual);
+                instance.getStateCov(PActual);
+                for (int i = 0; i < n; i++) {
+                    assertEquals(xExpected[i], xActual[i], 1e-8 * (1.0 + Math.abs(xExpected[i])));
+                }
+                for (int i = 0; i < n * n; i++) {
+                    assertEquals(PExpected[i], PActual[i], 1e-8 * (1.0 + Math.abs(PExpected[i])));
+                }
+            }
+        }
+    }
+}
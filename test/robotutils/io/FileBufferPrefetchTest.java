@@ -0,0 +1,65 @@
+/*
+ *  The MIT License
+ * 
+ *  Copyright 2010 pkv.
+ * 
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ * 
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ * 
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+
+package robotutils.io;
+
+import java.io.File;
+import java.util.Map;
+import org.junit.Test;
+import robotutils.data.FileBuffer;
+import static org.junit.Assert.*;
+
+/**
+ * Test harness for using FileBuffer prefetch iterators from outside the
+ * robotutils.data package.
+ *
+ * @author pkv
+ */
+public class FileBufferPrefetchTest {
+
+    /**
+     * Test of prefetchIterator method, of class FileBuffer, closing the
+     * iterator before it reaches the end of the buffer.
+     */
+    @Test
+    public void testClose() throws Exception {
+        System.out.println("close");
+        File file = File.createTempFile("prefetch", ".fb");
+        file.deleteOnExit();
+        FileBuffer.indexFile(file).deleteOnExit();
+
+        FileBuffer<String> buffer = new FileBuffer<String>(file);
+        for (int i = 0; i < 100; i++) {
+            buffer.add("entry" + i);
+        }
+
+        FileBuffer<String>.FileBufferPrefetchIterator it = buffer.prefetchIterator(0, 4);
+        Map.Entry<Long, String> e = it.next();
+        assertEquals("entry0", e.getValue());
+        it.close();
+        assertFalse(it.hasNext());
+
+        buffer.close();
+    }
+}
@@ -0,0 +1,167 @@
+/*
+ *  The MIT License
+ * 
+ *  Copyright 2010 pkv.
+ * 
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ * 
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ * 
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+
+package robotutils.planning;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import org.jgrapht.alg.DijkstraShortestPath;
+import org.jgrapht.graph.DefaultWeightedEdge;
+import org.junit.Test;
+import robotutils.data.CoordUtils;
+import robotutils.data.Coordinate;
+import robotutils.data.GridMapUtils;
+import robotutils.data.IntCoord;
+import robotutils.data.IntCoordMap;
+import robotutils.data.StaticMap;
+import static org.junit.Assert.*;
+
+/**
+ * Test harness for GridAStar, which plans over N-dimensional grid maps.
+ * Path costs are checked against Dijkstra's algorithm over the graph built
+ * by GridMapUtils.toGraph().
+ */
+public class GridAStarTest {
+
+    /**
+     * Creates a map of random costs surrounded by a border of obstacles, with
+     * a wall of obstacles across the middle of the first dimension that can
+     * only be crossed at a single gap.
+     */
+    static StaticMap wallMap(int... sizes) {
+        StaticMap map = new StaticMap(sizes);
+        byte[] data = map.getData();
+        Random rnd = new Random(0);
+
+        int[] idx = new int[sizes.length];
+        for (int v = 0; v < data.length; v++) {
+            int rem = v;
+            boolean blocked = false;
+            boolean gap = true;
+            for (int i = 0; i < sizes.length; i++) {
+                idx[i] = rem % sizes[i];
+                rem /= sizes[i];
+                blocked |= (idx[i] == 0 || idx[i] == sizes[i] - 1);
+                if (i > 0) gap &= (idx[i] == sizes[i] - 2);
+            }
+            blocked |= (idx[0] == sizes[0] / 2 && !gap);
+            data[v] = blocked ? (byte)-1 : (byte)rnd.nextInt(10);
+        }
+
+        return map;
+    }
+
+    /**
+     * Computes the cost of the shortest path between two cells.
+     */
+    static double shortestCost(StaticMap map, IntCoord start, IntCoord goal) {
+        return new DijkstraShortestPath<Coordinate, DefaultWeightedEdge>(GridMapUtils.toGraph(map), start, goal).getPathLength();
+    }
+
+    /**
+     * Checks that a path is a connected sequence of free cells from the start
+     * to the goal, and returns its cost.
+     */
+    static double checkPath(StaticMap map, List<IntCoord> path, IntCoord start, IntCoord goal) {
+        assertFalse(path.isEmpty());
+        assertEquals(start, path.get(0));
+        assertEquals(goal, path.get(path.size() - 1));
+
+        double cost = 0.0;
+        IntCoord prev = null;
+        for (IntCoord s : path) {
+            assertTrue(map.get(s.getInts()) >= 0);
+            if (prev != null) {
+                assertEquals(1.0, CoordUtils.mdist(prev, s), 0.0);
+                cost += (map.get(prev.getInts()) + map.get(s.getInts()))/2.0 + 1.0;
+            }
+            prev = s;
+        }
+
+        return cost;
+    }
+
+    /**
+     * Test of search method over a 2D map, of class GridAStar.
+     */
+    @Test
+    public void testSearch2D() {
+        System.out.println("search2D");
+        StaticMap map = wallMap(12, 10);
+        IntCoord start = new IntCoord(1, 1);
+        IntCoord goal = new IntCoord(10, 2);
+
+        List<IntCoord> path = new GridAStar(map).search(start, goal);
+        assertEquals(shortestCost(map, start, goal), checkPath(map, path, start, goal), 1e-9);
+    }
+
+    /**
+     * Test of search method over a 3D map, of class GridAStar.
+     */
+    @Test
+    public void testSearch3D() {
+        System.out.println("search3D");
+        StaticMap map = wallMap(8, 6, 5);
+        IntCoord start = new IntCoord(1, 1, 1);
+        IntCoord goal = new IntCoord(6, 1, 3);
+
+        List<IntCoord> path = new GridAStar(map).search(start, goal);
+        assertEquals(shortestCost(map, start, goal), checkPath(map, path, start, goal), 1e-9);
+    }
+
+    /**
+     * Test of search method with an unreachable goal, of class GridAStar.
+     */
+    @Test
+    public void testSearchUnreachable() {
+        System.out.println("searchUnreachable");
+        StaticMap map = wallMap(12, 10);
+        map.set((byte)-1, 6, 8);
+
+        List<IntCoord> path = new GridAStar(map).search(new IntCoord(1, 1), new IntCoord(10, 2));
+        assertTrue(path.isEmpty());
+    }
+
+    /**
+     * Test of createScoreMap method, of class GridAStar.
+     */
+    @Test
+    public void testCreateScoreMap() {
+        System.out.println("createScoreMap");
+
+        Map<IntCoord, AStar.Score<IntCoord>> packed = new GridAStar(new StaticMap(4, 4, 4)).createScoreMap();
+        assertTrue(packed instanceof IntCoordMap);
+        assertTrue(packed.isEmpty());
+
+        AStar.Score<IntCoord> score = new AStar.Score<IntCoord>();
+        packed.put(new IntCoord(1, 2, 3), score);
+        assertSame(score, packed.get(new IntCoord(1, 2, 3)));
+        assertNull(packed.get(new IntCoord(3, 2, 1)));
+
+        Map<IntCoord, AStar.Score<IntCoord>> hashed = new GridAStar(new StaticMap(2, 2, 2, 2)).createScoreMap();
+        assertTrue(hashed instanceof HashMap);
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ *  The MIT License
+ * 
+ *  Copyright 2010 pkv.
+ * 
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ * 
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ * 
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+
+package robotutils.planning;
+
+import java.util.List;
+import org.junit.Test;
+import robotutils.data.IntCoord;
+import robotutils.data.StaticMap;
+import static org.junit.Assert.*;
+import static robotutils.planning.GridAStarTest.checkPath;
+import static robotutils.planning.GridAStarTest.shortestCost;
+import static robotutils.planning.GridAStarTest.wallMap;
+
+/**
+ * Test harness for GridDStar, which plans and replans over N-dimensional
+ * grid maps.  Path costs are checked against Dijkstra's algorithm over the
+ * graph built by GridMapUtils.toGraph().
+ */
+public class GridDStarTest {
+
+    /**
+     * Test of plan method over a 2D map, of class GridDStar.
+     */
+    @Test
+    public void testPlan2D() {
+        System.out.println("plan2D");
+        StaticMap map = wallMap(12, 10);
+        IntCoord start = new IntCoord(1, 1);
+        IntCoord goal = new IntCoord(10, 2);
+
+        GridDStar dstar = new GridDStar(map, start, goal);
+        List<IntCoord> path = dstar.plan();
+        assertEquals(shortestCost(map, start, goal), checkPath(map, path, start, goal), 1e-9);
+
+        // Raising the cost of a cell on the path should produce a new optimal path
+        dstar.setCost(path.get(path.size() / 2), (byte)100);
+        path = dstar.plan();
+        assertEquals(shortestCost(map, start, goal), checkPath(map, path, start, goal), 1e-9);
+
+        // Closing the only gap in the wall should leave no path
+        dstar.setCost(new IntCoord(6, 8), (byte)-1);
+        assertTrue(dstar.plan().isEmpty());
+    }
+
+    /**
+     * Test of plan method over a 3D map, of class GridDStar.
+     */
+    @Test
+    public void testPlan3D() {
+        System.out.println("plan3D");
+        StaticMap map = wallMap(8, 6, 5);
+        IntCoord start = new IntCoord(1, 1, 1);
+        IntCoord goal = new IntCoord(6, 1, 3);
+
+        GridDStar dstar = new GridDStar(map, start, goal);
+        List<IntCoord> path = dstar.plan();
+        assertEquals(shortestCost(map, start, goal), checkPath(map, path, start, goal), 1e-9);
+
+        // Moving the start along the path should plan from the new position
+        IntCoord next = path.get(2);
+        dstar.setStart(next);
+        path = dstar.plan();
+        assertEquals(shortestCost(map, next, goal), checkPath(map, path, next, goal), 1e-9);
+    }
+
+    /**
+     * Test of createValueMap method, of class GridDStar.
+     */
+    @Test
+    public void testCreateValueMap() {
+        System.out.println("createValueMap");
+        GridDStar dstar = new GridDStar(new StaticMap(4, 4, 4), new IntCoord(0, 0, 0), new IntCoord(3, 3, 3));
+
+        DStarLite<IntCoord>.ValueMap values = dstar.createValueMap();
+        assertTrue(values instanceof GridDStar.PackedValueMap);
+        assertEquals(Double.POSITIVE_INFINITY, values.get(new IntCoord(1, 2, 3)), 0.0);
+
+        values.put(new IntCoord(1, 2, 3), 4.0);
+        values.put(new IntCoord(-1, 0, 2), 5.0);
+        assertEquals(4.0, values.get(new IntCoord(1, 2, 3)), 0.0);
+        assertEquals(5.0, values.get(new IntCoord(-1, 0, 2)), 0.0);
+        assertEquals(Double.POSITIVE_INFINITY, values.get(new IntCoord(3, 2, 1)), 0.0);
+
+        // Coordinates that cannot be packed are stored separately
+        IntCoord wide = new IntCoord(1 << 22, 0, 0);
+        IntCoord other = new IntCoord(1, 2);
+        values.put(wide, 6.0);
+        values.put(other, 7.0);
+        assertEquals(6.0, values.get(wide), 0.0);
+        assertEquals(7.0, values.get(other), 0.0);
+        assertEquals(Double.POSITIVE_INFINITY, values.get(new IntCoord(0, 0, 0)), 0.0);
+        assertEquals(4.0, values.get(new IntCoord(1, 2, 3)), 0.0);
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ *  The MIT License
+ * 
+ *  Copyright 2010 pkv.
+ * 
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ * 
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ * 
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+
+package robotutils.util;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Test harness for LongDoubleHashMap, an open-addressing map of primitives.
+ */
+public class LongDoubleHashMapTest {
+
+    /**
+     * Test of get and put methods, of class LongDoubleHashMap.
+     */
+    @Test
+    public void testPutGet() {
+        System.out.println("putGet");
+        LongDoubleHashMap map = new LongDoubleHashMap(16, Double.POSITIVE_INFINITY);
+
+        assertTrue(map.isEmpty());
+        assertEquals(Double.POSITIVE_INFINITY, map.get(42L), 0.0);
+        assertFalse(map.containsKey(42L));
+
+        map.put(42L, 1.5);
+        map.put(-7L, -2.5);
+        map.put(0L, 0.0);
+        assertEquals(3, map.size());
+        assertEquals(1.5, map.get(42L), 0.0);
+        assertEquals(-2.5, map.get(-7L), 0.0);
+        assertEquals(0.0, map.get(0L), 0.0);
+        assertTrue(map.containsKey(0L));
+
+        // Replacing a value does not add an entry
+        map.put(42L, 3.5);
+        assertEquals(3, map.size());
+        assertEquals(3.5, map.get(42L), 0.0);
+
+        map.clear();
+        assertTrue(map.isEmpty());
+        assertEquals(Double.POSITIVE_INFINITY, map.get(42L), 0.0);
+    }
+
+    /**
+     * Test of the default value, of class LongDoubleHashMap.
+     */
+    @Test
+    public void testDefault() {
+        System.out.println("default");
+        LongDoubleHashMap map = new LongDoubleHashMap(4, -1.0);
+        assertEquals(-1.0, map.get(Long.MIN_VALUE), 0.0);
+
+        // A stored value equal to the default is still an entry
+        map.put(5L, -1.0);
+        assertTrue(map.containsKey(5L));
+        assertEquals(1, map.size());
+    }
+
+    /**
+     * Test of resizing and removal, of class LongDoubleHashMap.
+     */
+    @Test
+    public void testResize() {
+        System.out.println("resize");
+        LongDoubleHashMap map = new LongDoubleHashMap(1, Double.NaN);
+        Map<Long, Double> expected = new HashMap<Long, Double>();
+        Random rnd = new Random(0);
+
+        // Sequential keys cluster when poorly hashed, random keys do not
+        for (int i = 0; i < 20000; i++) {
+            long key = (i % 2 == 0) ? i : rnd.nextLong();
+            map.put(key, i);
+            expected.put(key, (double)i);
+        }
+        assertEquals(expected.size(), map.size());
+        for (Map.Entry<Long, Double> e : expected.entrySet()) {
+            assertEquals(e.getValue(), map.get(e.getKey()), 0.0);
+        }
+
+        // Removing entries must not hide the rest of their probe sequences
+        int i = 0;
+        for (Long key : expected.keySet().toArray(new Long[0])) {
+            if (i++ % 3 == 0) {
+                assertTrue(map.remove(key));
+                assertFalse(map.remove(key));
+                expected.remove(key);
+            }
+        }
+        assertEquals(expected.size(), map.size());
+        for (Map.Entry<Long, Double> e : expected.entrySet()) {
+            assertEquals(e.getValue(), map.get(e.getKey()), 0.0);
+        }
+    }
+}
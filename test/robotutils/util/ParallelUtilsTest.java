@@ -0,0 +1,75 @@
+/*
+ *  The MIT License
+ * 
+ *  Copyright 2010 pkv.
+ * 
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ * 
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ * 
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+
+package robotutils.util;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Test harness for ParallelUtils, which splits index ranges into chunks.
+ */
+public class ParallelUtilsTest {
+
+    /**
+     * Test of chunks method, of class ParallelUtils.
+     */
+    @Test
+    public void testChunks() {
+        System.out.println("chunks");
+        assertEquals(0, ParallelUtils.chunks(0, 10));
+        assertEquals(1, ParallelUtils.chunks(1, 10));
+        assertEquals(1, ParallelUtils.chunks(10, 10));
+        assertEquals(2, ParallelUtils.chunks(11, 10));
+
+        // Lengths near the largest int must not overflow
+        assertEquals(1, ParallelUtils.chunks(Integer.MAX_VALUE, Integer.MAX_VALUE));
+        assertEquals(2, ParallelUtils.chunks(Integer.MAX_VALUE, 1 << 30));
+        assertEquals(Integer.MAX_VALUE, ParallelUtils.chunks(Integer.MAX_VALUE, 1));
+    }
+
+    /**
+     * Test of forRange method, of class ParallelUtils.
+     */
+    @Test
+    public void testForRange() {
+        System.out.println("forRange");
+        final int length = 10007;
+        final AtomicIntegerArray counts = new AtomicIntegerArray(length);
+
+        ParallelUtils.forRange(length, 100, new ParallelUtils.RangeTask() {
+            public void run(int chunk, int start, int end) {
+                assertEquals(chunk * 100, start);
+                for (int i = start; i < end; i++) {
+                    counts.incrementAndGet(i);
+                }
+            }
+        });
+
+        for (int i = 0; i < length; i++) {
+            assertEquals(1, counts.get(i));
+        }
+    }
+}